@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.compute.post;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Zips synthetic iexec_out trees with the parallel writer and
+ * with a sequential {@link java.util.zip.ZipOutputStream}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelZipWriterBenchmark {
+
+    /**
+     * text: compressible files only, media: already compressed
+     * files only, mixed: both plus many small files.
+     */
+    @Param({"text", "media", "mixed"})
+    private String tree;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    @Param({"1", "6"})
+    private int compressionLevel;
+
+    private Path workDir;
+    private Path iexecOut;
+    private List<Path> files;
+    private ParallelZipWriter zipWriter;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        workDir = Files.createTempDirectory("zip-benchmark-");
+        iexecOut = Files.createDirectories(workDir.resolve("iexec_out"));
+        Random random = new Random(42);
+        switch (tree) {
+            case "text":
+                writeFiles("logs/run-%d.log", 16, 8 * 1024 * 1024, random, false);
+                break;
+            case "media":
+                writeFiles("frames/frame-%d.png", 16, 8 * 1024 * 1024, random, true);
+                break;
+            default:
+                writeFiles("logs/run-%d.log", 4, 8 * 1024 * 1024, random, false);
+                writeFiles("frames/frame-%d.png", 4, 8 * 1024 * 1024, random, true);
+                writeFiles("data/part-%d.csv", 500, 16 * 1024, random, false);
+                break;
+        }
+        try (Stream<Path> paths = Files.walk(iexecOut)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        zipWriter = new ParallelZipWriter(compressionLevel, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        zipWriter.shutdown();
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Path parallelZip() throws IOException {
+        Path zipFile = workDir.resolve("parallel.zip");
+        zipWriter.zip(iexecOut, zipFile);
+        return zipFile;
+    }
+
+    @Benchmark
+    public Path sequentialZip() throws IOException {
+        Path zipFile = workDir.resolve("sequential.zip");
+        zipWriter.zipSequentially(iexecOut, files, zipFile);
+        return zipFile;
+    }
+
+    private void writeFiles(String pattern, int count, int size, Random random,
+                            boolean incompressible) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Path file = iexecOut.resolve(String.format(pattern, i));
+            Files.createDirectories(file.getParent());
+            Files.write(file, incompressible ? randomBytes(size, random) : textBytes(size, random));
+        }
+    }
+
+    private static byte[] randomBytes(int size, Random random) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] textBytes(int size, Random random) {
+        StringBuilder text = new StringBuilder(size + 64);
+        while (text.length() < size) {
+            text.append(random.nextInt(1_000_000)).append(',')
+                    .append(random.nextGaussian()).append(",ok\n");
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.deal;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs the dataset stage of 100 tasks of the same deal, the dataset
+ * being served by a local HTTP server. Each task either downloads and
+ * hashes the dataset on its own or gets it from the deal resources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DealResourceBenchmark {
+
+    private static final int TASKS = 100;
+    private static final String DEAL_ID = "0xdeal";
+    private static final String DATASET_NAME = "dataset.bin";
+
+    @Param({"4", "32"})
+    private int datasetSizeMb;
+
+    @Param({"4"})
+    private int parallelTasks;
+
+    private byte[] dataset;
+    private HttpServer datasetServer;
+    private String datasetUrl;
+    private ExecutorService executor;
+    private Path workDir;
+    private DealResourceRegistry registry;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        dataset = new byte[datasetSizeMb * 1024 * 1024];
+        new Random(42).nextBytes(dataset);
+        datasetServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        datasetServer.setExecutor(Executors.newFixedThreadPool(parallelTasks));
+        datasetServer.createContext("/" + DATASET_NAME, exchange -> {
+            exchange.sendResponseHeaders(200, dataset.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(dataset);
+            }
+        });
+        datasetServer.start();
+        datasetUrl = "http://127.0.0.1:" + datasetServer.getAddress().getPort() + "/" + DATASET_NAME;
+        executor = Executors.newFixedThreadPool(parallelTasks);
+    }
+
+    @Setup(Level.Invocation)
+    public void createWorkDir() throws IOException {
+        workDir = Files.createTempDirectory("deal-benchmark-");
+        registry = new DealResourceRegistry(workDir.resolve(DealResourceService.DEALS_FOLDER));
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteWorkDir() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        executor.shutdownNow();
+        datasetServer.stop(0);
+    }
+
+    @Benchmark
+    public List<String> downloadPerTask() throws Exception {
+        return runTasks(chainTaskId -> download(getInputDir(chainTaskId)));
+    }
+
+    @Benchmark
+    public List<String> shareInDeal() throws Exception {
+        return runTasks(chainTaskId -> {
+            SharedDataset shared = registry.share(DEAL_ID, chainTaskId, "dataset",
+                    dealDir -> Optional.of(new SharedDataset(
+                            dealDir.resolve(DATASET_NAME), download(dealDir))))
+                    .orElseThrow();
+            Files.createLink(getInputDir(chainTaskId).resolve(DATASET_NAME), shared.path);
+            return shared.sha256;
+        });
+    }
+
+    private List<String> runTasks(TaskStage stage) throws InterruptedException, ExecutionException {
+        List<Future<String>> tasks = new ArrayList<>();
+        for (int i = 0; i < TASKS; i++) {
+            String chainTaskId = "0x" + i;
+            tasks.add(executor.submit(() -> stage.run(chainTaskId)));
+        }
+        List<String> digests = new ArrayList<>();
+        for (Future<String> task : tasks) {
+            digests.add(task.get());
+        }
+        for (int i = 0; i < TASKS; i++) {
+            registry.release("0x" + i);
+        }
+        return digests;
+    }
+
+    private Path getInputDir(String chainTaskId) throws IOException {
+        return Files.createDirectories(workDir.resolve(chainTaskId).resolve("input"));
+    }
+
+    /**
+     * Download the dataset in the given folder and hash it on the fly.
+     */
+    private String download(Path dir) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(datasetUrl).openConnection();
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(connection.getInputStream(), digest)) {
+                Files.copy(in, dir.resolve(DATASET_NAME));
+            }
+            return Numeric.toHexString(digest.digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class SharedDataset {
+
+        private final Path path;
+        private final String sha256;
+
+        private SharedDataset(Path path, String sha256) {
+            this.path = path;
+            this.sha256 = sha256;
+        }
+    }
+
+    @FunctionalInterface
+    private interface TaskStage {
+        String run(String chainTaskId) throws Exception;
+    }
+}
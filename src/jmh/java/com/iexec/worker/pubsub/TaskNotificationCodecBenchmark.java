@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.pubsub;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.iexec.common.chain.WorkerpoolAuthorization;
+import com.iexec.common.notification.TaskNotification;
+import com.iexec.common.notification.TaskNotificationExtra;
+import com.iexec.common.notification.TaskNotificationType;
+import com.iexec.common.security.Signature;
+import com.iexec.common.utils.BytesUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a task notification frame with the STOMP client converter,
+ * the notification being encoded in JSON or CBOR. The size of the
+ * encoded notification is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TaskNotificationCodecBenchmark {
+
+    private static final String CHAIN_TASK_ID =
+            "0xd94b63fc2d3ec4b96daf84b403bbafdc8c8517e8e2addd51fec0fa4e67801be8";
+
+    @Param({"json", "cbor"})
+    private String encoding;
+
+    @Param({"1", "20"})
+    private int workers;
+
+    private MessageConverter converter;
+    private Message<byte[]> frame;
+
+    @Setup(Level.Trial)
+    public void encode() throws JsonProcessingException {
+        List<String> workersAddress = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            workersAddress.add(String.format("0x%040x", i));
+        }
+        Signature signature = new Signature(
+                BytesUtils.stringToBytes("0x99f6b19da6aeb2133763a11204b9895c5b7d0478d08ae3d889a6bd6c820b612f"),
+                BytesUtils.stringToBytes("0x0b64b1f9ceb8472f4944da55d3b75947a04618bae5ddd57a7a2a2d14c3802b7e"),
+                new byte[]{(byte) 27});
+        TaskNotification notification = TaskNotification.builder()
+                .chainTaskId(CHAIN_TASK_ID)
+                .workersAddress(workersAddress)
+                .taskNotificationType(TaskNotificationType.PLEASE_CONTRIBUTE)
+                .taskNotificationExtra(TaskNotificationExtra.builder()
+                        .workerpoolAuthorization(WorkerpoolAuthorization.builder()
+                                .workerWallet("0x748e091bf16048cb5103E0E10F9D5a8b7fBDd860")
+                                .chainTaskId(CHAIN_TASK_ID)
+                                .enclaveChallenge("0x9a43BB008b7A657e1936ebf5d8e28e5c5E021596")
+                                .signature(signature)
+                                .build())
+                        .build())
+                .build();
+        boolean cbor = "cbor".equals(encoding);
+        MimeType contentType = cbor ? StompClient.APPLICATION_CBOR : MimeTypeUtils.APPLICATION_JSON;
+        byte[] payload = (cbor ? Jackson2ObjectMapperBuilder.cbor() : Jackson2ObjectMapperBuilder.json())
+                .build()
+                .writeValueAsBytes(notification);
+        frame = MessageBuilder.withPayload(payload)
+                .setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+                .build();
+        converter = StompClient.createMessageConverter();
+        System.out.printf("%n[encoding:%s, workers:%d, bytesPerNotification:%d]%n",
+                encoding, workers, payload.length);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return converter.fromMessage(frame, TaskNotification.class);
+    }
+}
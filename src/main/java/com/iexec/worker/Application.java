@@ -31,12 +31,8 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.openfeign.EnableFeignClients;
-import org.springframework.context.annotation.Bean;
 import org.springframework.retry.annotation.EnableRetry;
-import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.annotation.EnableScheduling;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.util.StringUtils;
 
 import java.util.List;
@@ -44,7 +40,6 @@ import java.util.List;
 
 @SpringBootApplication
 @EnableFeignClients
-@EnableScheduling
 @EnableRetry
 @EnableAsync
 @Slf4j
@@ -72,19 +67,6 @@ public class Application implements CommandLineRunner {
         SpringApplication.run(Application.class, args);
     }
 
-    /**
-     * IMPORTANT: By default the size of the ThreadPool that is managing all the @Scheduled methods is 1.
-     * For us this is a problem since we want those methods to run in different threads in parallel, so we need to
-     * declare this method to set the size of the ThreadPoolTaskScheduler. If an @Scheduled method is added in the
-     * project, the pool size should be increased.
-     */
-    @Bean
-    public TaskScheduler taskScheduler() {
-        final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
-        scheduler.setPoolSize(2);
-        return scheduler;
-    }
-
     @Override
     public void run(String... args) {
         String workerAddress = credentialsService.getCredentials().getAddress();
@@ -18,12 +18,16 @@ package com.iexec.worker;
 
 import com.iexec.worker.config.CoreConfigurationService;
 import com.iexec.worker.feign.CustomCoreFeignClient;
+import com.iexec.worker.utils.PeriodicJobScheduler;
 import com.iexec.worker.worker.WorkerService;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.time.LocalTime;
 
 @Slf4j
@@ -35,16 +39,32 @@ public class PingService {
     private final CustomCoreFeignClient customCoreFeignClient;
     private final CoreConfigurationService coreConfigurationService;
     private final WorkerService workerService;
+    private final PeriodicJobScheduler scheduler;
 
     public PingService(CustomCoreFeignClient customCoreFeignClient,
                        CoreConfigurationService coreConfigurationService,
-                       WorkerService workerService) {
+                       WorkerService workerService,
+                       MeterRegistry meterRegistry) {
         this.customCoreFeignClient = customCoreFeignClient;
         this.coreConfigurationService = coreConfigurationService;
         this.workerService = workerService;
+        this.scheduler = new PeriodicJobScheduler("ping", meterRegistry);
+    }
+
+    /**
+     * Ping the core on a dedicated thread, so that pings are
+     * not delayed by the other periodic jobs of the worker.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        scheduler.scheduleAtFixedRate(this::pingScheduler, PING_RATE * 1000L);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdown();
     }
 
-    @Scheduled(fixedRate = PING_RATE * 1000)
     public void pingScheduler() {
         String sessionId = customCoreFeignClient.ping();
         // log once an hour
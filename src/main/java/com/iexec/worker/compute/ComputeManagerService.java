@@ -28,12 +28,16 @@ import com.iexec.worker.compute.post.PostComputeService;
 import com.iexec.worker.compute.pre.PreComputeResponse;
 import com.iexec.worker.compute.pre.PreComputeService;
 import com.iexec.worker.config.WorkerConfigurationService;
+import com.iexec.worker.deal.DealResourceService;
 import com.iexec.worker.docker.DockerService;
 import com.iexec.worker.result.ResultService;
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.util.Optional;
 
 
 @Slf4j
@@ -41,6 +45,7 @@ import java.io.File;
 public class ComputeManagerService {
 
     private static final String STDOUT_FILENAME = "stdout.txt";
+    static final String APP_RESOURCE = "app";
 
     private final DockerService dockerService;
     private final PreComputeService preComputeService;
@@ -48,6 +53,8 @@ public class ComputeManagerService {
     private final PostComputeService postComputeService;
     private final WorkerConfigurationService workerConfigService;
     private final ResultService resultService;
+    private final TransferScheduler transferScheduler;
+    private final DealResourceService dealResourceService;
 
     public ComputeManagerService(
             DockerService dockerService,
@@ -55,7 +62,9 @@ public class ComputeManagerService {
             AppComputeService appComputeService,
             PostComputeService postComputeService,
             WorkerConfigurationService workerConfigService,
-            ResultService resultService
+            ResultService resultService,
+            TransferScheduler transferScheduler,
+            DealResourceService dealResourceService
     ) {
         this.dockerService = dockerService;
         this.preComputeService = preComputeService;
@@ -63,6 +72,8 @@ public class ComputeManagerService {
         this.postComputeService = postComputeService;
         this.workerConfigService = workerConfigService;
         this.resultService = resultService;
+        this.transferScheduler = transferScheduler;
+        this.dealResourceService = dealResourceService;
     }
 
     public boolean downloadApp(TaskDescription taskDescription) {
@@ -74,8 +85,25 @@ public class ComputeManagerService {
         if (!isDockerType || taskDescription.getAppUri() == null) {
             return false;
         }
-        return dockerService.getClient(taskDescription.getAppUri())
-                .pullImage(taskDescription.getAppUri());
+        // pulled once for all the tasks of the deal, unless the image was removed since
+        return dealResourceService.share(taskDescription.getChainTaskId(), APP_RESOURCE,
+                dealDir -> pullApp(taskDescription) ? Optional.of(true) : Optional.<Boolean>empty(),
+                pulled -> isAppDownloaded(taskDescription.getAppUri()))
+                .orElse(false);
+    }
+
+    private boolean pullApp(TaskDescription taskDescription) {
+        // docker daemon does the transfer, only the slot is scheduled
+        try (TransferScheduler.Slot slot = transferScheduler.acquire(
+                TransferType.APP_PULL, taskDescription.getChainTaskId())) {
+            return dockerService.getClient(taskDescription.getAppUri())
+                    .pullImage(taskDescription.getAppUri());
+        } catch (InterruptedException e) {
+            log.warn("App download cancelled [chainTaskId:{}, appUri:{}]",
+                    taskDescription.getChainTaskId(), taskDescription.getAppUri());
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     public boolean isAppDownloaded(String imageUri) {
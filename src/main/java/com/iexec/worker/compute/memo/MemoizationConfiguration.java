@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.compute.memo;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Settings of the memoization of standard task results.
+ */
+@Getter
+@Configuration
+public class MemoizationConfiguration {
+
+    /**
+     * Reuse the result of a previous identical standard task
+     * instead of running the app again.
+     */
+    @Value("${memoization.enabled}")
+    private boolean enabled;
+
+    /**
+     * Maximum number of memoized results kept on disk, the least
+     * recently used ones are removed first.
+     */
+    @Value("${memoization.max-entries}")
+    private int maxEntries;
+
+    /**
+     * Image names of apps whose results must never be reused,
+     * with or without tag.
+     */
+    @Value("${memoization.non-deterministic-apps}")
+    private List<String> nonDeterministicApps;
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.compute.memo;
+
+import com.iexec.common.task.TaskDescription;
+import com.iexec.common.utils.FileHelper;
+import com.iexec.common.utils.HashUtils;
+import com.iexec.common.utils.IexecEnvUtils;
+import com.iexec.worker.config.WorkerConfigurationService;
+import com.iexec.worker.docker.DockerService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Service;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reuse the iexec_out folder of a previous standard task having the
+ * same app image, cmd, dataset, input files and environment, instead
+ * of running the app again.
+ * <p>
+ * Memoized results are stored in a hidden folder of the worker base
+ * directory, one folder per key. TEE tasks and apps declared as
+ * non-deterministic are never memoized.
+ */
+@Slf4j
+@Service
+public class ResultMemoizationService {
+
+    public static final String MEMOIZATION_FOLDER = ".memoization";
+
+    private final WorkerConfigurationService workerConfigService;
+    private final DockerService dockerService;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final List<String> nonDeterministicApps;
+
+    public ResultMemoizationService(WorkerConfigurationService workerConfigService,
+                                    DockerService dockerService,
+                                    MemoizationConfiguration memoizationConfig) {
+        this.workerConfigService = workerConfigService;
+        this.dockerService = dockerService;
+        this.enabled = memoizationConfig.isEnabled();
+        this.maxEntries = Math.max(1, memoizationConfig.getMaxEntries());
+        this.nonDeterministicApps = memoizationConfig.getNonDeterministicApps() != null
+                ? memoizationConfig.getNonDeterministicApps().stream()
+                        .filter(StringUtils::isNotBlank)
+                        .map(app -> getImageName(app.trim()))
+                        .collect(Collectors.toList())
+                : List.of();
+    }
+
+    /**
+     * Compute the memoization key of a task. It must be computed once
+     * input files are downloaded and before the app runs.
+     *
+     * @param taskDescription
+     * @return the key, empty if the task result must not be memoized
+     */
+    public Optional<String> getKey(TaskDescription taskDescription) {
+        String chainTaskId = taskDescription.getChainTaskId();
+        if (!enabled || taskDescription.isTeeTask()) {
+            return Optional.empty();
+        }
+        String appUri = taskDescription.getAppUri();
+        if (StringUtils.isEmpty(appUri) || nonDeterministicApps.contains(getImageName(appUri))) {
+            log.debug("App excluded from memoization [chainTaskId:{}, appUri:{}]", chainTaskId, appUri);
+            return Optional.empty();
+        }
+        // resolved image, a tag may point to another image later
+        String imageId = dockerService.getClient().getImageId(appUri);
+        if (StringUtils.isEmpty(imageId)) {
+            log.warn("Cannot resolve app image, result will not be memoized " +
+                    "[chainTaskId:{}, appUri:{}]", chainTaskId, appUri);
+            return Optional.empty();
+        }
+        MessageDigest digest = newSha256Digest();
+        update(digest, "image", imageId);
+        update(digest, "cmd", StringUtils.defaultString(taskDescription.getCmd()));
+        String datasetChecksum = StringUtils.defaultString(taskDescription.getDatasetChecksum());
+        update(digest, "dataset", datasetChecksum);
+        // the app may read any of these variables
+        IexecEnvUtils.getComputeStageEnvList(taskDescription).stream()
+                .sorted()
+                .forEach(env -> update(digest, "env", env));
+        Path inputDir = Paths.get(workerConfigService.getTaskInputDir(chainTaskId));
+        try {
+            for (Path file : listFiles(inputDir)) {
+                String name = inputDir.relativize(file).toString();
+                // dataset checksum already verified against the downloaded file
+                if (!datasetChecksum.isEmpty() && name.equals(taskDescription.getDatasetName())) {
+                    continue;
+                }
+                update(digest, "input", name + "=" + HashUtils.sha256(file.toFile()));
+            }
+        } catch (IOException e) {
+            log.warn("Cannot hash input files, result will not be memoized " +
+                    "[chainTaskId:{}]", chainTaskId, e);
+            return Optional.empty();
+        }
+        return Optional.of(Numeric.toHexStringNoPrefix(digest.digest()));
+    }
+
+    /**
+     * Replace the iexec_out folder of a task with a memoized one.
+     *
+     * @param chainTaskId
+     * @param key memoization key of the task
+     * @return true if a memoized result was found and restored
+     */
+    public boolean restore(String chainTaskId, String key) {
+        Path memoizedResult = getMemoizationDir().resolve(key);
+        if (!Files.isDirectory(memoizedResult)) {
+            return false;
+        }
+        Path iexecOut = Paths.get(workerConfigService.getTaskIexecOutDir(chainTaskId));
+        try {
+            FileHelper.deleteFolder(iexecOut.toString());
+            copyFolder(memoizedResult, iexecOut);
+            // least recently used results are evicted first
+            Files.setLastModifiedTime(memoizedResult, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.warn("Cannot restore memoized result [chainTaskId:{}, key:{}]", chainTaskId, key, e);
+            FileHelper.deleteFolder(iexecOut.toString());
+            return false;
+        }
+        log.info("Memoized result restored [chainTaskId:{}, key:{}]", chainTaskId, key);
+        return true;
+    }
+
+    /**
+     * Keep a copy of the iexec_out folder of a task which has
+     * successfully been computed.
+     *
+     * @param chainTaskId
+     * @param key memoization key computed before the app ran
+     */
+    public void memoize(String chainTaskId, String key) {
+        Path memoizationDir = getMemoizationDir();
+        Path memoizedResult = memoizationDir.resolve(key);
+        if (Files.isDirectory(memoizedResult)) {
+            return;
+        }
+        Path tmp = memoizationDir.resolve(key + ".tmp-" + System.nanoTime());
+        try {
+            copyFolder(Paths.get(workerConfigService.getTaskIexecOutDir(chainTaskId)), tmp);
+            // readers never see a partial copy
+            Files.move(tmp, memoizedResult, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Result memoized [chainTaskId:{}, key:{}]", chainTaskId, key);
+        } catch (IOException e) {
+            log.warn("Cannot memoize result [chainTaskId:{}, key:{}]", chainTaskId, key, e);
+        } finally {
+            FileHelper.deleteFolder(tmp.toString());
+        }
+        evict();
+    }
+
+    private void evict() {
+        List<Path> memoizedResults;
+        try (Stream<Path> folders = Files.list(getMemoizationDir())) {
+            memoizedResults = folders
+                    .filter(folder -> !folder.getFileName().toString().contains(".tmp-"))
+                    .sorted(Comparator.comparingLong(this::getLastModifiedTime).reversed())
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            log.warn("Cannot list memoized results", e);
+            return;
+        }
+        for (Path memoizedResult : memoizedResults.subList(
+                Math.min(maxEntries, memoizedResults.size()), memoizedResults.size())) {
+            FileHelper.deleteFolder(memoizedResult.toString());
+            log.debug("Memoized result evicted [key:{}]", memoizedResult.getFileName());
+        }
+    }
+
+    private Path getMemoizationDir() {
+        return Paths.get(workerConfigService.getWorkerBaseDir(), MEMOIZATION_FOLDER);
+    }
+
+    private long getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static List<Path> listFiles(Path folder) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            return files.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparing(file -> folder.relativize(file).toString()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void copyFolder(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()),
+                        StandardCopyOption.REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return the image name without tag nor digest
+     */
+    static String getImageName(String imageUri) {
+        String name = StringUtils.substringBefore(imageUri, "@");
+        int tagSeparator = name.lastIndexOf(':');
+        return tagSeparator > name.lastIndexOf('/') ? name.substring(0, tagSeparator) : name;
+    }
+
+    private static void update(MessageDigest digest, String field, String value) {
+        // length prefixed so that fields cannot be confused
+        byte[] bytes = (field + ":" + value).getBytes(StandardCharsets.UTF_8);
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '|');
+        digest.update(bytes);
+    }
+
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.compute.post;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Zips a folder by compressing its files concurrently and
+ * appending them to the archive in a stable (sorted) order.
+ * Files which are already compressed, detected by their
+ * extension or by sampling their entropy, are stored as is.
+ * <p>
+ * Entries are written with their sizes and CRC in the local
+ * header so the archive can be read by any zip tool. Folders
+ * too large for a classic zip are zipped sequentially with
+ * {@link ZipOutputStream} which handles Zip64.
+ */
+@Slf4j
+public class ParallelZipWriter {
+
+    static final Set<String> INCOMPRESSIBLE_EXTENSIONS = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "txz", "7z", "rar", "zst", "lz4", "br",
+            "jar", "docx", "xlsx", "pptx", "odt", "epub",
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp3", "aac", "ogg", "opus", "flac", "mp4", "m4a", "mkv", "webm", "avi", "mov");
+    static final int ENTROPY_SAMPLE_SIZE = 64 * 1024;
+    static final double INCOMPRESSIBLE_ENTROPY_BITS = 7.5;
+    private static final int MIN_ENTROPY_SAMPLE_SIZE = 4 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_IN_MEMORY_ENTRY_SIZE = 8 * 1024 * 1024;
+    // keep a margin below 4GiB for headers and deflate overhead
+    private static final long MAX_ZIP_SIZE = 0xFFFFFFFFL - 64 * 1024 * 1024;
+    private static final int MAX_ZIP_ENTRIES = 0xFFFF;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final short ZIP_VERSION = 20;
+    private static final short UTF8_NAMES_FLAG = 0x0800;
+
+    private final int compressionLevel;
+    private final int maxPendingEntries;
+    private final ExecutorService executor;
+
+    /**
+     * @param compressionLevel deflate level from 0 (store everything) to 9
+     * @param threads number of compressing threads, available
+     *                processors if lower than 1
+     */
+    public ParallelZipWriter(int compressionLevel, int threads) {
+        if (compressionLevel < Deflater.NO_COMPRESSION
+                || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.compressionLevel = compressionLevel;
+        this.maxPendingEntries = 2 * poolSize;
+        this.executor = Executors.newFixedThreadPool(poolSize,
+                new CustomizableThreadFactory("zip-"));
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Zip all regular files of a folder, entries being named
+     * relatively to this folder. The archive is written next
+     * to its destination and moved there once complete.
+     *
+     * @param sourceDir folder to zip
+     * @param zipFile   zip file to create or replace
+     * @throws IOException if the folder cannot be read or the
+     *                     archive cannot be written
+     */
+    public void zip(Path sourceDir, Path zipFile) throws IOException {
+        List<Path> files;
+        try (Stream<Path> tree = Files.walk(sourceDir)) {
+            files = tree.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparing(file -> getEntryName(sourceDir, file)))
+                    .collect(Collectors.toList());
+        }
+        long totalSize = 0;
+        for (Path file : files) {
+            totalSize += Files.size(file);
+        }
+        Path tmpZipFile = zipFile.resolveSibling(zipFile.getFileName() + ".tmp");
+        if (files.size() >= MAX_ZIP_ENTRIES || totalSize >= MAX_ZIP_SIZE) {
+            log.info("Folder too large for a parallel zip, zipping sequentially " +
+                    "[folder:{}, files:{}, size:{}]", sourceDir, files.size(), totalSize);
+            zipSequentially(sourceDir, files, tmpZipFile);
+        } else {
+            zipInParallel(sourceDir, files, tmpZipFile);
+        }
+        Files.move(tmpZipFile, zipFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void zipInParallel(Path sourceDir, List<Path> files, Path tmpZipFile)
+            throws IOException {
+        Path spillDir = Files.createTempDirectory(tmpZipFile.getParent(), "zip-parts-");
+        Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+        try (FileChannel out = FileChannel.open(tmpZipFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            List<CentralDirectoryRecord> records = new ArrayList<>();
+            int next = 0;
+            while (next < files.size() || !pending.isEmpty()) {
+                // compress ahead while the oldest entry is being written
+                while (next < files.size() && pending.size() < maxPendingEntries) {
+                    Path file = files.get(next++);
+                    pending.add(executor.submit(() -> compress(sourceDir, file, spillDir)));
+                }
+                CompressedEntry entry = await(pending.poll());
+                try {
+                    records.add(writeEntry(out, entry));
+                } finally {
+                    entry.discard();
+                }
+            }
+            writeCentralDirectory(out, records);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpZipFile);
+            throw e;
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+            deleteFolder(spillDir);
+        }
+    }
+
+    void zipSequentially(Path sourceDir, List<Path> files, Path zipFile) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            out.setLevel(compressionLevel);
+            for (Path file : files) {
+                out.putNextEntry(new ZipEntry(getEntryName(sourceDir, file)));
+                Files.copy(file, out);
+                out.closeEntry();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(zipFile);
+            throw e;
+        }
+    }
+
+    private CompressedEntry await(Future<CompressedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while zipping");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to compress zip entry", e.getCause());
+        }
+    }
+
+    private CompressedEntry compress(Path sourceDir, Path file, Path spillDir)
+            throws IOException {
+        String name = getEntryName(sourceDir, file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        if (compressionLevel == Deflater.NO_COMPRESSION || isIncompressible(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+            return CompressedEntry.stored(name, modified, crc.getValue(), size, file);
+        }
+        SpillingBuffer compressed = new SpillingBuffer(spillDir);
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException e) {
+            compressed.discard();
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        if (compressed.size() >= size) {
+            // compression did not pay off
+            compressed.discard();
+            return CompressedEntry.stored(name, modified, crc.getValue(), size, file);
+        }
+        return CompressedEntry.deflated(name, modified, crc.getValue(), size, compressed);
+    }
+
+    /**
+     * A file is considered incompressible when its extension
+     * belongs to a compressed format or when the Shannon entropy
+     * of its first bytes is close to 8 bits per byte.
+     */
+    static boolean isIncompressible(Path file) throws IOException {
+        String filename = file.getFileName().toString();
+        int dot = filename.lastIndexOf('.');
+        if (dot >= 0 && INCOMPRESSIBLE_EXTENSIONS.contains(
+                filename.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return true;
+        }
+        byte[] sample;
+        try (InputStream in = Files.newInputStream(file)) {
+            sample = in.readNBytes(ENTROPY_SAMPLE_SIZE);
+        }
+        if (sample.length < MIN_ENTROPY_SAMPLE_SIZE) {
+            return false;
+        }
+        return getEntropy(sample) > INCOMPRESSIBLE_ENTROPY_BITS;
+    }
+
+    static double getEntropy(byte[] sample) {
+        int[] counts = new int[256];
+        for (byte b : sample) {
+            counts[b & 0xff]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double probability = (double) count / sample.length;
+                entropy -= probability * Math.log(probability) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    private CentralDirectoryRecord writeEntry(FileChannel out, CompressedEntry entry)
+            throws IOException {
+        long offset = out.position();
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = newBuffer(30 + name.length)
+                .putInt(LOCAL_HEADER_SIGNATURE)
+                .putShort(ZIP_VERSION)
+                .putShort(UTF8_NAMES_FLAG)
+                .putShort((short) entry.method)
+                .putInt((int) toDosTime(entry.modified))
+                .putInt((int) entry.crc)
+                .putInt((int) entry.compressedSize)
+                .putInt((int) entry.size)
+                .putShort((short) name.length)
+                .putShort((short) 0)
+                .put(name);
+        writeFully(out, header.flip());
+        if (entry.bytes != null) {
+            writeFully(out, ByteBuffer.wrap(entry.bytes));
+        } else {
+            try (FileChannel in = FileChannel.open(entry.file, StandardOpenOption.READ)) {
+                long position = 0;
+                while (position < entry.compressedSize) {
+                    position += in.transferTo(position, entry.compressedSize - position, out);
+                }
+            }
+        }
+        return new CentralDirectoryRecord(entry, name, offset);
+    }
+
+    private void writeCentralDirectory(FileChannel out, List<CentralDirectoryRecord> records)
+            throws IOException {
+        long start = out.position();
+        for (CentralDirectoryRecord record : records) {
+            CompressedEntry entry = record.entry;
+            ByteBuffer header = newBuffer(46 + record.name.length)
+                    .putInt(CENTRAL_HEADER_SIGNATURE)
+                    .putShort(ZIP_VERSION)
+                    .putShort(ZIP_VERSION)
+                    .putShort(UTF8_NAMES_FLAG)
+                    .putShort((short) entry.method)
+                    .putInt((int) toDosTime(entry.modified))
+                    .putInt((int) entry.crc)
+                    .putInt((int) entry.compressedSize)
+                    .putInt((int) entry.size)
+                    .putShort((short) record.name.length)
+                    .putShort((short) 0) // extra field length
+                    .putShort((short) 0) // comment length
+                    .putShort((short) 0) // disk number
+                    .putShort((short) 0) // internal attributes
+                    .putInt(0) // external attributes
+                    .putInt((int) record.offset)
+                    .put(record.name);
+            writeFully(out, header.flip());
+        }
+        long size = out.position() - start;
+        ByteBuffer end = newBuffer(22)
+                .putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) records.size())
+                .putShort((short) records.size())
+                .putInt((int) size)
+                .putInt((int) start)
+                .putShort((short) 0);
+        writeFully(out, end.flip());
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * MS-DOS date (high 16 bits) and time (low 16 bits) used in
+     * zip headers, dates before 1980 are not representable.
+     */
+    static long toDosTime(long epochMillis) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis),
+                ZoneId.systemDefault());
+        if (date.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (date.getYear() - 1980L) << 25
+                | (long) date.getMonthValue() << 21
+                | (long) date.getDayOfMonth() << 16
+                | (long) date.getHour() << 11
+                | (long) date.getMinute() << 5
+                | (long) date.getSecond() >> 1;
+    }
+
+    private static String getEntryName(Path sourceDir, Path file) {
+        return sourceDir.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static void deleteFolder(Path folder) {
+        try (Stream<Path> tree = Files.walk(folder)) {
+            tree.sorted(Comparator.reverseOrder())
+                    .forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Failed to delete zip parts folder [folder:{}]", folder, e);
+        }
+    }
+
+    private static class CompressedEntry {
+        private final String name;
+        private final int method;
+        private final long modified;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        // compressed data, either in memory or in a file
+        private final byte[] bytes;
+        private final Path file;
+        private final boolean isTemporary;
+
+        private CompressedEntry(String name, int method, long modified, long crc, long size,
+                                long compressedSize, byte[] bytes, Path file,
+                                boolean isTemporary) {
+            this.name = name;
+            this.method = method;
+            this.modified = modified;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.bytes = bytes;
+            this.file = file;
+            this.isTemporary = isTemporary;
+        }
+
+        static CompressedEntry stored(String name, long modified, long crc, long size,
+                                      Path file) {
+            return new CompressedEntry(name, ZipEntry.STORED, modified, crc, size, size,
+                    null, file, false);
+        }
+
+        static CompressedEntry deflated(String name, long modified, long crc, long size,
+                                        SpillingBuffer compressed) {
+            return new CompressedEntry(name, ZipEntry.DEFLATED, modified, crc, size,
+                    compressed.size(), compressed.getBytes(), compressed.getFile(), true);
+        }
+
+        void discard() throws IOException {
+            if (isTemporary && file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static class CentralDirectoryRecord {
+        private final CompressedEntry entry;
+        private final byte[] name;
+        private final long offset;
+
+        private CentralDirectoryRecord(CompressedEntry entry, byte[] name, long offset) {
+            this.entry = entry;
+            this.name = name;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Output kept in memory until it grows larger than
+     * {@link #MAX_IN_MEMORY_ENTRY_SIZE}, then spilled to disk.
+     */
+    private static class SpillingBuffer extends OutputStream {
+
+        private final Path spillDir;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path file;
+        private OutputStream fileOut;
+        private long size;
+
+        SpillingBuffer(Path spillDir) {
+            this.spillDir = spillDir;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileOut == null && size + len > MAX_IN_MEMORY_ENTRY_SIZE) {
+                file = Files.createTempFile(spillDir, "entry-", ".deflate");
+                fileOut = Files.newOutputStream(file);
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (fileOut != null) {
+                fileOut.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        byte[] getBytes() {
+            return memory != null ? memory.toByteArray() : null;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        void discard() throws IOException {
+            close();
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
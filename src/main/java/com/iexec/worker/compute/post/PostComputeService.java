@@ -21,7 +21,6 @@ import com.iexec.common.docker.DockerRunResponse;
 import com.iexec.common.task.TaskDescription;
 import com.iexec.common.utils.FileHelper;
 import com.iexec.common.utils.IexecFileHelper;
-import com.iexec.common.worker.result.ResultUtils;
 import com.iexec.worker.compute.TeeWorkflowConfiguration;
 import com.iexec.worker.config.WorkerConfigurationService;
 import com.iexec.worker.docker.DockerService;
@@ -30,6 +29,10 @@ import com.iexec.worker.tee.scone.TeeSconeService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 
@@ -43,25 +46,41 @@ public class PostComputeService {
     private final ResultService resultService;
     private final TeeSconeService teeSconeService;
     private final TeeWorkflowConfiguration teeWorkflowConfig;
+    private final ParallelZipWriter resultZipWriter;
 
     public PostComputeService(
             WorkerConfigurationService workerConfigService,
             DockerService dockerService,
             ResultService resultService,
             TeeSconeService teeSconeService,
-            TeeWorkflowConfiguration teeWorkflowConfig) {
+            TeeWorkflowConfiguration teeWorkflowConfig,
+            ResultZipConfiguration resultZipConfig) {
         this.workerConfigService = workerConfigService;
         this.dockerService = dockerService;
         this.resultService = resultService;
         this.teeSconeService = teeSconeService;
         this.teeWorkflowConfig = teeWorkflowConfig;
+        this.resultZipWriter = new ParallelZipWriter(
+                resultZipConfig.getCompressionLevel(), resultZipConfig.getThreads());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        resultZipWriter.shutdown();
     }
 
     public boolean runStandardPostCompute(TaskDescription taskDescription) {
         String chainTaskId = taskDescription.getChainTaskId();
         // create /output/iexec_out.zip
-        ResultUtils.zipIexecOut(workerConfigService.getTaskIexecOutDir(chainTaskId)
-                , workerConfigService.getTaskOutputDir(chainTaskId));
+        Path iexecOutDir = Path.of(workerConfigService.getTaskIexecOutDir(chainTaskId));
+        Path zipFile = Path.of(workerConfigService.getTaskOutputDir(chainTaskId),
+                iexecOutDir.getFileName() + ".zip");
+        try {
+            resultZipWriter.zip(iexecOutDir, zipFile);
+        } catch (IOException e) {
+            log.error("Failed to zip result [chainTaskId:{}]", chainTaskId, e);
+            return false;
+        }
         // copy /output/iexec_out/computed.json to /output/computed.json to have the same workflow as TEE.
         boolean isCopied = FileHelper.copyFile(
                 workerConfigService.getTaskIexecOutDir(chainTaskId) + IexecFileHelper.SLASH_COMPUTED_JSON,
@@ -70,6 +89,10 @@ public class PostComputeService {
             log.error("Failed to copy computed.json file to /output [chainTaskId:{}]", chainTaskId);
             return false;
         }
+        // compute the digest once, it is computed again later otherwise
+        if (!resultService.saveResultDigest(chainTaskId)) {
+            log.warn("Failed to save result digest in computed.json [chainTaskId:{}]", chainTaskId);
+        }
         // encrypt result if needed
         if (taskDescription.isResultEncryption() && !resultService.encryptResult(chainTaskId)) {
             log.error("Failed to encrypt result [chainTaskId:{}]", chainTaskId);
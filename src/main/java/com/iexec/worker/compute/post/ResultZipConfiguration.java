@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.compute.post;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of the zip built from iexec_out in standard post-compute.
+ */
+@Getter
+@Configuration
+public class ResultZipConfiguration {
+
+    /**
+     * Deflate level from 0 (no compression) to 9 (best compression).
+     * Already compressed files are always stored.
+     */
+    @Value("${result-zip.compression-level}")
+    private int compressionLevel;
+
+    /**
+     * Number of files compressed at the same time, available
+     * processors if lower than 1.
+     */
+    @Value("${result-zip.threads}")
+    private int threads;
+}
@@ -67,6 +67,10 @@ public class WorkerConfigurationService {
     @Getter
     private String dockerNetworkName;
 
+    @Value("${worker.prefetch-enabled}")
+    @Getter
+    private boolean prefetchEnabled;
+
     public WorkerConfigurationService(CredentialsService credentialsService) {
         this.credentialsService = credentialsService;
     }
@@ -168,4 +172,12 @@ public class WorkerConfigurationService {
         String proxyPort = System.getProperty("https.proxyPort");
         return proxyPort != null && !proxyPort.isEmpty() ? Integer.valueOf(proxyPort) : null;
     }
+
+    /**
+     * Hosts reached without proxy, for both http and https, as
+     * "|" separated patterns with "*" wildcards.
+     */
+    public String getHttpNonProxyHosts() {
+        return System.getProperty("http.nonProxyHosts");
+    }
 }
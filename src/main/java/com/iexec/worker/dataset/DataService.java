@@ -18,35 +18,79 @@ package com.iexec.worker.dataset;
 
 import com.iexec.common.replicate.ReplicateStatusCause;
 import com.iexec.common.task.TaskDescription;
-import com.iexec.common.utils.FileHelper;
 import com.iexec.common.utils.HashUtils;
 import com.iexec.common.utils.IexecFileHelper;
 import com.iexec.worker.config.WorkerConfigurationService;
+import com.iexec.worker.deal.DealResourceService;
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
 import com.iexec.worker.utils.WorkflowException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 @Slf4j
 @Service
 public class DataService {
 
+    static final String DATASET_RESOURCE = "dataset";
+
     private final WorkerConfigurationService workerConfigurationService;
+    private final TransferScheduler transferScheduler;
+    private final DealResourceService dealResourceService;
+    private final ExecutorService downloadExecutor;
+    private final FileDownloader fileDownloader;
 
-    public DataService(WorkerConfigurationService workerConfigurationService) {
+    public DataService(WorkerConfigurationService workerConfigurationService,
+                       DownloadConfiguration downloadConfig,
+                       TransferScheduler transferScheduler,
+                       DealResourceService dealResourceService) {
         this.workerConfigurationService = workerConfigurationService;
+        this.transferScheduler = transferScheduler;
+        this.dealResourceService = dealResourceService;
+        this.downloadExecutor = Executors.newFixedThreadPool(
+                Math.max(1, downloadConfig.getMaxParallelDownloads()),
+                new CustomizableThreadFactory("download-"));
+        this.fileDownloader = new FileDownloader(downloadConfig, transferScheduler);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        downloadExecutor.shutdownNow();
+        fileDownloader.shutdown();
     }
 
     /**
      * Download dataset file for the given standard task and save
-     * it in {@link IexecFileHelper#SLASH_IEXEC_IN}.
+     * it in {@link IexecFileHelper#SLASH_IEXEC_IN}. The dataset is
+     * downloaded and hashed once for all the tasks of the deal, then
+     * linked in the input folder of each task.
      * 
      * @param taskDescription
      * @return downloaded dataset file path
@@ -58,30 +102,100 @@ public class DataService {
         String uri = taskDescription.getDatasetUri();
         String filename = taskDescription.getDatasetName();
         String parentDirectoryPath = workerConfigurationService.getTaskInputDir(chainTaskId);
-        String datasetLocalFilePath =
-                downloadFile(chainTaskId, uri, parentDirectoryPath, filename);
-        if (datasetLocalFilePath.isEmpty()) {
+        if (StringUtils.isEmpty(parentDirectoryPath)) {
+            log.error("Failed to download dataset, empty input folder [chainTaskId:{}]", chainTaskId);
             throw new WorkflowException(ReplicateStatusCause.DATASET_FILE_DOWNLOAD_FAILED);
         }
         String expectedSha256 = taskDescription.getDatasetChecksum();
         if (StringUtils.isEmpty(expectedSha256)) {
             log.warn("INSECURE! Cannot check empty on-chain dataset checksum " +
                     "[chainTaskId:{}]", chainTaskId);
-            return datasetLocalFilePath;
         }
-        String actualSha256 = HashUtils.sha256(new File(datasetLocalFilePath));
-        if (!expectedSha256.equals(actualSha256)) {
-            log.error("Dataset checksum mismatch [chainTaskId:{}, " +
-                    "expected:{}, actual:{}]", chainTaskId, expectedSha256,
-                    actualSha256);
-            throw new WorkflowException(ReplicateStatusCause.DATASET_FILE_BAD_CHECKSUM);
+        // set by the loader if this task downloaded a bad dataset
+        AtomicReference<ReplicateStatusCause> failureCause =
+                new AtomicReference<>(ReplicateStatusCause.DATASET_FILE_DOWNLOAD_FAILED);
+        Optional<FileDownloader.DownloadedFile> datasetFile = dealResourceService.share(
+                chainTaskId, DATASET_RESOURCE,
+                dealDir -> downloadAndVerify(chainTaskId, uri, dealDir.toString(), filename,
+                        expectedSha256, failureCause),
+                file -> Files.exists(Paths.get(file.getPath())));
+        if (datasetFile.isEmpty()) {
+            throw new WorkflowException(failureCause.get());
+        }
+        return linkToInputDir(chainTaskId, datasetFile.get().getPath(), parentDirectoryPath);
+    }
+
+    /**
+     * Download the dataset and check it against its on-chain checksum
+     * before it is shared with the other tasks of the deal. A dataset
+     * with a bad checksum is deleted and not shared, so that the next
+     * task of the deal downloads it again.
+     */
+    private Optional<FileDownloader.DownloadedFile> downloadAndVerify(
+            String chainTaskId, String uri, String parentDirectoryPath, String filename,
+            String expectedSha256, AtomicReference<ReplicateStatusCause> failureCause) {
+        Optional<FileDownloader.DownloadedFile> datasetFile =
+                downloadAndHash(chainTaskId, uri, parentDirectoryPath, filename);
+        if (datasetFile.isEmpty() || StringUtils.isEmpty(expectedSha256)
+                || expectedSha256.equals(datasetFile.get().getSha256())) {
+            return datasetFile;
+        }
+        log.error("Dataset checksum mismatch [chainTaskId:{}, " +
+                "expected:{}, actual:{}]", chainTaskId, expectedSha256,
+                datasetFile.get().getSha256());
+        try {
+            Files.deleteIfExists(Paths.get(datasetFile.get().getPath()));
+        } catch (IOException e) {
+            log.warn("Failed to delete bad dataset [chainTaskId:{}]", chainTaskId, e);
         }
-        return datasetLocalFilePath;
+        failureCause.set(ReplicateStatusCause.DATASET_FILE_BAD_CHECKSUM);
+        return Optional.empty();
+    }
+
+    private Optional<FileDownloader.DownloadedFile> downloadAndHash(String chainTaskId, String uri,
+            String parentDirectoryPath, String filename) {
+        // reuse the digest computed while downloading if available
+        return downloadFile(chainTaskId, uri, parentDirectoryPath, filename)
+                .map(file -> file.getSha256() != null
+                        ? file
+                        : new FileDownloader.DownloadedFile(file.getPath(),
+                                HashUtils.sha256(new File(file.getPath()))));
+    }
+
+    /**
+     * Hard link a shared file in the input folder of a task, the
+     * file is copied if it cannot be linked.
+     */
+    private String linkToInputDir(String chainTaskId, String sharedFilePath, String inputDirPath)
+            throws WorkflowException {
+        Path sharedFile = Paths.get(sharedFilePath);
+        Path inputDir = Paths.get(inputDirPath);
+        if (inputDir.equals(sharedFile.getParent())) {
+            return sharedFilePath;
+        }
+        Path taskFile = inputDir.resolve(sharedFile.getFileName());
+        try {
+            Files.createDirectories(inputDir);
+            Files.deleteIfExists(taskFile);
+            try {
+                Files.createLink(taskFile, sharedFile);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(sharedFile, taskFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.error("Failed to add shared dataset to input folder [chainTaskId:{}]", chainTaskId, e);
+            throw new WorkflowException(ReplicateStatusCause.DATASET_FILE_DOWNLOAD_FAILED);
+        }
+        return taskFile.toString();
     }
 
     /**
      * Download input files for the given standard task and save them
-     * in the input folder.
+     * in the input folder. Files are downloaded concurrently, within the
+     * global and per-host limits of {@link DownloadConfiguration}. The
+     * first failed download cancels the remaining ones. Files are saved
+     * under the last segment of their URI, distinct URIs sharing it are
+     * rejected.
      * 
      * @param chainTaskId
      * @param uriList
@@ -93,14 +207,49 @@ public class DataService {
             log.error("Null input files uri list [chainTaskId:{}]", chainTaskId);
             throw new WorkflowException(ReplicateStatusCause.INPUT_FILES_DOWNLOAD_FAILED);
         }
+        // files are saved under their basename, checked before any download
+        // so that concurrent downloads never share a target
+        Map<String, String> uriByFilename = new HashMap<>();
         for (String uri: uriList) {
+            if (StringUtils.isEmpty(uri)) {
+                continue;
+            }
+            String filename = Paths.get(uri).getFileName().toString();
+            String otherUri = uriByFilename.putIfAbsent(filename, uri);
+            if (otherUri != null && !otherUri.equals(uri)) {
+                log.error("Input files with same name [chainTaskId:{}, filename:{}, uri:{}, otherUri:{}]",
+                        chainTaskId, filename, uri, otherUri);
+                throw new WorkflowException(ReplicateStatusCause.INPUT_FILES_DOWNLOAD_FAILED);
+            }
+        }
+        String parenDirectoryPath = workerConfigurationService.getTaskInputDir(chainTaskId);
+        CompletionService<Optional<FileDownloader.DownloadedFile>> completionService =
+                new ExecutorCompletionService<>(downloadExecutor);
+        List<Future<Optional<FileDownloader.DownloadedFile>>> downloads = new ArrayList<>();
+        // same file listed twice is downloaded once
+        for (String uri: new LinkedHashSet<>(uriList)) {
             String filename = !StringUtils.isEmpty(uri)
                     ? Paths.get(uri).getFileName().toString()
                     : "";
-            String parenDirectoryPath = workerConfigurationService.getTaskInputDir(chainTaskId);
-            if (downloadFile(chainTaskId, uri, parenDirectoryPath, filename).isEmpty()) {
-                throw new WorkflowException(ReplicateStatusCause.INPUT_FILES_DOWNLOAD_FAILED);
+            downloads.add(completionService.submit(() ->
+                    downloadFile(chainTaskId, uri, parenDirectoryPath, filename)));
+        }
+        try {
+            for (int i = 0; i < downloads.size(); i++) {
+                if (completionService.take().get().isEmpty()) {
+                    throw new WorkflowException(ReplicateStatusCause.INPUT_FILES_DOWNLOAD_FAILED);
+                }
             }
+        } catch (InterruptedException e) {
+            log.error("Interrupted while downloading input files [chainTaskId:{}]", chainTaskId);
+            Thread.currentThread().interrupt();
+            throw new WorkflowException(ReplicateStatusCause.INPUT_FILES_DOWNLOAD_FAILED);
+        } catch (ExecutionException e) {
+            log.error("Failed to download input files [chainTaskId:{}]", chainTaskId, e);
+            throw new WorkflowException(ReplicateStatusCause.INPUT_FILES_DOWNLOAD_FAILED);
+        } finally {
+            // no-op for completed downloads
+            downloads.forEach(download -> download.cancel(true));
         }
     }
 
@@ -127,14 +276,18 @@ public class DataService {
     /**
      * Download a file from a URI in the provided parent
      * directory and save it with the provided filename.
+     * Waits for a free slot if too many downloads are
+     * already running against the same host or for a
+     * worker-wide transfer slot. An interrupted HTTP download
+     * is resumed where it stopped.
      * 
      * @param chainTaskId
      * @param uri
      * @param parentDirectoryPath
      * @param filename
-     * @return absolute path of the saved file
+     * @return the saved file, empty if the download failed
      */
-    private String downloadFile(String chainTaskId, String uri,
+    private Optional<FileDownloader.DownloadedFile> downloadFile(String chainTaskId, String uri,
             String parentDirectoryPath, String filename) {
         if (StringUtils.isEmpty(chainTaskId) ||
                 StringUtils.isEmpty(uri) ||
@@ -143,8 +296,25 @@ public class DataService {
             log.error("Failed to download, args shouldn't be empty " +
                     "[chainTaskId:{}, datasetUri:{}, parentDir:{}, filename:{}]",
                     chainTaskId, uri, parentDirectoryPath, filename);
-            return StringUtils.EMPTY;
+            return Optional.empty();
+        }
+        Semaphore permits = fileDownloader.getHostPermits(uri);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            log.warn("Download cancelled [chainTaskId:{}, uri:{}]", chainTaskId, uri);
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+        try (TransferScheduler.Slot slot =
+                     transferScheduler.acquire(TransferType.DATA_DOWNLOAD, chainTaskId)) {
+            return fileDownloader.download(chainTaskId, uri, parentDirectoryPath, filename);
+        } catch (InterruptedException e) {
+            log.warn("Download cancelled [chainTaskId:{}, uri:{}]", chainTaskId, uri);
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } finally {
+            permits.release();
         }
-        return FileHelper.downloadFile(uri, parentDirectoryPath, filename);
     }
 }
\ No newline at end of file
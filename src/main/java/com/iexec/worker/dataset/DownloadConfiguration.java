@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.dataset;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Limits applied when downloading datasets and input files.
+ */
+@Getter
+@Configuration
+public class DownloadConfiguration {
+
+    /**
+     * Maximum number of files downloaded at the same time by the worker.
+     */
+    @Value("${download.max-parallel-downloads}")
+    private int maxParallelDownloads;
+
+    /**
+     * Maximum number of files downloaded at the same time from
+     * the same host.
+     */
+    @Value("${download.max-parallel-downloads-per-host}")
+    private int maxParallelDownloadsPerHost;
+
+    /**
+     * Number of parallel HTTP Range requests used to download a
+     * large file. A value lower than 2 disables segmented downloads.
+     */
+    @Value("${download.segment-count}")
+    private int segmentCount;
+
+    /**
+     * Minimum size of a file to be downloaded in segments.
+     */
+    @Value("${download.segmented-download-min-size-mb}")
+    private long segmentedDownloadMinSizeMb;
+
+    /**
+     * IPFS gateways raced when downloading IPFS content, the local
+     * IPFS daemon gateway by default. Public gateways must be listed
+     * explicitly: they learn the CIDs downloaded by the worker and
+     * their content is not checked against the CID. Empty to download
+     * IPFS content from the gateway found in the URI.
+     */
+    @Value("${download.ipfs-gateways}")
+    private List<String> ipfsGateways;
+}
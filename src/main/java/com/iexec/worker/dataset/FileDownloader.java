@@ -0,0 +1,604 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.dataset;
+
+import com.iexec.common.utils.FileHelper;
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Download files over HTTP(S) with support for:
+ * <ul>
+ * <li>resumption of a partially downloaded file (kept next to the target
+ * with the {@link #PARTIAL_FILE_SUFFIX} suffix) using HTTP Range requests
+ * guarded by the ETag or Last-Modified date of the remote file,
+ * <li>parallel segmented download of large files when the server
+ * advertises {@code Accept-Ranges: bytes}, within the per-host and
+ * worker-wide transfer limits,
+ * <li>IPFS content fetched from the fastest of the gateway named in its
+ * URI and the configured gateways.
+ * </ul>
+ * Received bytes are accounted to the {@link TransferScheduler} to
+ * respect the worker bandwidth cap.
+ * Other URI schemes are delegated to {@link FileHelper#downloadFile}.
+ */
+@Slf4j
+class FileDownloader {
+
+    static final String PARTIAL_FILE_SUFFIX = ".part";
+    // next to a partial file, validator of the remote file sent in If-Range
+    static final String VALIDATOR_FILE_SUFFIX = ".validator";
+    // next to a partial file written in segments, which has holes and cannot be resumed
+    static final String SEGMENTED_FILE_SUFFIX = ".segmented";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MB = 1024L * 1024L;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofMinutes(1);
+
+    private final DownloadConfiguration downloadConfig;
+    private final TransferScheduler transferScheduler;
+    private final ExecutorService segmentExecutor;
+    private final HttpClient httpClient;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    FileDownloader(DownloadConfiguration downloadConfig, TransferScheduler transferScheduler) {
+        this.downloadConfig = downloadConfig;
+        this.transferScheduler = transferScheduler;
+        // the first segment of a file runs in the thread of the download
+        int maxExtraSegments = Math.max(1, downloadConfig.getMaxParallelDownloads())
+                * Math.max(1, downloadConfig.getSegmentCount() - 1);
+        this.segmentExecutor = Executors.newFixedThreadPool(maxExtraSegments,
+                new CustomizableThreadFactory("download-segment-"));
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT);
+        // honors http(s).proxyHost and http(s).proxyPort system properties
+        ProxySelector proxySelector = ProxySelector.getDefault();
+        if (proxySelector != null) {
+            builder.proxy(proxySelector);
+        }
+        this.httpClient = builder.build();
+    }
+
+    void shutdown() {
+        segmentExecutor.shutdownNow();
+    }
+
+    /**
+     * Permits limiting the number of connections opened to the host
+     * of a URI, shared by all the downloads of the worker.
+     *
+     * @param uri
+     * @return the permits of the host
+     */
+    Semaphore getHostPermits(String uri) {
+        return hostPermits.computeIfAbsent(getHost(uri),
+                host -> new Semaphore(Math.max(1, downloadConfig.getMaxParallelDownloadsPerHost())));
+    }
+
+    /**
+     * Download a file and save it in the provided parent directory with
+     * the provided filename. The caller holds a permit of the host and a
+     * transfer slot, extra segments of a large file only run if more of
+     * them are free.
+     *
+     * @param chainTaskId
+     * @param uri
+     * @param parentDirectoryPath
+     * @param filename
+     * @return the downloaded file, empty if the download failed
+     */
+    Optional<DownloadedFile> download(String chainTaskId, String uri,
+                                      String parentDirectoryPath, String filename) {
+        List<String> gatewayUris = getIpfsGatewayUris(uri);
+        if (gatewayUris.isEmpty() && !isHttpUri(uri)) {
+            String path = FileHelper.downloadFile(uri, parentDirectoryPath, filename);
+            return path.isEmpty() ? Optional.empty() : Optional.of(new DownloadedFile(path, null));
+        }
+        Path target = Paths.get(parentDirectoryPath, filename);
+        Path partial = Paths.get(parentDirectoryPath, filename + PARTIAL_FILE_SUFFIX);
+        try {
+            Files.createDirectories(target.getParent());
+            if (Files.deleteIfExists(getSegmentedMarker(partial))) {
+                log.warn("Discarding partial file of interrupted segmented download [uri:{}, partialFile:{}]",
+                        uri, partial);
+                Files.deleteIfExists(partial);
+            }
+            String sha256;
+            if (!gatewayUris.isEmpty()) {
+                sha256 = downloadFromFastestGateway(gatewayUris, partial);
+            } else if (Files.exists(partial) && Files.size(partial) > 0) {
+                sha256 = resume(chainTaskId, uri, partial);
+            } else {
+                sha256 = downloadFromScratch(chainTaskId, uri, partial);
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(getSidecarFile(partial, VALIDATOR_FILE_SUFFIX));
+            return Optional.of(new DownloadedFile(target.toString(), sha256));
+        } catch (IOException e) {
+            log.error("Failed to download file [uri:{}, partialFile:{}]", uri, partial, e);
+        } catch (InterruptedException e) {
+            log.warn("Download interrupted [uri:{}, partialFile:{}]", uri, partial);
+            Thread.currentThread().interrupt();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Continue an interrupted download from the last byte on disk. The
+     * range is only served if the remote file still has the validator
+     * saved when the download started (If-Range). Start over if there is
+     * no validator or if the server answers with another range.
+     *
+     * @return the sha256 of the whole file
+     */
+    private String resume(String chainTaskId, String uri, Path partial)
+            throws IOException, InterruptedException {
+        long offset = Files.size(partial);
+        Optional<String> validator = readValidator(partial);
+        if (validator.isEmpty()) {
+            log.warn("Cannot resume download without validator, restarting it [uri:{}, offset:{}]",
+                    uri, offset);
+            return restart(chainTaskId, uri, partial);
+        }
+        log.info("Resuming download [uri:{}, offset:{}]", uri, offset);
+        HttpRequest request = newRequest(uri)
+                .header("Range", "bytes=" + offset + "-")
+                .header("If-Range", validator.get())
+                .GET()
+                .build();
+        HttpResponse<InputStream> response =
+                httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        int status = response.statusCode();
+        if (status == 416 || (status == 206 && getContentRangeStart(response.headers()) != offset)) {
+            // partial file does not match the remote file anymore
+            response.body().close();
+            log.warn("Cannot resume download, restarting it [uri:{}, offset:{}]", uri, offset);
+            return restart(chainTaskId, uri, partial);
+        }
+        if (status != 200 && status != 206) {
+            response.body().close();
+            throw new IOException("Unexpected status while resuming download: " + status);
+        }
+        if (status == 200) {
+            // remote file changed or ranges unsupported, it is sent whole
+            saveValidator(partial, response.headers());
+        }
+        return writeResponse(uri, response, partial, offset);
+    }
+
+    private String restart(String chainTaskId, String uri, Path partial)
+            throws IOException, InterruptedException {
+        Files.deleteIfExists(partial);
+        Files.deleteIfExists(getSidecarFile(partial, VALIDATOR_FILE_SUFFIX));
+        return downloadFromScratch(chainTaskId, uri, partial);
+    }
+
+    /**
+     * Request IPFS content from all gateways at once and keep the first
+     * successful response, other requests are cancelled. IPFS content is
+     * addressed by its hash so a partial file is resumed from any gateway.
+     *
+     * @return the sha256 of the whole file
+     */
+    private String downloadFromFastestGateway(List<String> gatewayUris, Path partial)
+            throws IOException, InterruptedException {
+        long offset = Files.exists(partial) ? Files.size(partial) : 0;
+        CompletableFuture<HttpResponse<InputStream>> fastest = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        List<CompletableFuture<HttpResponse<InputStream>>> requests = new ArrayList<>();
+        for (String gatewayUri : gatewayUris) {
+            HttpRequest.Builder request = newRequest(gatewayUri).GET();
+            if (offset > 0) {
+                request.header("Range", "bytes=" + offset + "-");
+            }
+            requests.add(httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofInputStream())
+                    .whenComplete((response, error) -> {
+                        boolean isSuccess = error == null
+                                && (response.statusCode() == 200 || (response.statusCode() == 206
+                                && getContentRangeStart(response.headers()) == offset));
+                        if (isSuccess && fastest.complete(response)) {
+                            log.info("Downloading from fastest IPFS gateway [uri:{}]", gatewayUri);
+                            return;
+                        }
+                        if (response != null) {
+                            // closing the body aborts the losing exchange
+                            closeQuietly(response.body());
+                        }
+                        if (!isSuccess) {
+                            log.warn("IPFS gateway failed [uri:{}, status:{}, error:{}]", gatewayUri,
+                                    response != null ? response.statusCode() : null,
+                                    error != null ? error.getMessage() : null);
+                            if (failures.incrementAndGet() == gatewayUris.size()) {
+                                fastest.completeExceptionally(new IOException("All IPFS gateways failed"));
+                            }
+                        }
+                    }));
+        }
+        HttpResponse<InputStream> response;
+        try {
+            response = fastest.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to download from IPFS gateways", e.getCause());
+        } catch (InterruptedException e) {
+            fastest.thenAccept(winner -> closeQuietly(winner.body()));
+            throw e;
+        } finally {
+            requests.forEach(request -> request.cancel(true));
+        }
+        return writeResponse(response.uri().toString(), response, partial, offset);
+    }
+
+    /**
+     * Write a full (200) or partial (206) response body to the partial file.
+     * When appending, the already downloaded prefix is hashed once so that
+     * the digest of the whole file is available at the end without reading
+     * it again.
+     *
+     * @return the sha256 of the whole file
+     */
+    private String writeResponse(String uri, HttpResponse<InputStream> response, Path partial,
+                                 long offset) throws IOException, InterruptedException {
+        MessageDigest digest = newSha256Digest();
+        try (InputStream body = response.body()) {
+            if (offset > 0 && response.statusCode() == 206) {
+                try (InputStream prefix = Files.newInputStream(partial)) {
+                    prefix.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+                }
+                writeBody(body, partial, digest, StandardOpenOption.APPEND);
+            } else {
+                if (offset > 0) {
+                    log.warn("Server ignored range request, restarting download [uri:{}]", uri);
+                }
+                writeBody(body, partial, digest, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        }
+        return Numeric.toHexString(digest.digest());
+    }
+
+    /**
+     * Download a file in parallel segments if the remote file is large enough,
+     * the server supports ranges and extra host permits and transfer slots
+     * are free. Download it in a single stream otherwise.
+     *
+     * @return the sha256 of the file, null if it was downloaded in segments
+     */
+    private String downloadFromScratch(String chainTaskId, String uri, Path partial)
+            throws IOException, InterruptedException {
+        int segmentCount = downloadConfig.getSegmentCount();
+        long minSegmentedSize = downloadConfig.getSegmentedDownloadMinSizeMb() * MB;
+        if (segmentCount > 1 && minSegmentedSize > 0) {
+            HttpResponse<Void> head = httpClient.send(
+                    newRequest(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            long contentLength = head.headers().firstValueAsLong("Content-Length").orElse(-1);
+            boolean acceptsRanges = head.headers().firstValue("Accept-Ranges")
+                    .map(value -> value.equalsIgnoreCase("bytes"))
+                    .orElse(false);
+            if (head.statusCode() == 200 && acceptsRanges && contentLength >= minSegmentedSize
+                    && downloadSegments(chainTaskId, uri, partial, contentLength,
+                    getValidator(head.headers()), segmentCount)) {
+                return null;
+            }
+        }
+        HttpResponse<InputStream> response = httpClient.send(newRequest(uri).GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Unexpected status while downloading: " + response.statusCode());
+            }
+            saveValidator(partial, response.headers());
+            MessageDigest digest = newSha256Digest();
+            writeBody(body, partial, digest, StandardOpenOption.TRUNCATE_EXISTING);
+            return Numeric.toHexString(digest.digest());
+        }
+    }
+
+    /**
+     * Download a file in as many segments as free host permits and
+     * transfer slots allow, up to the configured segment count. The
+     * first segment runs under the permit and slot of the caller.
+     *
+     * @return true if downloaded, false if no extra segment could run
+     */
+    private boolean downloadSegments(String chainTaskId, String uri, Path partial, long contentLength,
+                                     Optional<String> validator, int maxSegmentCount)
+            throws IOException, InterruptedException {
+        Semaphore permits = getHostPermits(uri);
+        List<TransferScheduler.Slot> extraSlots = new ArrayList<>();
+        try {
+            while (extraSlots.size() < maxSegmentCount - 1 && permits.tryAcquire()) {
+                Optional<TransferScheduler.Slot> slot =
+                        transferScheduler.tryAcquire(TransferType.DATA_DOWNLOAD, chainTaskId);
+                if (slot.isEmpty()) {
+                    permits.release();
+                    break;
+                }
+                extraSlots.add(slot.get());
+            }
+            if (extraSlots.isEmpty()) {
+                log.info("No free slot for segments, downloading file in a single stream [uri:{}]", uri);
+                return false;
+            }
+            downloadSegments(uri, partial, contentLength, validator, extraSlots.size() + 1);
+            return true;
+        } finally {
+            extraSlots.forEach(TransferScheduler.Slot::close);
+            permits.release(extraSlots.size());
+        }
+    }
+
+    /**
+     * Download a file in segments written at their offset in the partial
+     * file. The partial file has holes until all segments are done, so it
+     * is marked as segmented while being written and deleted on failure.
+     */
+    private void downloadSegments(String uri, Path partial, long contentLength,
+                                  Optional<String> validator, int segmentCount)
+            throws IOException, InterruptedException {
+        log.info("Downloading file in segments [uri:{}, size:{}, segments:{}]",
+                uri, contentLength, segmentCount);
+        long segmentSize = (contentLength + segmentCount - 1) / segmentCount;
+        Path segmentedMarker = getSegmentedMarker(partial);
+        Files.deleteIfExists(getSidecarFile(partial, VALIDATOR_FILE_SUFFIX));
+        Files.write(segmentedMarker, new byte[0]);
+        List<Future<?>> segments = new ArrayList<>();
+        boolean isComplete = false;
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long start = segmentSize; start < contentLength; start += segmentSize) {
+                long end = Math.min(start + segmentSize, contentLength) - 1;
+                long segmentStart = start;
+                segments.add(segmentExecutor.submit(() -> {
+                    downloadSegment(uri, validator, channel, segmentStart, end);
+                    return null;
+                }));
+            }
+            downloadSegment(uri, validator, channel, 0, Math.min(segmentSize, contentLength) - 1);
+            for (Future<?> segment : segments) {
+                segment.get();
+            }
+            isComplete = true;
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to download segment", e.getCause());
+        } finally {
+            segments.forEach(segment -> segment.cancel(true));
+            if (!isComplete) {
+                deleteQuietly(partial);
+            }
+            deleteQuietly(segmentedMarker);
+        }
+    }
+
+    private void downloadSegment(String uri, Optional<String> validator, FileChannel channel,
+                                 long start, long end) throws IOException, InterruptedException {
+        HttpRequest.Builder requestBuilder = newRequest(uri)
+                .header("Range", "bytes=" + start + "-" + end)
+                .GET();
+        // a changed remote file is sent whole, which fails the segment
+        validator.ifPresent(value -> requestBuilder.header("If-Range", value));
+        HttpRequest request = requestBuilder.build();
+        HttpResponse<InputStream> response =
+                httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 206 || getContentRangeStart(response.headers()) != start) {
+                throw new IOException("Unexpected response for segment [status:"
+                        + response.statusCode() + ", start:" + start + "]");
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = start;
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                transferScheduler.consumeBandwidth(TransferType.DATA_DOWNLOAD, read);
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+            }
+            if (position != end + 1) {
+                throw new IOException("Incomplete segment [start:" + start + ", end:" + end
+                        + ", received:" + (position - start) + "]");
+            }
+        }
+    }
+
+    private void writeBody(InputStream body, Path file, MessageDigest digest,
+                           StandardOpenOption mode) throws IOException, InterruptedException {
+        try (InputStream in = new DigestInputStream(body, digest);
+             OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, mode)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                transferScheduler.consumeBandwidth(TransferType.DATA_DOWNLOAD, read);
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Gateway URIs of IPFS content, starting with the gateway named in
+     * the URI if any, followed by the configured gateways.
+     */
+    private List<String> getIpfsGatewayUris(String uri) {
+        List<String> gateways = downloadConfig.getIpfsGateways();
+        Optional<String> ipfsPath = IpfsUriUtils.getIpfsPath(uri);
+        if (gateways == null || ipfsPath.isEmpty()) {
+            return List.of();
+        }
+        List<String> gatewayUris = new ArrayList<>();
+        if (isHttpUri(uri)) {
+            gatewayUris.add(uri);
+        }
+        gateways.stream()
+                .filter(StringUtils::isNotBlank)
+                .map(gateway -> IpfsUriUtils.toGatewayUri(gateway.trim(), ipfsPath.get()))
+                .filter(gatewayUri -> !gatewayUris.contains(gatewayUri))
+                .forEach(gatewayUris::add);
+        return gatewayUris;
+    }
+
+    /**
+     * Strong ETag of a remote file, or its Last-Modified date, usable
+     * in an If-Range header.
+     */
+    private static Optional<String> getValidator(HttpHeaders headers) {
+        Optional<String> etag = headers.firstValue("ETag").filter(value -> !value.startsWith("W/"));
+        return etag.isPresent() ? etag : headers.firstValue("Last-Modified");
+    }
+
+    private static void saveValidator(Path partial, HttpHeaders headers) throws IOException {
+        Path validatorFile = getSidecarFile(partial, VALIDATOR_FILE_SUFFIX);
+        Optional<String> validator = getValidator(headers);
+        if (validator.isPresent()) {
+            Files.writeString(validatorFile, validator.get());
+        } else {
+            Files.deleteIfExists(validatorFile);
+        }
+    }
+
+    private static Optional<String> readValidator(Path partial) throws IOException {
+        Path validatorFile = getSidecarFile(partial, VALIDATOR_FILE_SUFFIX);
+        if (!Files.exists(validatorFile)) {
+            return Optional.empty();
+        }
+        return Optional.of(Files.readString(validatorFile).trim()).filter(StringUtils::isNotEmpty);
+    }
+
+    /**
+     * First byte of a partial response, from its
+     * {@code Content-Range: bytes <start>-<end>/<size>} header.
+     *
+     * @return the first byte, -1 if the header is missing or malformed
+     */
+    private static long getContentRangeStart(HttpHeaders headers) {
+        String contentRange = headers.firstValue("Content-Range").orElse("");
+        if (!contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        String range = contentRange.substring("bytes ".length());
+        int dash = range.indexOf('-');
+        try {
+            return dash > 0 ? Long.parseLong(range.substring(0, dash).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Path getSegmentedMarker(Path partial) {
+        return getSidecarFile(partial, SEGMENTED_FILE_SUFFIX);
+    }
+
+    private static Path getSidecarFile(Path partial, String suffix) {
+        return partial.resolveSibling(partial.getFileName() + suffix);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete file [file:{}]", file, e);
+        }
+    }
+
+    private static String getHost(String uri) {
+        try {
+            String host = URI.create(uri).getHost();
+            return host != null ? host : StringUtils.EMPTY;
+        } catch (IllegalArgumentException e) {
+            return StringUtils.EMPTY;
+        }
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            log.debug("Failed to close response body", e);
+        }
+    }
+
+    private HttpRequest.Builder newRequest(String uri) {
+        return HttpRequest.newBuilder(URI.create(uri)).timeout(RESPONSE_TIMEOUT);
+    }
+
+    private static boolean isHttpUri(String uri) {
+        return StringUtils.startsWithIgnoreCase(uri, "http://")
+                || StringUtils.startsWithIgnoreCase(uri, "https://");
+    }
+
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class DownloadedFile {
+        private final String path;
+        /**
+         * sha256 of the file computed while downloading,
+         * null if it could not be computed on the fly.
+         */
+        private final String sha256;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.dataset;
+
+import java.net.URI;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognize IPFS content identifiers (CID) in dataset and input file URIs.
+ * Supported forms:
+ * <ul>
+ * <li>{@code ipfs://<cid>[/path]}
+ * <li>{@code /ipfs/<cid>[/path]}
+ * <li>{@code http(s)://<gateway>/ipfs/<cid>[/path]}
+ * <li>{@code http(s)://<cid>.ipfs.<gateway>[/path]}
+ * </ul>
+ */
+public class IpfsUriUtils {
+
+    // CIDv0 (base58btc multihash) or CIDv1 (base32)
+    private static final String CID_REGEX = "(Qm[1-9A-HJ-NP-Za-km-z]{44}|b[a-z2-7]{58,})";
+    private static final Pattern IPFS_SCHEME_PATTERN =
+            Pattern.compile("^ipfs://" + CID_REGEX + "(/.*)?$");
+    private static final Pattern IPFS_PATH_PATTERN =
+            Pattern.compile("^/ipfs/" + CID_REGEX + "(/.*)?$");
+    private static final Pattern IPFS_SUBDOMAIN_PATTERN =
+            Pattern.compile("^" + CID_REGEX + "\\.ipfs\\..+$");
+
+    private IpfsUriUtils() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Get the gateway-independent path of an IPFS resource.
+     *
+     * @param uri dataset or input file URI
+     * @return {@code <cid>[/path]} if the URI designates IPFS content
+     */
+    public static Optional<String> getIpfsPath(String uri) {
+        if (uri == null) {
+            return Optional.empty();
+        }
+        Matcher matcher = IPFS_SCHEME_PATTERN.matcher(uri);
+        if (matcher.matches()) {
+            return Optional.of(toIpfsPath(matcher.group(1), matcher.group(2)));
+        }
+        matcher = IPFS_PATH_PATTERN.matcher(uri);
+        if (matcher.matches()) {
+            return Optional.of(toIpfsPath(matcher.group(1), matcher.group(2)));
+        }
+        URI parsedUri;
+        try {
+            parsedUri = URI.create(uri);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        if (!"http".equalsIgnoreCase(parsedUri.getScheme())
+                && !"https".equalsIgnoreCase(parsedUri.getScheme())) {
+            return Optional.empty();
+        }
+        String path = parsedUri.getRawPath() != null ? parsedUri.getRawPath() : "";
+        matcher = IPFS_PATH_PATTERN.matcher(path);
+        if (matcher.matches()) {
+            return Optional.of(toIpfsPath(matcher.group(1), matcher.group(2)));
+        }
+        String host = parsedUri.getHost();
+        matcher = IPFS_SUBDOMAIN_PATTERN.matcher(host != null ? host : "");
+        if (matcher.matches()) {
+            return Optional.of(toIpfsPath(matcher.group(1), path));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Build the URI of an IPFS resource on a given gateway.
+     *
+     * @param gateway e.g. {@code http://127.0.0.1:8080}
+     * @param ipfsPath {@code <cid>[/path]}
+     * @return {@code <gateway>/ipfs/<cid>[/path]}
+     */
+    public static String toGatewayUri(String gateway, String ipfsPath) {
+        String base = gateway.endsWith("/") ? gateway.substring(0, gateway.length() - 1) : gateway;
+        return base + "/ipfs/" + ipfsPath;
+    }
+
+    private static String toIpfsPath(String cid, String path) {
+        return path == null || path.isEmpty() || path.equals("/") ? cid : cid + path;
+    }
+}
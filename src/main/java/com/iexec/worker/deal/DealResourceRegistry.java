@@ -0,0 +1,273 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.deal;
+
+import com.iexec.common.utils.FileHelper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Resources loaded once for all the tasks of a deal.
+ * <p>
+ * Each deal gets its own folder. A resource is loaded by the first task
+ * asking for it while the other tasks of the deal wait for the result.
+ * A task holds a reference on its deal from its first request until it
+ * is released, the deal folder is deleted when its last task is
+ * released. A released task cannot share resources anymore, so that
+ * a download still running for it does not take a reference which
+ * would never be released. A resource which could not be loaded, or
+ * which is not valid anymore when shared again, is not kept, so the
+ * next task of the deal loads it again.
+ * <p>
+ * The folder of a deal is named after the deal so that a download
+ * interrupted by a restart of the worker is resumed in the same folder.
+ */
+@Slf4j
+public class DealResourceRegistry {
+
+    private static final String RELEASED_FOLDER_SUFFIX = ".released-";
+    // far above the number of tasks a worker runs at once
+    static final int RELEASED_TASKS_SIZE = 1024;
+
+    private final Path baseDir;
+    private final AtomicLong generation = new AtomicLong();
+    // guarded by this
+    private final Map<String, Deal> deals = new HashMap<>();
+    // guarded by this, dealId by chainTaskId
+    private final Map<String, String> taskDeals = new HashMap<>();
+    // guarded by this, most recently released tasks
+    private final Set<String> releasedTasks = Collections.newSetFromMap(
+            new LinkedHashMap<>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > RELEASED_TASKS_SIZE;
+                }
+            });
+
+    public DealResourceRegistry(Path baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    /**
+     * Get a resource of a deal, loading it if no other task of
+     * the deal did.
+     *
+     * @param dealId deal of the task
+     * @param chainTaskId task asking for the resource
+     * @param resourceName name of the resource in the deal
+     * @param loader loads the resource in the provided deal folder
+     * @param isStillValid checks a resource loaded by another task
+     *                     before sharing it
+     * @return the resource, empty if it could not be loaded or if
+     * the task was released
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> share(String dealId, String chainTaskId, String resourceName,
+                                 Function<Path, Optional<T>> loader, Predicate<T> isStillValid) {
+        Deal deal;
+        synchronized (this) {
+            if (releasedTasks.contains(chainTaskId)) {
+                log.warn("Task released, deal resource not shared [chainTaskId:{}, dealId:{}, " +
+                        "resource:{}]", chainTaskId, dealId, resourceName);
+                return Optional.empty();
+            }
+            deal = deals.computeIfAbsent(dealId, id -> new Deal(baseDir.resolve(id)));
+            if (taskDeals.putIfAbsent(chainTaskId, dealId) == null) {
+                deal.references++;
+            }
+        }
+        while (true) {
+            CompletableFuture<Optional<?>> loading = new CompletableFuture<>();
+            CompletableFuture<Optional<?>> loaded = deal.resources.putIfAbsent(resourceName, loading);
+            if (loaded == null) {
+                return load(deal, resourceName, loading, loader);
+            }
+            Optional<T> resource;
+            try {
+                resource = (Optional<T>) loaded.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            } catch (ExecutionException e) {
+                log.warn("Failed to load deal resource [dealId:{}, resource:{}]", dealId, resourceName);
+                return Optional.empty();
+            }
+            if (resource.isEmpty() || isStillValid.test(resource.get())) {
+                return resource;
+            }
+            log.warn("Deal resource not valid anymore, loading it again [dealId:{}, resource:{}]",
+                    dealId, resourceName);
+            deal.resources.remove(resourceName, loaded);
+        }
+    }
+
+    /**
+     * Release the reference of a task on its deal, the deal folder
+     * is deleted if no other task of the deal is running. The task
+     * cannot share resources anymore.
+     *
+     * @param chainTaskId
+     */
+    public void release(String chainTaskId) {
+        Deal deal;
+        String dealId;
+        synchronized (this) {
+            releasedTasks.add(chainTaskId);
+            dealId = taskDeals.remove(chainTaskId);
+            deal = dealId != null ? deals.get(dealId) : null;
+            if (deal == null || --deal.references > 0) {
+                return;
+            }
+            deals.remove(dealId);
+            // the next task of the deal may reuse the folder name at once
+            moveAside(deal.dir);
+        }
+        deleteReleasedFolders();
+        log.info("Deal resources released [dealId:{}]", dealId);
+    }
+
+    public synchronized boolean isReleased(String chainTaskId) {
+        return releasedTasks.contains(chainTaskId);
+    }
+
+    public synchronized int getReferenceCount(String dealId) {
+        Deal deal = deals.get(dealId);
+        return deal != null ? deal.references : 0;
+    }
+
+    /**
+     * Delete the folders left over from a previous run which were not
+     * modified for a while. Recent ones are kept, the tasks recovered
+     * after a restart resume their downloads in them. To be called
+     * before any task.
+     *
+     * @param maxAge age after which a deal folder is deleted
+     */
+    public void deleteLeftoverFolders(Duration maxAge) {
+        deleteReleasedFolders();
+        Instant oldest = Instant.now().minus(maxAge);
+        try (DirectoryStream<Path> dealDirs = Files.newDirectoryStream(baseDir)) {
+            for (Path dealDir : dealDirs) {
+                if (getLastModified(dealDir).isBefore(oldest)) {
+                    log.info("Deleting leftover deal folder [dir:{}]", dealDir);
+                    FileHelper.deleteFolder(dealDir.toString());
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // no leftover
+        } catch (IOException e) {
+            log.error("Failed to delete leftover deal folders [dir:{}]", baseDir, e);
+        }
+    }
+
+    private void moveAside(Path dealDir) {
+        Path released = dealDir.resolveSibling(dealDir.getFileName()
+                + RELEASED_FOLDER_SUFFIX + generation.incrementAndGet());
+        try {
+            Files.move(dealDir, released, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // nothing was loaded
+        } catch (IOException e) {
+            log.warn("Cannot move released deal folder aside, deleting it [dir:{}]", dealDir, e);
+            FileHelper.deleteFolder(dealDir.toString());
+        }
+    }
+
+    private void deleteReleasedFolders() {
+        try (DirectoryStream<Path> releasedDirs =
+                     Files.newDirectoryStream(baseDir, "*" + RELEASED_FOLDER_SUFFIX + "*")) {
+            releasedDirs.forEach(dir -> FileHelper.deleteFolder(dir.toString()));
+        } catch (NoSuchFileException e) {
+            // nothing released yet
+        } catch (IOException e) {
+            log.error("Failed to delete released deal folders [dir:{}]", baseDir, e);
+        }
+    }
+
+    /**
+     * Last modification of a folder or of the files it contains, a
+     * file being appended does not update the date of its folder.
+     */
+    private static Instant getLastModified(Path dir) throws IOException {
+        Instant lastModified = Files.getLastModifiedTime(dir).toInstant();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Instant fileModified = Files.getLastModifiedTime(file).toInstant();
+                if (fileModified.isAfter(lastModified)) {
+                    lastModified = fileModified;
+                }
+            }
+        }
+        return lastModified;
+    }
+
+    private <T> Optional<T> load(Deal deal, String resourceName,
+                                 CompletableFuture<Optional<?>> loading,
+                                 Function<Path, Optional<T>> loader) {
+        try {
+            Files.createDirectories(deal.dir);
+            Optional<T> resource = loader.apply(deal.dir);
+            if (resource.isEmpty()) {
+                deal.resources.remove(resourceName, loading);
+            }
+            loading.complete(resource);
+            return resource;
+        } catch (IOException e) {
+            log.error("Cannot create deal folder [dir:{}]", deal.dir, e);
+            deal.resources.remove(resourceName, loading);
+            loading.complete(Optional.empty());
+            return Optional.empty();
+        } catch (RuntimeException e) {
+            deal.resources.remove(resourceName, loading);
+            loading.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static class Deal {
+
+        private final Path dir;
+        private final Map<String, CompletableFuture<Optional<?>>> resources = new ConcurrentHashMap<>();
+        private int references;
+
+        private Deal(Path dir) {
+            this.dir = dir;
+        }
+    }
+}
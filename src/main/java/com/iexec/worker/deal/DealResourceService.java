@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.deal;
+
+import com.iexec.common.chain.ChainTask;
+import com.iexec.worker.chain.IexecHubService;
+import com.iexec.worker.config.WorkerConfigurationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Share the app and the dataset between the tasks of a deal running
+ * on this worker, so that they are pulled, downloaded and verified
+ * once per deal instead of once per task.
+ */
+@Slf4j
+@Service
+public class DealResourceService {
+
+    public static final String DEALS_FOLDER = ".deals";
+    // longer than the contribution window of the tasks of a deal
+    private static final Duration LEFTOVER_DEAL_MAX_AGE = Duration.ofDays(3);
+
+    private final WorkerConfigurationService workerConfigService;
+    private final IexecHubService iexecHubService;
+    private final DealResourceRegistry registry;
+    private final Map<String, String> dealIds = new ConcurrentHashMap<>();
+
+    public DealResourceService(WorkerConfigurationService workerConfigService,
+                               IexecHubService iexecHubService) {
+        this.workerConfigService = workerConfigService;
+        this.iexecHubService = iexecHubService;
+        this.registry = new DealResourceRegistry(
+                Paths.get(workerConfigService.getWorkerBaseDir(), DEALS_FOLDER));
+    }
+
+    /**
+     * Delete the deal folders of a previous run which are not used
+     * anymore. Recent ones are kept so that the downloads of the tasks
+     * recovered after a restart are resumed.
+     */
+    @PostConstruct
+    void clean() {
+        registry.deleteLeftoverFolders(LEFTOVER_DEAL_MAX_AGE);
+    }
+
+    /**
+     * Get a resource shared by the tasks of the deal of a task. The
+     * resource is loaded in the task input folder, without sharing,
+     * if the deal of the task cannot be found.
+     *
+     * @param chainTaskId task asking for the resource
+     * @param resourceName name of the resource in the deal
+     * @param loader loads the resource in the provided folder
+     * @param isStillValid checks a resource loaded by another task of
+     *                     the deal before sharing it
+     * @return the resource, empty if it could not be loaded or if
+     * the task was released
+     */
+    public <T> Optional<T> share(String chainTaskId, String resourceName,
+                                 Function<Path, Optional<T>> loader,
+                                 Predicate<T> isStillValid) {
+        if (registry.isReleased(chainTaskId)) {
+            log.warn("Task released, resource will not be loaded " +
+                    "[chainTaskId:{}, resource:{}]", chainTaskId, resourceName);
+            return Optional.empty();
+        }
+        Optional<String> dealId = getDealId(chainTaskId);
+        if (dealId.isEmpty()) {
+            log.warn("Deal not found, resource will not be shared " +
+                    "[chainTaskId:{}, resource:{}]", chainTaskId, resourceName);
+            return loader.apply(Paths.get(workerConfigService.getTaskInputDir(chainTaskId)));
+        }
+        return registry.share(dealId.get(), chainTaskId, resourceName, loader, isStillValid);
+    }
+
+    /**
+     * Release the resources of the deal of a task once the task
+     * is over, they are deleted after the last task of the deal.
+     * Resources asked later on for this task, by a download still
+     * running for instance, are not loaded.
+     *
+     * @param chainTaskId
+     */
+    public void release(String chainTaskId) {
+        registry.release(chainTaskId);
+        dealIds.remove(chainTaskId);
+    }
+
+    private Optional<String> getDealId(String chainTaskId) {
+        String dealId = dealIds.get(chainTaskId);
+        if (dealId != null) {
+            return Optional.of(dealId);
+        }
+        Optional<String> chainDealId = iexecHubService.getChainTask(chainTaskId)
+                .map(ChainTask::getDealid);
+        chainDealId.ifPresent(id -> dealIds.put(chainTaskId, id));
+        if (registry.isReleased(chainTaskId)) {
+            // released while reading the deal on-chain
+            dealIds.remove(chainTaskId);
+        }
+        return chainDealId;
+    }
+}
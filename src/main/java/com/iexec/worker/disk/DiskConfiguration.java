@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.disk;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Disk budget of the worker base directory and pace of the
+ * removal of task folders.
+ */
+@Getter
+@Configuration
+public class DiskConfiguration {
+
+    /**
+     * Maximum disk usage of the worker base directory in megabytes,
+     * no new replicate is asked above it. 0 for no quota.
+     */
+    @Value("${disk.quota-mb}")
+    private long quotaMb;
+
+    /**
+     * Maximum size of deleted files per second in megabytes when
+     * emptying the trash, 0 for no limit.
+     */
+    @Value("${disk.gc-max-deleted-mb-per-second}")
+    private long gcMaxDeletedMbPerSecond;
+
+    /**
+     * Delay between two runs of the task folder garbage collector.
+     */
+    @Value("${disk.gc-period-seconds}")
+    private long gcPeriodSeconds;
+}
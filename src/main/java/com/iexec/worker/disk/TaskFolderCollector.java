@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.disk;
+
+import com.iexec.common.utils.FileHelper;
+import com.iexec.worker.config.WorkerConfigurationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Removes task folders without blocking the task workflow.
+ * <p>
+ * A removed task folder is moved to a trash folder of the
+ * worker base directory with an atomic rename. A background
+ * thread then deletes the trash content, at a bounded pace so
+ * that running tasks keep their disk bandwidth, and measures
+ * the disk usage of the worker base directory against the
+ * configured quota.
+ */
+@Slf4j
+@Service
+public class TaskFolderCollector {
+
+    public static final String TRASH_FOLDER = ".trash";
+    private static final long BYTES_PER_MB = 1024L * 1024;
+
+    private final WorkerConfigurationService workerConfigService;
+    private final long quotaBytes;
+    private final long maxDeletedBytesPerSecond;
+    private final long periodSeconds;
+    private final ScheduledExecutorService gcExecutor;
+    private volatile long usedBytes;
+
+    public TaskFolderCollector(WorkerConfigurationService workerConfigService,
+                               DiskConfiguration diskConfig) {
+        this.workerConfigService = workerConfigService;
+        this.quotaBytes = diskConfig.getQuotaMb() * BYTES_PER_MB;
+        this.maxDeletedBytesPerSecond = diskConfig.getGcMaxDeletedMbPerSecond() * BYTES_PER_MB;
+        this.periodSeconds = Math.max(1, diskConfig.getGcPeriodSeconds());
+        this.gcExecutor = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("task-gc-"));
+    }
+
+    @PostConstruct
+    void start() {
+        gcExecutor.scheduleWithFixedDelay(this::collect, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        gcExecutor.shutdownNow();
+    }
+
+    /**
+     * Move a task folder to the trash, its content is deleted
+     * later in the background. The folder is deleted right away
+     * if it cannot be renamed.
+     *
+     * @param chainTaskId
+     * @return true if the task folder has been removed
+     */
+    public boolean trash(String chainTaskId) {
+        Path taskDir = Paths.get(workerConfigService.getTaskBaseDir(chainTaskId));
+        if (!Files.exists(taskDir)) {
+            return false;
+        }
+        Path trashDir = getTrashDir();
+        try {
+            Files.createDirectories(trashDir);
+            Files.move(taskDir, trashDir.resolve(chainTaskId + "-" + System.nanoTime()),
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            log.warn("Cannot move task folder to trash, deleting it now " +
+                    "[chainTaskId:{}]", chainTaskId, e);
+            return FileHelper.deleteFolder(taskDir.toString());
+        }
+    }
+
+    /**
+     * @return true if the worker base directory uses more disk
+     * than allowed, as measured by the last garbage collection
+     */
+    public boolean isQuotaExceeded() {
+        return quotaBytes > 0 && usedBytes >= quotaBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    /**
+     * Empty the trash then measure the disk usage of the
+     * worker base directory. A trashed folder which cannot be
+     * deleted is kept for the next collection, disk usage is
+     * measured anyway.
+     */
+    void collect() {
+        try {
+            emptyTrash();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            usedBytes = getSize(Paths.get(workerConfigService.getWorkerBaseDir()));
+        } catch (IOException e) {
+            log.error("Failed to measure disk usage of worker base directory", e);
+        }
+        if (isQuotaExceeded()) {
+            log.warn("Disk quota exceeded, no new task will be asked " +
+                    "[usedBytes:{}, quotaBytes:{}]", usedBytes, quotaBytes);
+        }
+    }
+
+    private void emptyTrash() throws InterruptedException {
+        Path trashDir = getTrashDir();
+        if (!Files.isDirectory(trashDir)) {
+            return;
+        }
+        List<Path> trashedFolders;
+        try (Stream<Path> folders = Files.list(trashDir)) {
+            trashedFolders = folders.collect(Collectors.toList());
+        } catch (IOException e) {
+            log.error("Failed to list trashed task folders", e);
+            return;
+        }
+        long start = System.nanoTime();
+        AtomicLong deletedBytes = new AtomicLong();
+        for (Path trashedFolder : trashedFolders) {
+            try {
+                delete(trashedFolder, deletedBytes, start);
+                log.debug("Trashed task folder deleted [folder:{}]", trashedFolder.getFileName());
+            } catch (IOException e) {
+                log.warn("Failed to delete trashed task folder, retrying on next collection " +
+                        "[folder:{}]", trashedFolder.getFileName(), e);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private void delete(Path trashedFolder, AtomicLong deletedBytes, long start) throws IOException {
+        Files.walkFileTree(trashedFolder, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.deleteIfExists(file);
+                try {
+                    pace(deletedBytes.addAndGet(attrs.size()), start);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                    throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Sleep when files are deleted faster than allowed.
+     */
+    private void pace(long deletedBytes, long startNanos) throws InterruptedException {
+        if (maxDeletedBytesPerSecond <= 0) {
+            return;
+        }
+        long expectedMillis = deletedBytes * 1000 / maxDeletedBytesPerSecond;
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        if (expectedMillis > elapsedMillis) {
+            Thread.sleep(expectedMillis - elapsedMillis);
+        }
+    }
+
+    private long getSize(Path folder) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return 0;
+        }
+        AtomicLong size = new AtomicLong();
+        Files.walkFileTree(folder, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                size.addAndGet(attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // removed while walking
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
+    }
+
+    private Path getTrashDir() {
+        return Paths.get(workerConfigService.getWorkerBaseDir(), TRASH_FOLDER);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.executor;
+
+import com.iexec.common.notification.TaskNotificationType;
+import com.iexec.common.replicate.ReplicateStatus;
+
+import java.util.Optional;
+
+import static com.iexec.common.replicate.ReplicateStatus.*;
+
+/**
+ * Stages of a replicate on the worker side, in workflow order,
+ * with the action starting each stage and the statuses it reports.
+ */
+enum ReplicateStage {
+
+    START(TaskNotificationType.PLEASE_START, STARTING, STARTED, START_FAILED),
+    DOWNLOAD_APP(TaskNotificationType.PLEASE_DOWNLOAD_APP,
+            APP_DOWNLOADING, APP_DOWNLOADED, APP_DOWNLOAD_FAILED),
+    DOWNLOAD_DATA(TaskNotificationType.PLEASE_DOWNLOAD_DATA,
+            DATA_DOWNLOADING, DATA_DOWNLOADED, DATA_DOWNLOAD_FAILED),
+    COMPUTE(TaskNotificationType.PLEASE_COMPUTE, COMPUTING, COMPUTED, COMPUTE_FAILED),
+    CONTRIBUTE(TaskNotificationType.PLEASE_CONTRIBUTE, CONTRIBUTING, CONTRIBUTED, CONTRIBUTE_FAILED),
+    REVEAL(TaskNotificationType.PLEASE_REVEAL, REVEALING, REVEALED, REVEAL_FAILED),
+    UPLOAD(TaskNotificationType.PLEASE_UPLOAD, RESULT_UPLOADING, RESULT_UPLOADED, RESULT_UPLOAD_FAILED),
+    COMPLETE(TaskNotificationType.PLEASE_COMPLETE, COMPLETING, COMPLETED, COMPLETE_FAILED);
+
+    private final TaskNotificationType action;
+    private final ReplicateStatus runningStatus;
+    private final ReplicateStatus successStatus;
+    private final ReplicateStatus failureStatus;
+
+    ReplicateStage(TaskNotificationType action, ReplicateStatus runningStatus,
+                   ReplicateStatus successStatus, ReplicateStatus failureStatus) {
+        this.action = action;
+        this.runningStatus = runningStatus;
+        this.successStatus = successStatus;
+        this.failureStatus = failureStatus;
+    }
+
+    ReplicateStatus getSuccessStatus() {
+        return successStatus;
+    }
+
+    /**
+     * @return true if the status is reported while the worker
+     * is running a stage, false if it is reported once done
+     */
+    static boolean isRunningStatus(ReplicateStatus status) {
+        for (ReplicateStage stage : values()) {
+            if (stage.runningStatus == status) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A stage can run once the previous stage succeeded, and the upload
+     * can be skipped by replicates not chosen to upload the result. A
+     * failed stage can be retried, and the worker contributes the error
+     * of a failed download. A stage which did not report its outcome
+     * can only be retried.
+     *
+     * @param status last status reported by the replicate
+     * @return true if the core can ask for this stage after the status
+     */
+    boolean canRunAfter(ReplicateStatus status) {
+        Optional<ReplicateStage> current = of(status);
+        if (current.isEmpty()) {
+            return true;
+        }
+        ReplicateStage previous = current.get();
+        if (status == previous.successStatus) {
+            return ordinal() == previous.ordinal() + 1
+                    || (previous == REVEAL && this == COMPLETE);
+        }
+        if (status == previous.failureStatus) {
+            return this == previous
+                    || (this == CONTRIBUTE && (previous == DOWNLOAD_APP || previous == DOWNLOAD_DATA));
+        }
+        return this == previous;
+    }
+
+    static boolean isFinalStatus(ReplicateStatus status) {
+        return status == COMPLETED || status == FAILED || status == ABORTED;
+    }
+
+    static Optional<ReplicateStage> of(TaskNotificationType action) {
+        for (ReplicateStage stage : values()) {
+            if (stage.action == action) {
+                return Optional.of(stage);
+            }
+        }
+        return Optional.empty();
+    }
+
+    static Optional<ReplicateStage> of(ReplicateStatus status) {
+        for (ReplicateStage stage : values()) {
+            if (stage.runningStatus == status || stage.successStatus == status
+                    || stage.failureStatus == status) {
+                return Optional.of(stage);
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.executor;
+
+import com.iexec.common.notification.TaskNotificationType;
+import com.iexec.common.replicate.ReplicateStatusUpdate;
+import com.iexec.worker.feign.CustomCoreFeignClient;
+import com.iexec.worker.feign.client.ReplicateStatusUpdateRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Send replicate status updates to the core.
+ * <ul>
+ * <li>"in progress" statuses (e.g. APP_DOWNLOADING), whose next action
+ * is not used, are sent in background. An update queued while the same
+ * status of the replicate is still waiting to be sent replaces it.</li>
+ * <li>statuses answered with the next action of the replicate are held
+ * a few milliseconds and sent with the ones of other replicates in a
+ * single call. They are sent one by one if the core does not support
+ * batches.</li>
+ * </ul>
+ * Updates of a replicate are sent in the order they were queued, each
+ * one once the previous one got its response.
+ */
+@Slf4j
+@Service
+public class ReplicateStatusPipeline {
+
+    private static final CompletableFuture<Void> EMPTY_LANE =
+            CompletableFuture.completedFuture(null);
+
+    private final CustomCoreFeignClient customCoreFeignClient;
+    private final long batchLingerMs;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService executor;
+    // last update queued for each replicate
+    private final Map<String, CompletableFuture<Void>> lanes = new ConcurrentHashMap<>();
+    // in progress update queued and not sent yet for each replicate
+    private final Map<String, InProgressUpdate> unsentInProgressUpdates = new ConcurrentHashMap<>();
+    // guarded by this
+    private List<BatchedUpdate> batch = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public ReplicateStatusPipeline(CustomCoreFeignClient customCoreFeignClient,
+                                   StatusUpdateConfiguration statusUpdateConfig) {
+        this.customCoreFeignClient = customCoreFeignClient;
+        this.batchLingerMs = Math.max(0, statusUpdateConfig.getBatchLingerMs());
+        this.maxBatchSize = Math.max(1, statusUpdateConfig.getMaxBatchSize());
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("status-update-"));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queue an update whose response is not needed.
+     *
+     * @param chainTaskId
+     * @param statusUpdate
+     */
+    public void sendInProgress(String chainTaskId, ReplicateStatusUpdate statusUpdate) {
+        InProgressUpdate unsent = unsentInProgressUpdates.get(chainTaskId);
+        if (unsent != null && unsent.replace(statusUpdate)) {
+            log.debug("Status update coalesced [chainTaskId:{}, status:{}]",
+                    chainTaskId, statusUpdate.getStatus());
+            return;
+        }
+        InProgressUpdate update = new InProgressUpdate(statusUpdate);
+        unsentInProgressUpdates.put(chainTaskId, update);
+        enqueue(chainTaskId, () -> {
+            unsentInProgressUpdates.remove(chainTaskId, update);
+            return customCoreFeignClient.updateReplicateStatusAsync(chainTaskId, update.take());
+        });
+    }
+
+    /**
+     * Queue an update after the updates already queued for the replicate.
+     *
+     * @param chainTaskId
+     * @param statusUpdate
+     * @return the next action, completed with null if the update failed
+     */
+    public CompletableFuture<TaskNotificationType> send(String chainTaskId,
+                                                        ReplicateStatusUpdate statusUpdate) {
+        // later updates must not be coalesced with earlier ones
+        unsentInProgressUpdates.remove(chainTaskId);
+        CompletableFuture<TaskNotificationType> nextAction = new CompletableFuture<>();
+        enqueue(chainTaskId, () -> {
+            addToBatch(new BatchedUpdate(chainTaskId, statusUpdate, nextAction));
+            return nextAction;
+        }).whenComplete((result, throwable) -> nextAction.complete(null)); // no-op once sent
+        return nextAction;
+    }
+
+    private CompletableFuture<Void> enqueue(String chainTaskId, Supplier<CompletableFuture<?>> update) {
+        CompletableFuture<Void> next = lanes.compute(chainTaskId, (id, last) ->
+                (last != null ? last : EMPTY_LANE)
+                        .thenComposeAsync(previous -> sendUpdate(id, update), executor));
+        next.whenComplete((result, throwable) -> lanes.remove(chainTaskId, next));
+        return next;
+    }
+
+    private CompletableFuture<Void> sendUpdate(String chainTaskId, Supplier<CompletableFuture<?>> update) {
+        try {
+            return update.get().<Void>handle((response, throwable) -> {
+                if (throwable != null) {
+                    log.error("Failed to send status update [chainTaskId:{}]", chainTaskId, throwable);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.error("Failed to send status update [chainTaskId:{}]", chainTaskId, e);
+            return EMPTY_LANE;
+        }
+    }
+
+    private void addToBatch(BatchedUpdate update) {
+        if (batchLingerMs == 0 || !customCoreFeignClient.isBatchStatusUpdateSupported()) {
+            sendOneByOne(List.of(update));
+            return;
+        }
+        boolean isBatchFull;
+        synchronized (this) {
+            batch.add(update);
+            isBatchFull = batch.size() >= maxBatchSize;
+            if (!isBatchFull && scheduledFlush == null) {
+                scheduledFlush = executor.schedule(this::flush, batchLingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (isBatchFull) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        List<BatchedUpdate> updates;
+        synchronized (this) {
+            updates = batch;
+            batch = new ArrayList<>();
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        if (updates.size() <= 1) {
+            sendOneByOne(updates);
+            return;
+        }
+        List<ReplicateStatusUpdateRequest> requests = updates.stream()
+                .map(update -> new ReplicateStatusUpdateRequest(update.chainTaskId, update.statusUpdate))
+                .collect(Collectors.toList());
+        log.debug("Sending batch of status updates [size:{}]", requests.size());
+        customCoreFeignClient.updateReplicateStatusesAsync(requests)
+                .whenComplete((nextActions, throwable) -> {
+                    if (nextActions != null && nextActions.size() == updates.size()) {
+                        for (int i = 0; i < updates.size(); i++) {
+                            updates.get(i).nextAction.complete(nextActions.get(i));
+                        }
+                    } else if (throwable == null && !customCoreFeignClient.isBatchStatusUpdateSupported()) {
+                        sendOneByOne(updates);
+                    } else {
+                        log.error("Failed to send batch of status updates [size:{}]",
+                                updates.size(), throwable);
+                        updates.forEach(update -> update.nextAction.complete(null));
+                    }
+                });
+    }
+
+    private void sendOneByOne(List<BatchedUpdate> updates) {
+        updates.forEach(update -> customCoreFeignClient
+                .updateReplicateStatusAsync(update.chainTaskId, update.statusUpdate)
+                .whenComplete((nextAction, throwable) ->
+                        update.nextAction.complete(throwable == null ? nextAction : null)));
+    }
+
+    /**
+     * In progress update which can be replaced by an update of
+     * the same status until it is sent.
+     */
+    private static class InProgressUpdate {
+
+        private ReplicateStatusUpdate statusUpdate;
+        private boolean taken;
+
+        InProgressUpdate(ReplicateStatusUpdate statusUpdate) {
+            this.statusUpdate = statusUpdate;
+        }
+
+        synchronized boolean replace(ReplicateStatusUpdate newStatusUpdate) {
+            if (taken || statusUpdate.getStatus() != newStatusUpdate.getStatus()) {
+                return false;
+            }
+            statusUpdate = newStatusUpdate;
+            return true;
+        }
+
+        synchronized ReplicateStatusUpdate take() {
+            taken = true;
+            return statusUpdate;
+        }
+    }
+
+    private static class BatchedUpdate {
+
+        private final String chainTaskId;
+        private final ReplicateStatusUpdate statusUpdate;
+        private final CompletableFuture<TaskNotificationType> nextAction;
+
+        BatchedUpdate(String chainTaskId, ReplicateStatusUpdate statusUpdate,
+                      CompletableFuture<TaskNotificationType> nextAction) {
+            this.chainTaskId = chainTaskId;
+            this.statusUpdate = statusUpdate;
+            this.nextAction = nextAction;
+        }
+    }
+}
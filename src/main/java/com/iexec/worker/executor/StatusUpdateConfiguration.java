@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.executor;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of the replicate status updates sent to the core.
+ */
+@Getter
+@Configuration
+public class StatusUpdateConfiguration {
+
+    /**
+     * Time a status update waiting for a next action is held to be
+     * sent with the updates of other replicates in a single call.
+     * 0 (default) to send each update on its own, batches are only
+     * accepted by cores providing the batch endpoint.
+     */
+    @Value("${status-update.batch-linger-ms}")
+    private long batchLingerMs;
+
+    /**
+     * Maximum number of status updates sent in a single call.
+     */
+    @Value("${status-update.max-batch-size}")
+    private int maxBatchSize;
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * One mailbox per task: jobs of the same task run one after the
+ * other in submission order, jobs of different tasks run in
+ * parallel. A mailbox is dropped as soon as it is empty.
+ */
+@Slf4j
+class TaskMailboxes {
+
+    private static final CompletableFuture<Void> EMPTY_MAILBOX =
+            CompletableFuture.completedFuture(null);
+
+    private final ExecutorService executor;
+    // last job submitted for each task
+    private final Map<String, CompletableFuture<Void>> lastJobs = new ConcurrentHashMap<>();
+
+    TaskMailboxes(String threadNamePrefix) {
+        this.executor = Executors.newCachedThreadPool(
+                new CustomizableThreadFactory(threadNamePrefix));
+    }
+
+    /**
+     * Run a job once all the jobs previously submitted for the same
+     * task are done, whether they succeeded or not.
+     *
+     * @param chainTaskId task of the job
+     * @param job job to run
+     * @return the future completed when the job is done
+     */
+    CompletableFuture<Void> submit(String chainTaskId, Runnable job) {
+        CompletableFuture<Void> next = lastJobs.compute(chainTaskId, (id, lastJob) ->
+                (lastJob != null ? lastJob : EMPTY_MAILBOX)
+                        .handle((result, throwable) -> null)
+                        .thenRunAsync(job, executor));
+        next.whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                log.error("Task job failed [chainTaskId:{}]", chainTaskId, throwable);
+            }
+            lastJobs.remove(chainTaskId, next);
+        });
+        return next;
+    }
+
+    int getMailboxCount() {
+        return lastJobs.size();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
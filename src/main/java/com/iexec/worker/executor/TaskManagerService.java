@@ -30,10 +30,12 @@ import com.iexec.worker.chain.IexecHubService;
 import com.iexec.worker.chain.RevealService;
 import com.iexec.worker.compute.ComputeManagerService;
 import com.iexec.worker.compute.app.AppComputeResponse;
+import com.iexec.worker.compute.memo.ResultMemoizationService;
 import com.iexec.worker.compute.post.PostComputeResponse;
 import com.iexec.worker.compute.pre.PreComputeResponse;
 import com.iexec.worker.config.WorkerConfigurationService;
 import com.iexec.worker.dataset.DataService;
+import com.iexec.worker.deal.DealResourceService;
 import com.iexec.worker.result.ResultService;
 import com.iexec.worker.tee.scone.TeeSconeService;
 import com.iexec.worker.utils.LoggingUtils;
@@ -61,6 +63,9 @@ public class TaskManagerService {
     private final TeeSconeService teeSconeService;
     private final DataService dataService;
     private final ResultService resultService;
+    private final TaskPrefetcher taskPrefetcher;
+    private final ResultMemoizationService resultMemoizationService;
+    private final DealResourceService dealResourceService;
 
     public TaskManagerService(
             WorkerConfigurationService workerConfigurationService,
@@ -70,7 +75,10 @@ public class TaskManagerService {
             ComputeManagerService computeManagerService,
             TeeSconeService teeSconeService,
             DataService dataService,
-            ResultService resultService
+            ResultService resultService,
+            TaskPrefetcher taskPrefetcher,
+            ResultMemoizationService resultMemoizationService,
+            DealResourceService dealResourceService
     ) {
         this.workerConfigurationService = workerConfigurationService;
         this.iexecHubService = iexecHubService;
@@ -80,6 +88,9 @@ public class TaskManagerService {
         this.teeSconeService = teeSconeService;
         this.dataService = dataService;
         this.resultService = resultService;
+        this.taskPrefetcher = taskPrefetcher;
+        this.resultMemoizationService = resultMemoizationService;
+        this.dealResourceService = dealResourceService;
     }
 
     ReplicateActionResponse start(String chainTaskId) {
@@ -103,6 +114,14 @@ public class TaskManagerService {
                     context, chainTaskId);
         }
 
+        // speculative, later stages await these downloads
+        taskPrefetcher.prefetch(chainTaskId, TaskPrefetcher.Stage.APP_DOWNLOAD,
+                () -> computeManagerService.downloadApp(taskDescription));
+        taskPrefetcher.prefetch(chainTaskId, TaskPrefetcher.Stage.DATA_DOWNLOAD,
+                () -> {
+                    downloadDatasetAndInputFiles(taskDescription);
+                    return true;
+                });
         return ReplicateActionResponse.success();
     }
 
@@ -122,7 +141,8 @@ public class TaskManagerService {
                     context, chainTaskId);
         }
 
-        if (computeManagerService.downloadApp(taskDescription)) {
+        if (taskPrefetcher.await(chainTaskId, TaskPrefetcher.Stage.APP_DOWNLOAD)
+                || computeManagerService.downloadApp(taskDescription)) {
             return ReplicateActionResponse.success();
         }
         return triggerPostComputeHookOnError(chainTaskId, context, taskDescription,
@@ -160,27 +180,8 @@ public class TaskManagerService {
                     context, chainTaskId);
         }
         try {
-            // download dataset
-            if (!taskDescription.containsDataset()) {
-                log.info("No dataset for this task [chainTaskId:{}]", chainTaskId);
-            } else if (taskDescription.isTeeTask()) {
-                log.info("Dataset will be downloaded by the pre-compute enclave " +
-                        "[chainTaskId:{}", chainTaskId);
-            } else {
-                String datasetUri = taskDescription.getDatasetUri();
-                log.info("Downloading dataset [chainTaskId:{}, uri:{}, name:{}]",
-                        chainTaskId, datasetUri, taskDescription.getDatasetName());
-                dataService.downloadStandardDataset(taskDescription);
-            }
-            // download input files
-            if (!taskDescription.containsInputFiles()) {
-                log.info("No input files for this task [chainTaskId:{}]", chainTaskId);
-            } else if (taskDescription.isTeeTask()) {
-                log.info("Input files will be downloaded by the pre-compute enclave " +
-                        "[chainTaskId:{}", chainTaskId);
-            } else {
-                log.info("Downloading input files [chainTaskId:{}]", chainTaskId);
-                dataService.downloadStandardInputFiles(chainTaskId, taskDescription.getInputFiles());
+            if (!taskPrefetcher.await(chainTaskId, TaskPrefetcher.Stage.DATA_DOWNLOAD)) {
+                downloadDatasetAndInputFiles(taskDescription);
             }
         } catch (WorkflowException e) {
             return triggerPostComputeHookOnError(chainTaskId, context, taskDescription,
@@ -189,6 +190,33 @@ public class TaskManagerService {
         return ReplicateActionResponse.success();
     }
 
+    private void downloadDatasetAndInputFiles(TaskDescription taskDescription)
+            throws WorkflowException {
+        String chainTaskId = taskDescription.getChainTaskId();
+        // download dataset
+        if (!taskDescription.containsDataset()) {
+            log.info("No dataset for this task [chainTaskId:{}]", chainTaskId);
+        } else if (taskDescription.isTeeTask()) {
+            log.info("Dataset will be downloaded by the pre-compute enclave " +
+                    "[chainTaskId:{}", chainTaskId);
+        } else {
+            String datasetUri = taskDescription.getDatasetUri();
+            log.info("Downloading dataset [chainTaskId:{}, uri:{}, name:{}]",
+                    chainTaskId, datasetUri, taskDescription.getDatasetName());
+            dataService.downloadStandardDataset(taskDescription);
+        }
+        // download input files
+        if (!taskDescription.containsInputFiles()) {
+            log.info("No input files for this task [chainTaskId:{}]", chainTaskId);
+        } else if (taskDescription.isTeeTask()) {
+            log.info("Input files will be downloaded by the pre-compute enclave " +
+                    "[chainTaskId:{}", chainTaskId);
+        } else {
+            log.info("Downloading input files [chainTaskId:{}]", chainTaskId);
+            dataService.downloadStandardInputFiles(chainTaskId, taskDescription.getInputFiles());
+        }
+    }
+
     private ReplicateActionResponse triggerPostComputeHookOnError(String chainTaskId,
                                                                   String context,
                                                                   TaskDescription taskDescription,
@@ -227,6 +255,20 @@ public class TaskManagerService {
                     context, chainTaskId);
         }
 
+        // computed before the app may alter its inputs
+        Optional<String> memoizationKey = resultMemoizationService.getKey(taskDescription);
+        if (memoizationKey.isPresent()
+                && resultMemoizationService.restore(chainTaskId, memoizationKey.get())) {
+            PostComputeResponse postResponse =
+                    computeManagerService.runPostCompute(taskDescription, "");
+            if (!postResponse.isSuccessful()) {
+                logError("post compute error", context, chainTaskId);
+                return ReplicateActionResponse.failureWithStdout(POST_COMPUTE_FAILED,
+                        postResponse.getStdout());
+            }
+            return ReplicateActionResponse.successWithStdout(postResponse.getStdout());
+        }
+
         WorkerpoolAuthorization workerpoolAuthorization =
                 contributionService.getWorkerpoolAuthorization(chainTaskId);
 
@@ -254,6 +296,7 @@ public class TaskManagerService {
             return ReplicateActionResponse.failureWithStdout(POST_COMPUTE_FAILED,
                     postResponse.getStdout());
         }
+        memoizationKey.ifPresent(key -> resultMemoizationService.memoize(chainTaskId, key));
         return ReplicateActionResponse.successWithStdout(preResponse.getStdout() +
                 "\n" + appResponse.getStdout() + "\n" + postResponse.getStdout());
     }
@@ -322,6 +365,8 @@ public class TaskManagerService {
             logError("get result digest error", context, chainTaskId);
             return ReplicateActionResponse.failure(DETERMINISM_HASH_NOT_FOUND);
         }
+        // contribution is part of the consensus, send the result chunks while revealing
+        resultService.stageResultUpload(chainTaskId);
 
         if (!revealService.isConsensusBlockReached(chainTaskId,
                 consensusBlock)) {
@@ -375,6 +420,8 @@ public class TaskManagerService {
     }
 
     ReplicateActionResponse complete(String chainTaskId) {
+        taskPrefetcher.cancel(chainTaskId);
+        dealResourceService.release(chainTaskId);
         if (!resultService.removeResult(chainTaskId)) {
             return ReplicateActionResponse.failure();
         }
@@ -383,6 +430,8 @@ public class TaskManagerService {
     }
 
     boolean abort(String chainTaskId) {
+        taskPrefetcher.cancel(chainTaskId);
+        dealResourceService.release(chainTaskId);
         return resultService.removeResult(chainTaskId);
     }
 
@@ -27,15 +27,20 @@ import com.iexec.common.replicate.ReplicateStatusUpdate;
 import com.iexec.common.task.TaskDescription;
 import com.iexec.worker.chain.ContributionService;
 import com.iexec.worker.chain.IexecHubService;
-import com.iexec.worker.feign.CustomCoreFeignClient;
 import com.iexec.worker.pubsub.SubscriptionService;
+import com.iexec.worker.replicate.ReplicateProgressMonitor;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static com.iexec.common.replicate.ReplicateStatus.*;
 import static com.iexec.common.replicate.ReplicateStatusCause.*;
 
@@ -44,40 +49,98 @@ import static com.iexec.common.replicate.ReplicateStatusCause.*;
 @Service
 public class TaskNotificationService {
 
+    private static final CompletableFuture<TaskNotificationType> NO_NEXT_ACTION =
+            CompletableFuture.completedFuture(null);
+
     private final TaskManagerService taskManagerService;
-    private final CustomCoreFeignClient customCoreFeignClient;
     private final ApplicationEventPublisher applicationEventPublisher;
     private final SubscriptionService subscriptionService;
     private final ContributionService contributionService;
     private final IexecHubService iexecHubService;
-
+    private final ReplicateProgressMonitor replicateProgressMonitor;
+    private final ReplicateStatusPipeline replicateStatusPipeline;
+    private final TaskMailboxes taskMailboxes;
+    // last status reported by the worker for each running task
+    private final Map<String, ReplicateStatus> replicateStatuses = new ConcurrentHashMap<>();
 
     public TaskNotificationService(
             TaskManagerService taskManagerService,
-            CustomCoreFeignClient customCoreFeignClient,
             ApplicationEventPublisher applicationEventPublisher,
             SubscriptionService subscriptionService,
             ContributionService contributionService,
-            IexecHubService iexecHubService) {
+            IexecHubService iexecHubService,
+            ReplicateProgressMonitor replicateProgressMonitor,
+            ReplicateStatusPipeline replicateStatusPipeline) {
         this.taskManagerService = taskManagerService;
-        this.customCoreFeignClient = customCoreFeignClient;
         this.applicationEventPublisher = applicationEventPublisher;
         this.subscriptionService = subscriptionService;
         this.contributionService = contributionService;
         this.iexecHubService = iexecHubService;
+        this.replicateProgressMonitor = replicateProgressMonitor;
+        this.replicateStatusPipeline = replicateStatusPipeline;
+        this.taskMailboxes = new TaskMailboxes("task-notification-");
+    }
+
+    @PreDestroy
+    void shutdown() {
+        taskMailboxes.shutdown();
     }
 
     /**
      * Note to dev: In spring the code executed in an @EventListener method will be in the same thread than the
-     * method that triggered the event. We don't want this to be the case here so this method should be Async.
+     * method that triggered the event. We don't want this to be the case here so notifications are handled
+     * in the mailbox of their task. Notifications of the same task are handled one after the other, so
+     * that a stage never runs twice at the same time, while different tasks are handled in parallel.
      */
     @EventListener
-    @Async
+    protected void dispatchTaskNotification(TaskNotification notification) {
+        String chainTaskId = notification.getChainTaskId();
+        if (chainTaskId == null) {
+            log.error("Cannot dispatch TaskNotification without chainTaskId [action:{}]",
+                    notification.getTaskNotificationType());
+            return;
+        }
+        taskMailboxes.submit(chainTaskId, () -> {
+            if (isStaleOrDuplicate(notification)) {
+                log.info("Ignoring unexpected TaskNotification [chainTaskId:{}, action:{}, " +
+                        "replicateStatus:{}]", chainTaskId, notification.getTaskNotificationType(),
+                        replicateStatuses.get(chainTaskId));
+                return;
+            }
+            try {
+                onTaskNotification(notification);
+            } finally {
+                if (isTaskOver(notification.getTaskNotificationType())) {
+                    replicateStatuses.remove(chainTaskId);
+                    replicateProgressMonitor.forget(chainTaskId);
+                }
+            }
+        });
+    }
+
+    /**
+     * A notification is handled only if its stage can follow the last
+     * status of the replicate. Notifications of a stage which already
+     * ran are stale or duplicate, and notifications jumping ahead of
+     * the next stage, e.g. a replayed notification queued behind the
+     * running stage, would skip a stage. Failed stages can be retried
+     * and actions outside of the stages, such as aborts, are always
+     * handled.
+     */
+    boolean isStaleOrDuplicate(TaskNotification notification) {
+        Optional<ReplicateStage> stage = ReplicateStage.of(notification.getTaskNotificationType());
+        ReplicateStatus currentStatus = replicateStatuses.get(notification.getChainTaskId());
+        if (stage.isEmpty() || currentStatus == null) {
+            return false;
+        }
+        return !stage.get().canRunAfter(currentStatus);
+    }
+
     protected void onTaskNotification(TaskNotification notification) {
         String chainTaskId = notification.getChainTaskId();
         TaskNotificationType action = notification.getTaskNotificationType();
         ReplicateActionResponse actionResponse = null;
-        TaskNotificationType nextAction = null;
+        CompletableFuture<TaskNotificationType> nextAction = NO_NEXT_ACTION;
         log.debug("Received TaskNotification [chainTaskId:{}, action:{}]", chainTaskId, action);
 
         if (action == null) {
@@ -198,17 +261,35 @@ public class TaskNotificationService {
                 break;
         }
 
-        if (nextAction != null) {
-            log.debug("Sending next action [chainTaskId:{}, nextAction:{}]", chainTaskId, nextAction);
-            applicationEventPublisher.publishEvent(TaskNotification.builder()
-                    .chainTaskId(chainTaskId)
-                    .taskNotificationType(nextAction)
-                    .build()
-            );
-        } else {
-            log.warn("No more actions to do [chainTaskId:{}]", chainTaskId);
-        }
+        // the mailbox is not held while the core answers
+        nextAction.thenAccept(next -> {
+            if (next != null) {
+                log.debug("Sending next action [chainTaskId:{}, nextAction:{}]", chainTaskId, next);
+                applicationEventPublisher.publishEvent(TaskNotification.builder()
+                        .chainTaskId(chainTaskId)
+                        .taskNotificationType(next)
+                        .build()
+                );
+            } else {
+                log.warn("No more actions to do [chainTaskId:{}]", chainTaskId);
+            }
+        });
+    }
 
+    private boolean isTaskOver(TaskNotificationType action) {
+        return action == TaskNotificationType.PLEASE_COMPLETE
+                || action == TaskNotificationType.PLEASE_ABORT_CONTRIBUTION_TIMEOUT
+                || action == TaskNotificationType.PLEASE_ABORT_CONSENSUS_REACHED
+                || action == TaskNotificationType.PLEASE_ABORT;
+    }
+
+    /**
+     * @return true if the action starts a stage or ends the task,
+     * false if the replicate has nothing to do (e.g. PLEASE_WAIT)
+     */
+    private boolean isHandledAction(TaskNotificationType action) {
+        return action != null
+                && (ReplicateStage.of(action).isPresent() || isTaskOver(action));
     }
 
     private boolean storeWorkerpoolAuthorizationFromExtraIfPresent(TaskNotificationExtra extra) {
@@ -218,22 +299,22 @@ public class TaskNotificationService {
         return true;
     }
 
-    private TaskNotificationType updateStatusAndGetNextAction(String chainTaskId,
-                                                              ReplicateStatus status) {
+    private CompletableFuture<TaskNotificationType> updateStatusAndGetNextAction(String chainTaskId,
+                                                                                 ReplicateStatus status) {
         ReplicateStatusUpdate statusUpdate = new ReplicateStatusUpdate(status);
         return updateStatusAndGetNextAction(chainTaskId, statusUpdate);
     }
 
-    private TaskNotificationType updateStatusAndGetNextAction(String chainTaskId,
-                                                              ReplicateStatus status,
-                                                              ReplicateStatusCause cause) {
+    private CompletableFuture<TaskNotificationType> updateStatusAndGetNextAction(String chainTaskId,
+                                                                                 ReplicateStatus status,
+                                                                                 ReplicateStatusCause cause) {
         ReplicateStatusUpdate statusUpdate = new ReplicateStatusUpdate(status, cause);
         return updateStatusAndGetNextAction(chainTaskId, statusUpdate);
     }
 
-    private TaskNotificationType updateStatusAndGetNextAction(String chainTaskId,
-                                                              ReplicateStatus status,
-                                                              ReplicateStatusDetails details) {
+    private CompletableFuture<TaskNotificationType> updateStatusAndGetNextAction(String chainTaskId,
+                                                                                 ReplicateStatus status,
+                                                                                 ReplicateStatusDetails details) {
         ReplicateStatusUpdate statusUpdate = ReplicateStatusUpdate.builder()
                 .status(status)
                 .details(details)
@@ -242,14 +323,28 @@ public class TaskNotificationService {
         return updateStatusAndGetNextAction(chainTaskId, statusUpdate);
     }
 
-    private TaskNotificationType updateStatusAndGetNextAction(String chainTaskId, ReplicateStatusUpdate statusUpdate) {
+    private CompletableFuture<TaskNotificationType> updateStatusAndGetNextAction(String chainTaskId, ReplicateStatusUpdate statusUpdate) {
         log.info("update replicate request [chainTaskId:{}, status:{}, details:{}]",
                 chainTaskId, statusUpdate.getStatus(), statusUpdate.getDetailsWithoutStdout());
 
-        TaskNotificationType next = customCoreFeignClient.updateReplicateStatus(chainTaskId, statusUpdate);
-
-        log.info("update replicate response [chainTaskId:{}, status:{}, next:{}]",
-                chainTaskId, statusUpdate.getStatus(), next);
-        return next;
+        ReplicateStatus status = statusUpdate.getStatus();
+        replicateStatuses.put(chainTaskId, status);
+        if (ReplicateStage.isRunningStatus(status)) {
+            replicateProgressMonitor.forget(chainTaskId);
+            // the next action is only given for the outcome of a stage
+            replicateStatusPipeline.sendInProgress(chainTaskId, statusUpdate);
+            return NO_NEXT_ACTION;
+        }
+        return replicateStatusPipeline.send(chainTaskId, statusUpdate).thenApply(next -> {
+            if (ReplicateStage.isFinalStatus(status) || isHandledAction(next)) {
+                replicateProgressMonitor.forget(chainTaskId);
+            } else if (replicateStatuses.get(chainTaskId) == status) {
+                // only a notification of the core can move the replicate on
+                replicateProgressMonitor.onWaitingForCore(chainTaskId);
+            }
+            log.info("update replicate response [chainTaskId:{}, status:{}, next:{}]",
+                    chainTaskId, status, next);
+            return next;
+        });
     }
 }
\ No newline at end of file
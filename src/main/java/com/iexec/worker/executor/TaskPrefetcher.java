@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.executor;
+
+import com.iexec.worker.config.WorkerConfigurationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run download stages of a task in background as soon as the task is
+ * started, without waiting for the core to request them. The stage
+ * requested later on only awaits the prefetch result.
+ */
+@Slf4j
+@Service
+public class TaskPrefetcher {
+
+    enum Stage {
+        APP_DOWNLOAD,
+        DATA_DOWNLOAD
+    }
+
+    private final WorkerConfigurationService workerConfigurationService;
+    private final ExecutorService prefetchExecutor;
+    private final Map<String, Map<Stage, Future<Boolean>>> prefetches;
+
+    public TaskPrefetcher(WorkerConfigurationService workerConfigurationService) {
+        this.workerConfigurationService = workerConfigurationService;
+        this.prefetchExecutor = Executors.newCachedThreadPool(
+                new CustomizableThreadFactory("prefetch-"));
+        this.prefetches = new ConcurrentHashMap<>();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * Start a stage in background if prefetch is enabled.
+     *
+     * @param chainTaskId
+     * @param stage
+     * @param download returns true if the stage succeeded
+     */
+    void prefetch(String chainTaskId, Stage stage, Callable<Boolean> download) {
+        if (!workerConfigurationService.isPrefetchEnabled()) {
+            return;
+        }
+        log.info("Prefetching [chainTaskId:{}, stage:{}]", chainTaskId, stage);
+        prefetches.computeIfAbsent(chainTaskId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(stage, s -> prefetchExecutor.submit(download));
+    }
+
+    /**
+     * Wait for the prefetch of a stage to finish. A failed prefetch is not
+     * reported, the caller is expected to run the stage again to get a
+     * proper error.
+     *
+     * @param chainTaskId
+     * @param stage
+     * @return true if the stage was prefetched successfully
+     */
+    boolean await(String chainTaskId, Stage stage) {
+        Map<Stage, Future<Boolean>> taskPrefetches = prefetches.get(chainTaskId);
+        Future<Boolean> prefetch = taskPrefetches != null ? taskPrefetches.remove(stage) : null;
+        if (prefetch == null) {
+            return false;
+        }
+        try {
+            boolean isPrefetched = Boolean.TRUE.equals(prefetch.get());
+            log.info("Awaited prefetch [chainTaskId:{}, stage:{}, success:{}]",
+                    chainTaskId, stage, isPrefetched);
+            return isPrefetched;
+        } catch (ExecutionException | CancellationException e) {
+            log.warn("Prefetch failed [chainTaskId:{}, stage:{}]", chainTaskId, stage, e);
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while awaiting prefetch [chainTaskId:{}, stage:{}]",
+                    chainTaskId, stage);
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Cancel running prefetches of a task and forget them.
+     *
+     * @param chainTaskId
+     */
+    void cancel(String chainTaskId) {
+        Map<Stage, Future<Boolean>> taskPrefetches = prefetches.remove(chainTaskId);
+        if (taskPrefetches == null) {
+            return;
+        }
+        taskPrefetches.forEach((stage, prefetch) -> {
+            if (prefetch.cancel(true)) {
+                log.info("Cancelled prefetch [chainTaskId:{}, stage:{}]", chainTaskId, stage);
+            }
+        });
+    }
+}
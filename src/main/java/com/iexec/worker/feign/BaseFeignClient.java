@@ -16,13 +16,12 @@
 
 package com.iexec.worker.feign;
 
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
 
-import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
-import feign.FeignException;
 import lombok.extern.slf4j.Slf4j;
 
 
@@ -32,85 +31,57 @@ public abstract class BaseFeignClient {
     /**
      * This is a generic functional interface to define an HTTP call.
      * T: type of the response body. It can be Void.
-     * Object[]: array of the call arguments
+     * String: token of the attempt, null if the call is not authenticated
      */
-    public interface HttpCall<T> extends Function<Map<String, Object>, ResponseEntity<T>> {}
+    public interface HttpCall<T> extends Function<String, ResponseEntity<T>> {}
+
+    private final HttpRetryEngine httpRetryEngine;
+
+    protected BaseFeignClient(HttpRetryEngine httpRetryEngine) {
+        this.httpRetryEngine = httpRetryEngine;
+    }
 
     /*
      * This method should be overridden in
      * the subclass to define the login logic.
+     * It gets the token rejected by the server and
+     * returns the token to use for the next attempt.
      */
-    abstract String login();
+    abstract String login(String rejectedToken);
 
     /*
-     * Retry configuration values (max attempts, back off delay...) 
+     * Generic method to make http calls. Failed calls are retried
+     * by the HttpRetryEngine (backoff, circuit breaker and retry
+     * budget of the endpoint). If the token is rejected, a new one
+     * is used for the next attempt.
+     * The calling thread waits for the result, use makeHttpCallAsync
+     * to release it while waiting.
      */
-    private final int MAX_ATTEMPTS = 3;
-    private final int BACK_OFF_DELAY = 2000; // 2s
-
-    /*
-     * Generic method to make http calls.
-     * If "infiniteRetry" is true or the status of the call is -1
-     * the method will retry infinitely until it gets a valid
-     * response.
-     */
-    <T> ResponseEntity<T> makeHttpCall(HttpCall<T> call, Map<String, Object> args, String action) {
-        return makeHttpCall(call, args, action, false);
+    <T> ResponseEntity<T> makeHttpCall(HttpCall<T> call, String jwtoken, String action) {
+        return waitFor(makeHttpCallAsync(call, jwtoken, action));
     }
 
-    <T> ResponseEntity<T> makeHttpCall(HttpCall<T> call, Map<String, Object> args, String action, boolean infiniteRetry) {
-        int attempt = 0;
-        int status = -1;
-
-        while (shouldRetry(infiniteRetry, attempt, status)) {
-            try {
-                return call.apply(args);
-            } catch (FeignException e) {
-                status = e.status();
-
-                if (is4xxClientError(status) && args != null && args.containsKey("jwtoken")) {
-                    // login and update token for the next call
-                    String newJwToken = login();
-                    args.put("jwtoken", newJwToken);
-                }
-            }
-
-            attempt++;
-            sleep(BACK_OFF_DELAY);
-        }
-
-        log.error("Failed to make http call [action:{}, status:{}, attempts:{}]",
-                action, toHttpStatus(status), attempt);
-        return ResponseEntity.status(status).build();
+    <T> CompletableFuture<ResponseEntity<T>> makeHttpCallAsync(HttpCall<T> call, String jwtoken, String action) {
+        return httpRetryEngine.execute(action, call, jwtoken, this::login);
     }
 
-    private boolean shouldRetry(boolean infiniteRetry, int attempt, int status) {
-        return infiniteRetry || attempt < MAX_ATTEMPTS || status < 0;
-    }
-
-    private String toHttpStatus(int status) {
-        if (status <= 0) {
-            return String.valueOf(status);
+    /*
+     * Wait for an asynchronous call, an unexpected exception
+     * of the call is thrown as is to the caller.
+     */
+    <T> T waitFor(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
-
-        return HttpStatus.valueOf(status).toString();
     }
 
     boolean is2xxSuccess(ResponseEntity<?> response) {
         int status = response.getStatusCodeValue();
-        return status > 0 && HttpStatus.valueOf(status).is2xxSuccessful();
-    }
-
-    boolean is4xxClientError(int status) {
-        return status > 0 && HttpStatus.valueOf(status).is4xxClientError();
-    }
-
-    private void sleep(int millis) {
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            log.error("Error while sleeping");
-            e.printStackTrace();
-        }
+        return status >= 200 && status < 300;
     }
-}
\ No newline at end of file
+}
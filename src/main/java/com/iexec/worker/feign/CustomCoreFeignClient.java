@@ -23,11 +23,16 @@ import com.iexec.common.notification.TaskNotification;
 import com.iexec.common.notification.TaskNotificationType;
 import com.iexec.common.replicate.ReplicateStatusUpdate;
 import com.iexec.worker.feign.client.CoreClient;
+import com.iexec.worker.feign.client.ReplicateStatusUpdateRequest;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
-import java.util.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 
 @Slf4j
@@ -38,96 +43,80 @@ public class CustomCoreFeignClient extends BaseFeignClient {
     public static final String BLOCK_NUMBER = "blockNumber";
     private final LoginService loginService;
     private final CoreClient coreClient;
+    private volatile boolean batchStatusUpdateSupported = true;
 
-    public CustomCoreFeignClient(CoreClient coreClient, LoginService loginService) {
+    public CustomCoreFeignClient(CoreClient coreClient, LoginService loginService,
+                                 HttpRetryEngine httpRetryEngine) {
+        super(httpRetryEngine);
         this.loginService = loginService;
         this.coreClient = coreClient;
     }
 
     @Override
-    String login() {
-        return loginService.login();
+    String login(String rejectedToken) {
+        return loginService.login(rejectedToken);
     }
 
     /*
      * How does it work?
      * We create an HttpCall<T>, T being the type of the response
-     * body and it can be Void. We send it along with the arguments
-     * to the generic "makeHttpCall()" method. If the call was
+     * body and it can be Void. We send it along with the current
+     * token to the generic "makeHttpCall()" method. If the call was
      * successful, we return a ResponseEntity<T> with the response
      * body, otherwise, we return a ResponseEntity with the call's failure
      * status.
      *
      * How to pass call args?
-     * We put call params in a Map<String, Object> (see below)
-     * and we pass the Map as an argument to the lambda expression.
-     * Inside the lambda expression we cast the arguments into their
-     * original types required by the method to be called.
-     * (Casting arguments is safe).
+     * Call args are captured by the lambda expression. The token is
+     * the only argument changing between attempts (after a new login),
+     * so it is the one passed to the lambda expression.
      */
 
     public PublicConfiguration getPublicConfiguration() {
-        HttpCall<PublicConfiguration> httpCall = args -> coreClient.getPublicConfiguration();
+        HttpCall<PublicConfiguration> httpCall = jwtoken -> coreClient.getPublicConfiguration();
         ResponseEntity<PublicConfiguration> response = makeHttpCall(httpCall, null, "getPublicConfig");
         return is2xxSuccess(response) ? response.getBody() : null;
     }
 
     public String getCoreVersion() {
-        HttpCall<String> httpCall = args -> coreClient.getCoreVersion();
+        HttpCall<String> httpCall = jwtoken -> coreClient.getCoreVersion();
         ResponseEntity<String> response = makeHttpCall(httpCall, null, "getCoreVersion");
         return is2xxSuccess(response) ? response.getBody() : null;
     }
 
     public String ping() {
-        Map<String, Object> arguments = new HashMap<>();
-        arguments.put(JWTOKEN, loginService.getToken());
-        HttpCall<String> httpCall = args -> coreClient.ping((String) args.get(JWTOKEN));
-        ResponseEntity<String> response = makeHttpCall(httpCall, arguments, "ping");
+        HttpCall<String> httpCall = coreClient::ping;
+        ResponseEntity<String> response = makeHttpCall(httpCall, loginService.getToken(), "ping");
         return is2xxSuccess(response) && response.getBody() != null ? response.getBody() : "";
     }
 
     //TODO: Make registerWorker return Worker
     public boolean registerWorker(WorkerModel model) {
-        Map<String, Object> arguments = new HashMap<>();
-        arguments.put(JWTOKEN, loginService.getToken());
-        arguments.put("model", model);
-        HttpCall<Void> httpCall = args -> coreClient.registerWorker((String) args.get(JWTOKEN), (WorkerModel) args.get("model"));
-        ResponseEntity<Void> response = makeHttpCall(httpCall, arguments, "registerWorker");
+        HttpCall<Void> httpCall = jwtoken -> coreClient.registerWorker(jwtoken, model);
+        ResponseEntity<Void> response = makeHttpCall(httpCall, loginService.getToken(), "registerWorker");
         return is2xxSuccess(response);
     }
 
     public List<String> getComputingTasks() {
-        Map<String, Object> arguments = new HashMap<>();
-        arguments.put(JWTOKEN, loginService.getToken());
-
-        HttpCall<List<String>> httpCall = args ->
-                coreClient.getComputingTasks((String) args.get(JWTOKEN));
-
-        ResponseEntity<List<String>> response = makeHttpCall(httpCall, arguments, "getComputingTasks");
+        HttpCall<List<String>> httpCall = coreClient::getComputingTasks;
+        ResponseEntity<List<String>> response =
+                makeHttpCall(httpCall, loginService.getToken(), "getComputingTasks");
         return is2xxSuccess(response) ? response.getBody() : Collections.emptyList();
     }
 
     public List<TaskNotification> getMissedTaskNotifications(long lastAvailableBlockNumber) {
-        Map<String, Object> arguments = new HashMap<>();
-        arguments.put(JWTOKEN, loginService.getToken());
-        arguments.put(BLOCK_NUMBER, lastAvailableBlockNumber);
-
-        HttpCall<List<TaskNotification>> httpCall = args ->
-                coreClient.getMissedTaskNotifications((String) args.get(JWTOKEN), (long) args.get(BLOCK_NUMBER));
-
-        ResponseEntity<List<TaskNotification>> response = makeHttpCall(httpCall, arguments, "getMissedNotifications");
+        HttpCall<List<TaskNotification>> httpCall = jwtoken ->
+                coreClient.getMissedTaskNotifications(jwtoken, lastAvailableBlockNumber);
+        ResponseEntity<List<TaskNotification>> response =
+                makeHttpCall(httpCall, loginService.getToken(), "getMissedNotifications");
         return is2xxSuccess(response) ? response.getBody() : Collections.emptyList();
     }
 
     public Optional<WorkerpoolAuthorization> getAvailableReplicate(long lastAvailableBlockNumber) {
-        Map<String, Object> arguments = new HashMap<>();
-        arguments.put(JWTOKEN, loginService.getToken());
-        arguments.put(BLOCK_NUMBER, lastAvailableBlockNumber);
-
-        HttpCall<WorkerpoolAuthorization> httpCall = args ->
-                coreClient.getAvailableReplicate((String) args.get(JWTOKEN), (long) args.get(BLOCK_NUMBER));
-
-        ResponseEntity<WorkerpoolAuthorization> response = makeHttpCall(httpCall, arguments, "getAvailableReplicate");
+        HttpCall<WorkerpoolAuthorization> httpCall = jwtoken ->
+                coreClient.getAvailableReplicate(jwtoken, lastAvailableBlockNumber);
+        ResponseEntity<WorkerpoolAuthorization> response =
+                makeHttpCall(httpCall, loginService.getToken(), "getAvailableReplicate");
         if (!is2xxSuccess(response) || response.getBody() == null) {
             return Optional.empty();
         }
@@ -136,21 +125,55 @@ public class CustomCoreFeignClient extends BaseFeignClient {
     }
 
     public TaskNotificationType updateReplicateStatus(String chainTaskId, ReplicateStatusUpdate replicateStatusUpdate) {
-        Map<String, Object> arguments = new HashMap<>();
-        arguments.put(JWTOKEN, loginService.getToken());
-        arguments.put("chainTaskId", chainTaskId);
-        arguments.put("statusUpdate", replicateStatusUpdate);
-
-        HttpCall<TaskNotificationType> httpCall = args ->
-                coreClient.updateReplicateStatus((String) args.get(JWTOKEN), (String) args.get("chainTaskId"),
-                        (ReplicateStatusUpdate) args.get("statusUpdate"));
-
-        ResponseEntity<TaskNotificationType> response = makeHttpCall(httpCall, arguments, "updateReplicateStatus");
-        if (!is2xxSuccess(response)) {
-            return null;
-        }
+        return waitFor(updateReplicateStatusAsync(chainTaskId, replicateStatusUpdate));
+    }
+
+    /**
+     * Same as {@link #updateReplicateStatus(String, ReplicateStatusUpdate)}
+     * without holding the calling thread while the update is retried.
+     *
+     * @return the next action, completed with null if the update failed
+     */
+    public CompletableFuture<TaskNotificationType> updateReplicateStatusAsync(
+            String chainTaskId, ReplicateStatusUpdate replicateStatusUpdate) {
+        HttpCall<TaskNotificationType> httpCall = jwtoken ->
+                coreClient.updateReplicateStatus(jwtoken, chainTaskId, replicateStatusUpdate);
+        return makeHttpCallAsync(httpCall, loginService.getToken(), "updateReplicateStatus")
+                .thenApply(response -> {
+                    if (!is2xxSuccess(response)) {
+                        return null;
+                    }
+                    log.info(replicateStatusUpdate.getStatus().toString() + " [chainTaskId:{}]", chainTaskId);
+                    return response.getBody();
+                });
+    }
+
+    /**
+     * Send the status updates of several replicates in a single call.
+     * Cores answering with a 404 or 405 do not support batches, batches
+     * are then disabled and the updates should be sent one by one.
+     *
+     * @return next actions in the order of the updates, completed with
+     * null if the batch failed
+     */
+    public CompletableFuture<List<TaskNotificationType>> updateReplicateStatusesAsync(
+            List<ReplicateStatusUpdateRequest> replicateStatusUpdates) {
+        HttpCall<List<TaskNotificationType>> httpCall = jwtoken ->
+                coreClient.updateReplicateStatuses(jwtoken, replicateStatusUpdates);
+        return makeHttpCallAsync(httpCall, loginService.getToken(), "updateReplicateStatuses")
+                .thenApply(response -> {
+                    int status = response.getStatusCodeValue();
+                    if (status == HttpStatus.NOT_FOUND.value()
+                            || status == HttpStatus.METHOD_NOT_ALLOWED.value()) {
+                        log.warn("Batch status updates not supported by core, sending them one by one");
+                        batchStatusUpdateSupported = false;
+                        return null;
+                    }
+                    return is2xxSuccess(response) ? response.getBody() : null;
+                });
+    }
 
-        log.info(replicateStatusUpdate.getStatus().toString() + " [chainTaskId:{}]", chainTaskId);
-        return response.getBody();
+    public boolean isBatchStatusUpdateSupported() {
+        return batchStatusUpdateSupported;
     }
 }
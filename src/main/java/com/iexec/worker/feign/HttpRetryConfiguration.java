@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.feign;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Retries of the HTTP calls made to the core and the result proxy.
+ * Circuit breakers and retry budgets are kept per endpoint.
+ */
+@Getter
+@Configuration
+public class HttpRetryConfiguration {
+
+    /**
+     * Maximum number of attempts of a call answered with an HTTP error.
+     * Calls failing without response are also bounded by the retry
+     * budget and the circuit breaker of their endpoint.
+     */
+    @Value("${http-retry.max-attempts}")
+    private int maxAttempts;
+
+    /**
+     * Delay before the first retry, doubled on each retry with jitter.
+     */
+    @Value("${http-retry.initial-backoff-ms}")
+    private long initialBackoffMs;
+
+    /**
+     * Upper bound of the delay between two attempts.
+     */
+    @Value("${http-retry.max-backoff-ms}")
+    private long maxBackoffMs;
+
+    /**
+     * Number of consecutive failures (no response or 5xx) opening the
+     * circuit of an endpoint. Calls to an open circuit fail without
+     * reaching the endpoint. 0 to disable circuit breakers.
+     */
+    @Value("${http-retry.circuit-breaker-failure-threshold}")
+    private int circuitBreakerFailureThreshold;
+
+    /**
+     * Time an open circuit waits before letting a single probe call
+     * through, the circuit is closed again if it succeeds.
+     */
+    @Value("${http-retry.circuit-breaker-open-ms}")
+    private long circuitBreakerOpenMs;
+
+    /**
+     * Retries allowed per call of an endpoint on average, 0.2 means
+     * retries cannot add more than 20% of load to a failing endpoint.
+     */
+    @Value("${http-retry.retry-budget-ratio}")
+    private double retryBudgetRatio;
+
+    /**
+     * Retries an endpoint can spend in a burst, regardless of the ratio.
+     */
+    @Value("${http-retry.retry-budget-burst}")
+    private int retryBudgetBurst;
+}
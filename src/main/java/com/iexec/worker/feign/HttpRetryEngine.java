@@ -0,0 +1,301 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.feign;
+
+import feign.FeignException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Run HTTP calls of {@link BaseFeignClient} and retry failed ones without
+ * blocking the caller. Attempts run on a shared pool, the delay between
+ * them is waited on a scheduler instead of a sleeping thread.
+ * <p>
+ * Each endpoint (the action name of the call) has:
+ * <ul>
+ * <li>a circuit breaker, opened after consecutive failures. While open,
+ * calls fail without reaching the endpoint, then a single probe is
+ * let through to close it again.</li>
+ * <li>a retry budget, each call earns a fraction of a retry so that
+ * retries cannot multiply the load of an endpoint already failing.</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class HttpRetryEngine {
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final int failureThreshold;
+    private final long openMs;
+    private final double retryBudgetRatio;
+    private final int retryBudgetBurst;
+    private final ExecutorService callExecutor;
+    private final ScheduledExecutorService retryScheduler;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    public HttpRetryEngine(HttpRetryConfiguration config) {
+        this.maxAttempts = Math.max(1, config.getMaxAttempts());
+        this.initialBackoffMs = Math.max(0, config.getInitialBackoffMs());
+        this.maxBackoffMs = Math.max(this.initialBackoffMs, config.getMaxBackoffMs());
+        this.failureThreshold = Math.max(0, config.getCircuitBreakerFailureThreshold());
+        this.openMs = Math.max(0, config.getCircuitBreakerOpenMs());
+        this.retryBudgetRatio = Math.max(0, config.getRetryBudgetRatio());
+        this.retryBudgetBurst = Math.max(0, config.getRetryBudgetBurst());
+        this.callExecutor = Executors.newCachedThreadPool(new CustomizableThreadFactory("http-call-"));
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("http-retry-"));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        retryScheduler.shutdownNow();
+        callExecutor.shutdownNow();
+    }
+
+    /**
+     * Make a call and retry it until it gets a response, the attempts,
+     * the retry budget are exhausted or the circuit of the endpoint opens.
+     * A client error is only retried, with a new token, if the token was
+     * rejected (401 or 403).
+     *
+     * @param action name of the endpoint
+     * @param call HTTP call
+     * @param jwtoken token passed to the first attempt, replaced by a new
+     * one when rejected. Null for calls without authentication.
+     * @param login provider of a new token, given the rejected one
+     * @return the response, or a response with the status of the last
+     * failure (-1 if no response was received)
+     */
+    <T> CompletableFuture<ResponseEntity<T>> execute(String action, BaseFeignClient.HttpCall<T> call,
+                                                     String jwtoken, UnaryOperator<String> login) {
+        Endpoint endpoint = endpoints.computeIfAbsent(action, name -> new Endpoint());
+        endpoint.depositRetryToken();
+        Attempts<T> attempts = new Attempts<>(action, call, jwtoken, login, endpoint);
+        submit(attempts);
+        return attempts.result;
+    }
+
+    boolean isCircuitOpen(String action) {
+        Endpoint endpoint = endpoints.get(action);
+        return endpoint != null && endpoint.isOpen(System.currentTimeMillis());
+    }
+
+    /**
+     * Exponential backoff with jitter, the delay is drawn in
+     * [d/2, d] to spread retries of concurrent calls.
+     */
+    long getBackoffMs(int attempt) {
+        if (attempt <= 0 || initialBackoffMs == 0) {
+            return 0;
+        }
+        long delayMs = initialBackoffMs << Math.min(attempt - 1, 30);
+        if (delayMs <= 0 || delayMs > maxBackoffMs) {
+            delayMs = maxBackoffMs;
+        }
+        long halfDelayMs = delayMs / 2;
+        return halfDelayMs + ThreadLocalRandom.current().nextLong(delayMs - halfDelayMs + 1);
+    }
+
+    private void submit(Attempts<?> attempts) {
+        try {
+            callExecutor.execute(attempts);
+        } catch (RejectedExecutionException e) {
+            attempts.result.completeExceptionally(e);
+        }
+    }
+
+    private void schedule(Attempts<?> attempts, long delayMs) {
+        try {
+            retryScheduler.schedule(() -> submit(attempts), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            attempts.result.completeExceptionally(e);
+        }
+    }
+
+    // numeric ranges, non standard statuses (499, 520, ...) are not in HttpStatus
+    private static boolean isServerFailure(int status) {
+        return status <= 0 || (status >= 500 && status < 600);
+    }
+
+    private static boolean is4xxClientError(int status) {
+        return status >= 400 && status < 500;
+    }
+
+    private static boolean isTokenRejected(int status) {
+        return status == HttpStatus.UNAUTHORIZED.value() || status == HttpStatus.FORBIDDEN.value();
+    }
+
+    private static String toHttpStatus(int status) {
+        HttpStatus httpStatus = HttpStatus.resolve(status);
+        return httpStatus != null ? httpStatus.toString() : String.valueOf(status);
+    }
+
+    /**
+     * Attempts of a single call, run one after the other.
+     */
+    private class Attempts<T> implements Runnable {
+
+        private final String action;
+        private final BaseFeignClient.HttpCall<T> call;
+        private final UnaryOperator<String> login;
+        private final Endpoint endpoint;
+        private final CompletableFuture<ResponseEntity<T>> result = new CompletableFuture<>();
+        private String jwtoken;
+        private int attempt;
+        private int status = -1;
+
+        private Attempts(String action, BaseFeignClient.HttpCall<T> call, String jwtoken,
+                         UnaryOperator<String> login, Endpoint endpoint) {
+            this.action = action;
+            this.call = call;
+            this.jwtoken = jwtoken;
+            this.login = login;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                // cancelled by the caller
+                return;
+            }
+            if (!endpoint.allowRequest(System.currentTimeMillis())) {
+                giveUp("circuit open");
+                return;
+            }
+            attempt++;
+            try {
+                ResponseEntity<T> response = call.apply(jwtoken);
+                endpoint.onSuccess();
+                result.complete(response);
+                return;
+            } catch (FeignException e) {
+                status = e.status();
+            } catch (RuntimeException e) {
+                // not an availability failure of the endpoint
+                endpoint.onSuccess();
+                result.completeExceptionally(e);
+                return;
+            }
+            if (isServerFailure(status)) {
+                endpoint.onFailure(action, System.currentTimeMillis());
+            } else {
+                endpoint.onSuccess();
+            }
+            if (is4xxClientError(status)) {
+                if (!isTokenRejected(status) || jwtoken == null) {
+                    // same request, same answer
+                    giveUp("client error");
+                    return;
+                }
+                // login and update token for the next attempt
+                jwtoken = login.apply(jwtoken);
+            }
+            if (status >= 0 && attempt >= maxAttempts) {
+                giveUp("attempts exhausted");
+            } else if (endpoint.isOpen(System.currentTimeMillis())) {
+                giveUp("circuit open");
+            } else if (!endpoint.tryWithdrawRetryToken()) {
+                giveUp("retry budget exhausted");
+            } else {
+                schedule(this, getBackoffMs(attempt));
+            }
+        }
+
+        private void giveUp(String reason) {
+            log.error("Failed to make http call [action:{}, status:{}, attempts:{}, reason:{}]",
+                    action, toHttpStatus(status), attempt, reason);
+            result.complete(ResponseEntity.status(status).build());
+        }
+    }
+
+    /**
+     * Circuit breaker and retry budget of an endpoint.
+     */
+    private class Endpoint {
+
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean probeInFlight;
+        private double retryTokens = retryBudgetBurst;
+
+        synchronized boolean allowRequest(long now) {
+            if (!isTripped()) {
+                return true;
+            }
+            if (now < openUntil || probeInFlight) {
+                return false;
+            }
+            // half-open, let a single probe through
+            probeInFlight = true;
+            return true;
+        }
+
+        synchronized boolean isOpen(long now) {
+            return isTripped() && (now < openUntil || probeInFlight);
+        }
+
+        synchronized void onSuccess() {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+        }
+
+        synchronized void onFailure(String action, long now) {
+            consecutiveFailures++;
+            if (isTripped() && (probeInFlight || consecutiveFailures == failureThreshold)) {
+                log.warn("Circuit opened [action:{}, consecutiveFailures:{}, openMs:{}]",
+                        action, consecutiveFailures, openMs);
+                openUntil = now + openMs;
+            }
+            probeInFlight = false;
+        }
+
+        synchronized void depositRetryToken() {
+            retryTokens = Math.min(retryBudgetBurst, retryTokens + retryBudgetRatio);
+        }
+
+        synchronized boolean tryWithdrawRetryToken() {
+            if (retryTokens < 1) {
+                return false;
+            }
+            retryTokens--;
+            return true;
+        }
+
+        private boolean isTripped() {
+            return failureThreshold > 0 && consecutiveFailures >= failureThreshold;
+        }
+    }
+}
@@ -16,9 +16,6 @@
 
 package com.iexec.worker.feign;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import com.iexec.common.security.Signature;
 import com.iexec.common.utils.SignatureUtils;
 import com.iexec.worker.chain.CredentialsService;
@@ -30,30 +27,72 @@ import org.web3j.crypto.ECKeyPair;
 
 import lombok.extern.slf4j.Slf4j;
 
+import javax.annotation.PreDestroy;
+
 
+/**
+ * Provide the token used to call the core.
+ * <p>
+ * The current token is used until a new one is ready, it is never
+ * blanked during a login. Its expiration is read from the token so
+ * that it is renewed in background before the core rejects it.
+ * Callers needing a new token at the same time (expired or rejected
+ * token) share a single login.
+ */
 @Slf4j
 @Service
 public class LoginService extends BaseFeignClient {
 
     private static final String TOKEN_PREFIX = "Bearer ";
-    private String jwtToken;
 
     private final CredentialsService credentialsService;
     private final CoreClient coreClient;
+    private final TokenHolder tokenHolder;
 
-    LoginService(CredentialsService credentialsService, CoreClient coreClient) {
+    LoginService(CredentialsService credentialsService, CoreClient coreClient,
+                 HttpRetryEngine httpRetryEngine) {
+        super(httpRetryEngine);
         this.credentialsService = credentialsService;
         this.coreClient = coreClient;
+        this.tokenHolder = new TokenHolder("core", TOKEN_PREFIX, this::requestToken);
     }
 
+    @PreDestroy
+    void shutdown() {
+        tokenHolder.shutdown();
+    }
+
+    /**
+     * Get the current token, a new one is requested only if
+     * it already expired (e.g. missed background refresh).
+     *
+     * @return the token, empty if not logged in
+     */
     public String getToken() {
-        return jwtToken;
+        return tokenHolder.isLoggedIn() ? tokenHolder.get() : "";
     }
 
-    @Override
+    /**
+     * Login to the core. The current token is kept until the new one
+     * is ready and joins the login already in progress if any.
+     *
+     * @return the new token, empty if login failed
+     */
     public String login() {
-        expireToken();
+        return tokenHolder.login();
+    }
 
+    /**
+     * Called by {@link BaseFeignClient} when the core rejected a token.
+     * Nothing is requested if the token was already replaced, so that
+     * concurrent rejections lead to a single login.
+     */
+    @Override
+    String login(String rejectedToken) {
+        return tokenHolder.replace(rejectedToken);
+    }
+
+    private String requestToken() {
         String workerAddress = credentialsService.getCredentials().getAddress();
         ECKeyPair ecKeyPair = credentialsService.getCredentials().getEcKeyPair();
 
@@ -69,29 +108,18 @@ public class LoginService extends BaseFeignClient {
             log.error("Cannot login since token is empty [token:{}]", token);
             return "";
         }
-
-        jwtToken = TOKEN_PREFIX + token;
-        return jwtToken;
-    }
-
-    private void expireToken() {
-        jwtToken = "";
+        return token;
     }
 
     private String getLoginChallenge(String workerAddress) {
-        Map<String, Object> arguments = new HashMap<>();
-        arguments.put("workerAddress", workerAddress);
-        HttpCall<String> httpCall = (args) -> coreClient.getChallenge((String) args.get("workerAddress"));
-        ResponseEntity<String> response = makeHttpCall(httpCall, arguments, "getLoginChallenge");
+        HttpCall<String> httpCall = jwtoken -> coreClient.getChallenge(workerAddress);
+        ResponseEntity<String> response = makeHttpCall(httpCall, null, "getLoginChallenge");
         return is2xxSuccess(response) && response.getBody() != null ? response.getBody() : "";
     }
 
     private String requestLogin(String workerAddress, Signature signature) {
-        Map<String, Object> arguments = new HashMap<>();
-        arguments.put("workerAddress", workerAddress);
-        arguments.put("signature", signature);
-        HttpCall<String> httpCall = (args) -> coreClient.login((String) args.get("workerAddress"), (Signature) args.get("signature"));
-        ResponseEntity<String> response = makeHttpCall(httpCall, arguments, "requestLogin");
+        HttpCall<String> httpCall = jwtoken -> coreClient.login(workerAddress, signature);
+        ResponseEntity<String> response = makeHttpCall(httpCall, null, "requestLogin");
         return is2xxSuccess(response) && response.getBody() != null ? response.getBody() : "";
     }
-}
\ No newline at end of file
+}
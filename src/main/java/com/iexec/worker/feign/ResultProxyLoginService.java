@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.feign;
+
+import com.iexec.common.result.eip712.Eip712Challenge;
+import com.iexec.common.result.eip712.Eip712ChallengeUtils;
+import com.iexec.worker.chain.CredentialsService;
+import com.iexec.worker.config.PublicConfigurationService;
+import com.iexec.worker.feign.client.ResultClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.web3j.crypto.ECKeyPair;
+
+import javax.annotation.PreDestroy;
+
+/**
+ * Provide the token used to upload results to the result proxy.
+ * <p>
+ * The token is cached until it expires and refreshed in background
+ * shortly before. Concurrent callers needing a new token share a
+ * single login (challenge, signature and login calls).
+ */
+@Slf4j
+@Service
+public class ResultProxyLoginService extends BaseFeignClient {
+
+    private final ResultClient resultClient;
+    private final CredentialsService credentialsService;
+    private final PublicConfigurationService publicConfigService;
+    private final TokenHolder tokenHolder;
+
+    public ResultProxyLoginService(ResultClient resultClient,
+                                   CredentialsService credentialsService,
+                                   PublicConfigurationService publicConfigService,
+                                   HttpRetryEngine httpRetryEngine) {
+        super(httpRetryEngine);
+        this.resultClient = resultClient;
+        this.credentialsService = credentialsService;
+        this.publicConfigService = publicConfigService;
+        this.tokenHolder = new TokenHolder("result proxy", "", this::requestToken);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        tokenHolder.shutdown();
+    }
+
+    /**
+     * Get a valid result proxy token, login only if no valid token is cached.
+     *
+     * @return the token, empty if login failed
+     */
+    public String getToken() {
+        return tokenHolder.get();
+    }
+
+    /**
+     * Forget a token rejected by the result proxy. Nothing is done if
+     * the token was already replaced by a newer one.
+     *
+     * @param rejectedToken token which was answered with a 401
+     */
+    public void invalidateToken(String rejectedToken) {
+        tokenHolder.invalidate(rejectedToken);
+    }
+
+    /**
+     * Called by {@link BaseFeignClient} when the result proxy rejected a
+     * token. The cached token is reused if it already replaced the
+     * rejected one.
+     */
+    @Override
+    String login(String rejectedToken) {
+        return tokenHolder.replace(rejectedToken);
+    }
+
+    private String requestToken() {
+        Integer chainId = publicConfigService.getChainId();
+        Eip712Challenge challenge = getChallenge(chainId);
+        if (challenge == null) {
+            log.error("Cannot login to result proxy since challenge is empty");
+            return "";
+        }
+        ECKeyPair ecKeyPair = credentialsService.getCredentials().getEcKeyPair();
+        String signedChallenge = Eip712ChallengeUtils.buildAuthorizationToken(challenge,
+                credentialsService.getCredentials().getAddress(), ecKeyPair);
+        if (signedChallenge.isEmpty()) {
+            log.error("Cannot login to result proxy since signed challenge is empty");
+            return "";
+        }
+        String token = requestLogin(chainId, signedChallenge);
+        if (token.isEmpty()) {
+            log.error("Cannot login to result proxy since token is empty");
+            return "";
+        }
+        return token;
+    }
+
+    private Eip712Challenge getChallenge(Integer chainId) {
+        HttpCall<Eip712Challenge> httpCall = jwtoken -> resultClient.getChallenge(chainId);
+        ResponseEntity<Eip712Challenge> response = makeHttpCall(httpCall, null, "getResultChallenge");
+        return is2xxSuccess(response) ? response.getBody() : null;
+    }
+
+    private String requestLogin(Integer chainId, String signedEip712Challenge) {
+        HttpCall<String> httpCall = jwtoken -> resultClient.login(chainId, signedEip712Challenge);
+        ResponseEntity<String> response = makeHttpCall(httpCall, null, "login to result proxy");
+        return is2xxSuccess(response) && response.getBody() != null ? response.getBody() : "";
+    }
+}
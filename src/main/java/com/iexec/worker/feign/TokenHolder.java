@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.feign;
+
+import com.iexec.worker.utils.JwtUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Token of a login service, renewed in background before it expires.
+ * <p>
+ * The current token is used until a new one is ready, a failed login
+ * keeps it. Its expiration is read from the token, a tenth of its
+ * remaining validity (at least 30s) is kept to retry a failed renewal.
+ * Callers needing a new token at the same time (expired or rejected
+ * token) share a single login.
+ */
+@Slf4j
+class TokenHolder {
+
+    private static final Duration MIN_REFRESH_MARGIN = Duration.ofSeconds(30);
+
+    private final String name;
+    private final String prefix;
+    private final Supplier<String> tokenRequester;
+    private final ScheduledExecutorService refreshExecutor;
+    private volatile Token current;
+    // guarded by this
+    private CompletableFuture<String> loginInProgress;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    /**
+     * @param name name of the service logged in to, for logs
+     * @param prefix prepended to the tokens given by the service
+     * @param tokenRequester login to the service, returning a new JWT or
+     * an empty string if the login failed
+     */
+    TokenHolder(String name, String prefix, Supplier<String> tokenRequester) {
+        this.name = name;
+        this.prefix = prefix;
+        this.tokenRequester = tokenRequester;
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory(name.replace(' ', '-') + "-token-refresh-"));
+    }
+
+    void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * @return true if a token was received, even if it expired since
+     */
+    boolean isLoggedIn() {
+        return current != null;
+    }
+
+    /**
+     * Get the current token, a new one is requested only if there is
+     * no token yet or if it expired (e.g. missed background refresh).
+     *
+     * @return the token, empty if login failed
+     */
+    String get() {
+        Token token = current;
+        if (token != null && !token.isExpired()) {
+            return token.value;
+        }
+        return login();
+    }
+
+    /**
+     * Request a new token, or join the login already in progress.
+     *
+     * @return the new token, empty if login failed
+     */
+    String login() {
+        CompletableFuture<String> login;
+        boolean isLoginOwner = false;
+        synchronized (this) {
+            if (loginInProgress == null) {
+                loginInProgress = new CompletableFuture<>();
+                isLoginOwner = true;
+            }
+            login = loginInProgress;
+        }
+        if (isLoginOwner) {
+            String token = "";
+            try {
+                token = requestToken();
+            } finally {
+                synchronized (this) {
+                    loginInProgress = null;
+                }
+                login.complete(token);
+            }
+        }
+        return login.join();
+    }
+
+    /**
+     * Replace a token rejected by the service. Nothing is requested if
+     * the token was already replaced, so that concurrent rejections
+     * lead to a single login. The rejected token is kept until the new
+     * one is ready.
+     *
+     * @return the new token, empty if login failed
+     */
+    String replace(String rejectedToken) {
+        Token token = current;
+        if (token != null && !token.value.equals(rejectedToken) && !token.isExpired()) {
+            return token.value;
+        }
+        return login();
+    }
+
+    /**
+     * Forget a token rejected by the service. Nothing is done if the
+     * token was already replaced by a newer one.
+     */
+    synchronized void invalidate(String rejectedToken) {
+        Token token = current;
+        if (token != null && token.value.equals(rejectedToken)) {
+            log.info("Token invalidated [service:{}]", name);
+            current = null;
+        }
+    }
+
+    private String requestToken() {
+        String token = tokenRequester.get();
+        if (token == null || token.isEmpty()) {
+            return "";
+        }
+        Instant expiration = JwtUtils.getExpiration(token).orElse(Instant.MAX);
+        Token newToken = new Token(prefix + token, expiration);
+        current = newToken;
+        scheduleRefresh(expiration);
+        log.info("Logged in [service:{}, expiration:{}]", name, expiration);
+        return newToken.value;
+    }
+
+    private synchronized void scheduleRefresh(Instant expiration) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+        if (Instant.MAX.equals(expiration)) {
+            return;
+        }
+        Duration validity = Duration.between(Instant.now(), expiration);
+        Duration margin = validity.dividedBy(10).compareTo(MIN_REFRESH_MARGIN) > 0
+                ? validity.dividedBy(10)
+                : MIN_REFRESH_MARGIN;
+        if (validity.compareTo(margin) <= 0) {
+            // too short-lived, renewed on demand once expired
+            return;
+        }
+        scheduledRefresh = refreshExecutor.schedule(this::refreshInBackground,
+                validity.minus(margin).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshInBackground() {
+        log.info("Refreshing token [service:{}]", name);
+        if (login().isEmpty()) {
+            log.warn("Failed to refresh token, it will be renewed on demand [service:{}]", name);
+        }
+    }
+
+    private static final class Token {
+
+        private final String value;
+        private final Instant expiration;
+
+        private Token(String value, Instant expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+        private boolean isExpired() {
+            return !Instant.now().isBefore(expiration);
+        }
+    }
+}
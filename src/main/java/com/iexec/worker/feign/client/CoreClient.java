@@ -85,4 +85,10 @@ public interface CoreClient {
             @RequestHeader("Authorization") String bearerToken,
             @PathVariable(name = "chainTaskId") String chainTaskId,
             @RequestBody ReplicateStatusUpdate replicateStatusUpdate) throws FeignException;
+
+    // next actions are in the order of the updates
+    @PostMapping("/replicates/updateStatuses")
+    ResponseEntity<List<TaskNotificationType>> updateReplicateStatuses(
+            @RequestHeader("Authorization") String bearerToken,
+            @RequestBody List<ReplicateStatusUpdateRequest> replicateStatusUpdates) throws FeignException;
 }
\ No newline at end of file
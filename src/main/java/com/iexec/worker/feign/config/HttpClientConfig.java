@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.feign.config;
+
+import com.iexec.worker.config.WorkerConfigurationService;
+import feign.Client;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.okhttp3.OkHttpConnectionPoolMetrics;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Single OkHttp client for the Feign clients (core, result proxy, SMS)
+ * and the RestTemplate, so that they share a pool of keep-alive
+ * connections. OkHttp transparently asks for and decompresses gzip
+ * responses.
+ */
+@Configuration
+public class HttpClientConfig {
+
+    private final WorkerConfigurationService workerConfService;
+    private final HttpClientConfiguration httpClientConfig;
+
+    public HttpClientConfig(WorkerConfigurationService workerConfService,
+                            HttpClientConfiguration httpClientConfig) {
+        this.workerConfService = workerConfService;
+        this.httpClientConfig = httpClientConfig;
+    }
+
+    @Bean
+    public ConnectionPool connectionPool() {
+        return new ConnectionPool(Math.max(0, httpClientConfig.getMaxIdleConnections()),
+                Math.max(1, httpClientConfig.getKeepAliveSeconds()), TimeUnit.SECONDS);
+    }
+
+    @Bean
+    public OkHttpClient okHttpClient(ConnectionPool connectionPool) {
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .connectTimeout(Duration.ofMillis(Math.max(0, httpClientConfig.getConnectTimeoutMs())))
+                .readTimeout(Duration.ofMillis(Math.max(0, httpClientConfig.getReadTimeoutMs())))
+                .protocols(httpClientConfig.isHttp2Enabled()
+                        ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : List.of(Protocol.HTTP_1_1))
+                .proxySelector(new WorkerProxySelector(getProxy(
+                        workerConfService.getHttpProxyHost(), workerConfService.getHttpProxyPort()),
+                        getProxy(workerConfService.getHttpsProxyHost(), workerConfService.getHttpsProxyPort()),
+                        workerConfService.getHttpNonProxyHosts()))
+                .build();
+    }
+
+    /**
+     * Used by all Feign clients. Per-client timeouts of
+     * feign.client.config are applied to each request, on
+     * connections of the same pool.
+     */
+    @Bean
+    public Client feignClient(OkHttpClient okHttpClient) {
+        return new feign.okhttp.OkHttpClient(okHttpClient);
+    }
+
+    @Bean
+    public MeterBinder connectionPoolMetrics(ConnectionPool connectionPool) {
+        return new OkHttpConnectionPoolMetrics(connectionPool, "iexec.http.pool", Tags.empty(),
+                httpClientConfig.getMaxIdleConnections());
+    }
+
+    private static Proxy getProxy(String host, Integer port) {
+        return host != null && port != null
+                ? new Proxy(Proxy.Type.HTTP, new InetSocketAddress(host, port))
+                : null;
+    }
+
+    /**
+     * Send http URLs through the http proxy and https URLs through the
+     * https proxy. If only one of them is set, it is used for both.
+     * Hosts matching http.nonProxyHosts are reached directly, as with
+     * the default JVM proxy selector.
+     */
+    static class WorkerProxySelector extends ProxySelector {
+
+        // JVM default when http.nonProxyHosts is not set
+        static final String DEFAULT_NON_PROXY_HOSTS = "localhost|127.*|[::1]";
+
+        private final Proxy httpProxy;
+        private final Proxy httpsProxy;
+        private final List<Pattern> nonProxyHosts;
+
+        WorkerProxySelector(Proxy httpProxy, Proxy httpsProxy, String nonProxyHosts) {
+            this.httpProxy = httpProxy != null ? httpProxy : httpsProxy;
+            this.httpsProxy = httpsProxy != null ? httpsProxy : httpProxy;
+            this.nonProxyHosts = toPatterns(nonProxyHosts != null
+                    ? nonProxyHosts : DEFAULT_NON_PROXY_HOSTS);
+        }
+
+        @Override
+        public List<Proxy> select(URI uri) {
+            Proxy proxy = "https".equalsIgnoreCase(uri.getScheme()) ? httpsProxy : httpProxy;
+            if (proxy == null || isNonProxyHost(uri.getHost())) {
+                return List.of(Proxy.NO_PROXY);
+            }
+            return List.of(proxy);
+        }
+
+        private boolean isNonProxyHost(String host) {
+            return host != null && nonProxyHosts.stream()
+                    .anyMatch(pattern -> pattern.matcher(host).matches());
+        }
+
+        /**
+         * @param nonProxyHosts "|" separated host patterns, "*" matching
+         *                      any characters
+         */
+        private static List<Pattern> toPatterns(String nonProxyHosts) {
+            return Arrays.stream(nonProxyHosts.split("\\|"))
+                    .map(String::trim)
+                    .filter(host -> !host.isEmpty())
+                    .map(host -> Pattern.compile(Arrays.stream(host.split("\\*", -1))
+                                    .map(Pattern::quote)
+                                    .collect(Collectors.joining(".*")),
+                            Pattern.CASE_INSENSITIVE))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public void connectFailed(URI uri, SocketAddress address, IOException e) {
+            // single route, nothing to remember
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.feign.config;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of the HTTP client shared by the Feign clients and the
+ * RestTemplate. Timeouts of each Feign client can be overridden
+ * under feign.client.config.
+ */
+@Getter
+@Configuration
+public class HttpClientConfiguration {
+
+    /**
+     * Maximum number of idle connections kept in the pool.
+     */
+    @Value("${http-client.max-idle-connections}")
+    private int maxIdleConnections;
+
+    /**
+     * Time an idle connection is kept in the pool before being closed.
+     */
+    @Value("${http-client.keep-alive-seconds}")
+    private long keepAliveSeconds;
+
+    /**
+     * Default connect timeout, 0 for no timeout.
+     */
+    @Value("${http-client.connect-timeout-ms}")
+    private long connectTimeoutMs;
+
+    /**
+     * Default read timeout, 0 for no timeout.
+     */
+    @Value("${http-client.read-timeout-ms}")
+    private long readTimeoutMs;
+
+    /**
+     * Use HTTP/2 with servers negotiating it over TLS (ALPN),
+     * HTTP/1.1 is used otherwise.
+     */
+    @Value("${http-client.http2-enabled}")
+    private boolean http2Enabled;
+}
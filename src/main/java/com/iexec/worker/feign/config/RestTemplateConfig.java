@@ -16,48 +16,34 @@
 
 package com.iexec.worker.feign.config;
 
-import com.iexec.worker.config.WorkerConfigurationService;
-
-import org.apache.http.HttpHost;
-import org.apache.http.impl.client.HttpClientBuilder;
+import okhttp3.OkHttpClient;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+
 
 @Configuration
 public class RestTemplateConfig {
 
-    private final WorkerConfigurationService workerConfService;
+    private final OkHttpClient okHttpClient;
 
-    public RestTemplateConfig(WorkerConfigurationService workerConfService) {
-        this.workerConfService = workerConfService;
-    }
-    @Bean
-    public RestTemplate restTemplate() {
-        HttpClientBuilder clientBuilder = HttpClientBuilder.create();
-        setProxy(clientBuilder);
-        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory();
-        factory.setHttpClient(clientBuilder.build());
-        return new RestTemplate(factory);
+    public RestTemplateConfig(OkHttpClient okHttpClient) {
+        this.okHttpClient = okHttpClient;
     }
 
     /*
-    * TODO
-    * Set multiple proxies
-    * Use HttpRoutePlanner to support both http & https proxies at the same time
-    * https://stackoverflow.com/a/34432952
-    * */
-    private void setProxy(HttpClientBuilder clientBuilder) {
-        HttpHost proxy = null;
-        if (workerConfService.getHttpsProxyHost() != null && workerConfService.getHttpsProxyPort() != null) {
-            proxy = new HttpHost(workerConfService.getHttpsProxyHost(), workerConfService.getHttpsProxyPort(), "https");
-        } else if (workerConfService.getHttpProxyHost() != null && workerConfService.getHttpProxyPort() != null) {
-            proxy = new HttpHost(workerConfService.getHttpProxyHost(), workerConfService.getHttpProxyPort(), "http");
-        }
-        if (proxy != null){
-            clientBuilder.setProxy(proxy);
-        }
+     * Same connections and proxy as the Feign clients. The
+     * RestTemplate carries SockJS streaming responses which stay
+     * open, so they are not subject to the read timeout.
+     */
+    @Bean
+    public RestTemplate restTemplate() {
+        OkHttpClient client = okHttpClient.newBuilder()
+                .readTimeout(Duration.ZERO)
+                .build();
+        return new RestTemplate(new OkHttp3ClientHttpRequestFactory(client));
     }
 }
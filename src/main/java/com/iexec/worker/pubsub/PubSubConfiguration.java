@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.pubsub;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of the subscriptions to the core's STOMP topics.
+ */
+@Getter
+@Configuration
+public class PubSubConfiguration {
+
+    /**
+     * Receive the notifications of all the tasks of the worker on a
+     * single topic keyed by its wallet address. Requires a core
+     * publishing to that topic: per-task topics are kept until a first
+     * notification is received on it, and used alone when disabled.
+     */
+    @Value("${pubsub.worker-topic-enabled}")
+    private boolean workerTopicEnabled;
+
+    /**
+     * Interval of the STOMP heartbeats sent to and expected from the
+     * core, a connection silent for too long is closed and a new
+     * session is created. 0 to disable heartbeats.
+     */
+    @Value("${pubsub.heartbeat-ms}")
+    private long heartbeatMs;
+
+    /**
+     * Delay before the second attempt to create a new STOMP session,
+     * doubled on each failed attempt. The first attempt is immediate.
+     */
+    @Value("${pubsub.reconnect-initial-delay-ms}")
+    private long reconnectInitialDelayMs;
+
+    /**
+     * Upper bound of the delay between two STOMP session attempts.
+     */
+    @Value("${pubsub.reconnect-max-delay-ms}")
+    private long reconnectMaxDelayMs;
+
+    /**
+     * Ask the core for notifications encoded in CBOR instead of JSON,
+     * which is smaller and faster to decode. Frames are decoded
+     * according to their content-type, so JSON frames are still
+     * accepted whatever the value. Disabled by default since the core
+     * has to honor the accept-content-type subscribe header.
+     */
+    @Value("${pubsub.compact-encoding-enabled}")
+    private boolean compactEncodingEnabled;
+
+    /**
+     * Number of blocks after which a replicate waiting for a
+     * notification of the core is considered stalled. The notifications
+     * of its task are then replayed, in case one was lost, and again
+     * after each such period while it waits. 0 to disable.
+     */
+    @Value("${pubsub.stalled-replicate-blocks}")
+    private long stalledReplicateBlocks;
+
+    /**
+     * Period of the stalled replicates check.
+     */
+    @Value("${pubsub.stall-check-period-seconds}")
+    private long stallCheckPeriodSeconds;
+}
@@ -16,13 +16,22 @@
 
 package com.iexec.worker.pubsub;
 
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
 
 /**
  * Publish this event when a new STOMP session
  * is created to notify subscribers.
  */
+@Getter
 @NoArgsConstructor
+@AllArgsConstructor
 public class SessionCreatedEvent {
-    
+
+    /**
+     * True if the session replaces a lost one, notifications
+     * may have been missed in between.
+     */
+    private boolean reconnection;
 }
\ No newline at end of file
@@ -21,15 +21,30 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import com.iexec.worker.config.CoreConfigurationService;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.lang.Nullable;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.converter.CompositeMessageConverter;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.stomp.StompCommand;
 import org.springframework.messaging.simp.stomp.StompFrameHandler;
@@ -37,9 +52,11 @@ import org.springframework.messaging.simp.stomp.StompHeaders;
 import org.springframework.messaging.simp.stomp.StompSession;
 import org.springframework.messaging.simp.stomp.StompSession.Subscription;
 import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.client.WebSocketClient;
@@ -57,17 +74,36 @@ import lombok.extern.slf4j.Slf4j;
 @Component
 public class StompClient {
 
-    private static final int SESSION_REFRESH_DELAY = 5;
+    static final MimeType APPLICATION_CBOR = new MimeType("application", "cbor");
+    // content-types accepted by the worker, sent when subscribing
+    static final String ACCEPT_CONTENT_TYPE_HEADER = "accept-content-type";
+
     private final BlockingQueue<SessionRequestEvent> sessionRequestQueue = new ArrayBlockingQueue<>(1);
     private final ApplicationEventPublisher eventPublisher;
     private final String webSocketServerUrl;
     private final WebSocketStompClient stompClient;
-    private StompSession session;
+    private final ExecutorService sessionManager;
+    private final long reconnectInitialDelayMs;
+    private final long reconnectMaxDelayMs;
+    private final boolean compactEncodingEnabled;
+    private final AtomicInteger sessionAttempts = new AtomicInteger();
+    // System.nanoTime() of the session loss, 0 when connected
+    private final AtomicLong disconnectedSince = new AtomicLong();
+    private final Counter reconnects;
+    private final Timer disconnectedDuration;
+    private volatile StompSession session;
 
     public StompClient(ApplicationEventPublisher applicationEventPublisher,
-                       CoreConfigurationService coreConfigService, RestTemplate restTemplate) {
+                       CoreConfigurationService coreConfigService, RestTemplate restTemplate,
+                       PubSubConfiguration pubSubConfiguration, MeterRegistry meterRegistry) {
         this.eventPublisher = applicationEventPublisher;
         this.webSocketServerUrl = coreConfigService.getUrl() + "/connect";
+        this.reconnectInitialDelayMs = Math.max(0, pubSubConfiguration.getReconnectInitialDelayMs());
+        this.reconnectMaxDelayMs = Math.max(this.reconnectInitialDelayMs,
+                pubSubConfiguration.getReconnectMaxDelayMs());
+        this.compactEncodingEnabled = pubSubConfiguration.isCompactEncodingEnabled();
+        this.sessionManager = Executors.newSingleThreadExecutor(
+                new CustomizableThreadFactory("stomp-session-"));
         log.info("Creating STOMP client");
         WebSocketClient webSocketClient = new StandardWebSocketClient();
         List<Transport> webSocketTransports = Arrays.asList(
@@ -78,14 +114,48 @@ public class StompClient {
         // without SockJS: new WebSocketStompClient(webSocketClient);
         this.stompClient = new WebSocketStompClient(sockJsClient);
         this.stompClient.setAutoStartup(true);
-        this.stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        this.stompClient.setMessageConverter(createMessageConverter());
+        // also used to send and check heartbeats
         this.stompClient.setTaskScheduler(new ConcurrentTaskScheduler());
-        log.info("Created STOMP client");
+        long heartbeatMs = pubSubConfiguration.getHeartbeatMs();
+        if (heartbeatMs > 0) {
+            this.stompClient.setDefaultHeartbeat(new long[] {heartbeatMs, heartbeatMs});
+        }
+        this.reconnects = Counter.builder("iexec.stomp.reconnects")
+                .description("STOMP sessions created to replace a lost one")
+                .register(meterRegistry);
+        this.disconnectedDuration = Timer.builder("iexec.stomp.disconnected.duration")
+                .description("Time spent without STOMP session before reconnecting")
+                .register(meterRegistry);
+        Gauge.builder("iexec.stomp.connected", this, client -> client.isConnected() ? 1 : 0)
+                .description("1 if a STOMP session is established, 0 otherwise")
+                .register(meterRegistry);
+        log.info("Created STOMP client [heartbeatMs:{}]", heartbeatMs);
+    }
+
+    /**
+     * Create the converter of received frames. A frame is decoded
+     * according to its content-type: CBOR if declared as such, JSON
+     * otherwise, including frames without content-type.
+     */
+    static MessageConverter createMessageConverter() {
+        MappingJackson2MessageConverter cborConverter =
+                new MappingJackson2MessageConverter(APPLICATION_CBOR);
+        cborConverter.setObjectMapper(Jackson2ObjectMapperBuilder.cbor().build());
+        cborConverter.setStrictContentTypeMatch(true);
+        return new CompositeMessageConverter(
+                List.of(cborConverter, new MappingJackson2MessageConverter()));
+    }
+
+    boolean isConnected() {
+        StompSession currentSession = this.session;
+        return currentSession != null && currentSession.isConnected();
     }
 
     /**
      * Subscribe to a topic and provide a {@link StompFrameHandler}
-     * to handle received messages.
+     * to handle received messages. The content-types accepted by the
+     * worker are sent along, CBOR first if compact encoding is enabled.
      * 
      * @param topic
      * @param messageHandler an implementation of 
@@ -94,16 +164,48 @@ public class StompClient {
     Optional<Subscription> subscribeToTopic(String topic, StompFrameHandler messageHandler) {
         // Should not let other threads subscribe
         // when the session is not ready yet.
-        return this.session != null
-                ? Optional.of(this.session.subscribe(topic, messageHandler))
-                : Optional.empty();
+        StompSession currentSession = this.session;
+        if (currentSession == null) {
+            return Optional.empty();
+        }
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(topic);
+        headers.set(ACCEPT_CONTENT_TYPE_HEADER, compactEncodingEnabled
+                ? APPLICATION_CBOR + "," + MimeTypeUtils.APPLICATION_JSON
+                : MimeTypeUtils.APPLICATION_JSON_VALUE);
+        return Optional.of(currentSession.subscribe(headers, messageHandler));
     }
 
     @PostConstruct
-    private void init() {
+    void init() {
+        sessionManager.execute(this::manageSessions);
         requestNewSession();
     }
 
+    @PreDestroy
+    void shutdown() {
+        sessionManager.shutdownNow();
+    }
+
+    /**
+     * Run the session request watcher on its own thread until the
+     * client is shut down, and restart it in case a problem occurs.
+     */
+    private void manageSessions() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                listenToSessionRequestEventsInTheQueue();
+            } catch (InterruptedException e) {
+                log.info("Stopped STOMP session manager");
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.error("STOMP session manager failed, restarting it", e);
+                // the failed request would be lost otherwise
+                requestNewSession();
+            }
+        }
+    }
+
     /**
      * Add new SessionRequestEvent to the queue. A queue listener
      * will consume this event and create a new STOMP session.
@@ -115,11 +217,11 @@ public class StompClient {
 
     /**
      * Listen to session request events and refresh the websocket
-     * connection by establishing a new STOMP session. Only one of 
-     * the received requests in a fixed time interval
-     * {@code SESSION_REFRESH_DELAY} will be processed. We use
-     * {@code @Scheduled} to start the watcher asynchronously and
-     * restart it in case a problem occurs.
+     * connection by establishing a new STOMP session. The first
+     * attempt is immediate, the following ones are delayed by a
+     * jittered exponential backoff until a session is established.
+     * The watcher never returns, it runs on a dedicated thread (see
+     * {@link #manageSessions()}) instead of a shared scheduler one.
      * <br>
      * 
      * <p><b>Note:</b> the reason we use a queue is because the
@@ -136,24 +238,26 @@ public class StompClient {
      * {@link SessionHandler#handleTransportError()} would result
      * in parallel zombie threads trying to establish a new session
      * each.
-     * Instead, each call to this method adds a
-     * {@link SessionRequestEvent} to the queue. We wait for a short
-     * period of time to collect all these requests coming from
-     * different calls (and possibly different threads), then we send
-     * only one request to the server. This process is repeated until
-     * the websocket connection is reestablished again.
+     * Instead, each {@link SessionHandler} adds at most one
+     * {@link SessionRequestEvent} to the queue and this watcher
+     * sends only one request to the server at a time. This process
+     * is repeated until the websocket connection is reestablished
+     * again.
      * 
      * @throws InterruptedException
      */
-    @Scheduled(fixedDelay = 1000)
     private void listenToSessionRequestEventsInTheQueue() throws InterruptedException {
         while (true) {
             // get the first request event or wait until available
             this.sessionRequestQueue.take();
-            // wait some time for the wave of request events coming
-            // from possibly different threads to finish
-            TimeUnit.SECONDS.sleep(SESSION_REFRESH_DELAY);
-            log.info("Creating new STOMP session");
+            int attempt = this.sessionAttempts.getAndIncrement();
+            long delayMs = getSessionAttemptDelayMs(attempt);
+            if (delayMs > 0) {
+                log.info("Waiting before creating new STOMP session [attempt:{}, delayMs:{}]",
+                        attempt, delayMs);
+                TimeUnit.MILLISECONDS.sleep(delayMs);
+            }
+            log.info("Creating new STOMP session [attempt:{}]", attempt);
             // purge redundant request events
             this.sessionRequestQueue.clear();
             // Only one attempt should pass through
@@ -162,19 +266,52 @@ public class StompClient {
         }
     }
 
+    /**
+     * Get the delay before an attempt to create a new session. The
+     * first attempt is immediate, then the delay is doubled on each
+     * attempt up to the configured maximum and randomized between
+     * half and all of it, so that workers disconnected together do
+     * not reconnect together.
+     * 
+     * @param attempt number of failed attempts since the last session
+     * @return delay in milliseconds
+     */
+    long getSessionAttemptDelayMs(int attempt) {
+        if (attempt <= 0 || this.reconnectInitialDelayMs == 0) {
+            return 0;
+        }
+        long delayMs = this.reconnectInitialDelayMs << Math.min(attempt - 1, 30);
+        if (delayMs <= 0 || delayMs > this.reconnectMaxDelayMs) {
+            delayMs = this.reconnectMaxDelayMs;
+        }
+        return delayMs / 2 + ThreadLocalRandom.current().nextLong(delayMs / 2 + 1);
+    }
+
     /**
      * Provide callbacks to handle STOMP session establishment or
      * failure.
      */
     private class SessionHandler extends StompSessionHandlerAdapter {
 
+        private final AtomicBoolean sessionRequested = new AtomicBoolean();
+
         @Override
         public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
             log.info("Connected to STOMP session [session: {}, isConnected: {}]",
                     session.getSessionId(), session.isConnected());
             StompClient.this.session = session;
+            sessionAttempts.set(0);
+            long lostAt = disconnectedSince.getAndSet(0);
+            boolean reconnection = lostAt != 0;
+            if (reconnection) {
+                long disconnectedNanos = System.nanoTime() - lostAt;
+                reconnects.increment();
+                disconnectedDuration.record(disconnectedNanos, TimeUnit.NANOSECONDS);
+                log.info("Reconnected to STOMP session [session: {}, disconnectedMs: {}]",
+                        session.getSessionId(), TimeUnit.NANOSECONDS.toMillis(disconnectedNanos));
+            }
             // notify subscribers
-            eventPublisher.publishEvent(new SessionCreatedEvent());
+            eventPublisher.publishEvent(new SessionCreatedEvent(reconnection));
         }
 
         /**
@@ -212,6 +349,14 @@ public class StompClient {
         public void handleTransportError(StompSession session, Throwable exception) {
             log.error("STOMP transport error [session: {}, isConnected: {}, exception: {}]",
                     session.getSessionId(), session.isConnected(), exception.getMessage());
+            // a session is requested once per lost session or failed attempt
+            if (!sessionRequested.compareAndSet(false, true)) {
+                return;
+            }
+            if (StompClient.this.session == session) {
+                StompClient.this.session = null;
+                disconnectedSince.compareAndSet(0, System.nanoTime());
+            }
             requestNewSession();
         }
     }
@@ -18,6 +18,7 @@ package com.iexec.worker.pubsub;
 
 import java.lang.reflect.Type;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -26,6 +27,8 @@ import com.iexec.worker.config.WorkerConfigurationService;
 
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.lang.Nullable;
 import org.springframework.messaging.simp.stomp.StompFrameHandler;
 import org.springframework.messaging.simp.stomp.StompHeaders;
@@ -35,40 +38,56 @@ import org.springframework.stereotype.Service;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Receive task notifications from the core. When enabled, all the
+ * notifications of the worker are received on a single topic keyed
+ * by its wallet address and dispatched to the tasks it follows.
+ * A SUBSCRIBE is never acknowledged, so per-task topics are kept
+ * until a first notification is received on the worker topic, which
+ * proves the core publishes to it. Per-task topics are also used if
+ * the worker topic is disabled or cannot be subscribed to.
+ */
 @Slf4j
 @Service
 public class SubscriptionService {
 
+    private final Set<String> subscribedChainTaskIds = ConcurrentHashMap.newKeySet();
     private final Map<String, Subscription> chainTaskIdToSubscription = new ConcurrentHashMap<>();
     private final String workerWalletAddress;
+    private final boolean workerTopicEnabled;
     private final ApplicationEventPublisher eventPublisher;
     private final StompClient stompClient;
+    private volatile Subscription workerSubscription;
+    // true once the core sent a notification on the worker topic
+    private volatile boolean workerTopicConfirmed;
 
     public SubscriptionService(WorkerConfigurationService workerConfigurationService,
+                               PubSubConfiguration pubSubConfiguration,
                                ApplicationEventPublisher applicationEventPublisher,
                                StompClient stompClient) {
         this.workerWalletAddress = workerConfigurationService.getWorkerWalletAddress();
+        this.workerTopicEnabled = pubSubConfiguration.isWorkerTopicEnabled();
         this.eventPublisher = applicationEventPublisher;
         this.stompClient = stompClient;
     }
 
     /**
-     * Subscribe to a task's topic and handle {@link TaskNotification}.
+     * Subscribe to a task's notifications and handle {@link TaskNotification}.
      * 
      * @param chainTaskId id of the task to which to subscribe
      */
     public void subscribeToTopic(String chainTaskId) {
-        String topic = getTaskTopicName(chainTaskId);
-        if (this.chainTaskIdToSubscription.containsKey(chainTaskId)) {
-            log.info("Already subscribed to topic [chainTaskId:{}, topic:{}]",
-                    chainTaskId, topic);
+        if (isSubscribedToTopic(chainTaskId)) {
+            log.info("Already subscribed to topic [chainTaskId:{}]", chainTaskId);
             return;
         }
-        MessageHandler messageHandler = new MessageHandler(chainTaskId, this.workerWalletAddress);
-        stompClient.subscribeToTopic(topic, messageHandler).ifPresent(subscription -> {
-            this.chainTaskIdToSubscription.put(chainTaskId, subscription);
-            log.info("Subscribed to topic [chainTaskId:{}, topic:{}]", chainTaskId, topic);
-        });
+        if (subscribeToWorkerTopic() && this.workerTopicConfirmed) {
+            this.subscribedChainTaskIds.add(chainTaskId);
+            log.info("Subscribed to worker topic [chainTaskId:{}, topic:{}]",
+                    chainTaskId, getWorkerTopicName());
+            return;
+        }
+        subscribeToTaskTopic(chainTaskId);
     }
 
     /**
@@ -81,8 +100,11 @@ public class SubscriptionService {
             log.error("Already unsubscribed from topic [chainTaskId:{}]", chainTaskId);
             return;
         }
-        this.chainTaskIdToSubscription.get(chainTaskId).unsubscribe();
-        this.chainTaskIdToSubscription.remove(chainTaskId);
+        this.subscribedChainTaskIds.remove(chainTaskId);
+        Subscription subscription = this.chainTaskIdToSubscription.remove(chainTaskId);
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
         log.info("Unsubscribed from topic [chainTaskId:{}]", chainTaskId);
     }
 
@@ -94,29 +116,88 @@ public class SubscriptionService {
      * @return true if subscribed, false otherwise
      */
     public boolean isSubscribedToTopic(String chainTaskId) {
-        return this.chainTaskIdToSubscription.containsKey(chainTaskId);
+        return this.subscribedChainTaskIds.contains(chainTaskId);
     }
 
     /**
-     * Update existing subscriptions if a new
-     * STOMP session is created.
+     * Update existing subscriptions if a new STOMP session is
+     * created. Only the worker topic is subscribed to again once the
+     * core is known to publish to it, otherwise each task's topic is
+     * subscribed to as well. Runs
+     * before the other listeners so that no notification is missed
+     * by those pulling the ones sent while disconnected.
      */
     @EventListener(SessionCreatedEvent.class)
-    private synchronized void reSubscribeToTopics() {
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    synchronized void reSubscribeToTopics() {
         log.debug("Received new SessionCreatedEvent");
-        Set<String> chainTaskIds = this.chainTaskIdToSubscription.keySet();
+        // subscriptions of the previous session are gone
+        this.workerSubscription = null;
+        this.chainTaskIdToSubscription.clear();
+        if (subscribeToWorkerTopic() && this.workerTopicConfirmed) {
+            log.info("ReSubscribed to worker topic [topic:{}, chainTaskIds:{}]",
+                    getWorkerTopicName(), this.subscribedChainTaskIds);
+            return;
+        }
+        Set<String> chainTaskIds = Set.copyOf(this.subscribedChainTaskIds);
         log.info("ReSubscribing to topics [chainTaskIds: {}]", chainTaskIds);
-        chainTaskIds.forEach((chainTaskId) -> {
-            this.chainTaskIdToSubscription.remove(chainTaskId);
-            subscribeToTopic(chainTaskId);    
-        });
+        this.subscribedChainTaskIds.clear();
+        chainTaskIds.forEach(this::subscribeToTaskTopic);
         log.info("ReSubscribed to topics [chainTaskIds: {}]", chainTaskIds);
     }
 
+    /**
+     * Subscribe to the worker topic if enabled and not already done.
+     * 
+     * @return true if subscribed to the worker topic, false otherwise
+     */
+    private synchronized boolean subscribeToWorkerTopic() {
+        if (!this.workerTopicEnabled) {
+            return false;
+        }
+        if (this.workerSubscription == null) {
+            Optional<Subscription> subscription = stompClient.subscribeToTopic(
+                    getWorkerTopicName(), new WorkerMessageHandler());
+            subscription.ifPresent(s ->
+                    log.info("Subscribed to worker topic [topic:{}]", getWorkerTopicName()));
+            this.workerSubscription = subscription.orElse(null);
+        }
+        return this.workerSubscription != null;
+    }
+
+    /**
+     * Leave the per-task topics once the core proved it publishes
+     * to the worker topic.
+     */
+    private synchronized void confirmWorkerTopic() {
+        if (this.workerTopicConfirmed) {
+            return;
+        }
+        this.workerTopicConfirmed = true;
+        log.info("Core publishes to worker topic, leaving task topics [topic:{}, chainTaskIds:{}]",
+                getWorkerTopicName(), this.chainTaskIdToSubscription.keySet());
+        this.chainTaskIdToSubscription.values().forEach(Subscription::unsubscribe);
+        this.chainTaskIdToSubscription.clear();
+    }
+
+    private void subscribeToTaskTopic(String chainTaskId) {
+        String topic = getTaskTopicName(chainTaskId);
+        MessageHandler messageHandler = new MessageHandler(chainTaskId, this.workerWalletAddress);
+        stompClient.subscribeToTopic(topic, messageHandler).ifPresent(subscription -> {
+            this.chainTaskIdToSubscription.put(chainTaskId, subscription);
+            this.subscribedChainTaskIds.add(chainTaskId);
+            log.info("Subscribed to topic [chainTaskId:{}, topic:{}]", chainTaskId, topic);
+        });
+    }
+
     private String getTaskTopicName(String chainTaskId) {
         return "/topic/task/" + chainTaskId;
     }
 
+    String getWorkerTopicName() {
+        return "/topic/worker/" + this.workerWalletAddress;
+    }
+
     /**
      * An implementation of {@link StompFrameHandler} that
      * handles received task notifications. 
@@ -153,4 +234,41 @@ public class SubscriptionService {
                     notification.getWorkersAddress().contains(this.workerWalletAddress));
         }    
     }
-}
\ No newline at end of file
+
+    /**
+     * An implementation of {@link StompFrameHandler} that handles
+     * the task notifications sent to the worker topic. These are
+     * addressed to this worker only, so they are dispatched to the
+     * task they belong to without further filtering. Copies received
+     * on a task topic before the worker topic is confirmed are dropped
+     * as duplicates by the task mailbox.
+     */
+    class WorkerMessageHandler implements StompFrameHandler {
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return TaskNotification.class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, @Nullable Object payload) {
+            if (payload == null) {
+                log.error("Payload of TaskNotification is null [topic:{}]", getWorkerTopicName());
+                return;
+            }
+            if (!workerTopicConfirmed) {
+                confirmWorkerTopic();
+            }
+            TaskNotification taskNotification = (TaskNotification) payload;
+            String chainTaskId = taskNotification.getChainTaskId();
+            if (!isSubscribedToTopic(chainTaskId)) {
+                log.debug("Ignoring TaskNotification of unknown task [chainTaskId:{}, type:{}]",
+                        chainTaskId, taskNotification.getTaskNotificationType());
+                return;
+            }
+            log.info("PubSub service received new TaskNotification [chainTaskId:{}, type:{}]",
+                    chainTaskId, taskNotification.getTaskNotificationType());
+            eventPublisher.publishEvent(taskNotification);
+        }
+    }
+}
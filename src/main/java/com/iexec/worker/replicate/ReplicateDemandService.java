@@ -22,13 +22,19 @@ import com.iexec.common.notification.TaskNotificationExtra;
 import com.iexec.common.notification.TaskNotificationType;
 import com.iexec.worker.chain.ContributionService;
 import com.iexec.worker.chain.IexecHubService;
+import com.iexec.worker.config.PublicConfigurationService;
+import com.iexec.worker.disk.TaskFolderCollector;
 import com.iexec.worker.feign.CustomCoreFeignClient;
 import com.iexec.worker.pubsub.SubscriptionService;
+import com.iexec.worker.utils.PeriodicJobScheduler;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.util.Collections;
 
 
@@ -41,24 +47,47 @@ public class ReplicateDemandService {
     private final ContributionService contributionService;
     private final SubscriptionService subscriptionService;
     private final ApplicationEventPublisher applicationEventPublisher;
+    private final TaskFolderCollector taskFolderCollector;
+    private final PublicConfigurationService publicConfigurationService;
+    private final PeriodicJobScheduler scheduler;
 
     public ReplicateDemandService(IexecHubService iexecHubService,
                                   CustomCoreFeignClient coreFeignClient,
                                   ContributionService contributionService,
                                   SubscriptionService subscriptionService,
-                                  ApplicationEventPublisher applicationEventPublisher) {
+                                  ApplicationEventPublisher applicationEventPublisher,
+                                  TaskFolderCollector taskFolderCollector,
+                                  PublicConfigurationService publicConfigurationService,
+                                  MeterRegistry meterRegistry) {
         this.iexecHubService = iexecHubService;
         this.coreFeignClient = coreFeignClient;
         this.contributionService = contributionService;
         this.subscriptionService = subscriptionService;
         this.applicationEventPublisher = applicationEventPublisher;
+        this.taskFolderCollector = taskFolderCollector;
+        this.publicConfigurationService = publicConfigurationService;
+        this.scheduler = new PeriodicJobScheduler("replicate-demand", meterRegistry);
+    }
+
+    /**
+     * Start asking for new tasks once the worker is registered, on
+     * a dedicated thread so that slow pings do not delay demands.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        scheduler.scheduleAtFixedRate(this::askForReplicate,
+                publicConfigurationService.getAskForReplicatePeriod());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdown();
     }
 
     /**
      * Asks for a new task every t seconds (e.g: t=30s)
      * then if received one locally starts computing the task
      */
-    @Scheduled(fixedRateString = "#{publicConfigurationService.askForReplicatePeriod}")
     public void askForReplicate() {
         long lastAvailableBlockNumber = iexecHubService.getLatestBlockNumber();
         if (lastAvailableBlockNumber == 0) {
@@ -69,6 +98,11 @@ public class ReplicateDemandService {
             log.error("Cannot ask for new tasks, your wallet is dry");
             return;
         }
+        if (taskFolderCollector.isQuotaExceeded()) {
+            log.warn("Cannot ask for new tasks, disk quota exceeded [usedBytes:{}, quotaBytes:{}]",
+                    taskFolderCollector.getUsedBytes(), taskFolderCollector.getQuotaBytes());
+            return;
+        }
         coreFeignClient.getAvailableReplicate(lastAvailableBlockNumber)
                 .filter(this::isNewTaskInitialized)
                 .ifPresent(this::startTask);
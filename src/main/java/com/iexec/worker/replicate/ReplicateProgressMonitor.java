@@ -0,0 +1,178 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.replicate;
+
+import com.iexec.worker.chain.IexecHubService;
+import com.iexec.worker.pubsub.PubSubConfiguration;
+import com.iexec.worker.pubsub.SessionCreatedEvent;
+import com.iexec.worker.utils.PeriodicJobScheduler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Detects replicates stuck because a notification of the core was
+ * lost. A replicate done with its stage and left without a next action,
+ * e.g. a contribution waiting for PLEASE_REVEAL, only moves on when the
+ * core notifies it over STOMP. Such a replicate gets a cursor holding
+ * the block it started waiting at. Once it waited for a configured
+ * number of blocks, the notifications the core holds for that task only
+ * are replayed, instead of waiting for a restart. The cursor is dropped
+ * as soon as a stage runs again.
+ * <p>
+ * After a STOMP reconnection, notifications of all waiting replicates
+ * are replayed at once. Replicates running a stage are left alone.
+ */
+@Slf4j
+@Service
+public class ReplicateProgressMonitor {
+
+    private final IexecHubService iexecHubService;
+    private final ReplicateRecoveryService replicateRecoveryService;
+    private final long stalledReplicateBlocks;
+    private final long checkPeriodMs;
+    private final PeriodicJobScheduler scheduler;
+    private final Counter replays;
+    // block each waiting replicate started waiting at, 0 until the next check
+    private final Map<String, Long> cursors = new ConcurrentHashMap<>();
+
+    public ReplicateProgressMonitor(IexecHubService iexecHubService,
+                                    ReplicateRecoveryService replicateRecoveryService,
+                                    PubSubConfiguration pubSubConfiguration,
+                                    MeterRegistry meterRegistry) {
+        this.iexecHubService = iexecHubService;
+        this.replicateRecoveryService = replicateRecoveryService;
+        this.stalledReplicateBlocks = pubSubConfiguration.getStalledReplicateBlocks();
+        this.checkPeriodMs = Math.max(1, pubSubConfiguration.getStallCheckPeriodSeconds()) * 1000;
+        this.scheduler = new PeriodicJobScheduler("replicate-progress", meterRegistry);
+        this.replays = Counter.builder("iexec.replicate.stall.replays")
+                .description("Notifications replayed for stalled replicates")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        if (stalledReplicateBlocks <= 0) {
+            log.info("Stalled replicates detection disabled");
+            return;
+        }
+        scheduler.scheduleAtFixedRate(this::replayStalledReplicates, checkPeriodMs);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Follow a replicate done with its current stage and waiting for
+     * a notification of the core to go on.
+     *
+     * @param chainTaskId
+     */
+    public void onWaitingForCore(String chainTaskId) {
+        cursors.put(chainTaskId, 0L);
+    }
+
+    /**
+     * Stop monitoring a replicate once it runs a stage, has its next
+     * action queued or is over.
+     *
+     * @param chainTaskId
+     */
+    public void forget(String chainTaskId) {
+        cursors.remove(chainTaskId);
+    }
+
+    /**
+     * Replay the notifications missed while the STOMP session was lost
+     * by replicates waiting for the core. Tasks interrupted by a restart
+     * are handled by {@link ReplicateRecoveryService#recoverInterruptedReplicates()}.
+     *
+     * @param event session event, ignored if not a reconnection
+     */
+    @Async
+    @EventListener
+    protected void replayWaitingReplicates(SessionCreatedEvent event) {
+        if (!event.isReconnection()) {
+            return;
+        }
+        Set<String> waitingChainTaskIds = Set.copyOf(cursors.keySet());
+        if (waitingChainTaskIds.isEmpty()) {
+            log.info("No replicate waiting for a task notification missed while disconnected");
+            return;
+        }
+        log.info("Replaying task notifications missed while disconnected [chainTaskIds:{}]",
+                waitingChainTaskIds);
+        replays.increment(replicateRecoveryService.replayMissedTaskNotifications(
+                iexecHubService.getLatestBlockNumber(), waitingChainTaskIds));
+    }
+
+    boolean isMonitored(String chainTaskId) {
+        return cursors.containsKey(chainTaskId);
+    }
+
+    /**
+     * Replay the missed notifications of stalled replicates. The latest
+     * block is only read here, cursors set since the last check get it
+     * as their starting block. A replayed replicate still waiting is
+     * considered stalled again after the same number of blocks.
+     */
+    void replayStalledReplicates() {
+        if (cursors.isEmpty()) {
+            return;
+        }
+        long latestBlockNumber = iexecHubService.getLatestBlockNumber();
+        if (latestBlockNumber == 0) {
+            log.warn("Cannot check stalled replicates, blockchain node is not synchronized");
+            return;
+        }
+        Set<String> stalledChainTaskIds = cursors.entrySet().stream()
+                .filter(entry -> isStalled(entry.getKey(), entry.getValue(), latestBlockNumber))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        if (stalledChainTaskIds.isEmpty()) {
+            return;
+        }
+        log.warn("Replicates stalled, replaying their notifications [chainTaskIds:{}, blockNumber:{}]",
+                stalledChainTaskIds, latestBlockNumber);
+        replays.increment(replicateRecoveryService.replayMissedTaskNotifications(
+                latestBlockNumber, stalledChainTaskIds));
+        stalledChainTaskIds.forEach(chainTaskId ->
+                cursors.computeIfPresent(chainTaskId, (id, blockNumber) -> latestBlockNumber));
+    }
+
+    private boolean isStalled(String chainTaskId, long blockNumber, long latestBlockNumber) {
+        if (blockNumber == 0) {
+            // no-op if the replicate stopped waiting in the meantime
+            cursors.replace(chainTaskId, 0L, latestBlockNumber);
+            return false;
+        }
+        return latestBlockNumber - blockNumber >= stalledReplicateBlocks;
+    }
+}
@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /*
  * This service is used to remind the worker of possible interrupted works
@@ -72,38 +73,77 @@ public class ReplicateRecoveryService {
         }
 
         for (TaskNotification missedTaskNotification : missedTaskNotifications) {
-            TaskNotificationType taskNotificationType = missedTaskNotification.getTaskNotificationType();
             String chainTaskId = missedTaskNotification.getChainTaskId();
-            boolean isResultAvailable = resultService.isResultAvailable(chainTaskId);
 
             log.info("Recovering interrupted task [chainTaskId:{}, taskNotificationType:{}]",
-                    chainTaskId, taskNotificationType);
+                    chainTaskId, missedTaskNotification.getTaskNotificationType());
 
-            if (!isResultAvailable) {
-                log.error("Could not recover task, result not found [chainTaskId:{}, taskNotificationType:{}]",
-                        chainTaskId, taskNotificationType);
+            if (!prepareRecovery(missedTaskNotification)) {
                 continue;
             }
 
-            Optional<TaskDescription> optionalTaskDescription = iexecHubService.getTaskDescriptionFromChain(chainTaskId);
+            subscriptionService.subscribeToTopic(chainTaskId);
+            applicationEventPublisher.publishEvent(missedTaskNotification);
+
+            recoveredChainTaskIds.add(chainTaskId);
+        }
 
-            if (!optionalTaskDescription.isPresent()) {
-                log.error("Could not recover task, no TaskDescription retrieved [chainTaskId:{}, taskNotificationType:{}]",
-                        chainTaskId, taskNotificationType);
+        return recoveredChainTaskIds;
+    }
+
+    /**
+     * Replay the notifications missed by some tasks the worker is
+     * still running, with the same checks as after a restart. Used for
+     * replicates stalled or left waiting while the STOMP session was lost.
+     *
+     * @param blockNumber latest block number
+     * @param chainTaskIds tasks whose notifications are replayed
+     * @return number of replayed notifications
+     */
+    public int replayMissedTaskNotifications(long blockNumber, Set<String> chainTaskIds) {
+        List<TaskNotification> missedTaskNotifications =
+                customCoreFeignClient.getMissedTaskNotifications(blockNumber);
+        if (missedTaskNotifications == null) {
+            return 0;
+        }
+        int replayed = 0;
+        for (TaskNotification missedTaskNotification : missedTaskNotifications) {
+            if (!chainTaskIds.contains(missedTaskNotification.getChainTaskId())
+                    || !prepareRecovery(missedTaskNotification)) {
                 continue;
             }
+            log.info("Replaying missed task notification [chainTaskId:{}, taskNotificationType:{}]",
+                    missedTaskNotification.getChainTaskId(),
+                    missedTaskNotification.getTaskNotificationType());
+            applicationEventPublisher.publishEvent(missedTaskNotification);
+            replayed++;
+        }
+        return replayed;
+    }
 
-            TaskDescription taskDescription = optionalTaskDescription.get();
+    private boolean prepareRecovery(TaskNotification missedTaskNotification) {
+        TaskNotificationType taskNotificationType = missedTaskNotification.getTaskNotificationType();
+        String chainTaskId = missedTaskNotification.getChainTaskId();
+        boolean isResultAvailable = resultService.isResultAvailable(chainTaskId);
 
-            ComputedFile computedFile = resultService.getComputedFile(chainTaskId);
-            resultService.saveResultInfo(chainTaskId, taskDescription, computedFile);
+        if (!isResultAvailable) {
+            log.error("Could not recover task, result not found [chainTaskId:{}, taskNotificationType:{}]",
+                    chainTaskId, taskNotificationType);
+            return false;
+        }
 
-            subscriptionService.subscribeToTopic(chainTaskId);
-            applicationEventPublisher.publishEvent(missedTaskNotification);
+        Optional<TaskDescription> optionalTaskDescription = iexecHubService.getTaskDescriptionFromChain(chainTaskId);
 
-            recoveredChainTaskIds.add(chainTaskId);
+        if (!optionalTaskDescription.isPresent()) {
+            log.error("Could not recover task, no TaskDescription retrieved [chainTaskId:{}, taskNotificationType:{}]",
+                    chainTaskId, taskNotificationType);
+            return false;
         }
 
-        return recoveredChainTaskIds;
+        TaskDescription taskDescription = optionalTaskDescription.get();
+
+        ComputedFile computedFile = resultService.getComputedFile(chainTaskId);
+        resultService.saveResultInfo(chainTaskId, taskDescription, computedFile);
+        return true;
     }
-}
\ No newline at end of file
+}
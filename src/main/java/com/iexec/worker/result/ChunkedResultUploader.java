@@ -0,0 +1,436 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.result;
+
+import com.iexec.common.result.ResultModel;
+import com.iexec.worker.config.PublicConfigurationService;
+import com.iexec.worker.feign.ResultProxyLoginService;
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload a result zip to the result proxy chunk by chunk, so that
+ * a failure only costs the chunk being sent.
+ * <p>
+ * The upload is created with the result metadata, then each chunk
+ * is sent with the offset it starts at and the result proxy answers
+ * with the new acknowledged offset. A failed chunk is retried with
+ * an exponential backoff, after asking the result proxy the offset
+ * it acknowledged so far. Upload ids are kept until the upload is
+ * completed, a later upload of the same task resumes where the
+ * previous one stopped. This is how chunks staged while a reveal
+ * is mined are reused by the upload of the result.
+ * <p>
+ * Chunked uploads are opt-in, see
+ * {@link ResultUploadConfiguration#isChunkedUploadEnabled()}. Result
+ * proxies which do not support them answer with a 404, 405 or 415
+ * status, chunked uploads are then disabled. Whenever a chunked
+ * upload fails, the caller is expected to fall back to a single
+ * request upload.
+ */
+@Slf4j
+@Service
+public class ChunkedResultUploader {
+
+    static final String UPLOADS_PATH = "/uploads";
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+    static final MediaType CHUNK_MEDIA_TYPE = MediaType.get("application/offset+octet-stream");
+
+    private final PublicConfigurationService publicConfigService;
+    private final TransferScheduler transferScheduler;
+    private final ResultProxyLoginService resultProxyLoginService;
+    private final OkHttpClient httpClient;
+    private final int chunkSize;
+    private final int maxChunkRetries;
+    private final long chunkRetryDelayMs;
+    // upload id by chainTaskId, removed once the upload is completed
+    private final Map<String, String> uploadIds = new ConcurrentHashMap<>();
+    private final DistributionSummary chunkThroughput;
+    private final Timer chunkDuration;
+    private final Counter chunkRetries;
+    private volatile boolean chunkedUploadSupported;
+
+    public ChunkedResultUploader(PublicConfigurationService publicConfigService,
+                                 OkHttpClient httpClient,
+                                 TransferScheduler transferScheduler,
+                                 ResultProxyLoginService resultProxyLoginService,
+                                 ResultUploadConfiguration resultUploadConfig,
+                                 MeterRegistry meterRegistry) {
+        this.publicConfigService = publicConfigService;
+        this.transferScheduler = transferScheduler;
+        this.resultProxyLoginService = resultProxyLoginService;
+        this.chunkSize = Math.max(1, resultUploadConfig.getChunkSizeKb()) * 1024;
+        this.maxChunkRetries = Math.max(0, resultUploadConfig.getMaxChunkRetries());
+        this.chunkRetryDelayMs = Math.max(0, resultUploadConfig.getChunkRetryDelayMs());
+        this.chunkedUploadSupported = resultUploadConfig.isChunkedUploadEnabled();
+        // same timeouts as the result proxy Feign client, not the shared defaults
+        this.httpClient = httpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(Math.max(0, resultUploadConfig.getConnectTimeoutMs())))
+                .readTimeout(Duration.ofMillis(Math.max(0, resultUploadConfig.getReadTimeoutMs())))
+                .build();
+        this.chunkThroughput = DistributionSummary.builder("iexec.result.upload.chunk.throughput")
+                .description("Throughput of acknowledged result upload chunks")
+                .baseUnit("bytes_per_second")
+                .register(meterRegistry);
+        this.chunkDuration = Timer.builder("iexec.result.upload.chunk.duration")
+                .description("Time to get a result upload chunk acknowledged")
+                .register(meterRegistry);
+        this.chunkRetries = Counter.builder("iexec.result.upload.chunk.retries")
+                .description("Result upload chunks sent again after a failure")
+                .register(meterRegistry);
+    }
+
+    public boolean isChunkedUploadSupported() {
+        return chunkedUploadSupported;
+    }
+
+    /**
+     * Forget the upload of a task, the next upload of this task
+     * starts from scratch.
+     *
+     * @param chainTaskId
+     */
+    public void discardUpload(String chainTaskId) {
+        uploadIds.remove(chainTaskId);
+    }
+
+    /**
+     * Upload result metadata and zip file in chunks, resuming the
+     * previous upload of the task if any.
+     *
+     * @param authorizationToken result proxy token
+     * @param resultModel result metadata, its zip field is ignored
+     * @param zipFile result zip on disk
+     * @return the result location, empty if the upload failed
+     */
+    public Optional<String> upload(String authorizationToken, ResultModel resultModel, File zipFile) {
+        String chainTaskId = resultModel.getChainTaskId();
+        if (!zipFile.isFile()) {
+            log.error("Result zip not found [chainTaskId:{}, zip:{}]", chainTaskId, zipFile);
+            return Optional.empty();
+        }
+        try {
+            return send(authorizationToken, resultModel, zipFile);
+        } catch (UnauthorizedException e) {
+            log.warn("Result proxy rejected token [chainTaskId:{}]", chainTaskId);
+            resultProxyLoginService.invalidateToken(authorizationToken);
+        } catch (InterruptedException e) {
+            log.warn("Chunked result upload cancelled [chainTaskId:{}]", chainTaskId);
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+        String newToken = resultProxyLoginService.getToken();
+        if (newToken.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return send(newToken, resultModel, zipFile);
+        } catch (UnauthorizedException e) {
+            log.error("Result proxy rejected new token [chainTaskId:{}]", chainTaskId);
+        } catch (InterruptedException e) {
+            log.warn("Chunked result upload cancelled [chainTaskId:{}]", chainTaskId);
+            Thread.currentThread().interrupt();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Send the chunks of a result zip ahead of its upload, without
+     * completing the upload so that nothing is published yet. The
+     * upload of the task later resumes after the last acknowledged
+     * chunk and only has to complete it.
+     *
+     * @param authorizationToken result proxy token
+     * @param resultModel result metadata, its zip field is ignored
+     * @param zipFile result zip on disk
+     * @return true if every chunk was acknowledged
+     */
+    public boolean stage(String authorizationToken, ResultModel resultModel, File zipFile) {
+        String chainTaskId = resultModel.getChainTaskId();
+        if (!zipFile.isFile()) {
+            log.error("Result zip not found [chainTaskId:{}, zip:{}]", chainTaskId, zipFile);
+            return false;
+        }
+        try {
+            return push(authorizationToken, resultModel, zipFile).isPresent();
+        } catch (UnauthorizedException e) {
+            // the upload gets a new token
+            log.warn("Result proxy rejected token [chainTaskId:{}]", chainTaskId);
+            resultProxyLoginService.invalidateToken(authorizationToken);
+        } catch (InterruptedException e) {
+            log.warn("Chunked result upload staging cancelled [chainTaskId:{}]", chainTaskId);
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private Optional<String> send(String authorizationToken, ResultModel resultModel, File zipFile)
+            throws UnauthorizedException, InterruptedException {
+        String chainTaskId = resultModel.getChainTaskId();
+        Optional<String> uploadId = push(authorizationToken, resultModel, zipFile);
+        if (uploadId.isEmpty()) {
+            return Optional.empty();
+        }
+        Optional<String> location = complete(authorizationToken, uploadId.get(), chainTaskId);
+        if (location.isPresent()) {
+            uploadIds.remove(chainTaskId);
+        }
+        return location;
+    }
+
+    /**
+     * Send the chunks not acknowledged yet, creating the upload of
+     * the task if needed.
+     *
+     * @return the upload id once every chunk is acknowledged, empty
+     * otherwise
+     */
+    private Optional<String> push(String authorizationToken, ResultModel resultModel, File zipFile)
+            throws UnauthorizedException, InterruptedException {
+        String chainTaskId = resultModel.getChainTaskId();
+        long size = zipFile.length();
+        String uploadId = uploadIds.get(chainTaskId);
+        long offset = uploadId != null ? getAcknowledgedOffset(authorizationToken, uploadId) : -1;
+        if (offset < 0) {
+            uploadId = createUpload(authorizationToken, resultModel, size).orElse(null);
+            if (uploadId == null) {
+                return Optional.empty();
+            }
+            uploadIds.put(chainTaskId, uploadId);
+            offset = 0;
+        } else {
+            log.info("Resuming result upload [chainTaskId:{}, offset:{}, size:{}]",
+                    chainTaskId, offset, size);
+        }
+        byte[] chunk = new byte[(int) Math.min(chunkSize, Math.max(1, size))];
+        int failures = 0;
+        try (FileChannel channel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ)) {
+            while (offset < size) {
+                int length = (int) Math.min(chunk.length, size - offset);
+                read(channel, chunk, length, offset);
+                transferScheduler.consumeBandwidth(TransferType.RESULT_UPLOAD, length);
+                long start = System.nanoTime();
+                long acknowledgedOffset = sendChunk(authorizationToken, uploadId, offset, chunk, length);
+                if (acknowledgedOffset > offset) {
+                    recordChunk(chainTaskId, acknowledgedOffset - offset, System.nanoTime() - start);
+                    offset = acknowledgedOffset;
+                    failures = 0;
+                    continue;
+                }
+                if (++failures > maxChunkRetries) {
+                    log.error("Chunked result upload failed, giving up [chainTaskId:{}, " +
+                            "offset:{}, size:{}]", chainTaskId, offset, size);
+                    return Optional.empty();
+                }
+                chunkRetries.increment();
+                Thread.sleep(chunkRetryDelayMs << Math.min(failures - 1, 16));
+                // the chunk may have been received although the answer was lost
+                long resumeOffset = getAcknowledgedOffset(authorizationToken, uploadId);
+                if (resumeOffset >= 0) {
+                    offset = resumeOffset;
+                }
+                log.warn("Retrying result upload chunk [chainTaskId:{}, offset:{}, attempt:{}]",
+                        chainTaskId, offset, failures);
+            }
+        } catch (IOException e) {
+            log.error("Failed to read result zip [chainTaskId:{}]", chainTaskId, e);
+            return Optional.empty();
+        }
+        return Optional.of(uploadId);
+    }
+
+    private Optional<String> createUpload(String authorizationToken, ResultModel resultModel, long size)
+            throws UnauthorizedException {
+        String chainTaskId = resultModel.getChainTaskId();
+        MultipartBody body = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("chainTaskId", chainTaskId)
+                .addFormDataPart("image", StringUtils.defaultString(resultModel.getImage()))
+                .addFormDataPart("cmd", StringUtils.defaultString(resultModel.getCmd()))
+                .addFormDataPart("deterministHash", StringUtils.defaultString(resultModel.getDeterministHash()))
+                .addFormDataPart("size", String.valueOf(size))
+                .build();
+        Request request = new Request.Builder()
+                .url(publicConfigService.getResultRepositoryURL() + UPLOADS_PATH)
+                .header(HttpHeaders.AUTHORIZATION, authorizationToken)
+                .post(body)
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            String uploadId = getBody(response);
+            if (response.isSuccessful() && !uploadId.isEmpty()) {
+                log.info("Chunked result upload created [chainTaskId:{}, uploadId:{}, size:{}]",
+                        chainTaskId, uploadId, size);
+                return Optional.of(uploadId);
+            }
+            checkAuthorized(response);
+            if (response.code() == HttpStatus.NOT_FOUND.value()
+                    || response.code() == HttpStatus.METHOD_NOT_ALLOWED.value()
+                    || response.code() == HttpStatus.UNSUPPORTED_MEDIA_TYPE.value()) {
+                log.warn("Result proxy does not support chunked upload [status:{}]", response.code());
+                chunkedUploadSupported = false;
+            } else {
+                log.error("Failed to create chunked result upload [chainTaskId:{}, status:{}]",
+                        chainTaskId, response.code());
+            }
+        } catch (IOException e) {
+            log.error("Failed to create chunked result upload [chainTaskId:{}]", chainTaskId, e);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the offset acknowledged after this chunk, -1 if the
+     * chunk was not acknowledged
+     */
+    private long sendChunk(String authorizationToken, String uploadId, long offset,
+                           byte[] chunk, int length) throws UnauthorizedException {
+        Request request = new Request.Builder()
+                .url(getUploadUrl(uploadId))
+                .header(HttpHeaders.AUTHORIZATION, authorizationToken)
+                .header(UPLOAD_OFFSET, String.valueOf(offset))
+                .patch(RequestBody.create(chunk, CHUNK_MEDIA_TYPE, 0, length))
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                return parseOffset(response.header(UPLOAD_OFFSET));
+            }
+            checkAuthorized(response);
+            log.warn("Result upload chunk rejected [uploadId:{}, offset:{}, status:{}]",
+                    uploadId, offset, response.code());
+        } catch (IOException e) {
+            log.warn("Failed to send result upload chunk [uploadId:{}, offset:{}]",
+                    uploadId, offset, e);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the offset acknowledged by the result proxy, -1 if
+     * unknown
+     */
+    private long getAcknowledgedOffset(String authorizationToken, String uploadId)
+            throws UnauthorizedException {
+        Request request = new Request.Builder()
+                .url(getUploadUrl(uploadId))
+                .header(HttpHeaders.AUTHORIZATION, authorizationToken)
+                .head()
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                return parseOffset(response.header(UPLOAD_OFFSET));
+            }
+            checkAuthorized(response);
+        } catch (IOException e) {
+            log.warn("Failed to get result upload offset [uploadId:{}]", uploadId, e);
+        }
+        return -1;
+    }
+
+    private Optional<String> complete(String authorizationToken, String uploadId, String chainTaskId)
+            throws UnauthorizedException {
+        Request request = new Request.Builder()
+                .url(getUploadUrl(uploadId) + "/complete")
+                .header(HttpHeaders.AUTHORIZATION, authorizationToken)
+                .post(RequestBody.create(new byte[0], null))
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            String location = getBody(response);
+            if (response.isSuccessful() && !location.isEmpty()) {
+                return Optional.of(location);
+            }
+            checkAuthorized(response);
+            log.error("Failed to complete chunked result upload [chainTaskId:{}, status:{}]",
+                    chainTaskId, response.code());
+        } catch (IOException e) {
+            log.error("Failed to complete chunked result upload [chainTaskId:{}]", chainTaskId, e);
+        }
+        return Optional.empty();
+    }
+
+    private void recordChunk(String chainTaskId, long bytes, long nanos) {
+        chunkDuration.record(nanos, TimeUnit.NANOSECONDS);
+        double bytesPerSecond = nanos > 0 ? bytes * 1e9 / nanos : bytes;
+        chunkThroughput.record(bytesPerSecond);
+        log.debug("Result upload chunk acknowledged [chainTaskId:{}, bytes:{}, bytesPerSecond:{}]",
+                chainTaskId, bytes, (long) bytesPerSecond);
+    }
+
+    private String getUploadUrl(String uploadId) {
+        return publicConfigService.getResultRepositoryURL() + UPLOADS_PATH + "/" + uploadId;
+    }
+
+    private static void read(FileChannel channel, byte[] chunk, int length, long offset)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Result zip truncated while uploading");
+            }
+        }
+    }
+
+    private static long parseOffset(String offset) {
+        try {
+            return offset != null ? Long.parseLong(offset) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String getBody(Response response) throws IOException {
+        ResponseBody responseBody = response.body();
+        return responseBody != null ? responseBody.string() : "";
+    }
+
+    private static void checkAuthorized(Response response) throws UnauthorizedException {
+        if (response.code() == HttpStatus.UNAUTHORIZED.value()) {
+            throw new UnauthorizedException();
+        }
+    }
+
+    private static class UnauthorizedException extends Exception {
+    }
+}
@@ -24,29 +24,40 @@ import com.iexec.common.replicate.ReplicateStatus;
 import com.iexec.common.replicate.ReplicateStatusCause;
 import com.iexec.common.result.ComputedFile;
 import com.iexec.common.result.ResultModel;
-import com.iexec.common.result.eip712.Eip712Challenge;
-import com.iexec.common.result.eip712.Eip712ChallengeUtils;
 import com.iexec.common.task.TaskDescription;
 import com.iexec.common.utils.BytesUtils;
 import com.iexec.common.utils.FileHelper;
 import com.iexec.common.utils.IexecFileHelper;
 import com.iexec.common.worker.result.ResultUtils;
-import com.iexec.worker.chain.CredentialsService;
 import com.iexec.worker.chain.IexecHubService;
-import com.iexec.worker.config.PublicConfigurationService;
 import com.iexec.worker.config.WorkerConfigurationService;
+import com.iexec.worker.disk.TaskFolderCollector;
 import com.iexec.worker.feign.CustomResultFeignClient;
+import com.iexec.worker.feign.ResultProxyLoginService;
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.web3j.crypto.ECKeyPair;
+
+import javax.annotation.PreDestroy;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.iexec.common.chain.DealParams.DROPBOX_RESULT_STORAGE_PROVIDER;
 import static com.iexec.common.chain.DealParams.IPFS_RESULT_STORAGE_PROVIDER;
@@ -57,26 +68,58 @@ import static com.iexec.common.utils.BytesUtils.stringToBytes;
 public class ResultService {
     public static final String ERROR_FILENAME = "error.txt";
     public static final String WRITE_COMPUTED_FILE_LOG_ARGS = " [chainTaskId:{}, computedFile:{}]";
+    // far above the number of tasks a worker runs at once
+    static final int COMPUTED_FILE_CACHE_SIZE = 256;
 
     private final WorkerConfigurationService workerConfigService;
-    private final PublicConfigurationService publicConfigService;
-    private final CredentialsService credentialsService;
     private final IexecHubService iexecHubService;
     private final CustomResultFeignClient customResultFeignClient;
+    private final ResultProxyLoginService resultProxyLoginService;
+    private final TransferScheduler transferScheduler;
+    private final StreamingResultUploader streamingResultUploader;
+    private final ChunkedResultUploader chunkedResultUploader;
+    private final TaskFolderCollector taskFolderCollector;
+    private final long stagingWaitSeconds;
     private final Map<String, ResultInfo> resultInfoMap;
+    private final Map<String, ComputedFile> computedFileCache;
+    private final Map<String, Future<?>> stagedResultUploads;
+    private final ExecutorService uploadStagingExecutor;
 
     public ResultService(
             WorkerConfigurationService workerConfigService,
-            PublicConfigurationService publicConfigService,
-            CredentialsService credentialsService,
             IexecHubService iexecHubService,
-            CustomResultFeignClient customResultFeignClient) {
+            CustomResultFeignClient customResultFeignClient,
+            ResultProxyLoginService resultProxyLoginService,
+            TransferScheduler transferScheduler,
+            StreamingResultUploader streamingResultUploader,
+            TaskFolderCollector taskFolderCollector,
+            ChunkedResultUploader chunkedResultUploader,
+            ResultUploadConfiguration resultUploadConfig) {
         this.workerConfigService = workerConfigService;
-        this.publicConfigService = publicConfigService;
-        this.credentialsService = credentialsService;
         this.iexecHubService = iexecHubService;
         this.customResultFeignClient = customResultFeignClient;
+        this.resultProxyLoginService = resultProxyLoginService;
+        this.transferScheduler = transferScheduler;
+        this.streamingResultUploader = streamingResultUploader;
+        this.taskFolderCollector = taskFolderCollector;
+        this.chunkedResultUploader = chunkedResultUploader;
+        this.stagingWaitSeconds = Math.max(0, resultUploadConfig.getStagingWaitSeconds());
         this.resultInfoMap = new ConcurrentHashMap<>();
+        this.computedFileCache = Collections.synchronizedMap(
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, ComputedFile> eldest) {
+                        return size() > COMPUTED_FILE_CACHE_SIZE;
+                    }
+                });
+        this.stagedResultUploads = new ConcurrentHashMap<>();
+        this.uploadStagingExecutor = Executors.newCachedThreadPool(
+                new CustomizableThreadFactory("upload-staging-"));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        uploadStagingExecutor.shutdownNow();
     }
 
     public ResultInfo getResultInfos(String chainTaskId) {
@@ -144,7 +187,6 @@ public class ResultService {
     }
 
     public ResultModel getResultModelWithZip(String chainTaskId) {
-        ResultInfo resultInfo = getResultInfos(chainTaskId);
         byte[] zipResultAsBytes = new byte[0];
         String zipLocation = getResultZipFilePath(chainTaskId);
         try {
@@ -153,18 +195,30 @@ public class ResultService {
             log.error("Failed to get zip result [chainTaskId:{}, zipLocation:{}]", chainTaskId, zipLocation);
         }
 
+        return getResultModelBuilder(chainTaskId)
+                .zip(zipResultAsBytes)
+                .build();
+    }
+
+    private ResultModel.ResultModelBuilder getResultModelBuilder(String chainTaskId) {
+        ResultInfo resultInfo = getResultInfos(chainTaskId);
         return ResultModel.builder()
                 .chainTaskId(chainTaskId)
                 .image(resultInfo.getImage())
                 .cmd(resultInfo.getCmd())
-                .zip(zipResultAsBytes)
-                .deterministHash(resultInfo.getDeterministHash())
-                .build();
+                .deterministHash(resultInfo.getDeterministHash());
     }
 
     public boolean removeResult(String chainTaskId) {
+        computedFileCache.remove(chainTaskId);
+        Future<?> stagedResultUpload = stagedResultUploads.remove(chainTaskId);
+        if (stagedResultUpload != null) {
+            stagedResultUpload.cancel(true);
+        }
+        chunkedResultUploader.discardUpload(chainTaskId);
         boolean deletedInMap = resultInfoMap.remove(chainTaskId) != null;
-        boolean deletedTaskFolder = FileHelper.deleteFolder(workerConfigService.getTaskBaseDir(chainTaskId));
+        // actual deletion is deferred to the background garbage collector
+        boolean deletedTaskFolder = taskFolderCollector.trash(chainTaskId);
 
         boolean deleted = deletedInMap && deletedTaskFolder;
         if (deletedTaskFolder) {
@@ -188,7 +242,8 @@ public class ResultService {
 
     public List<String> getAllChainTaskIdsInResultFolder() {
         File resultsFolder = new File(workerConfigService.getWorkerBaseDir());
-        String[] chainTaskIdFolders = resultsFolder.list((current, name) -> new File(current, name).isDirectory());
+        String[] chainTaskIdFolders = resultsFolder.list((current, name) ->
+                new File(current, name).isDirectory() && !name.startsWith("."));
 
         if (chainTaskIdFolders == null || chainTaskIdFolders.length == 0) {
             return Collections.emptyList();
@@ -222,6 +277,7 @@ public class ResultService {
 
         // Cloud computing - basic
         boolean isIpfsStorageRequest = task.getResultStorageProvider().equals(IPFS_RESULT_STORAGE_PROVIDER);
+        awaitStagedResultUpload(chainTaskId);
         boolean isUpload = upload(chainTaskId);
         if (isIpfsStorageRequest && isUpload) {
             log.info("Web2 storage, just uploaded (with basic) [chainTaskId:{}]", chainTaskId);
@@ -233,6 +289,77 @@ public class ResultService {
         return "";
     }
 
+    /**
+     * Stage the upload of a result while its reveal is being mined:
+     * the chunks of the result zip are sent in the background but the
+     * upload is not completed, so the result is only published by
+     * {@link #uploadResultAndGetLink(String)} once the core asks for
+     * it. Only standard tasks uploading to a result proxy providing
+     * chunked uploads are staged.
+     *
+     * @param chainTaskId
+     */
+    public void stageResultUpload(String chainTaskId) {
+        if (!chunkedResultUploader.isChunkedUploadSupported()) {
+            return;
+        }
+        stagedResultUploads.computeIfAbsent(chainTaskId, id ->
+                uploadStagingExecutor.submit(() -> stage(id)));
+    }
+
+    private void stage(String chainTaskId) {
+        TaskDescription task = iexecHubService.getTaskDescription(chainTaskId);
+        if (task == null || task.containsCallback() || task.isTeeTask()
+                || getResultInfos(chainTaskId) == null) {
+            return;
+        }
+        if (!isResultZipFound(chainTaskId)) {
+            log.warn("Cannot stage result upload (zip missing) [chainTaskId:{}]", chainTaskId);
+            return;
+        }
+        String authorizationToken = getIexecUploadToken();
+        if (StringUtils.isEmpty(authorizationToken)) {
+            log.warn("Cannot stage result upload (no token) [chainTaskId:{}]", chainTaskId);
+            return;
+        }
+        try (TransferScheduler.Slot slot =
+                     transferScheduler.acquire(TransferType.RESULT_UPLOAD, chainTaskId)) {
+            if (chunkedResultUploader.stage(authorizationToken,
+                    getResultModelBuilder(chainTaskId).build(),
+                    new File(getResultZipFilePath(chainTaskId)))) {
+                log.info("Result upload staged [chainTaskId:{}]", chainTaskId);
+            }
+        } catch (InterruptedException e) {
+            log.warn("Result upload staging cancelled [chainTaskId:{}]", chainTaskId);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the staging of a result upload, if any, at most
+     * {@link ResultUploadConfiguration#getStagingWaitSeconds()}. A
+     * staging still running is then cancelled, the upload resumes
+     * after the chunks acknowledged so far.
+     */
+    private void awaitStagedResultUpload(String chainTaskId) {
+        Future<?> stagedResultUpload = stagedResultUploads.remove(chainTaskId);
+        if (stagedResultUpload == null) {
+            return;
+        }
+        try {
+            stagedResultUpload.get(stagingWaitSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Result upload staging too long, cancelling it [chainTaskId:{}, waitSeconds:{}]",
+                    chainTaskId, stagingWaitSeconds);
+            stagedResultUpload.cancel(true);
+        } catch (InterruptedException e) {
+            stagedResultUpload.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException e) {
+            log.warn("Result upload staging failed [chainTaskId:{}]", chainTaskId, e);
+        }
+    }
+
     private boolean upload(String chainTaskId) {
         String authorizationToken = getIexecUploadToken();
         if (authorizationToken.isEmpty()) {
@@ -240,7 +367,37 @@ public class ResultService {
             return false;
         }
 
-        String location = customResultFeignClient.uploadResult(authorizationToken, getResultModelWithZip(chainTaskId));
+        Optional<String> location = Optional.empty();
+        try (TransferScheduler.Slot slot =
+                     transferScheduler.acquire(TransferType.RESULT_UPLOAD, chainTaskId)) {
+            // each uploader is tried when the previous one gave no location
+            boolean chunkedUploadTried = chunkedResultUploader.isChunkedUploadSupported();
+            if (chunkedUploadTried) {
+                location = chunkedResultUploader.upload(authorizationToken,
+                        getResultModelBuilder(chainTaskId).build(),
+                        new File(getResultZipFilePath(chainTaskId)));
+            }
+            if (location.isEmpty() && streamingResultUploader.isStreamingUploadSupported()) {
+                location = streamingResultUploader.upload(authorizationToken,
+                        getResultModelBuilder(chainTaskId).build(),
+                        new File(getResultZipFilePath(chainTaskId)));
+            }
+            if (location.isEmpty()) {
+                // result proxy only accepts the zip embedded in a JSON body
+                ResultModel resultModel = getResultModelWithZip(chainTaskId);
+                transferScheduler.consumeBandwidth(TransferType.RESULT_UPLOAD, resultModel.getZip().length);
+                location = Optional.ofNullable(customResultFeignClient.uploadResult(authorizationToken, resultModel))
+                        .filter(link -> !link.isEmpty());
+            }
+            if (chunkedUploadTried && location.isPresent()) {
+                // nothing left to resume
+                chunkedResultUploader.discardUpload(chainTaskId);
+            }
+        } catch (InterruptedException e) {
+            log.warn("Result upload cancelled [chainTaskId:{}]", chainTaskId);
+            Thread.currentThread().interrupt();
+            return false;
+        }
         if (location.isEmpty()) {
             log.error("Empty location, cannot upload result [chainTaskId:{}]", chainTaskId);
             return false;
@@ -295,27 +452,7 @@ public class ResultService {
     }
 
     public String getIexecUploadToken() {
-        // get challenge
-        Integer chainId = publicConfigService.getChainId();
-        Optional<Eip712Challenge> oEip712Challenge = customResultFeignClient.getResultChallenge(chainId);
-
-        if (!oEip712Challenge.isPresent()) {
-            return "";
-        }
-
-        Eip712Challenge eip712Challenge = oEip712Challenge.get();
-
-        // sign challenge
-        ECKeyPair ecKeyPair = credentialsService.getCredentials().getEcKeyPair();
-        String signedEip712Challenge = Eip712ChallengeUtils.buildAuthorizationToken(eip712Challenge,
-                workerConfigService.getWorkerWalletAddress(), ecKeyPair);
-
-        if (signedEip712Challenge.isEmpty()) {
-            return "";
-        }
-
-        // login
-        return customResultFeignClient.login(chainId, signedEip712Challenge);
+        return resultProxyLoginService.getToken();
     }
 
     public boolean isResultAvailable(String chainTaskId) {
@@ -332,7 +469,20 @@ public class ResultService {
             "Result encryption is not supported for standard tasks");
     }
 
+    /**
+     * Get the computed file of a task with its result digest. The
+     * computed file is read from /output/computed.json the first
+     * time only, then kept in memory until the result is removed.
+     *
+     * @param chainTaskId
+     * @return computed file with its result digest, null if missing
+     * or if the result digest cannot be computed
+     */
     public ComputedFile getComputedFile(String chainTaskId) {
+        ComputedFile cachedComputedFile = computedFileCache.get(chainTaskId);
+        if (cachedComputedFile != null) {
+            return cachedComputedFile;
+        }
         ComputedFile computedFile =
                 IexecFileHelper.readComputedFile(chainTaskId,
                         workerConfigService.getTaskOutputDir(chainTaskId));
@@ -353,9 +503,50 @@ public class ResultService {
             }
             computedFile.setResultDigest(resultDigest);
         }
+        computedFileCache.put(chainTaskId, computedFile);
         return computedFile;
     }
 
+    /**
+     * Compute the result digest of a standard task once and save it in
+     * /output/computed.json, so that later reads of the computed file
+     * (contribute, reveal, upload) do not hash the result again.
+     *
+     * @param chainTaskId
+     * @return true if the result digest is saved
+     */
+    public boolean saveResultDigest(String chainTaskId) {
+        String outputDir = workerConfigService.getTaskOutputDir(chainTaskId);
+        ComputedFile computedFile = IexecFileHelper.readComputedFile(chainTaskId, outputDir);
+        if (computedFile == null) {
+            log.error("Failed to saveResultDigest (computed.json missing)" +
+                    "[chainTaskId:{}]", chainTaskId);
+            return false;
+        }
+        if (!StringUtils.isEmpty(computedFile.getResultDigest())) {
+            return true;
+        }
+        String resultDigest = computeResultDigest(computedFile);
+        if (resultDigest.isEmpty()) {
+            return false;
+        }
+        computedFile.setResultDigest(resultDigest);
+        Path computedFilePath = Paths.get(outputDir + IexecFileHelper.SLASH_COMPUTED_JSON);
+        Path tmpComputedFilePath = Paths.get(computedFilePath + ".tmp");
+        try {
+            Files.write(tmpComputedFilePath,
+                    new ObjectMapper().writeValueAsString(computedFile).getBytes());
+            Files.move(tmpComputedFilePath, computedFilePath,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to saveResultDigest (write failed)" +
+                    WRITE_COMPUTED_FILE_LOG_ARGS, chainTaskId, computedFile, e);
+            return false;
+        }
+        computedFileCache.put(chainTaskId, computedFile);
+        return true;
+    }
+
     /**
      * Write computed file. Most likely used by tee-post-compute.
      * TODO: check compute stage is successful
@@ -414,6 +605,7 @@ public class ResultService {
                     chainTaskId, computedFile, e);
             return false;
         }
+        computedFileCache.put(chainTaskId, computedFile);
         return true;
     }
 
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.result;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of result uploads to the result proxy.
+ */
+@Getter
+@Configuration
+public class ResultUploadConfiguration {
+
+    /**
+     * Stream the result zip from disk instead of loading it in
+     * memory before sending it.
+     */
+    @Value("${result-upload.streaming-upload-enabled}")
+    private boolean streamingUploadEnabled;
+
+    /**
+     * Upload results chunk by chunk. Disabled by default since it
+     * needs a result proxy providing chunked uploads.
+     */
+    @Value("${result-upload.chunked-upload-enabled}")
+    private boolean chunkedUploadEnabled;
+
+    /**
+     * Size of the chunks a result zip is sent in. A failed
+     * upload resumes from the last chunk acknowledged by the
+     * result proxy.
+     */
+    @Value("${result-upload.chunk-size-kb}")
+    private int chunkSizeKb;
+
+    /**
+     * Attempts of a chunk after its first failure before the
+     * upload is given up.
+     */
+    @Value("${result-upload.max-chunk-retries}")
+    private int maxChunkRetries;
+
+    /**
+     * Delay before the first retry of a chunk, doubled on
+     * each following retry.
+     */
+    @Value("${result-upload.chunk-retry-delay-ms}")
+    private long chunkRetryDelayMs;
+
+    /**
+     * Longest wait of a result upload for the chunks still being
+     * staged while the reveal was mined. Once elapsed, the staging
+     * is cancelled and the upload sends the remaining chunks itself.
+     */
+    @Value("${result-upload.staging-wait-seconds}")
+    private long stagingWaitSeconds;
+
+    /**
+     * Timeouts of the ResultRepoClient Feign client, also applied
+     * to streamed and chunked uploads which do not go through it.
+     */
+    @Value("${feign.client.config.ResultRepoClient.connectTimeout}")
+    private long connectTimeoutMs;
+
+    @Value("${feign.client.config.ResultRepoClient.readTimeout}")
+    private long readTimeoutMs;
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.result;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.iexec.common.result.ResultModel;
+import com.iexec.worker.config.PublicConfigurationService;
+import com.iexec.worker.feign.ResultProxyLoginService;
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Upload a result zip to the result proxy with a body streamed from
+ * disk, so that memory usage does not depend on the result size.
+ * <p>
+ * The body is the same JSON result model as the in-memory upload,
+ * the zip being encoded in base64 while it is read. Streaming is
+ * enabled by {@link ResultUploadConfiguration#isStreamingUploadEnabled()},
+ * the caller is expected to fall back to the in-memory upload
+ * otherwise or whenever a streamed upload fails. A rejected token
+ * is invalidated and the upload is retried once with a new token.
+ */
+@Slf4j
+@Service
+public class StreamingResultUploader {
+
+    static final MediaType JSON_MEDIA_TYPE = MediaType.get("application/json");
+    private static final String ZIP_FIELD = "zip";
+    // multiple of 3, so that full chunks are encoded without padding
+    private static final int CHUNK_SIZE = 48 * 1024;
+
+    private final PublicConfigurationService publicConfigService;
+    private final TransferScheduler transferScheduler;
+    private final ResultProxyLoginService resultProxyLoginService;
+    private final OkHttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final boolean streamingUploadSupported;
+
+    public StreamingResultUploader(PublicConfigurationService publicConfigService,
+                                   OkHttpClient httpClient,
+                                   TransferScheduler transferScheduler,
+                                   ResultProxyLoginService resultProxyLoginService,
+                                   ResultUploadConfiguration resultUploadConfig) {
+        this.publicConfigService = publicConfigService;
+        // same timeouts as the result proxy Feign client, not the shared defaults
+        this.httpClient = httpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(Math.max(0, resultUploadConfig.getConnectTimeoutMs())))
+                .readTimeout(Duration.ofMillis(Math.max(0, resultUploadConfig.getReadTimeoutMs())))
+                .build();
+        this.transferScheduler = transferScheduler;
+        this.resultProxyLoginService = resultProxyLoginService;
+        this.streamingUploadSupported = resultUploadConfig.isStreamingUploadEnabled();
+    }
+
+    public boolean isStreamingUploadSupported() {
+        return streamingUploadSupported;
+    }
+
+    /**
+     * Upload result metadata and zip file in a single request.
+     *
+     * @param authorizationToken result proxy token
+     * @param resultModel result metadata, its zip field is ignored
+     * @param zipFile result zip on disk
+     * @return the result location, empty if the upload failed
+     */
+    public Optional<String> upload(String authorizationToken, ResultModel resultModel, File zipFile) {
+        String chainTaskId = resultModel.getChainTaskId();
+        if (!zipFile.isFile()) {
+            log.error("Result zip not found [chainTaskId:{}, zip:{}]", chainTaskId, zipFile);
+            return Optional.empty();
+        }
+        try {
+            return send(authorizationToken, resultModel, zipFile);
+        } catch (UnauthorizedException e) {
+            log.warn("Result proxy rejected token [chainTaskId:{}]", chainTaskId);
+            resultProxyLoginService.invalidateToken(authorizationToken);
+        }
+        String newToken = resultProxyLoginService.getToken();
+        if (newToken.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return send(newToken, resultModel, zipFile);
+        } catch (UnauthorizedException e) {
+            log.error("Result proxy rejected new token [chainTaskId:{}]", chainTaskId);
+            return Optional.empty();
+        }
+    }
+
+    private Optional<String> send(String authorizationToken, ResultModel resultModel, File zipFile)
+            throws UnauthorizedException {
+        String chainTaskId = resultModel.getChainTaskId();
+        Request request = new Request.Builder()
+                .url(publicConfigService.getResultRepositoryURL() + "/")
+                .header(HttpHeaders.AUTHORIZATION, authorizationToken)
+                .post(new ResultModelRequestBody(resultModel, zipFile))
+                .build();
+        log.info("Streaming result upload [chainTaskId:{}, size:{}]", chainTaskId, zipFile.length());
+        try (Response response = httpClient.newCall(request).execute()) {
+            ResponseBody responseBody = response.body();
+            String location = responseBody != null ? responseBody.string() : "";
+            if (response.isSuccessful() && !location.isEmpty()) {
+                return Optional.of(location);
+            }
+            if (response.code() == HttpStatus.UNAUTHORIZED.value()) {
+                throw new UnauthorizedException();
+            }
+            log.error("Streaming result upload failed [chainTaskId:{}, status:{}]",
+                    chainTaskId, response.code());
+        } catch (IOException e) {
+            log.error("Streaming result upload failed [chainTaskId:{}]", chainTaskId, e);
+        }
+        return Optional.empty();
+    }
+
+    private static class UnauthorizedException extends Exception {
+    }
+
+    /**
+     * JSON result model whose zip field is encoded from the file chunk
+     * by chunk, each chunk being accounted to the worker bandwidth cap.
+     */
+    private class ResultModelRequestBody extends RequestBody {
+
+        private final byte[] prefix;
+        private final byte[] suffix = "\"}".getBytes(StandardCharsets.UTF_8);
+        private final File file;
+
+        ResultModelRequestBody(ResultModel resultModel, File file) throws IOException {
+            ObjectNode fields = objectMapper.valueToTree(resultModel);
+            fields.remove(ZIP_FIELD);
+            String json = objectMapper.writeValueAsString(fields);
+            this.prefix = (json.substring(0, json.length() - 1)
+                    + (fields.size() > 0 ? "," : "") + "\"" + ZIP_FIELD + "\":\"")
+                    .getBytes(StandardCharsets.UTF_8);
+            this.file = file;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON_MEDIA_TYPE;
+        }
+
+        @Override
+        public long contentLength() {
+            long encodedLength = 4 * ((file.length() + 2) / 3);
+            return prefix.length + encodedLength + suffix.length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            Base64.Encoder encoder = Base64.getEncoder();
+            sink.write(prefix);
+            try (InputStream in = new FileInputStream(file)) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int read;
+                // only the last chunk may be shorter and padded
+                while ((read = in.readNBytes(chunk, 0, CHUNK_SIZE)) > 0) {
+                    sink.write(encoder.encode(ByteBuffer.wrap(chunk, 0, read)));
+                    sink.emit();
+                    transferScheduler.consumeBandwidth(TransferType.RESULT_UPLOAD, read);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Result upload interrupted");
+            }
+            sink.write(suffix);
+        }
+    }
+}
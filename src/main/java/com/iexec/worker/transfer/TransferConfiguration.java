@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.transfer;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Limits shared by all network transfers of the worker
+ * (app pulls, dataset downloads and result uploads).
+ */
+@Getter
+@Configuration
+public class TransferConfiguration {
+
+    /**
+     * Maximum number of transfers running at the same time.
+     */
+    @Value("${transfer.max-active-transfers}")
+    private int maxActiveTransfers;
+
+    /**
+     * Bandwidth available to the worker in megabits per second,
+     * 0 for no limit.
+     */
+    @Value("${transfer.max-bandwidth-mbps}")
+    private int maxBandwidthMbps;
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.transfer;
+
+import com.iexec.common.chain.ChainTask;
+import com.iexec.worker.chain.IexecHubService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Worker-wide scheduler of network transfers.
+ * <p>
+ * A limited number of transfers run at the same time. When all slots are
+ * taken, waiting transfers are granted a slot by order of contribution
+ * deadline so the task closest to its deadline goes first. Transferred
+ * bytes go through a token bucket to respect the configured bandwidth cap.
+ * The contribution deadline of a task never changes, it is read on-chain
+ * once and kept for the next transfers of the task.
+ */
+@Slf4j
+@Service
+public class TransferScheduler {
+
+    static final int DEADLINE_CACHE_SIZE = 256;
+
+    private final IexecHubService iexecHubService;
+    private final int maxActiveTransfers;
+    private final long maxBytesPerSecond;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotReleased = lock.newCondition();
+    private final PriorityQueue<Ticket> waitingTransfers = new PriorityQueue<>(
+            Comparator.comparingLong(Ticket::getDeadline).thenComparingLong(Ticket::getSequence));
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<TransferType, Counter> transferredBytes = new EnumMap<>(TransferType.class);
+    private final Map<String, Long> contributionDeadlines = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > DEADLINE_CACHE_SIZE;
+                }
+            });
+    private int activeTransfers;
+    // token bucket, may go negative when a large chunk is consumed at once
+    private long availableBytes;
+    private long lastRefillNanos;
+
+    public TransferScheduler(IexecHubService iexecHubService,
+                             TransferConfiguration transferConfig,
+                             MeterRegistry meterRegistry) {
+        this.iexecHubService = iexecHubService;
+        this.maxActiveTransfers = Math.max(1, transferConfig.getMaxActiveTransfers());
+        this.maxBytesPerSecond = Math.max(0, transferConfig.getMaxBandwidthMbps()) * 1_000_000L / 8;
+        this.availableBytes = maxBytesPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+        Gauge.builder("iexec.transfers.queued", this, TransferScheduler::getQueuedTransfers)
+                .description("Transfers waiting for a slot")
+                .register(meterRegistry);
+        Gauge.builder("iexec.transfers.active", this, TransferScheduler::getActiveTransfers)
+                .description("Transfers in progress")
+                .register(meterRegistry);
+        for (TransferType type : TransferType.values()) {
+            transferredBytes.put(type, Counter.builder("iexec.transfers.bytes")
+                    .tag("type", type.name())
+                    .baseUnit("bytes")
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Wait for a transfer slot. The slot must be closed once the
+     * transfer is over, ideally with a try-with-resources block.
+     *
+     * @param type kind of transfer
+     * @param chainTaskId task the transfer belongs to
+     * @return the granted slot
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Slot acquire(TransferType type, String chainTaskId) throws InterruptedException {
+        // fast path, no need to fetch the deadline when nobody waits
+        Optional<Slot> freeSlot = tryAcquire(type, chainTaskId);
+        if (freeSlot.isPresent()) {
+            return freeSlot.get();
+        }
+        Ticket ticket = new Ticket(getContributionDeadline(chainTaskId), sequence.incrementAndGet());
+        log.info("Waiting for transfer slot [chainTaskId:{}, type:{}, deadline:{}]",
+                chainTaskId, type, ticket.getDeadline());
+        lock.lock();
+        try {
+            waitingTransfers.add(ticket);
+            while (activeTransfers >= maxActiveTransfers || waitingTransfers.peek() != ticket) {
+                slotReleased.await();
+            }
+            waitingTransfers.poll();
+            activeTransfers++;
+            // another slot may be free for the next ticket
+            slotReleased.signalAll();
+            return new Slot(type, chainTaskId);
+        } catch (InterruptedException e) {
+            waitingTransfers.remove(ticket);
+            slotReleased.signalAll();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a transfer slot only if one is free and no other transfer
+     * is waiting for it.
+     *
+     * @param type kind of transfer
+     * @param chainTaskId task the transfer belongs to
+     * @return the granted slot, empty if none is free
+     */
+    public Optional<Slot> tryAcquire(TransferType type, String chainTaskId) {
+        lock.lock();
+        try {
+            if (waitingTransfers.isEmpty() && activeTransfers < maxActiveTransfers) {
+                activeTransfers++;
+                return Optional.of(new Slot(type, chainTaskId));
+            }
+            return Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Account for transferred bytes and block the calling thread
+     * as long as needed to stay under the bandwidth cap.
+     *
+     * @param type kind of transfer
+     * @param bytes number of bytes just transferred or about to be
+     * @throws InterruptedException if interrupted while throttled
+     */
+    public void consumeBandwidth(TransferType type, long bytes) throws InterruptedException {
+        transferredBytes.get(type).increment(bytes);
+        if (maxBytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long refill = (now - lastRefillNanos) * maxBytesPerSecond / TimeUnit.SECONDS.toNanos(1);
+            if (refill > 0) {
+                // burst limited to one second of bandwidth
+                availableBytes = Math.min(maxBytesPerSecond, availableBytes + refill);
+                lastRefillNanos = now;
+            }
+            availableBytes -= bytes;
+            waitNanos = availableBytes < 0
+                    ? -availableBytes * TimeUnit.SECONDS.toNanos(1) / maxBytesPerSecond
+                    : 0;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    public int getQueuedTransfers() {
+        lock.lock();
+        try {
+            return waitingTransfers.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getActiveTransfers() {
+        lock.lock();
+        try {
+            return activeTransfers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            activeTransfers--;
+            slotReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long getContributionDeadline(String chainTaskId) {
+        Long cachedDeadline = contributionDeadlines.get(chainTaskId);
+        if (cachedDeadline != null) {
+            return cachedDeadline;
+        }
+        // not cached when missing, the task may not be initialized yet
+        Optional<Long> deadline = iexecHubService.getChainTask(chainTaskId)
+                .map(ChainTask::getContributionDeadline);
+        deadline.ifPresent(value -> contributionDeadlines.put(chainTaskId, value));
+        return deadline.orElse(Long.MAX_VALUE);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Ticket {
+        private final long deadline;
+        private final long sequence;
+    }
+
+    /**
+     * Transfer slot granted by {@link TransferScheduler#acquire}.
+     */
+    public class Slot implements AutoCloseable {
+        private final TransferType type;
+        private final String chainTaskId;
+        private boolean closed;
+
+        private Slot(TransferType type, String chainTaskId) {
+            this.type = type;
+            this.chainTaskId = chainTaskId;
+            log.debug("Transfer started [chainTaskId:{}, type:{}]", chainTaskId, type);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            release();
+            log.debug("Transfer ended [chainTaskId:{}, type:{}]", chainTaskId, type);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+
+public class JwtUtils {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private JwtUtils() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Read the expiration ("exp" claim) of a JWT without verifying
+     * its signature. The token may be prefixed with "Bearer ".
+     *
+     * @param token JWT
+     * @return expiration instant, empty if the token is not a JWT
+     * or has no expiration
+     */
+    public static Optional<Instant> getExpiration(String token) {
+        if (token == null) {
+            return Optional.empty();
+        }
+        String jwt = token.startsWith(BEARER_PREFIX) ? token.substring(BEARER_PREFIX.length()) : token;
+        String[] parts = jwt.split("\\.");
+        if (parts.length < 2) {
+            return Optional.empty();
+        }
+        try {
+            JsonNode claims = MAPPER.readTree(Base64.getUrlDecoder().decode(parts[1]));
+            JsonNode exp = claims.get("exp");
+            return exp != null && exp.canConvertToLong()
+                    ? Optional.of(Instant.ofEpochSecond(exp.asLong()))
+                    : Optional.empty();
+        } catch (IllegalArgumentException | IOException e) {
+            return Optional.empty();
+        }
+    }
+}
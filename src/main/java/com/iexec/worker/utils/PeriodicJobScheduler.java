@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs periodic jobs on a thread of their own, so that a slow job
+ * does not delay the jobs of other schedulers. The scheduling lag of
+ * each run, the time between its planned and actual start, is
+ * recorded in the {@code iexec.scheduler.lag} timer tagged with the
+ * scheduler name.
+ */
+@Slf4j
+public class PeriodicJobScheduler {
+
+    private final String name;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService executor;
+
+    public PeriodicJobScheduler(String name, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.meterRegistry = meterRegistry;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory(name + "-"));
+    }
+
+    /**
+     * Run a job now then every period. A run starting late because a
+     * previous one overran is started as soon as possible, runs never
+     * overlap. A failed run does not cancel the next ones.
+     *
+     * @param job job to run
+     * @param periodMs period in milliseconds
+     */
+    public void scheduleAtFixedRate(Runnable job, long periodMs) {
+        Timer lag = Timer.builder("iexec.scheduler.lag")
+                .description("Delay between the planned and actual start of periodic jobs")
+                .tag("scheduler", name)
+                .register(meterRegistry);
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMs);
+        long firstRunNanos = System.nanoTime();
+        AtomicLong runs = new AtomicLong();
+        executor.scheduleAtFixedRate(() -> {
+            long plannedNanos = firstRunNanos + runs.getAndIncrement() * periodNanos;
+            lag.record(Math.max(0, System.nanoTime() - plannedNanos), TimeUnit.NANOSECONDS);
+            try {
+                job.run();
+            } catch (RuntimeException e) {
+                log.error("Periodic job failed [scheduler:{}]", name, e);
+            }
+        }, 0, periodMs, TimeUnit.MILLISECONDS);
+        log.info("Scheduled periodic job [scheduler:{}, periodMs:{}]", name, periodMs);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -28,10 +28,12 @@ import com.iexec.worker.compute.post.PostComputeService;
 import com.iexec.worker.compute.pre.PreComputeResponse;
 import com.iexec.worker.compute.pre.PreComputeService;
 import com.iexec.worker.config.WorkerConfigurationService;
+import com.iexec.worker.deal.DealResourceService;
 import com.iexec.common.docker.DockerLogs;
 import com.iexec.common.docker.client.DockerClientInstance;
 import com.iexec.worker.docker.DockerService;
 import com.iexec.worker.result.ResultService;
+import com.iexec.worker.transfer.TransferScheduler;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
 import org.junit.Rule;
@@ -42,7 +44,10 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Function;
 
 import static org.mockito.Mockito.*;
 
@@ -95,11 +100,18 @@ public class ComputeManagerServiceTests {
     private IexecHubService iexecHubService;
     @Mock
     private ResultService resultService;
+    @Mock
+    private TransferScheduler transferScheduler;
+    @Mock
+    private DealResourceService dealResourceService;
 
     @Before
     public void beforeEach() {
         MockitoAnnotations.openMocks(this);
-
+        // no other task of the deal, resources are always loaded
+        when(dealResourceService.share(eq(CHAIN_TASK_ID), any(), any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Path, Optional<?>>>getArgument(2)
+                        .apply(jUnitTemporaryFolder.getRoot().toPath()));
     }
 
     @Test
@@ -109,6 +121,14 @@ public class ComputeManagerServiceTests {
         Assertions.assertThat(computeManagerService.downloadApp(taskDescription)).isTrue();
     }
 
+    @Test
+    public void shouldNotPullAppSinceAlreadyPulledForDeal() {
+        when(dealResourceService.share(eq(CHAIN_TASK_ID), eq(ComputeManagerService.APP_RESOURCE), any(), any()))
+                .thenReturn(Optional.of(true));
+        Assertions.assertThat(computeManagerService.downloadApp(taskDescription)).isTrue();
+        verify(dockerService, never()).getClient(APP_URI);
+    }
+
     @Test
     public void shouldNotDownloadAppSincePullImageFailed() {
         when(dockerService.getClient(taskDescription.getAppUri())).thenReturn(dockerClient);
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.compute.memo;
+
+import com.iexec.common.docker.client.DockerClientInstance;
+import com.iexec.common.task.TaskDescription;
+import com.iexec.worker.config.WorkerConfigurationService;
+import com.iexec.worker.docker.DockerService;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class ResultMemoizationServiceTests {
+
+    private static final String CHAIN_TASK_ID_1 = "0x1";
+    private static final String CHAIN_TASK_ID_2 = "0x2";
+    private static final String APP_URI = "registry.io/iexechub/app:1.0.0";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private WorkerConfigurationService workerConfigService;
+    @Mock
+    private DockerService dockerService;
+    @Mock
+    private DockerClientInstance dockerClientInstance;
+    @Mock
+    private MemoizationConfiguration memoizationConfig;
+
+    private Path workerBaseDir;
+
+    @Before
+    public void init() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        workerBaseDir = temporaryFolder.newFolder().toPath();
+        when(workerConfigService.getWorkerBaseDir()).thenReturn(workerBaseDir.toString());
+        for (String chainTaskId : List.of(CHAIN_TASK_ID_1, CHAIN_TASK_ID_2)) {
+            when(workerConfigService.getTaskInputDir(chainTaskId))
+                    .thenReturn(workerBaseDir.resolve(chainTaskId).resolve("input").toString());
+            when(workerConfigService.getTaskIexecOutDir(chainTaskId))
+                    .thenReturn(workerBaseDir.resolve(chainTaskId).resolve("iexec_out").toString());
+        }
+        when(dockerService.getClient()).thenReturn(dockerClientInstance);
+        when(dockerClientInstance.getImageId(APP_URI)).thenReturn("sha256:abc");
+        when(memoizationConfig.isEnabled()).thenReturn(true);
+        when(memoizationConfig.getMaxEntries()).thenReturn(10);
+        when(memoizationConfig.getNonDeterministicApps()).thenReturn(List.of());
+    }
+
+    @Test
+    public void shouldGetSameKeyForIdenticalTasks() throws IOException {
+        writeInputFile(CHAIN_TASK_ID_1, "file0", "content");
+        writeInputFile(CHAIN_TASK_ID_2, "file0", "content");
+        ResultMemoizationService service = getService();
+
+        Optional<String> key = service.getKey(getTaskDescription(CHAIN_TASK_ID_1));
+
+        assertThat(key).isPresent();
+        assertThat(service.getKey(getTaskDescription(CHAIN_TASK_ID_2))).isEqualTo(key);
+    }
+
+    @Test
+    public void shouldGetDifferentKeysSinceInputFilesDiffer() throws IOException {
+        writeInputFile(CHAIN_TASK_ID_1, "file0", "content");
+        writeInputFile(CHAIN_TASK_ID_2, "file0", "other content");
+        ResultMemoizationService service = getService();
+
+        assertThat(service.getKey(getTaskDescription(CHAIN_TASK_ID_1)))
+                .isNotEqualTo(service.getKey(getTaskDescription(CHAIN_TASK_ID_2)));
+    }
+
+    @Test
+    public void shouldGetDifferentKeysSinceAppImageDiffers() {
+        ResultMemoizationService service = getService();
+        Optional<String> key = service.getKey(getTaskDescription(CHAIN_TASK_ID_1));
+
+        when(dockerClientInstance.getImageId(APP_URI)).thenReturn("sha256:def");
+
+        assertThat(service.getKey(getTaskDescription(CHAIN_TASK_ID_1))).isNotEqualTo(key);
+    }
+
+    @Test
+    public void shouldNotGetKeySinceDisabled() {
+        when(memoizationConfig.isEnabled()).thenReturn(false);
+
+        assertThat(getService().getKey(getTaskDescription(CHAIN_TASK_ID_1))).isEmpty();
+    }
+
+    @Test
+    public void shouldNotGetKeySinceTeeTask() {
+        TaskDescription taskDescription = TaskDescription.builder()
+                .chainTaskId(CHAIN_TASK_ID_1)
+                .appUri(APP_URI)
+                .isTeeTask(true)
+                .build();
+
+        assertThat(getService().getKey(taskDescription)).isEmpty();
+    }
+
+    @Test
+    public void shouldNotGetKeySinceNonDeterministicApp() {
+        when(memoizationConfig.getNonDeterministicApps())
+                .thenReturn(List.of("registry.io/iexechub/app"));
+
+        assertThat(getService().getKey(getTaskDescription(CHAIN_TASK_ID_1))).isEmpty();
+    }
+
+    @Test
+    public void shouldNotGetKeySinceAppImageNotFound() {
+        when(dockerClientInstance.getImageId(APP_URI)).thenReturn("");
+
+        assertThat(getService().getKey(getTaskDescription(CHAIN_TASK_ID_1))).isEmpty();
+    }
+
+    @Test
+    public void shouldMemoizeAndRestoreResult() throws IOException {
+        Path iexecOut1 = Files.createDirectories(workerBaseDir.resolve(CHAIN_TASK_ID_1).resolve("iexec_out"));
+        Files.writeString(iexecOut1.resolve("computed.json"), "{\"deterministic-output-path\":\"/iexec_out/result.txt\"}");
+        Files.writeString(iexecOut1.resolve("result.txt"), "result");
+        ResultMemoizationService service = getService();
+        assertThat(service.restore(CHAIN_TASK_ID_2, "key")).isFalse();
+
+        service.memoize(CHAIN_TASK_ID_1, "key");
+
+        assertThat(service.restore(CHAIN_TASK_ID_2, "key")).isTrue();
+        Path iexecOut2 = workerBaseDir.resolve(CHAIN_TASK_ID_2).resolve("iexec_out");
+        assertThat(Files.readString(iexecOut2.resolve("result.txt"))).isEqualTo("result");
+        assertThat(Files.readString(iexecOut2.resolve("computed.json")))
+                .isEqualTo(Files.readString(iexecOut1.resolve("computed.json")));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedResult() throws IOException {
+        when(memoizationConfig.getMaxEntries()).thenReturn(1);
+        Path iexecOut1 = Files.createDirectories(workerBaseDir.resolve(CHAIN_TASK_ID_1).resolve("iexec_out"));
+        Files.writeString(iexecOut1.resolve("result.txt"), "result");
+        ResultMemoizationService service = getService();
+
+        service.memoize(CHAIN_TASK_ID_1, "key1");
+        Path memoizationDir = workerBaseDir.resolve(ResultMemoizationService.MEMOIZATION_FOLDER);
+        Files.setLastModifiedTime(memoizationDir.resolve("key1"),
+                FileTime.fromMillis(0));
+        service.memoize(CHAIN_TASK_ID_1, "key2");
+
+        assertThat(memoizationDir.resolve("key1")).doesNotExist();
+        assertThat(memoizationDir.resolve("key2")).exists();
+    }
+
+    @Test
+    public void shouldGetImageName() {
+        assertThat(ResultMemoizationService.getImageName("iexechub/app:1.0.0"))
+                .isEqualTo("iexechub/app");
+        assertThat(ResultMemoizationService.getImageName("localhost:5000/app"))
+                .isEqualTo("localhost:5000/app");
+        assertThat(ResultMemoizationService.getImageName("localhost:5000/app:1@sha256:abc"))
+                .isEqualTo("localhost:5000/app");
+    }
+
+    private ResultMemoizationService getService() {
+        return new ResultMemoizationService(workerConfigService, dockerService, memoizationConfig);
+    }
+
+    private TaskDescription getTaskDescription(String chainTaskId) {
+        return TaskDescription.builder()
+                .chainTaskId(chainTaskId)
+                .appUri(APP_URI)
+                .cmd("arg0 arg1")
+                .inputFiles(Arrays.asList("https://host/file0"))
+                .build();
+    }
+
+    private void writeInputFile(String chainTaskId, String name, String content) throws IOException {
+        Path inputDir = Files.createDirectories(workerBaseDir.resolve(chainTaskId).resolve("input"));
+        Files.write(inputDir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.compute.post;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.stream.Stream;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertThrows;
+
+public class ParallelZipWriterTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ParallelZipWriter zipWriter;
+    private Path iexecOut;
+    private Path zipFile;
+
+    @Before
+    public void init() throws IOException {
+        zipWriter = new ParallelZipWriter(6, 4);
+        Path output = temporaryFolder.newFolder().toPath();
+        iexecOut = Files.createDirectories(output.resolve("iexec_out"));
+        zipFile = output.resolve("iexec_out.zip");
+    }
+
+    @After
+    public void stop() {
+        zipWriter.shutdown();
+    }
+
+    @Test
+    public void shouldZipFolderWithSortedEntries() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("computed.json", "{\"deterministic-output-path\":\"/iexec_out/result.txt\"}"
+                .getBytes(StandardCharsets.UTF_8));
+        files.put("empty.txt", new byte[0]);
+        files.put("images/cat.png", randomBytes(100 * 1024));
+        files.put("logs/app.log", textBytes(2 * 1024 * 1024));
+        files.put("result.txt", textBytes(10 * 1024));
+        writeFiles(files);
+
+        zipWriter.zip(iexecOut, zipFile);
+
+        assertThat(getEntries(zipFile)).containsExactlyElementsOf(files.keySet());
+        assertZipContent(files);
+        assertThat(zipFile.resolveSibling("iexec_out.zip.tmp")).doesNotExist();
+    }
+
+    @Test
+    public void shouldStoreIncompressibleFiles() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("archive.gz", textBytes(64 * 1024));
+        files.put("random.bin", randomBytes(512 * 1024));
+        files.put("text.csv", textBytes(512 * 1024));
+        writeFiles(files);
+
+        zipWriter.zip(iexecOut, zipFile);
+
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            assertThat(zip.getEntry("archive.gz").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(zip.getEntry("random.bin").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(zip.getEntry("text.csv").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(zip.getEntry("text.csv").getCompressedSize())
+                    .isLessThan(zip.getEntry("text.csv").getSize());
+        }
+        assertZipContent(files);
+    }
+
+    @Test
+    public void shouldStoreEverythingWithNoCompression() throws IOException {
+        zipWriter.shutdown();
+        zipWriter = new ParallelZipWriter(0, 2);
+        Map<String, byte[]> files = Map.of("text.csv", textBytes(512 * 1024));
+        writeFiles(files);
+
+        zipWriter.zip(iexecOut, zipFile);
+
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            assertThat(zip.getEntry("text.csv").getMethod()).isEqualTo(ZipEntry.STORED);
+        }
+        assertZipContent(files);
+    }
+
+    @Test
+    public void shouldZipLargeCompressibleFile() throws IOException {
+        // compressed size above the in-memory limit
+        byte[] content = new byte[24 * 1024 * 1024];
+        Random random = new Random(42);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) random.nextInt(16);
+        }
+        Map<String, byte[]> files = Map.of("large.dat", content);
+        writeFiles(files);
+
+        zipWriter.zip(iexecOut, zipFile);
+
+        assertZipContent(files);
+        try (Stream<Path> siblings = Files.list(zipFile.getParent())) {
+            assertThat(siblings).containsExactlyInAnyOrder(iexecOut, zipFile);
+        }
+    }
+
+    @Test
+    public void shouldZipEmptyFolder() throws IOException {
+        zipWriter.zip(iexecOut, zipFile);
+
+        assertThat(getEntries(zipFile)).isEmpty();
+    }
+
+    @Test
+    public void shouldNotZipMissingFolder() {
+        assertThrows(IOException.class,
+                () -> zipWriter.zip(iexecOut.resolve("missing"), zipFile));
+        assertThat(zipFile).doesNotExist();
+    }
+
+    @Test
+    public void shouldNotCreateZipWriterWithInvalidLevel() {
+        assertThrows(IllegalArgumentException.class, () -> new ParallelZipWriter(10, 1));
+    }
+
+    @Test
+    public void shouldComputeEntropy() {
+        assertThat(ParallelZipWriter.getEntropy(new byte[4096])).isZero();
+        assertThat(ParallelZipWriter.getEntropy(randomBytes(ParallelZipWriter.ENTROPY_SAMPLE_SIZE)))
+                .isGreaterThan(ParallelZipWriter.INCOMPRESSIBLE_ENTROPY_BITS);
+        assertThat(ParallelZipWriter.getEntropy(textBytes(ParallelZipWriter.ENTROPY_SAMPLE_SIZE)))
+                .isLessThan(ParallelZipWriter.INCOMPRESSIBLE_ENTROPY_BITS);
+    }
+
+    private void writeFiles(Map<String, byte[]> files) throws IOException {
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            Path path = iexecOut.resolve(file.getKey());
+            Files.createDirectories(path.getParent());
+            Files.write(path, file.getValue());
+        }
+    }
+
+    private void assertZipContent(Map<String, byte[]> files) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                assertThat(zip.getInputStream(zip.getEntry(file.getKey())).readAllBytes())
+                        .isEqualTo(file.getValue());
+            }
+        }
+        // local headers must be readable without the central directory
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(zipFile))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                assertThat(zip.readAllBytes()).isEqualTo(files.get(entry.getName()));
+            }
+        }
+    }
+
+    private List<String> getEntries(Path zipFile) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            List<String> names = new ArrayList<>();
+            Collections.list(zip.entries()).forEach(entry -> names.add(entry.getName()));
+            return names;
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] textBytes(int size) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < size; i++) {
+            text.append("line ").append(i).append(",value,").append(i % 13).append('\n');
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -87,6 +87,8 @@ public class PostComputeServiceTests {
     @Mock
     private TeeWorkflowConfiguration teeWorkflowConfig;
     @Mock
+    private ResultZipConfiguration resultZipConfig;
+    @Mock
     private DockerClientInstance dockerClientInstanceMock;
 
     @Before
@@ -115,6 +117,7 @@ public class PostComputeServiceTests {
         System.out.println(FileHelper.printDirectoryTree(new File(output)));
         Assertions.assertThat(new File(output + "/iexec_out.zip")).exists();
         Assertions.assertThat(new File(output + IexecFileHelper.SLASH_COMPUTED_JSON)).exists();
+        verify(resultService).saveResultDigest(CHAIN_TASK_ID);
         verify(resultService, times(0)).encryptResult(CHAIN_TASK_ID);
     }
 
@@ -19,6 +19,8 @@ package com.iexec.worker.dataset;
 import com.iexec.common.replicate.ReplicateStatusCause;
 import com.iexec.common.task.TaskDescription;
 import com.iexec.worker.config.WorkerConfigurationService;
+import com.iexec.worker.deal.DealResourceService;
+import com.iexec.worker.transfer.TransferScheduler;
 import com.iexec.worker.utils.WorkflowException;
 import org.junit.Before;
 import org.junit.Rule;
@@ -30,10 +32,17 @@ import org.mockito.MockitoAnnotations;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 public class DataServiceTest {
@@ -54,6 +63,13 @@ public class DataServiceTest {
     @Mock
     private WorkerConfigurationService workerConfigurationService;
 
+    @Mock
+    private DownloadConfiguration downloadConfiguration;
+    @Mock
+    private TransferScheduler transferScheduler;
+    @Mock
+    private DealResourceService dealResourceService;
+
     private String iexecIn;
 
     private TaskDescription taskDescription = TaskDescription.builder()
@@ -70,6 +86,10 @@ public class DataServiceTest {
         iexecIn = temporaryFolder.newFolder().getAbsolutePath();
         when(workerConfigurationService.getTaskInputDir(CHAIN_TASK_ID))
                 .thenReturn(iexecIn);
+        // no other task of the deal, resources are loaded in the input folder
+        when(dealResourceService.share(any(), eq(DataService.DATASET_RESOURCE), any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Path, Optional<?>>>getArgument(2)
+                        .apply(Paths.get(iexecIn)));
     }
 
     @Test
@@ -78,6 +98,19 @@ public class DataServiceTest {
         assertThat(filepath).isEqualTo(iexecIn + "/" + FILENAME);
     }
 
+    @Test
+    public void shouldLinkDatasetDownloadedForDeal() throws Exception {
+        Path dealDir = temporaryFolder.newFolder().toPath();
+        when(dealResourceService.share(any(), eq(DataService.DATASET_RESOURCE), any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Path, Optional<?>>>getArgument(2)
+                        .apply(dealDir));
+
+        String filepath = dataService.downloadStandardDataset(taskDescription);
+
+        assertThat(filepath).isEqualTo(iexecIn + "/" + FILENAME);
+        assertThat(Files.isSameFile(Paths.get(filepath), dealDir.resolve(FILENAME))).isTrue();
+    }
+
 
     @Test
     public void shouldNotDownloadDatasetSinceEmptyChainTaskId() throws Exception {
@@ -127,6 +160,8 @@ public class DataServiceTest {
                 () -> dataService.downloadStandardDataset(taskDescription));
         assertThat(e.getReplicateStatusCause())
                 .isEqualTo(ReplicateStatusCause.DATASET_FILE_BAD_CHECKSUM);
+        // not kept for the other tasks of the deal
+        assertThat(Paths.get(iexecIn, FILENAME)).doesNotExist();
     }
 
     @Test
@@ -153,4 +188,25 @@ public class DataServiceTest {
                 .isEqualTo(ReplicateStatusCause.INPUT_FILES_DOWNLOAD_FAILED);
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldNotDownloadInputFilesSinceOneUriIsEmpty() throws Exception {
+        List<String> uris = List.of(URI, "");
+        WorkflowException e = assertThrows(
+                WorkflowException.class,
+                () -> dataService.downloadStandardInputFiles(CHAIN_TASK_ID, uris));
+        assertThat(e.getReplicateStatusCause())
+                .isEqualTo(ReplicateStatusCause.INPUT_FILES_DOWNLOAD_FAILED);
+    }
+
+    @Test
+    public void shouldNotDownloadInputFilesSinceSameFilenameForDistinctUris() {
+        List<String> uris = List.of(URI, "https://other.host/iExec-RLC-RLC-icon.png");
+        WorkflowException e = assertThrows(
+                WorkflowException.class,
+                () -> dataService.downloadStandardInputFiles(CHAIN_TASK_ID, uris));
+        assertThat(e.getReplicateStatusCause())
+                .isEqualTo(ReplicateStatusCause.INPUT_FILES_DOWNLOAD_FAILED);
+        assertThat(new File(iexecIn, "iExec-RLC-RLC-icon.png")).doesNotExist();
+    }
+}
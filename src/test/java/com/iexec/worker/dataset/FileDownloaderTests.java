@@ -0,0 +1,338 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.dataset;
+
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.web3j.crypto.Hash;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FileDownloaderTests {
+
+    private static final String CHAIN_TASK_ID = "0xfoobar";
+    private static final String FILENAME = "dataset.bin";
+    private static final String ETAG = "\"v1\"";
+    private static final byte[] CONTENT = new byte[3 * 1024 * 1024 + 17];
+    private static final String CID = "QmXoypizjW3WknFiJnKLwHCnL72vedxjQkDDP1mXWo6uco";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private DownloadConfiguration downloadConfiguration;
+    @Mock
+    private TransferScheduler transferScheduler;
+    @Mock
+    private TransferScheduler.Slot slot;
+
+    private HttpServer server;
+    private HttpServer slowGateway;
+    private final CountDownLatch slowGatewayLatch = new CountDownLatch(1);
+    private FileDownloader fileDownloader;
+    private String uri;
+    private String parentDir;
+    private final List<String> receivedRanges = new CopyOnWriteArrayList<>();
+    private volatile boolean failSegments;
+
+    @Before
+    public void init() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        new Random(42).nextBytes(CONTENT);
+        // minimal stand-in of a file server supporting byte ranges
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/" + FILENAME, this::serveFile);
+        server.createContext("/ipfs/" + CID, this::serveFile);
+        server.start();
+        // gateway stand-in answering only when released
+        slowGateway = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        slowGateway.setExecutor(Executors.newCachedThreadPool());
+        slowGateway.createContext("/ipfs/" + CID, exchange -> {
+            try {
+                slowGatewayLatch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            serveFile(exchange);
+        });
+        slowGateway.start();
+        uri = "http://127.0.0.1:" + server.getAddress().getPort() + "/" + FILENAME;
+        parentDir = temporaryFolder.newFolder().getAbsolutePath();
+        fileDownloader = new FileDownloader(downloadConfiguration, transferScheduler);
+    }
+
+    @After
+    public void stop() {
+        slowGatewayLatch.countDown();
+        slowGateway.stop(0);
+        server.stop(0);
+        fileDownloader.shutdown();
+    }
+
+    @Test
+    public void shouldDownloadFileAndComputeSha256() throws IOException {
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, uri, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+        assertThat(file.get().getSha256()).isEqualTo(Numeric.toHexString(Hash.sha256(CONTENT)));
+        assertThat(Path.of(parentDir, FILENAME + FileDownloader.PARTIAL_FILE_SUFFIX)).doesNotExist();
+    }
+
+    @Test
+    public void shouldResumePartialDownload() throws IOException {
+        int alreadyDownloaded = 1024 * 1024;
+        Files.write(getPartialFile(), Arrays.copyOf(CONTENT, alreadyDownloaded));
+        Files.writeString(getSidecarFile(FileDownloader.VALIDATOR_FILE_SUFFIX), ETAG);
+
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, uri, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(receivedRanges).containsExactly("bytes=" + alreadyDownloaded + "-");
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+        assertThat(file.get().getSha256()).isEqualTo(Numeric.toHexString(Hash.sha256(CONTENT)));
+    }
+
+    @Test
+    public void shouldRestartDownloadSinceRemoteFileChanged() throws IOException {
+        int alreadyDownloaded = 1024 * 1024;
+        Files.write(getPartialFile(), new byte[alreadyDownloaded]);
+        Files.writeString(getSidecarFile(FileDownloader.VALIDATOR_FILE_SUFFIX), "\"v0\"");
+
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, uri, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+        assertThat(file.get().getSha256()).isEqualTo(Numeric.toHexString(Hash.sha256(CONTENT)));
+    }
+
+    @Test
+    public void shouldRestartDownloadWithoutValidator() throws IOException {
+        Files.write(getPartialFile(), new byte[1024]);
+
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, uri, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(receivedRanges).isEmpty();
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void shouldDownloadLargeFileInSegments() throws IOException {
+        allowSegments();
+
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, uri, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(receivedRanges).hasSize(4);
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+        assertThat(getSidecarFile(FileDownloader.SEGMENTED_FILE_SUFFIX)).doesNotExist();
+    }
+
+    @Test
+    public void shouldDownloadLargeFileInSingleStreamSinceNoFreeTransferSlot() throws IOException {
+        allowSegments();
+        when(transferScheduler.tryAcquire(TransferType.DATA_DOWNLOAD, CHAIN_TASK_ID))
+                .thenReturn(Optional.empty());
+
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, uri, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(receivedRanges).isEmpty();
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+        assertThat(fileDownloader.getHostPermits(uri).availablePermits()).isEqualTo(8);
+    }
+
+    @Test
+    public void shouldDeletePartialFileSinceSegmentFailed() {
+        allowSegments();
+        failSegments = true;
+
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, uri, parentDir, FILENAME);
+
+        assertThat(file).isEmpty();
+        assertThat(getPartialFile()).doesNotExist();
+        assertThat(getSidecarFile(FileDownloader.SEGMENTED_FILE_SUFFIX)).doesNotExist();
+        verify(slot, times(3)).close();
+    }
+
+    @Test
+    public void shouldDiscardPartialFileOfInterruptedSegmentedDownload() throws IOException {
+        Files.write(getPartialFile(), new byte[1024 * 1024]);
+        Files.writeString(getSidecarFile(FileDownloader.VALIDATOR_FILE_SUFFIX), ETAG);
+        Files.write(getSidecarFile(FileDownloader.SEGMENTED_FILE_SUFFIX), new byte[0]);
+
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, uri, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(receivedRanges).isEmpty();
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void shouldNotDownloadMissingFile() {
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, uri + ".missing", parentDir, FILENAME);
+
+        assertThat(file).isEmpty();
+    }
+
+    @Test
+    public void shouldDownloadIpfsContentFromFastestGateway() throws IOException {
+        when(downloadConfiguration.getIpfsGateways()).thenReturn(List.of(
+                getGatewayUrl(slowGateway), getGatewayUrl(server)));
+
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, "ipfs://" + CID, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+        assertThat(file.get().getSha256()).isEqualTo(Numeric.toHexString(Hash.sha256(CONTENT)));
+        // slow gateway was never released
+        assertThat(slowGatewayLatch.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDownloadIpfsContentFromGatewayUriThroughConfiguredGateways() throws IOException {
+        when(downloadConfiguration.getIpfsGateways()).thenReturn(List.of(
+                "http://127.0.0.1:1", getGatewayUrl(server)));
+
+        Optional<FileDownloader.DownloadedFile> file = fileDownloader.download(CHAIN_TASK_ID,
+                "https://unreachable.gateway.invalid/ipfs/" + CID, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void shouldDownloadIpfsContentFromGatewayNamedInUri() throws IOException {
+        when(downloadConfiguration.getIpfsGateways()).thenReturn(List.of("http://127.0.0.1:1"));
+
+        Optional<FileDownloader.DownloadedFile> file = fileDownloader.download(CHAIN_TASK_ID,
+                getGatewayUrl(server) + "/ipfs/" + CID, parentDir, FILENAME);
+
+        assertThat(file).isPresent();
+        assertThat(Files.readAllBytes(Path.of(file.get().getPath()))).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void shouldNotDownloadIpfsContentSinceAllGatewaysFailed() {
+        when(downloadConfiguration.getIpfsGateways()).thenReturn(List.of(
+                "http://127.0.0.1:1", getGatewayUrl(server) + "/missing"));
+
+        Optional<FileDownloader.DownloadedFile> file =
+                fileDownloader.download(CHAIN_TASK_ID, "ipfs://" + CID, parentDir, FILENAME);
+
+        assertThat(file).isEmpty();
+    }
+
+    private void allowSegments() {
+        when(downloadConfiguration.getSegmentCount()).thenReturn(4);
+        when(downloadConfiguration.getSegmentedDownloadMinSizeMb()).thenReturn(1L);
+        when(downloadConfiguration.getMaxParallelDownloadsPerHost()).thenReturn(8);
+        when(transferScheduler.tryAcquire(TransferType.DATA_DOWNLOAD, CHAIN_TASK_ID))
+                .thenReturn(Optional.of(slot));
+    }
+
+    private Path getPartialFile() {
+        return Path.of(parentDir, FILENAME + FileDownloader.PARTIAL_FILE_SUFFIX);
+    }
+
+    private Path getSidecarFile(String suffix) {
+        return Path.of(parentDir, FILENAME + FileDownloader.PARTIAL_FILE_SUFFIX + suffix);
+    }
+
+    private String getGatewayUrl(HttpServer gateway) {
+        return "http://127.0.0.1:" + gateway.getAddress().getPort();
+    }
+
+    private void serveFile(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (ifRange != null && !ifRange.equals(ETAG)) {
+            // remote file changed, sent whole
+            range = null;
+        }
+        int start = 0;
+        int end = CONTENT.length - 1;
+        int status = 200;
+        if (range != null) {
+            receivedRanges.add(range);
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Integer.parseInt(bounds[1]);
+            }
+            status = 206;
+            if (failSegments && start > 0) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + start + "-" + end + "/" + CONTENT.length);
+        }
+        int length = end - start + 1;
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(status, length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(CONTENT, start, length);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.dataset;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IpfsUriUtilsTests {
+
+    private static final String CID_V0 = "QmXoypizjW3WknFiJnKLwHCnL72vedxjQkDDP1mXWo6uco";
+    private static final String CID_V1 = "bafybeigdyrzt5sfp7udm7hu76uh7y26nf3efuylqabf3oclgtqy55fbzdi";
+
+    @Test
+    public void shouldGetIpfsPathFromIpfsScheme() {
+        assertThat(IpfsUriUtils.getIpfsPath("ipfs://" + CID_V0)).contains(CID_V0);
+        assertThat(IpfsUriUtils.getIpfsPath("ipfs://" + CID_V1 + "/dataset.zip"))
+                .contains(CID_V1 + "/dataset.zip");
+    }
+
+    @Test
+    public void shouldGetIpfsPathFromIpfsPath() {
+        assertThat(IpfsUriUtils.getIpfsPath("/ipfs/" + CID_V0)).contains(CID_V0);
+    }
+
+    @Test
+    public void shouldGetIpfsPathFromGatewayUri() {
+        assertThat(IpfsUriUtils.getIpfsPath("https://ipfs.io/ipfs/" + CID_V0 + "/dataset.zip"))
+                .contains(CID_V0 + "/dataset.zip");
+        assertThat(IpfsUriUtils.getIpfsPath("https://" + CID_V1 + ".ipfs.dweb.link/dataset.zip"))
+                .contains(CID_V1 + "/dataset.zip");
+    }
+
+    @Test
+    public void shouldNotGetIpfsPathFromRegularUri() {
+        assertThat(IpfsUriUtils.getIpfsPath("https://example.com/dataset.zip")).isEmpty();
+        assertThat(IpfsUriUtils.getIpfsPath("https://example.com/ipfs/notACid")).isEmpty();
+        assertThat(IpfsUriUtils.getIpfsPath(null)).isEmpty();
+    }
+
+    @Test
+    public void shouldBuildGatewayUri() {
+        assertThat(IpfsUriUtils.toGatewayUri("http://127.0.0.1:8080/", CID_V0))
+                .isEqualTo("http://127.0.0.1:8080/ipfs/" + CID_V0);
+    }
+}
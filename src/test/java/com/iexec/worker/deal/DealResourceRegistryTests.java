@@ -0,0 +1,209 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.deal;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DealResourceRegistryTests {
+
+    private static final String DEAL_ID = "0xdeal";
+    private static final String RESOURCE = "dataset";
+    private static final Predicate<Path> ALWAYS_VALID = resource -> true;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path baseDir;
+    private DealResourceRegistry registry;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Before
+    public void init() throws IOException {
+        baseDir = temporaryFolder.newFolder().toPath().resolve(DealResourceService.DEALS_FOLDER);
+        registry = new DealResourceRegistry(baseDir);
+    }
+
+    @Test
+    public void shouldLoadResourceOnceForAllTasksOfDeal() throws Exception {
+        int tasks = 20;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(tasks);
+        List<Future<Optional<Path>>> results = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            String chainTaskId = "0x" + i;
+            results.add(executor.submit(() -> {
+                start.await();
+                return registry.share(DEAL_ID, chainTaskId, RESOURCE, this::load, ALWAYS_VALID);
+            }));
+        }
+        start.countDown();
+
+        for (Future<Optional<Path>> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isPresent();
+        }
+        executor.shutdown();
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(registry.getReferenceCount(DEAL_ID)).isEqualTo(tasks);
+    }
+
+    @Test
+    public void shouldCountTaskOnceSinceSeveralResources() {
+        registry.share(DEAL_ID, "0x1", RESOURCE, this::load, ALWAYS_VALID);
+        registry.share(DEAL_ID, "0x1", "app", dir -> Optional.of(true), pulled -> true);
+
+        assertThat(registry.getReferenceCount(DEAL_ID)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLoadAgainSinceResourceNotLoaded() {
+        assertThat(registry.share(DEAL_ID, "0x1", RESOURCE,
+                dir -> Optional.<Path>empty(), ALWAYS_VALID)).isEmpty();
+
+        assertThat(registry.share(DEAL_ID, "0x2", RESOURCE, this::load, ALWAYS_VALID)).isPresent();
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDeleteDealFolderAfterLastTask() {
+        Path file = registry.share(DEAL_ID, "0x1", RESOURCE, this::load, ALWAYS_VALID).orElseThrow();
+        registry.share(DEAL_ID, "0x2", RESOURCE, this::load, ALWAYS_VALID);
+
+        registry.release("0x1");
+        assertThat(file).exists();
+        assertThat(registry.getReferenceCount(DEAL_ID)).isEqualTo(1);
+
+        registry.release("0x2");
+        assertThat(file).doesNotExist();
+        assertThat(registry.getReferenceCount(DEAL_ID)).isZero();
+    }
+
+    @Test
+    public void shouldLoadAgainSinceDealReleased() {
+        registry.share(DEAL_ID, "0x1", RESOURCE, this::load, ALWAYS_VALID);
+        registry.release("0x1");
+
+        assertThat(registry.share(DEAL_ID, "0x2", RESOURCE, this::load, ALWAYS_VALID)).isPresent();
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotShareSinceTaskReleased() {
+        registry.share(DEAL_ID, "0x1", RESOURCE, this::load, ALWAYS_VALID);
+        registry.share(DEAL_ID, "0x2", RESOURCE, this::load, ALWAYS_VALID);
+        registry.release("0x1");
+
+        // a download of the task still running after its release
+        assertThat(registry.share(DEAL_ID, "0x1", "app", this::load, ALWAYS_VALID)).isEmpty();
+        assertThat(registry.isReleased("0x1")).isTrue();
+        assertThat(registry.getReferenceCount(DEAL_ID)).isEqualTo(1);
+
+        registry.release("0x2");
+        assertThat(registry.getReferenceCount(DEAL_ID)).isZero();
+    }
+
+    @Test
+    public void shouldNotShareSinceTaskReleasedBeforeSharing() {
+        registry.release("0x1");
+
+        assertThat(registry.share(DEAL_ID, "0x1", RESOURCE, this::load, ALWAYS_VALID)).isEmpty();
+        assertThat(loads.get()).isZero();
+        assertThat(registry.getReferenceCount(DEAL_ID)).isZero();
+    }
+
+    @Test
+    public void shouldIgnoreReleaseOfUnknownTask() {
+        registry.share(DEAL_ID, "0x1", RESOURCE, this::load, ALWAYS_VALID);
+
+        registry.release("0x2");
+
+        assertThat(registry.getReferenceCount(DEAL_ID)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLoadAgainSinceSharedResourceNotValidAnymore() throws IOException {
+        Path file = registry.share(DEAL_ID, "0x1", RESOURCE, this::load, ALWAYS_VALID).orElseThrow();
+        Files.delete(file);
+
+        assertThat(registry.share(DEAL_ID, "0x2", RESOURCE, this::load, Files::exists)).isPresent();
+        assertThat(file).exists();
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReuseDealFolderNameAfterRelease() {
+        Path file = registry.share(DEAL_ID, "0x1", RESOURCE, this::load, ALWAYS_VALID).orElseThrow();
+        registry.release("0x1");
+
+        Path reloadedFile = registry.share(DEAL_ID, "0x2", RESOURCE, this::load, ALWAYS_VALID).orElseThrow();
+
+        assertThat(reloadedFile).isEqualTo(file).exists();
+        assertThat(baseDir.toFile().list()).containsExactly(DEAL_ID);
+    }
+
+    @Test
+    public void shouldOnlyDeleteOldLeftoverDealFolders() throws IOException {
+        Path oldDealDir = Files.createDirectories(baseDir.resolve("0xold"));
+        Path oldFile = Files.write(oldDealDir.resolve("dataset.bin.part"), new byte[1024]);
+        FileTime longAgo = FileTime.from(Instant.now().minus(Duration.ofDays(10)));
+        Files.setLastModifiedTime(oldFile, longAgo);
+        Files.setLastModifiedTime(oldDealDir, longAgo);
+        Path recentDealDir = Files.createDirectories(baseDir.resolve("0xrecent"));
+        Files.write(recentDealDir.resolve("dataset.bin.part"), new byte[1024]);
+
+        registry.deleteLeftoverFolders(Duration.ofDays(1));
+
+        assertThat(oldDealDir).doesNotExist();
+        assertThat(recentDealDir.resolve("dataset.bin.part")).exists();
+    }
+
+    private Optional<Path> load(Path dealDir) {
+        loads.incrementAndGet();
+        try {
+            Thread.sleep(50);
+            return Optional.of(Files.write(dealDir.resolve("dataset.bin"), new byte[1024]));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+}
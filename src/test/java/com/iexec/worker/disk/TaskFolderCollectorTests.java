@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.disk;
+
+import com.iexec.worker.config.WorkerConfigurationService;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class TaskFolderCollectorTests {
+
+    private static final String CHAIN_TASK_ID = "0xfoobar";
+    private static final int MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private WorkerConfigurationService workerConfigurationService;
+    @Mock
+    private DiskConfiguration diskConfiguration;
+
+    private Path workerBaseDir;
+    private Path taskDir;
+    private TaskFolderCollector taskFolderCollector;
+
+    @Before
+    public void init() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        workerBaseDir = temporaryFolder.newFolder().toPath();
+        taskDir = workerBaseDir.resolve(CHAIN_TASK_ID);
+        when(workerConfigurationService.getWorkerBaseDir()).thenReturn(workerBaseDir.toString());
+        when(workerConfigurationService.getTaskBaseDir(CHAIN_TASK_ID)).thenReturn(taskDir.toString());
+    }
+
+    @After
+    public void stop() {
+        if (taskFolderCollector != null) {
+            taskFolderCollector.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldMoveTaskFolderToTrash() throws IOException {
+        createTaskFolder(1);
+        taskFolderCollector = new TaskFolderCollector(workerConfigurationService, diskConfiguration);
+
+        assertThat(taskFolderCollector.trash(CHAIN_TASK_ID)).isTrue();
+
+        assertThat(taskDir).doesNotExist();
+        assertThat(workerBaseDir.resolve(TaskFolderCollector.TRASH_FOLDER).toFile().list())
+                .hasSize(1);
+    }
+
+    @Test
+    public void shouldNotTrashMissingTaskFolder() {
+        taskFolderCollector = new TaskFolderCollector(workerConfigurationService, diskConfiguration);
+
+        assertThat(taskFolderCollector.trash(CHAIN_TASK_ID)).isFalse();
+    }
+
+    @Test
+    public void shouldEmptyTrashAndMeasureDiskUsage() throws IOException {
+        createTaskFolder(2);
+        Files.write(workerBaseDir.resolve("other"), new byte[MB]);
+        taskFolderCollector = new TaskFolderCollector(workerConfigurationService, diskConfiguration);
+        taskFolderCollector.trash(CHAIN_TASK_ID);
+
+        taskFolderCollector.collect();
+
+        assertThat(workerBaseDir.resolve(TaskFolderCollector.TRASH_FOLDER).toFile().list())
+                .isEmpty();
+        assertThat(taskFolderCollector.getUsedBytes()).isEqualTo(MB);
+        // no quota configured
+        assertThat(taskFolderCollector.isQuotaExceeded()).isFalse();
+    }
+
+    @Test
+    public void shouldKeepCollectingSinceTrashedFolderCannotBeDeleted() throws IOException {
+        createTaskFolder(2);
+        taskFolderCollector = new TaskFolderCollector(workerConfigurationService, diskConfiguration);
+        taskFolderCollector.trash(CHAIN_TASK_ID);
+        Path trashDir = workerBaseDir.resolve(TaskFolderCollector.TRASH_FOLDER);
+        Path stuckFolder = Files.createDirectories(trashDir.resolve("stuck").resolve("output"));
+        Files.write(stuckFolder.resolve("file"), new byte[MB]);
+        stuckFolder.toFile().setWritable(false);
+        // permissions are not enforced for root
+        Assume.assumeFalse(Files.isWritable(stuckFolder));
+
+        try {
+            taskFolderCollector.collect();
+
+            assertThat(trashDir.toFile().list()).containsExactly("stuck");
+            assertThat(taskFolderCollector.getUsedBytes()).isEqualTo(MB);
+        } finally {
+            stuckFolder.toFile().setWritable(true);
+        }
+        taskFolderCollector.collect();
+        assertThat(trashDir.toFile().list()).isEmpty();
+        assertThat(taskFolderCollector.getUsedBytes()).isZero();
+    }
+
+    @Test
+    public void shouldDetectExceededQuota() throws IOException {
+        when(diskConfiguration.getQuotaMb()).thenReturn(1L);
+        createTaskFolder(2);
+        taskFolderCollector = new TaskFolderCollector(workerConfigurationService, diskConfiguration);
+
+        taskFolderCollector.collect();
+        assertThat(taskFolderCollector.isQuotaExceeded()).isTrue();
+
+        taskFolderCollector.trash(CHAIN_TASK_ID);
+        taskFolderCollector.collect();
+        assertThat(taskFolderCollector.isQuotaExceeded()).isFalse();
+    }
+
+    @Test
+    public void shouldPaceDeletions() throws IOException {
+        when(diskConfiguration.getGcMaxDeletedMbPerSecond()).thenReturn(4L);
+        createTaskFolder(2);
+        taskFolderCollector = new TaskFolderCollector(workerConfigurationService, diskConfiguration);
+        taskFolderCollector.trash(CHAIN_TASK_ID);
+
+        long start = System.nanoTime();
+        taskFolderCollector.collect();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // 2MB at 4MB/s
+        assertThat(elapsedMillis).isGreaterThanOrEqualTo(400);
+        assertThat(workerBaseDir.resolve(TaskFolderCollector.TRASH_FOLDER).toFile().list())
+                .isEmpty();
+    }
+
+    private void createTaskFolder(int sizeMb) throws IOException {
+        Path outputDir = Files.createDirectories(taskDir.resolve("output"));
+        for (int i = 0; i < sizeMb; i++) {
+            Files.write(outputDir.resolve("file" + i), new byte[MB]);
+        }
+    }
+}
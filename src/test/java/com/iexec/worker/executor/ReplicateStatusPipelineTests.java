@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.executor;
+
+import com.iexec.common.notification.TaskNotificationType;
+import com.iexec.common.replicate.ReplicateStatus;
+import com.iexec.common.replicate.ReplicateStatusUpdate;
+import com.iexec.worker.feign.CustomCoreFeignClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.iexec.common.notification.TaskNotificationType.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class ReplicateStatusPipelineTests {
+
+    private static final String CHAIN_TASK_ID = "0xfoobar";
+    private static final String OTHER_CHAIN_TASK_ID = "0xbarfoo";
+
+    @Mock
+    private CustomCoreFeignClient customCoreFeignClient;
+    @Mock
+    private StatusUpdateConfiguration statusUpdateConfiguration;
+
+    private ReplicateStatusPipeline replicateStatusPipeline;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        when(statusUpdateConfiguration.getBatchLingerMs()).thenReturn(50L);
+        when(statusUpdateConfiguration.getMaxBatchSize()).thenReturn(10);
+        when(customCoreFeignClient.isBatchStatusUpdateSupported()).thenReturn(true);
+        when(customCoreFeignClient.updateReplicateStatusAsync(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        replicateStatusPipeline = new ReplicateStatusPipeline(customCoreFeignClient, statusUpdateConfiguration);
+    }
+
+    @After
+    public void stop() {
+        replicateStatusPipeline.shutdown();
+    }
+
+    @Test
+    public void shouldSendUpdatesOfSeveralReplicatesInOneBatch() throws Exception {
+        when(customCoreFeignClient.updateReplicateStatusesAsync(anyList()))
+                .thenReturn(CompletableFuture.completedFuture(List.of(PLEASE_CONTRIBUTE, PLEASE_REVEAL)));
+
+        CompletableFuture<TaskNotificationType> first = replicateStatusPipeline.send(CHAIN_TASK_ID,
+                new ReplicateStatusUpdate(ReplicateStatus.COMPUTED));
+        CompletableFuture<TaskNotificationType> second = replicateStatusPipeline.send(OTHER_CHAIN_TASK_ID,
+                new ReplicateStatusUpdate(ReplicateStatus.CONTRIBUTED));
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(PLEASE_CONTRIBUTE);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(PLEASE_REVEAL);
+        verify(customCoreFeignClient).updateReplicateStatusesAsync(argThat(requests ->
+                requests.size() == 2
+                        && requests.get(0).getChainTaskId().equals(CHAIN_TASK_ID)
+                        && requests.get(1).getChainTaskId().equals(OTHER_CHAIN_TASK_ID)));
+        verify(customCoreFeignClient, never()).updateReplicateStatusAsync(anyString(), any());
+    }
+
+    @Test
+    public void shouldSendUpdatesOneByOneSinceBatchNotSupported() throws Exception {
+        // supported until the batch is rejected by the core
+        when(customCoreFeignClient.isBatchStatusUpdateSupported()).thenReturn(true, true, false);
+        when(customCoreFeignClient.updateReplicateStatusesAsync(anyList()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        when(customCoreFeignClient.updateReplicateStatusAsync(eq(CHAIN_TASK_ID), any()))
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_CONTRIBUTE));
+        when(customCoreFeignClient.updateReplicateStatusAsync(eq(OTHER_CHAIN_TASK_ID), any()))
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_REVEAL));
+
+        CompletableFuture<TaskNotificationType> first = replicateStatusPipeline.send(CHAIN_TASK_ID,
+                new ReplicateStatusUpdate(ReplicateStatus.COMPUTED));
+        CompletableFuture<TaskNotificationType> second = replicateStatusPipeline.send(OTHER_CHAIN_TASK_ID,
+                new ReplicateStatusUpdate(ReplicateStatus.CONTRIBUTED));
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(PLEASE_CONTRIBUTE);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(PLEASE_REVEAL);
+    }
+
+    @Test
+    public void shouldSendUpdatesOfReplicateInOrder() throws Exception {
+        CompletableFuture<TaskNotificationType> computing = new CompletableFuture<>();
+        ReplicateStatusUpdate computingUpdate = new ReplicateStatusUpdate(ReplicateStatus.COMPUTING);
+        ReplicateStatusUpdate computedUpdate = new ReplicateStatusUpdate(ReplicateStatus.COMPUTED);
+        when(customCoreFeignClient.updateReplicateStatusAsync(eq(CHAIN_TASK_ID), same(computingUpdate)))
+                .thenReturn(computing);
+        when(customCoreFeignClient.updateReplicateStatusAsync(eq(CHAIN_TASK_ID), same(computedUpdate)))
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_CONTRIBUTE));
+
+        replicateStatusPipeline.sendInProgress(CHAIN_TASK_ID, computingUpdate);
+        CompletableFuture<TaskNotificationType> nextAction =
+                replicateStatusPipeline.send(CHAIN_TASK_ID, computedUpdate);
+
+        verify(customCoreFeignClient, timeout(5000)).updateReplicateStatusAsync(CHAIN_TASK_ID, computingUpdate);
+        TimeUnit.MILLISECONDS.sleep(200);
+        verify(customCoreFeignClient, never()).updateReplicateStatusAsync(CHAIN_TASK_ID, computedUpdate);
+        assertThat(nextAction).isNotDone();
+
+        computing.complete(null);
+        assertThat(nextAction.get(5, TimeUnit.SECONDS)).isEqualTo(PLEASE_CONTRIBUTE);
+    }
+
+    @Test
+    public void shouldCoalesceUnsentUpdatesOfSameStatus() throws Exception {
+        CompletableFuture<TaskNotificationType> starting = new CompletableFuture<>();
+        ReplicateStatusUpdate startingUpdate = new ReplicateStatusUpdate(ReplicateStatus.STARTING);
+        ReplicateStatusUpdate firstDownloadingUpdate = new ReplicateStatusUpdate(ReplicateStatus.APP_DOWNLOADING);
+        ReplicateStatusUpdate secondDownloadingUpdate = new ReplicateStatusUpdate(ReplicateStatus.APP_DOWNLOADING);
+        when(customCoreFeignClient.updateReplicateStatusAsync(eq(CHAIN_TASK_ID), same(startingUpdate)))
+                .thenReturn(starting);
+
+        replicateStatusPipeline.sendInProgress(CHAIN_TASK_ID, startingUpdate);
+        verify(customCoreFeignClient, timeout(5000)).updateReplicateStatusAsync(CHAIN_TASK_ID, startingUpdate);
+        replicateStatusPipeline.sendInProgress(CHAIN_TASK_ID, firstDownloadingUpdate);
+        replicateStatusPipeline.sendInProgress(CHAIN_TASK_ID, secondDownloadingUpdate);
+        starting.complete(null);
+
+        verify(customCoreFeignClient, timeout(5000))
+                .updateReplicateStatusAsync(eq(CHAIN_TASK_ID), same(secondDownloadingUpdate));
+        verify(customCoreFeignClient, timeout(5000).times(2)).updateReplicateStatusAsync(anyString(), any());
+        verify(customCoreFeignClient, never())
+                .updateReplicateStatusAsync(eq(CHAIN_TASK_ID), same(firstDownloadingUpdate));
+    }
+}
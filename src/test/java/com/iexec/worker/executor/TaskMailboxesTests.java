@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TaskMailboxesTests {
+
+    private static final String CHAIN_TASK_ID = "0xfoobar";
+    private static final String OTHER_CHAIN_TASK_ID = "0xother";
+
+    private TaskMailboxes taskMailboxes;
+
+    @Before
+    public void init() {
+        taskMailboxes = new TaskMailboxes("test-mailbox-");
+    }
+
+    @After
+    public void stop() {
+        taskMailboxes.shutdown();
+    }
+
+    @Test
+    public void shouldRunJobsOfSameTaskOneAfterTheOther() throws Exception {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CompletableFuture<Void> last = null;
+
+        for (int i = 0; i < 20; i++) {
+            int jobNumber = i;
+            last = taskMailboxes.submit(CHAIN_TASK_ID, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(jobNumber);
+                running.decrementAndGet();
+            });
+        }
+        last.get(5, TimeUnit.SECONDS);
+
+        assertThat(maxRunning.get()).isEqualTo(1);
+        assertThat(order).isSorted().hasSize(20);
+    }
+
+    @Test
+    public void shouldRunJobsOfDifferentTasksInParallel() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        taskMailboxes.submit(CHAIN_TASK_ID, () -> {
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        taskMailboxes.submit(OTHER_CHAIN_TASK_ID, latch::countDown).get(5, TimeUnit.SECONDS);
+
+        assertThat(latch.getCount()).isZero();
+    }
+
+    @Test
+    public void shouldRunNextJobAfterFailedJob() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        taskMailboxes.submit(CHAIN_TASK_ID, () -> {
+            throw new IllegalStateException("failed job");
+        });
+
+        taskMailboxes.submit(CHAIN_TASK_ID, runs::incrementAndGet).get(5, TimeUnit.SECONDS);
+
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDropEmptyMailbox() throws Exception {
+        taskMailboxes.submit(CHAIN_TASK_ID, () -> {}).get(5, TimeUnit.SECONDS);
+
+        // mailbox is removed right after the job completes
+        for (int i = 0; i < 50 && taskMailboxes.getMailboxCount() > 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(taskMailboxes.getMailboxCount()).isZero();
+    }
+}
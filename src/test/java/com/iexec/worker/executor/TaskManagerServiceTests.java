@@ -30,10 +30,12 @@ import com.iexec.worker.chain.IexecHubService;
 import com.iexec.worker.chain.RevealService;
 import com.iexec.worker.compute.ComputeManagerService;
 import com.iexec.worker.compute.app.AppComputeResponse;
+import com.iexec.worker.compute.memo.ResultMemoizationService;
 import com.iexec.worker.compute.post.PostComputeResponse;
 import com.iexec.worker.compute.pre.PreComputeResponse;
 import com.iexec.worker.config.WorkerConfigurationService;
 import com.iexec.worker.dataset.DataService;
+import com.iexec.worker.deal.DealResourceService;
 import com.iexec.worker.result.ResultService;
 import com.iexec.worker.tee.scone.TeeSconeService;
 import com.iexec.worker.utils.WorkflowException;
@@ -76,6 +78,12 @@ public class TaskManagerServiceTests {
     private DataService dataService;
     @Mock
     private ResultService resultService;
+    @Mock
+    private TaskPrefetcher taskPrefetcher;
+    @Mock
+    private ResultMemoizationService resultMemoizationService;
+    @Mock
+    private DealResourceService dealResourceService;
 
     @Before
     public void init() {
@@ -117,6 +125,10 @@ public class TaskManagerServiceTests {
                 taskManagerService.start(CHAIN_TASK_ID);
 
         assertThat(actionResponse.isSuccess()).isTrue();
+        verify(taskPrefetcher).prefetch(eq(CHAIN_TASK_ID),
+                eq(TaskPrefetcher.Stage.APP_DOWNLOAD), any());
+        verify(taskPrefetcher).prefetch(eq(CHAIN_TASK_ID),
+                eq(TaskPrefetcher.Stage.DATA_DOWNLOAD), any());
     }
 
     @Test
@@ -177,6 +189,23 @@ public class TaskManagerServiceTests {
         assertThat(actionResponse.isSuccess()).isTrue();
     }
 
+    @Test
+    public void shouldDownloadAppWithPrefetchedImage() {
+        TaskDescription taskDescription = getStubTaskDescription(false);
+        when(contributionService.getCannotContributeStatusCause(CHAIN_TASK_ID))
+                .thenReturn(Optional.empty());
+        when(iexecHubService.getTaskDescription(CHAIN_TASK_ID))
+                .thenReturn(taskDescription);
+        when(taskPrefetcher.await(CHAIN_TASK_ID, TaskPrefetcher.Stage.APP_DOWNLOAD))
+                .thenReturn(true);
+
+        ReplicateActionResponse actionResponse =
+                taskManagerService.downloadApp(CHAIN_TASK_ID);
+
+        assertThat(actionResponse.isSuccess()).isTrue();
+        verify(computeManagerService, never()).downloadApp(taskDescription);
+    }
+
     @Test
     public void shouldNotDownloadAppSinceCannotContributionStatusIsPresent() {
         when(contributionService.getCannotContributeStatusCause(CHAIN_TASK_ID))
@@ -324,6 +353,22 @@ public class TaskManagerServiceTests {
         verify(dataService).downloadStandardInputFiles(anyString(), anyList());
     }
 
+    @Test
+    public void shouldNotDownloadDataAgainSinceAlreadyPrefetched() throws Exception {
+        TaskDescription taskDescription = getStubTaskDescription(false);
+        when(contributionService.getCannotContributeStatusCause(CHAIN_TASK_ID))
+                .thenReturn(Optional.empty());
+        when(taskPrefetcher.await(CHAIN_TASK_ID, TaskPrefetcher.Stage.DATA_DOWNLOAD))
+                .thenReturn(true);
+
+        ReplicateActionResponse actionResponse =
+                taskManagerService.downloadData(taskDescription);
+
+        assertThat(actionResponse.isSuccess()).isTrue();
+        verify(dataService, never()).downloadStandardDataset(taskDescription);
+        verify(dataService, never()).downloadStandardInputFiles(anyString(), anyList());
+    }
+
     // with dataset + without input files
 
     @Test
@@ -623,6 +668,54 @@ public class TaskManagerServiceTests {
                         .successWithStdout("stdout\nstdout\nstdout"));
     }
 
+    @Test
+    public void shouldComputeAndMemoizeResult() {
+        TaskDescription taskDescription = TaskDescription.builder().build();
+        when(contributionService.getCannotContributeStatusCause(CHAIN_TASK_ID))
+                .thenReturn(Optional.empty());
+        when(iexecHubService.getTaskDescription(CHAIN_TASK_ID))
+                .thenReturn(taskDescription);
+        when(computeManagerService.isAppDownloaded(taskDescription.getAppUri()))
+                .thenReturn(true);
+        when(resultMemoizationService.getKey(taskDescription)).thenReturn(Optional.of("key"));
+        when(resultMemoizationService.restore(CHAIN_TASK_ID, "key")).thenReturn(false);
+        when(computeManagerService.runPreCompute(any(), any()))
+                .thenReturn(PreComputeResponse.builder().isSuccessful(true).build());
+        when(computeManagerService.runCompute(any(), any()))
+                .thenReturn(AppComputeResponse.builder().isSuccessful(true).build());
+        when(computeManagerService.runPostCompute(any(), any()))
+                .thenReturn(PostComputeResponse.builder().isSuccessful(true).build());
+
+        ReplicateActionResponse replicateActionResponse =
+                taskManagerService.compute(CHAIN_TASK_ID);
+
+        assertThat(replicateActionResponse.isSuccess()).isTrue();
+        verify(resultMemoizationService).memoize(CHAIN_TASK_ID, "key");
+    }
+
+    @Test
+    public void shouldComputeFromMemoizedResult() {
+        TaskDescription taskDescription = TaskDescription.builder().build();
+        when(contributionService.getCannotContributeStatusCause(CHAIN_TASK_ID))
+                .thenReturn(Optional.empty());
+        when(iexecHubService.getTaskDescription(CHAIN_TASK_ID))
+                .thenReturn(taskDescription);
+        when(computeManagerService.isAppDownloaded(taskDescription.getAppUri()))
+                .thenReturn(true);
+        when(resultMemoizationService.getKey(taskDescription)).thenReturn(Optional.of("key"));
+        when(resultMemoizationService.restore(CHAIN_TASK_ID, "key")).thenReturn(true);
+        when(computeManagerService.runPostCompute(taskDescription, ""))
+                .thenReturn(PostComputeResponse.builder().isSuccessful(true).build());
+
+        ReplicateActionResponse replicateActionResponse =
+                taskManagerService.compute(CHAIN_TASK_ID);
+
+        assertThat(replicateActionResponse.isSuccess()).isTrue();
+        verify(computeManagerService, never()).runPreCompute(any(), any());
+        verify(computeManagerService, never()).runCompute(any(), any());
+        verify(resultMemoizationService, never()).memoize(any(), any());
+    }
+
     @Test
     public void shouldNotComputeSinceCannotContributeStatusIsPresent() {
         ReplicateStatusCause replicateStatusCause =
@@ -958,6 +1051,7 @@ public class TaskManagerServiceTests {
         Assertions.assertThat(replicateActionResponse).isNotNull();
         Assertions.assertThat(replicateActionResponse).isEqualTo(
                 ReplicateActionResponse.success(chainReceipt));
+        verify(resultService).stageResultUpload(CHAIN_TASK_ID);
     }
 
     @Test
@@ -1150,6 +1244,7 @@ public class TaskManagerServiceTests {
         Assertions.assertThat(replicateActionResponse).isNotNull();
         Assertions.assertThat(replicateActionResponse).isEqualTo(
                 ReplicateActionResponse.success());
+        verify(dealResourceService).release(CHAIN_TASK_ID);
     }
 
     @Test
@@ -1173,6 +1268,8 @@ public class TaskManagerServiceTests {
         Assertions.assertThat(isAborted).isTrue();
         verify(resultService, times(1))
                 .removeResult(CHAIN_TASK_ID);
+        verify(taskPrefetcher).cancel(CHAIN_TASK_ID);
+        verify(dealResourceService).release(CHAIN_TASK_ID);
     }
 
     //TODO clean theses
@@ -19,14 +19,18 @@ package com.iexec.worker.executor;
 import com.iexec.common.chain.WorkerpoolAuthorization;
 import com.iexec.common.notification.TaskNotification;
 import com.iexec.common.notification.TaskNotificationExtra;
+import com.iexec.common.notification.TaskNotificationType;
 import com.iexec.common.replicate.ReplicateActionResponse;
+import com.iexec.common.replicate.ReplicateStatus;
+import com.iexec.common.replicate.ReplicateStatusCause;
 import com.iexec.common.replicate.ReplicateStatusUpdate;
 import com.iexec.common.task.TaskDescription;
 import com.iexec.worker.chain.ContributionService;
 import com.iexec.worker.chain.IexecHubService;
-import com.iexec.worker.feign.CustomCoreFeignClient;
 import com.iexec.worker.pubsub.SubscriptionService;
+import com.iexec.worker.replicate.ReplicateProgressMonitor;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
@@ -35,7 +39,12 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.context.ApplicationEventPublisher;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static com.iexec.common.notification.TaskNotificationType.*;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 public class TaskNotificationServiceTest {
@@ -45,7 +54,7 @@ public class TaskNotificationServiceTest {
     @Mock
     private TaskManagerService taskManagerService;
     @Mock
-    private CustomCoreFeignClient customCoreFeignClient;
+    private ReplicateStatusPipeline replicateStatusPipeline;
     @Mock
     private SubscriptionService subscriptionService;
     @Mock
@@ -54,6 +63,8 @@ public class TaskNotificationServiceTest {
     private ContributionService contributionService;
     @Mock
     private IexecHubService iexecHubService;
+    @Mock
+    private ReplicateProgressMonitor replicateProgressMonitor;
 
     @InjectMocks
     private TaskNotificationService taskNotificationService;
@@ -61,6 +72,13 @@ public class TaskNotificationServiceTest {
     @Before
     public void init() {
         MockitoAnnotations.openMocks(this);
+        when(replicateStatusPipeline.send(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @After
+    public void stop() {
+        taskNotificationService.shutdown();
     }
 
     @Test
@@ -71,8 +89,10 @@ public class TaskNotificationServiceTest {
 
         taskNotificationService.onTaskNotification(currentNotification);
 
-        verify(customCoreFeignClient, Mockito.times(0))
-                .updateReplicateStatus(anyString(), any(ReplicateStatusUpdate.class));
+        verify(replicateStatusPipeline, Mockito.times(0))
+                .send(anyString(), any(ReplicateStatusUpdate.class));
+        verify(replicateStatusPipeline, Mockito.times(0))
+                .sendInProgress(anyString(), any(ReplicateStatusUpdate.class));
         verify(applicationEventPublisher, Mockito.times(0)).publishEvent(any());
     }
 
@@ -95,8 +115,8 @@ public class TaskNotificationServiceTest {
                 .taskNotificationType(PLEASE_START)
                 .build();
         when(taskManagerService.start(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
-        when(customCoreFeignClient.updateReplicateStatus(anyString(), any())) // STARTED
-                .thenReturn(PLEASE_DOWNLOAD_APP);
+        when(replicateStatusPipeline.send(anyString(), any())) // STARTED
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_DOWNLOAD_APP));
 
         taskNotificationService.onTaskNotification(currentNotification);
 
@@ -109,14 +129,29 @@ public class TaskNotificationServiceTest {
                 .publishEvent(nextNotification);
     }
 
+    @Test
+    public void shouldSendRunningStatusWithoutWaitingForNextAction() {
+        TaskNotification currentNotification = TaskNotification.builder().chainTaskId(CHAIN_TASK_ID)
+                .taskNotificationType(PLEASE_START)
+                .build();
+        when(taskManagerService.start(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
+
+        taskNotificationService.onTaskNotification(currentNotification);
+
+        verify(replicateStatusPipeline).sendInProgress(eq(CHAIN_TASK_ID),
+                argThat(update -> update.getStatus() == ReplicateStatus.STARTING));
+        verify(replicateStatusPipeline).send(eq(CHAIN_TASK_ID),
+                argThat(update -> update.getStatus() == ReplicateStatus.STARTED));
+    }
+
     @Test
     public void shouldDownloadApp() {
         TaskNotification currentNotification = TaskNotification.builder().chainTaskId(CHAIN_TASK_ID)
                 .taskNotificationType(PLEASE_DOWNLOAD_APP)
                 .build();
         when(taskManagerService.downloadApp(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
-        when(customCoreFeignClient.updateReplicateStatus(anyString(), any())) // APP_DOWNLOADED
-                .thenReturn(PLEASE_DOWNLOAD_DATA);
+        when(replicateStatusPipeline.send(anyString(), any())) // APP_DOWNLOADED
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_DOWNLOAD_DATA));
 
         taskNotificationService.onTaskNotification(currentNotification);
 
@@ -141,8 +176,8 @@ public class TaskNotificationServiceTest {
                 .thenReturn(taskDescription);
         when(taskManagerService.downloadData(taskDescription))
                 .thenReturn(ReplicateActionResponse.success());
-        when(customCoreFeignClient.updateReplicateStatus(anyString(), any())) // DATA_DOWNLOADED
-                .thenReturn(PLEASE_COMPUTE);
+        when(replicateStatusPipeline.send(anyString(), any())) // DATA_DOWNLOADED
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_COMPUTE));
 
         taskNotificationService.onTaskNotification(currentNotification);
 
@@ -161,8 +196,8 @@ public class TaskNotificationServiceTest {
                 .taskNotificationType(PLEASE_COMPUTE)
                 .build();
         when(taskManagerService.compute(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
-        when(customCoreFeignClient.updateReplicateStatus(anyString(), any())) // COMPUTED
-                .thenReturn(PLEASE_CONTINUE);
+        when(replicateStatusPipeline.send(anyString(), any())) // COMPUTED
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_CONTINUE));
 
         taskNotificationService.onTaskNotification(currentNotification);
 
@@ -182,8 +217,8 @@ public class TaskNotificationServiceTest {
                 .build();
         when(taskManagerService.contribute(CHAIN_TASK_ID))
                 .thenReturn(ReplicateActionResponse.success());
-        when(customCoreFeignClient.updateReplicateStatus(anyString(), any())) // CONTRIBUTED
-                .thenReturn(PLEASE_WAIT);
+        when(replicateStatusPipeline.send(anyString(), any())) // CONTRIBUTED
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_WAIT));
 
         taskNotificationService.onTaskNotification(currentNotification);
 
@@ -204,8 +239,8 @@ public class TaskNotificationServiceTest {
                 .build();
         when(taskManagerService.reveal(CHAIN_TASK_ID, currentNotification.getTaskNotificationExtra()))
                 .thenReturn(ReplicateActionResponse.success());
-        when(customCoreFeignClient.updateReplicateStatus(anyString(), any())) // REVEALED
-                .thenReturn(PLEASE_WAIT);
+        when(replicateStatusPipeline.send(anyString(), any())) // REVEALED
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_WAIT));
 
         taskNotificationService.onTaskNotification(currentNotification);
 
@@ -227,8 +262,8 @@ public class TaskNotificationServiceTest {
 
         when(taskManagerService.uploadResult(CHAIN_TASK_ID))
                 .thenReturn(ReplicateActionResponse.success());
-        when(customCoreFeignClient.updateReplicateStatus(anyString(), any())) // RESULT_UPLOADED
-                .thenReturn(PLEASE_WAIT);
+        when(replicateStatusPipeline.send(anyString(), any())) // RESULT_UPLOADED
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_WAIT));
 
         taskNotificationService.onTaskNotification(currentNotification);
 
@@ -247,8 +282,8 @@ public class TaskNotificationServiceTest {
                 .taskNotificationType(PLEASE_COMPLETE)
                 .build();
         when(taskManagerService.complete(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
-        when(customCoreFeignClient.updateReplicateStatus(anyString(), any())) // COMPLETED
-                .thenReturn(PLEASE_WAIT);
+        when(replicateStatusPipeline.send(anyString(), any())) // COMPLETED
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_WAIT));
 
         taskNotificationService.onTaskNotification(currentNotification);
 
@@ -264,8 +299,8 @@ public class TaskNotificationServiceTest {
                 .taskNotificationType(PLEASE_ABORT_CONSENSUS_REACHED)
                 .build();
         when(taskManagerService.abort(CHAIN_TASK_ID)).thenReturn(true);
-        when(customCoreFeignClient.updateReplicateStatus(anyString(), any())) // ABORTED
-                .thenReturn(PLEASE_WAIT);
+        when(replicateStatusPipeline.send(anyString(), any())) // ABORTED
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_WAIT));
 
         taskNotificationService.onTaskNotification(currentNotification);
 
@@ -274,5 +309,177 @@ public class TaskNotificationServiceTest {
         verify(applicationEventPublisher, Mockito.times(0))
                 .publishEvent(any());
     }
-}
 
+    @Test
+    public void shouldHandleDuplicateNotificationOnlyOnce() {
+        CountDownLatch computeLatch = new CountDownLatch(1);
+        when(taskManagerService.compute(CHAIN_TASK_ID)).thenAnswer(invocation -> {
+            computeLatch.await(5, TimeUnit.SECONDS);
+            return ReplicateActionResponse.success();
+        });
+        when(taskManagerService.contribute(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
+        TaskNotification notification = getNotification(PLEASE_COMPUTE);
+
+        taskNotificationService.dispatchTaskNotification(notification);
+        taskNotificationService.dispatchTaskNotification(notification);
+        taskNotificationService.dispatchTaskNotification(getNotification(PLEASE_CONTRIBUTE));
+        computeLatch.countDown();
+
+        // notifications of a task are handled in order
+        verify(taskManagerService, timeout(5000)).contribute(CHAIN_TASK_ID);
+        verify(taskManagerService, times(1)).compute(CHAIN_TASK_ID);
+    }
+
+    @Test
+    public void shouldNotHoldMailboxWhileWaitingForNextAction() {
+        CompletableFuture<TaskNotificationType> nextAction = new CompletableFuture<>();
+        when(taskManagerService.compute(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
+        when(replicateStatusPipeline.send(anyString(), any())).thenReturn(nextAction);
+
+        taskNotificationService.dispatchTaskNotification(getNotification(PLEASE_COMPUTE));
+        taskNotificationService.dispatchTaskNotification(getNotification(PLEASE_ABORT));
+
+        // next notification handled before the core answered
+        verify(subscriptionService, timeout(5000)).unsubscribeFromTopic(CHAIN_TASK_ID);
+        verify(applicationEventPublisher, never()).publishEvent(any());
+        nextAction.complete(PLEASE_CONTRIBUTE);
+        verify(applicationEventPublisher).publishEvent(getNotification(PLEASE_CONTRIBUTE));
+    }
+
+    @Test
+    public void shouldHandleNotificationsOfDifferentTasksInParallel() {
+        String otherChainTaskId = "0xother";
+        CountDownLatch computeLatch = new CountDownLatch(1);
+        when(taskManagerService.compute(CHAIN_TASK_ID)).thenAnswer(invocation -> {
+            computeLatch.await(5, TimeUnit.SECONDS);
+            return ReplicateActionResponse.success();
+        });
+        when(taskManagerService.start(otherChainTaskId)).thenReturn(ReplicateActionResponse.success());
+
+        taskNotificationService.dispatchTaskNotification(getNotification(PLEASE_COMPUTE));
+        taskNotificationService.dispatchTaskNotification(TaskNotification.builder()
+                .chainTaskId(otherChainTaskId)
+                .taskNotificationType(PLEASE_START)
+                .build());
+
+        // other task started while the first one is still computing
+        verify(taskManagerService, timeout(5000)).start(otherChainTaskId);
+        computeLatch.countDown();
+    }
+
+    @Test
+    public void shouldDetectStaleAndDuplicateNotifications() {
+        when(taskManagerService.compute(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
+
+        taskNotificationService.onTaskNotification(getNotification(PLEASE_COMPUTE));
+
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_START))).isTrue();
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_COMPUTE))).isTrue();
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_CONTRIBUTE))).isFalse();
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_REVEAL))).isTrue();
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_ABORT))).isFalse();
+    }
+
+    @Test
+    public void shouldNotSkipStageWhenReplayedNotificationIsQueuedBehindRunningStage() {
+        CountDownLatch downloadLatch = new CountDownLatch(1);
+        when(taskManagerService.downloadData(any())).thenAnswer(invocation -> {
+            downloadLatch.await(5, TimeUnit.SECONDS);
+            return ReplicateActionResponse.success();
+        });
+        when(taskManagerService.compute(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
+
+        taskNotificationService.dispatchTaskNotification(getNotification(PLEASE_DOWNLOAD_DATA));
+        taskNotificationService.dispatchTaskNotification(getNotification(PLEASE_CONTRIBUTE));
+        taskNotificationService.dispatchTaskNotification(getNotification(PLEASE_COMPUTE));
+        downloadLatch.countDown();
+
+        verify(taskManagerService, timeout(5000)).compute(CHAIN_TASK_ID);
+        verify(taskManagerService, never()).contribute(CHAIN_TASK_ID);
+    }
+
+    @Test
+    public void shouldContributeErrorOfFailedDownload() {
+        when(taskManagerService.downloadApp(CHAIN_TASK_ID))
+                .thenReturn(ReplicateActionResponse.failure(ReplicateStatusCause.APP_IMAGE_DOWNLOAD_FAILED));
+
+        taskNotificationService.onTaskNotification(getNotification(PLEASE_DOWNLOAD_APP));
+
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_CONTRIBUTE))).isFalse();
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_COMPUTE))).isTrue();
+    }
+
+    @Test
+    public void shouldUploadOrCompleteAfterReveal() {
+        when(taskManagerService.reveal(eq(CHAIN_TASK_ID), any())).thenReturn(ReplicateActionResponse.success());
+
+        taskNotificationService.onTaskNotification(getNotification(PLEASE_REVEAL));
+
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_UPLOAD))).isFalse();
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_COMPLETE))).isFalse();
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_REVEAL))).isTrue();
+    }
+
+    @Test
+    public void shouldRetryFailedStage() {
+        when(taskManagerService.compute(CHAIN_TASK_ID))
+                .thenReturn(ReplicateActionResponse.failure(ReplicateStatusCause.POST_COMPUTE_FAILED));
+
+        taskNotificationService.onTaskNotification(getNotification(PLEASE_COMPUTE));
+
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_COMPUTE))).isFalse();
+    }
+
+    @Test
+    public void shouldNotMonitorReplicateWhoseNextActionIsQueued() {
+        when(taskManagerService.compute(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
+        when(replicateStatusPipeline.send(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_CONTRIBUTE));
+
+        taskNotificationService.onTaskNotification(getNotification(PLEASE_COMPUTE));
+
+        verify(replicateProgressMonitor, times(2)).forget(CHAIN_TASK_ID);
+        verify(replicateProgressMonitor, never()).onWaitingForCore(CHAIN_TASK_ID);
+    }
+
+    @Test
+    public void shouldMonitorContributionWaitingForRevealNotification() {
+        when(taskManagerService.contribute(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
+        when(replicateStatusPipeline.send(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(PLEASE_WAIT));
+
+        taskNotificationService.onTaskNotification(getNotification(PLEASE_CONTRIBUTE));
+
+        // running while contributing, then waiting for PLEASE_REVEAL
+        verify(replicateProgressMonitor).forget(CHAIN_TASK_ID);
+        verify(replicateProgressMonitor).onWaitingForCore(CHAIN_TASK_ID);
+    }
+
+    @Test
+    public void shouldMonitorReplicateWithoutNextAction() {
+        when(taskManagerService.uploadResult(CHAIN_TASK_ID)).thenReturn(ReplicateActionResponse.success());
+
+        taskNotificationService.onTaskNotification(getNotification(PLEASE_UPLOAD));
+
+        verify(replicateProgressMonitor).onWaitingForCore(CHAIN_TASK_ID);
+    }
+
+    @Test
+    public void shouldStopMonitoringReplicateOnceTaskIsOver() {
+        taskNotificationService.dispatchTaskNotification(getNotification(PLEASE_ABORT));
+
+        verify(replicateProgressMonitor, timeout(5000)).forget(CHAIN_TASK_ID);
+    }
+
+    @Test
+    public void shouldNotFilterNotificationsOfUnknownTask() {
+        assertThat(taskNotificationService.isStaleOrDuplicate(getNotification(PLEASE_REVEAL))).isFalse();
+    }
+
+    private TaskNotification getNotification(TaskNotificationType type) {
+        return TaskNotification.builder()
+                .chainTaskId(CHAIN_TASK_ID)
+                .taskNotificationType(type)
+                .build();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.executor;
+
+import com.iexec.common.replicate.ReplicateStatusCause;
+import com.iexec.worker.config.WorkerConfigurationService;
+import com.iexec.worker.utils.WorkflowException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class TaskPrefetcherTests {
+
+    private static final String CHAIN_TASK_ID = "chainTaskId";
+
+    @InjectMocks
+    private TaskPrefetcher taskPrefetcher;
+
+    @Mock
+    private WorkerConfigurationService workerConfigurationService;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        when(workerConfigurationService.isPrefetchEnabled()).thenReturn(true);
+    }
+
+    @Test
+    public void shouldAwaitSuccessfulPrefetch() {
+        taskPrefetcher.prefetch(CHAIN_TASK_ID, TaskPrefetcher.Stage.APP_DOWNLOAD, () -> true);
+
+        assertThat(taskPrefetcher.await(CHAIN_TASK_ID, TaskPrefetcher.Stage.APP_DOWNLOAD)).isTrue();
+        // result is consumed once
+        assertThat(taskPrefetcher.await(CHAIN_TASK_ID, TaskPrefetcher.Stage.APP_DOWNLOAD)).isFalse();
+    }
+
+    @Test
+    public void shouldNotAwaitSinceNoPrefetch() {
+        assertThat(taskPrefetcher.await(CHAIN_TASK_ID, TaskPrefetcher.Stage.DATA_DOWNLOAD)).isFalse();
+    }
+
+    @Test
+    public void shouldNotPrefetchSinceDisabled() {
+        when(workerConfigurationService.isPrefetchEnabled()).thenReturn(false);
+
+        taskPrefetcher.prefetch(CHAIN_TASK_ID, TaskPrefetcher.Stage.APP_DOWNLOAD, () -> true);
+
+        assertThat(taskPrefetcher.await(CHAIN_TASK_ID, TaskPrefetcher.Stage.APP_DOWNLOAD)).isFalse();
+    }
+
+    @Test
+    public void shouldReturnFalseSincePrefetchFailed() {
+        taskPrefetcher.prefetch(CHAIN_TASK_ID, TaskPrefetcher.Stage.DATA_DOWNLOAD, () -> {
+            throw new WorkflowException(ReplicateStatusCause.DATASET_FILE_DOWNLOAD_FAILED);
+        });
+
+        assertThat(taskPrefetcher.await(CHAIN_TASK_ID, TaskPrefetcher.Stage.DATA_DOWNLOAD)).isFalse();
+    }
+
+    @Test
+    public void shouldInterruptPrefetchWhenCancelled() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        taskPrefetcher.prefetch(CHAIN_TASK_ID, TaskPrefetcher.Stage.DATA_DOWNLOAD, () -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return true;
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        taskPrefetcher.cancel(CHAIN_TASK_ID);
+
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(taskPrefetcher.await(CHAIN_TASK_ID, TaskPrefetcher.Stage.DATA_DOWNLOAD)).isFalse();
+    }
+}
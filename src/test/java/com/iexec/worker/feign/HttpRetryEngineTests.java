@@ -0,0 +1,252 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.feign;
+
+import feign.FeignException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HttpRetryEngineTests {
+
+    private static final String ACTION = "action";
+
+    @Mock
+    private HttpRetryConfiguration config;
+
+    private HttpRetryEngine httpRetryEngine;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        when(config.getMaxAttempts()).thenReturn(3);
+        when(config.getInitialBackoffMs()).thenReturn(1L);
+        when(config.getMaxBackoffMs()).thenReturn(10L);
+        when(config.getRetryBudgetRatio()).thenReturn(0.2);
+        when(config.getRetryBudgetBurst()).thenReturn(10);
+        when(config.getCircuitBreakerOpenMs()).thenReturn(60000L);
+    }
+
+    @After
+    public void stop() {
+        if (httpRetryEngine != null) {
+            httpRetryEngine.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRetryUntilSuccess() {
+        httpRetryEngine = new HttpRetryEngine(config);
+        AtomicInteger attempts = new AtomicInteger();
+
+        ResponseEntity<String> response = httpRetryEngine.<String>execute(ACTION, jwtoken -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw feignException(503);
+            }
+            return ResponseEntity.ok("body");
+        }, null, rejectedToken -> "").join();
+
+        assertThat(response.getBody()).isEqualTo("body");
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxAttempts() {
+        httpRetryEngine = new HttpRetryEngine(config);
+        AtomicInteger attempts = new AtomicInteger();
+
+        ResponseEntity<String> response = httpRetryEngine.<String>execute(ACTION, jwtoken -> {
+            attempts.incrementAndGet();
+            throw feignException(500);
+        }, null, rejectedToken -> "").join();
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(500);
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldRetryWithNewTokenSinceTokenRejected() {
+        httpRetryEngine = new HttpRetryEngine(config);
+        List<String> usedTokens = new CopyOnWriteArrayList<>();
+
+        ResponseEntity<String> response = httpRetryEngine.<String>execute(ACTION, jwtoken -> {
+            usedTokens.add(jwtoken);
+            if (!"newToken".equals(jwtoken)) {
+                throw feignException(401);
+            }
+            return ResponseEntity.ok("body");
+        }, "oldToken", rejectedToken -> "newToken").join();
+
+        assertThat(response.getBody()).isEqualTo("body");
+        assertThat(usedTokens).containsExactly("oldToken", "newToken");
+    }
+
+    @Test
+    public void shouldNotRetrySinceClientError() {
+        httpRetryEngine = new HttpRetryEngine(config);
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger logins = new AtomicInteger();
+
+        ResponseEntity<String> response = httpRetryEngine.<String>execute(ACTION, jwtoken -> {
+            attempts.incrementAndGet();
+            throw feignException(404);
+        }, "token", rejectedToken -> {
+            logins.incrementAndGet();
+            return "newToken";
+        }).join();
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(404);
+        assertThat(attempts.get()).isEqualTo(1);
+        assertThat(logins.get()).isZero();
+    }
+
+    @Test
+    public void shouldRetrySinceNonStandardServerError() {
+        httpRetryEngine = new HttpRetryEngine(config);
+        AtomicInteger attempts = new AtomicInteger();
+
+        ResponseEntity<String> response = httpRetryEngine.<String>execute(ACTION, jwtoken -> {
+            attempts.incrementAndGet();
+            throw feignException(520);
+        }, null, rejectedToken -> "").join();
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(520);
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldNotRetrySinceNonStandardClientError() {
+        httpRetryEngine = new HttpRetryEngine(config);
+        AtomicInteger attempts = new AtomicInteger();
+
+        ResponseEntity<String> response = httpRetryEngine.<String>execute(ACTION, jwtoken -> {
+            attempts.incrementAndGet();
+            throw feignException(499);
+        }, null, rejectedToken -> "").join();
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(499);
+        assertThat(attempts.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldFailFastSinceCircuitIsOpen() {
+        when(config.getCircuitBreakerFailureThreshold()).thenReturn(2);
+        httpRetryEngine = new HttpRetryEngine(config);
+        AtomicInteger attempts = new AtomicInteger();
+        BaseFeignClient.HttpCall<String> failingCall = jwtoken -> {
+            attempts.incrementAndGet();
+            throw feignException(-1);
+        };
+
+        ResponseEntity<String> first = httpRetryEngine.execute(ACTION, failingCall, null, rejectedToken -> "").join();
+        ResponseEntity<String> second = httpRetryEngine.execute(ACTION, failingCall, null, rejectedToken -> "").join();
+
+        assertThat(first.getStatusCodeValue()).isEqualTo(-1);
+        assertThat(second.getStatusCodeValue()).isEqualTo(-1);
+        // circuit opened after the second failure of the first call
+        assertThat(attempts.get()).isEqualTo(2);
+        assertThat(httpRetryEngine.isCircuitOpen(ACTION)).isTrue();
+        assertThat(httpRetryEngine.isCircuitOpen("otherAction")).isFalse();
+    }
+
+    @Test
+    public void shouldCloseCircuitSinceProbeSucceeded() {
+        when(config.getMaxAttempts()).thenReturn(1);
+        when(config.getCircuitBreakerFailureThreshold()).thenReturn(1);
+        when(config.getCircuitBreakerOpenMs()).thenReturn(0L);
+        httpRetryEngine = new HttpRetryEngine(config);
+
+        ResponseEntity<String> failure = httpRetryEngine.<String>execute(ACTION, jwtoken -> {
+            throw feignException(503);
+        }, null, rejectedToken -> "").join();
+        ResponseEntity<String> probe = httpRetryEngine.execute(ACTION,
+                jwtoken -> ResponseEntity.ok("probe"), null, rejectedToken -> "").join();
+
+        assertThat(failure.getStatusCodeValue()).isEqualTo(503);
+        assertThat(probe.getBody()).isEqualTo("probe");
+        assertThat(httpRetryEngine.isCircuitOpen(ACTION)).isFalse();
+    }
+
+    @Test
+    public void shouldNotRetrySinceRetryBudgetIsExhausted() {
+        when(config.getRetryBudgetRatio()).thenReturn(0.0);
+        when(config.getRetryBudgetBurst()).thenReturn(1);
+        httpRetryEngine = new HttpRetryEngine(config);
+        AtomicInteger attempts = new AtomicInteger();
+        BaseFeignClient.HttpCall<String> failingCall = jwtoken -> {
+            attempts.incrementAndGet();
+            throw feignException(500);
+        };
+
+        httpRetryEngine.execute(ACTION, failingCall, null, rejectedToken -> "").join();
+        httpRetryEngine.execute(ACTION, failingCall, null, rejectedToken -> "").join();
+
+        // single retry for both calls
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldNotBlockCallerWhileCallIsRunning() throws InterruptedException {
+        httpRetryEngine = new HttpRetryEngine(config);
+        CountDownLatch releaseCall = new CountDownLatch(1);
+
+        CompletableFuture<ResponseEntity<String>> response = httpRetryEngine.execute(ACTION, jwtoken -> {
+            try {
+                releaseCall.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return ResponseEntity.ok("body");
+        }, null, rejectedToken -> "");
+
+        assertThat(response).isNotDone();
+        releaseCall.countDown();
+        assertThat(response.join().getBody()).isEqualTo("body");
+    }
+
+    @Test
+    public void shouldKeepBackoffWithinBounds() {
+        when(config.getInitialBackoffMs()).thenReturn(1000L);
+        when(config.getMaxBackoffMs()).thenReturn(30000L);
+        httpRetryEngine = new HttpRetryEngine(config);
+
+        assertThat(httpRetryEngine.getBackoffMs(1)).isBetween(500L, 1000L);
+        assertThat(httpRetryEngine.getBackoffMs(3)).isBetween(2000L, 4000L);
+        assertThat(httpRetryEngine.getBackoffMs(20)).isBetween(15000L, 30000L);
+    }
+
+    private FeignException feignException(int status) {
+        FeignException exception = mock(FeignException.class);
+        when(exception.status()).thenReturn(status);
+        return exception;
+    }
+}
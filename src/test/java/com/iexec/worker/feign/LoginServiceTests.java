@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.feign;
+
+import com.iexec.common.security.Signature;
+import com.iexec.common.utils.TestUtils;
+import com.iexec.worker.chain.CredentialsService;
+import com.iexec.worker.feign.client.CoreClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.http.ResponseEntity;
+import org.web3j.crypto.Credentials;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LoginServiceTests {
+
+    private static final String BEARER = "Bearer ";
+    private static final String CHALLENGE = "0x" + "ab".repeat(32);
+
+    @InjectMocks
+    private LoginService loginService;
+
+    @Mock
+    private CredentialsService credentialsService;
+    @Mock
+    private CoreClient coreClient;
+    @Spy
+    private HttpRetryEngine httpRetryEngine = new HttpRetryEngine(mock(HttpRetryConfiguration.class));
+
+    @Before
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        when(credentialsService.getCredentials()).thenReturn(Credentials.create(TestUtils.WORKER_PRIVATE));
+        when(coreClient.getChallenge(anyString())).thenReturn(ResponseEntity.ok(CHALLENGE));
+    }
+
+    @After
+    public void stop() {
+        loginService.shutdown();
+        httpRetryEngine.shutdown();
+    }
+
+    @Test
+    public void shouldKeepCurrentTokenWhileLoggingIn() throws Exception {
+        CountDownLatch loginStarted = new CountDownLatch(1);
+        CountDownLatch releaseLogin = new CountDownLatch(1);
+        when(coreClient.login(anyString(), any(Signature.class)))
+                .thenReturn(ResponseEntity.ok("token1"))
+                .thenAnswer(invocation -> {
+                    loginStarted.countDown();
+                    releaseLogin.await(5, TimeUnit.SECONDS);
+                    return ResponseEntity.ok("token2");
+                });
+        loginService.login();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<String> newToken = executor.submit(loginService::login);
+        assertThat(loginStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(loginService.getToken()).isEqualTo(BEARER + "token1");
+        releaseLogin.countDown();
+        assertThat(newToken.get(5, TimeUnit.SECONDS)).isEqualTo(BEARER + "token2");
+        assertThat(loginService.getToken()).isEqualTo(BEARER + "token2");
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldShareSingleLoginBetweenConcurrentRejections() throws Exception {
+        CountDownLatch loginStarted = new CountDownLatch(1);
+        CountDownLatch releaseLogin = new CountDownLatch(1);
+        when(coreClient.login(anyString(), any(Signature.class)))
+                .thenReturn(ResponseEntity.ok("token1"))
+                .thenAnswer(invocation -> {
+                    loginStarted.countDown();
+                    releaseLogin.await(5, TimeUnit.SECONDS);
+                    return ResponseEntity.ok("token2");
+                });
+        String rejectedToken = loginService.login();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<String>> tokens = new ArrayList<>();
+
+        tokens.add(executor.submit(() -> loginService.login(rejectedToken)));
+        assertThat(loginStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 4; i++) {
+            tokens.add(executor.submit(() -> loginService.login(rejectedToken)));
+        }
+        Thread.sleep(100);
+        releaseLogin.countDown();
+
+        for (Future<String> token : tokens) {
+            assertThat(token.get(5, TimeUnit.SECONDS)).isEqualTo(BEARER + "token2");
+        }
+        // rejected token already replaced, no new login
+        assertThat(loginService.login(rejectedToken)).isEqualTo(BEARER + "token2");
+        verify(coreClient, times(2)).login(anyString(), any(Signature.class));
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldLoginAgainSinceTokenExpired() {
+        String expiredToken = buildJwt(Instant.now().minusSeconds(1));
+        String validToken = buildJwt(Instant.now().plusSeconds(3600));
+        when(coreClient.login(anyString(), any(Signature.class)))
+                .thenReturn(ResponseEntity.ok(expiredToken))
+                .thenReturn(ResponseEntity.ok(validToken));
+
+        assertThat(loginService.login()).isEqualTo(BEARER + expiredToken);
+        assertThat(loginService.getToken()).isEqualTo(BEARER + validToken);
+        assertThat(loginService.getToken()).isEqualTo(BEARER + validToken);
+        verify(coreClient, times(2)).login(anyString(), any(Signature.class));
+    }
+
+    @Test
+    public void shouldRefreshTokenInBackgroundBeforeExpiration() throws InterruptedException {
+        // expires in 31s, refresh is scheduled 30s before
+        String shortLivedToken = buildJwt(Instant.now().plusSeconds(31));
+        String newToken = buildJwt(Instant.now().plusSeconds(3600));
+        when(coreClient.login(anyString(), any(Signature.class)))
+                .thenReturn(ResponseEntity.ok(shortLivedToken))
+                .thenReturn(ResponseEntity.ok(newToken));
+
+        assertThat(loginService.login()).isEqualTo(BEARER + shortLivedToken);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!(BEARER + newToken).equals(loginService.getToken())
+                && System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+
+        assertThat(loginService.getToken()).isEqualTo(BEARER + newToken);
+        verify(coreClient, times(2)).login(anyString(), any(Signature.class));
+    }
+
+    @Test
+    public void shouldKeepCurrentTokenSinceLoginFailed() {
+        when(coreClient.login(anyString(), any(Signature.class)))
+                .thenReturn(ResponseEntity.ok("token1"))
+                .thenReturn(ResponseEntity.ok(""));
+
+        loginService.login();
+
+        assertThat(loginService.login()).isEmpty();
+        assertThat(loginService.getToken()).isEqualTo(BEARER + "token1");
+    }
+
+    private String buildJwt(Instant expiration) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(("{\"exp\":" + expiration.getEpochSecond() + "}")
+                .getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + ".signature";
+    }
+}
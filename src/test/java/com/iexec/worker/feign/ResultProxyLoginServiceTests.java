@@ -0,0 +1,184 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.feign;
+
+import com.iexec.common.result.eip712.Eip712Challenge;
+import com.iexec.common.utils.TestUtils;
+import com.iexec.worker.chain.CredentialsService;
+import com.iexec.worker.config.PublicConfigurationService;
+import com.iexec.worker.feign.client.ResultClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.http.ResponseEntity;
+import org.web3j.crypto.Credentials;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResultProxyLoginServiceTests {
+
+    private static final int CHAIN_ID = 1;
+
+    @InjectMocks
+    private ResultProxyLoginService resultProxyLoginService;
+
+    @Mock
+    private ResultClient resultClient;
+    @Mock
+    private CredentialsService credentialsService;
+    @Mock
+    private PublicConfigurationService publicConfigService;
+    @Spy
+    private HttpRetryEngine httpRetryEngine = new HttpRetryEngine(mock(HttpRetryConfiguration.class));
+
+    @Before
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        when(publicConfigService.getChainId()).thenReturn(CHAIN_ID);
+        when(credentialsService.getCredentials()).thenReturn(Credentials.create(TestUtils.WORKER_PRIVATE));
+        when(resultClient.getChallenge(CHAIN_ID))
+                .thenReturn(ResponseEntity.ok(new Eip712Challenge("challenge", CHAIN_ID)));
+    }
+
+    @After
+    public void stop() {
+        resultProxyLoginService.shutdown();
+        httpRetryEngine.shutdown();
+    }
+
+    @Test
+    public void shouldLoginOnceAndReuseCachedToken() {
+        String token = buildJwt(Instant.now().plusSeconds(3600));
+        when(resultClient.login(anyInt(), anyString())).thenReturn(ResponseEntity.ok(token));
+
+        assertThat(resultProxyLoginService.getToken()).isEqualTo(token);
+        assertThat(resultProxyLoginService.getToken()).isEqualTo(token);
+        verify(resultClient, times(1)).login(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldLoginAgainSinceTokenExpired() {
+        String expiredToken = buildJwt(Instant.now().minusSeconds(1));
+        String validToken = buildJwt(Instant.now().plusSeconds(3600));
+        when(resultClient.login(anyInt(), anyString()))
+                .thenReturn(ResponseEntity.ok(expiredToken))
+                .thenReturn(ResponseEntity.ok(validToken));
+
+        assertThat(resultProxyLoginService.getToken()).isEqualTo(expiredToken);
+        assertThat(resultProxyLoginService.getToken()).isEqualTo(validToken);
+        verify(resultClient, times(2)).login(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldLoginAgainSinceTokenInvalidated() {
+        when(resultClient.login(anyInt(), anyString()))
+                .thenReturn(ResponseEntity.ok("token1"))
+                .thenReturn(ResponseEntity.ok("token2"));
+
+        String rejectedToken = resultProxyLoginService.getToken();
+        resultProxyLoginService.invalidateToken(rejectedToken);
+        // already replaced, nothing to invalidate
+        resultProxyLoginService.invalidateToken(rejectedToken);
+
+        assertThat(resultProxyLoginService.getToken()).isEqualTo("token2");
+        assertThat(resultProxyLoginService.getToken()).isEqualTo("token2");
+        verify(resultClient, times(2)).login(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldShareSingleLoginBetweenConcurrentCallers() throws Exception {
+        CountDownLatch loginStarted = new CountDownLatch(1);
+        CountDownLatch releaseLogin = new CountDownLatch(1);
+        when(resultClient.login(anyInt(), anyString())).thenAnswer(invocation -> {
+            loginStarted.countDown();
+            releaseLogin.await(5, TimeUnit.SECONDS);
+            return ResponseEntity.ok("token");
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<String>> tokens = new ArrayList<>();
+
+        tokens.add(executor.submit(resultProxyLoginService::getToken));
+        assertThat(loginStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 4; i++) {
+            tokens.add(executor.submit(resultProxyLoginService::getToken));
+        }
+        Thread.sleep(100);
+        releaseLogin.countDown();
+
+        for (Future<String> token : tokens) {
+            assertThat(token.get(5, TimeUnit.SECONDS)).isEqualTo("token");
+        }
+        verify(resultClient, times(1)).login(anyInt(), anyString());
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldRefreshTokenInBackgroundBeforeExpiration() throws InterruptedException {
+        // expires in 31s, refresh is scheduled 30s before
+        String shortLivedToken = buildJwt(Instant.now().plusSeconds(31));
+        String newToken = buildJwt(Instant.now().plusSeconds(3600));
+        when(resultClient.login(anyInt(), anyString()))
+                .thenReturn(ResponseEntity.ok(shortLivedToken))
+                .thenReturn(ResponseEntity.ok(newToken));
+
+        assertThat(resultProxyLoginService.getToken()).isEqualTo(shortLivedToken);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!newToken.equals(resultProxyLoginService.getToken())
+                && System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+
+        assertThat(resultProxyLoginService.getToken()).isEqualTo(newToken);
+        verify(resultClient, times(2)).login(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldReturnEmptyTokenSinceLoginFailed() {
+        when(resultClient.login(anyInt(), anyString())).thenReturn(ResponseEntity.ok(""));
+
+        assertThat(resultProxyLoginService.getToken()).isEmpty();
+    }
+
+    private String buildJwt(Instant expiration) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(("{\"exp\":" + expiration.getEpochSecond() + "}")
+                .getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + ".signature";
+    }
+}
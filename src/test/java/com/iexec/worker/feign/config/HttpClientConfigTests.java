@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.feign.config;
+
+import com.iexec.worker.config.WorkerConfigurationService;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class HttpClientConfigTests {
+
+    private static final Proxy HTTP_PROXY =
+            new Proxy(Proxy.Type.HTTP, new InetSocketAddress("http-proxy", 3128));
+    private static final Proxy HTTPS_PROXY =
+            new Proxy(Proxy.Type.HTTP, new InetSocketAddress("https-proxy", 3129));
+
+    @Mock
+    private WorkerConfigurationService workerConfService;
+    @Mock
+    private HttpClientConfiguration httpClientConfiguration;
+
+    @InjectMocks
+    private HttpClientConfig httpClientConfig;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        when(httpClientConfiguration.getMaxIdleConnections()).thenReturn(5);
+        when(httpClientConfiguration.getKeepAliveSeconds()).thenReturn(60L);
+        when(httpClientConfiguration.getConnectTimeoutMs()).thenReturn(1000L);
+        when(httpClientConfiguration.getReadTimeoutMs()).thenReturn(2000L);
+    }
+
+    @Test
+    public void shouldBuildClientWithHttp2AndSharedPool() {
+        when(httpClientConfiguration.isHttp2Enabled()).thenReturn(true);
+        ConnectionPool connectionPool = httpClientConfig.connectionPool();
+
+        OkHttpClient client = httpClientConfig.okHttpClient(connectionPool);
+
+        assertThat(client.connectionPool()).isSameAs(connectionPool);
+        assertThat(client.protocols()).containsExactly(Protocol.HTTP_2, Protocol.HTTP_1_1);
+        assertThat(client.connectTimeoutMillis()).isEqualTo(1000);
+        assertThat(client.readTimeoutMillis()).isEqualTo(2000);
+    }
+
+    @Test
+    public void shouldBuildClientWithHttp1Only() {
+        OkHttpClient client = httpClientConfig.okHttpClient(httpClientConfig.connectionPool());
+
+        assertThat(client.protocols()).containsExactly(Protocol.HTTP_1_1);
+    }
+
+    @Test
+    public void shouldSelectProxyAccordingToScheme() {
+        HttpClientConfig.WorkerProxySelector selector =
+                new HttpClientConfig.WorkerProxySelector(HTTP_PROXY, HTTPS_PROXY, null);
+
+        assertThat(selector.select(URI.create("http://core:13000"))).containsExactly(HTTP_PROXY);
+        assertThat(selector.select(URI.create("https://result-proxy"))).containsExactly(HTTPS_PROXY);
+    }
+
+    @Test
+    public void shouldUseSingleProxyForBothSchemes() {
+        HttpClientConfig.WorkerProxySelector selector =
+                new HttpClientConfig.WorkerProxySelector(null, HTTPS_PROXY, null);
+
+        assertThat(selector.select(URI.create("http://core:13000"))).containsExactly(HTTPS_PROXY);
+        assertThat(selector.select(URI.create("https://result-proxy"))).containsExactly(HTTPS_PROXY);
+    }
+
+    @Test
+    public void shouldNotUseProxySinceNoneConfigured() {
+        HttpClientConfig.WorkerProxySelector selector =
+                new HttpClientConfig.WorkerProxySelector(null, null, null);
+
+        assertThat(selector.select(URI.create("http://core:13000"))).containsExactly(Proxy.NO_PROXY);
+    }
+
+    @Test
+    public void shouldNotUseProxyForNonProxyHosts() {
+        HttpClientConfig.WorkerProxySelector selector = new HttpClientConfig.WorkerProxySelector(
+                HTTP_PROXY, HTTPS_PROXY, "core| *.iex.ec |10.0.*");
+
+        assertThat(selector.select(URI.create("http://core:13000"))).containsExactly(Proxy.NO_PROXY);
+        assertThat(selector.select(URI.create("https://result.IEX.EC"))).containsExactly(Proxy.NO_PROXY);
+        assertThat(selector.select(URI.create("http://10.0.1.2:8080"))).containsExactly(Proxy.NO_PROXY);
+        assertThat(selector.select(URI.create("https://core.other"))).containsExactly(HTTPS_PROXY);
+        assertThat(selector.select(URI.create("http://iex.ec"))).containsExactly(HTTP_PROXY);
+    }
+
+    @Test
+    public void shouldNotUseProxyForLoopbackSinceNoNonProxyHostsConfigured() {
+        HttpClientConfig.WorkerProxySelector selector =
+                new HttpClientConfig.WorkerProxySelector(HTTP_PROXY, HTTPS_PROXY, null);
+
+        assertThat(selector.select(URI.create("http://localhost:13000"))).containsExactly(Proxy.NO_PROXY);
+        assertThat(selector.select(URI.create("http://127.0.0.1:13000"))).containsExactly(Proxy.NO_PROXY);
+        assertThat(selector.select(URI.create("http://[::1]:13000"))).containsExactly(Proxy.NO_PROXY);
+    }
+
+    @Test
+    public void shouldUseProxiesOfWorkerConfiguration() {
+        when(workerConfService.getHttpProxyHost()).thenReturn("http-proxy");
+        when(workerConfService.getHttpProxyPort()).thenReturn(3128);
+
+        OkHttpClient client = httpClientConfig.okHttpClient(httpClientConfig.connectionPool());
+
+        assertThat(client.proxySelector().select(URI.create("https://result-proxy")))
+                .containsExactly(HTTP_PROXY);
+    }
+
+    @Test
+    public void shouldUseNonProxyHostsOfWorkerConfiguration() {
+        when(workerConfService.getHttpProxyHost()).thenReturn("http-proxy");
+        when(workerConfService.getHttpProxyPort()).thenReturn(3128);
+        when(workerConfService.getHttpNonProxyHosts()).thenReturn("result-proxy");
+
+        OkHttpClient client = httpClientConfig.okHttpClient(httpClientConfig.connectionPool());
+
+        assertThat(client.proxySelector().select(URI.create("https://result-proxy")))
+                .containsExactly(Proxy.NO_PROXY);
+        assertThat(client.proxySelector().select(URI.create("http://core:13000")))
+                .containsExactly(HTTP_PROXY);
+    }
+}
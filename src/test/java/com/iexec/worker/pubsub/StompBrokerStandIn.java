@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.pubsub;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.websocket.servlet.WebSocketServletAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Local stand-in of the core's STOMP broker: a simple broker behind
+ * the same SockJS {@code /connect} endpoint, on a random port.
+ */
+class StompBrokerStandIn implements AutoCloseable {
+
+    private final ConfigurableApplicationContext context;
+
+    StompBrokerStandIn() {
+        context = new SpringApplicationBuilder(BrokerConfiguration.class)
+                .web(WebApplicationType.SERVLET)
+                // do not load the worker application.yml
+                .run("--spring.config.name=stomp-broker-stand-in",
+                        "--server.port=0",
+                        "--spring.main.banner-mode=off");
+    }
+
+    String getUrl() {
+        return "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    /**
+     * Headers of the SUBSCRIBE frames received so far.
+     */
+    List<StompHeaderAccessor> getSubscriptions() {
+        return context.getBean(SubscriptionRecorder.class).subscriptions;
+    }
+
+    void send(String destination, byte[] payload, MimeType contentType) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create();
+        headers.setContentType(contentType);
+        headers.setLeaveMutable(true);
+        context.getBean(SimpMessagingTemplate.class).send(destination,
+                MessageBuilder.createMessage(payload, headers.getMessageHeaders()));
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+
+    @Configuration
+    @EnableWebSocketMessageBroker
+    @ImportAutoConfiguration({
+            ServletWebServerFactoryAutoConfiguration.class,
+            DispatcherServletAutoConfiguration.class,
+            WebSocketServletAutoConfiguration.class})
+    static class BrokerConfiguration implements WebSocketMessageBrokerConfigurer {
+
+        private final SubscriptionRecorder subscriptionRecorder = new SubscriptionRecorder();
+
+        @Bean
+        SubscriptionRecorder subscriptionRecorder() {
+            return subscriptionRecorder;
+        }
+
+        @Override
+        public void registerStompEndpoints(StompEndpointRegistry registry) {
+            registry.addEndpoint("/connect").withSockJS();
+        }
+
+        @Override
+        public void configureMessageBroker(MessageBrokerRegistry registry) {
+            registry.enableSimpleBroker("/topic");
+        }
+
+        @Override
+        public void configureClientInboundChannel(ChannelRegistration registration) {
+            registration.interceptors(subscriptionRecorder);
+        }
+    }
+
+    static class SubscriptionRecorder implements ChannelInterceptor {
+
+        private final List<StompHeaderAccessor> subscriptions = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+            if (StompCommand.SUBSCRIBE.equals(accessor.getCommand())) {
+                subscriptions.add(accessor);
+            }
+            return message;
+        }
+    }
+}
@@ -1,16 +1,190 @@
 package com.iexec.worker.pubsub;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iexec.common.notification.TaskNotification;
+import com.iexec.common.notification.TaskNotificationType;
+import com.iexec.worker.config.CoreConfigurationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
-import org.mockito.InjectMocks;
+import org.junit.Test;
+import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class StompClientTests {
 
-    @InjectMocks
+    private static final long INITIAL_DELAY_MS = 1000;
+    private static final long MAX_DELAY_MS = 30000;
+    private static final String TOPIC = "/topic/worker/0x1234";
+    private static final TaskNotification NOTIFICATION = TaskNotification.builder()
+            .chainTaskId("0xfoobar")
+            .workersAddress(List.of("0x1234", "0x5678"))
+            .taskNotificationType(TaskNotificationType.PLEASE_CONTRIBUTE)
+            .build();
+
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+    @Mock
+    private CoreConfigurationService coreConfigurationService;
+    @Mock
+    private RestTemplate restTemplate;
+    @Mock
+    private PubSubConfiguration pubSubConfiguration;
+
+    private SimpleMeterRegistry meterRegistry;
     private StompClient stompClient;
 
     @Before
     public void init() {
         MockitoAnnotations.openMocks(this);
+        when(coreConfigurationService.getUrl()).thenReturn("http://localhost:13000");
+        when(pubSubConfiguration.getHeartbeatMs()).thenReturn(10000L);
+        when(pubSubConfiguration.getReconnectInitialDelayMs()).thenReturn(INITIAL_DELAY_MS);
+        when(pubSubConfiguration.getReconnectMaxDelayMs()).thenReturn(MAX_DELAY_MS);
+        meterRegistry = new SimpleMeterRegistry();
+        stompClient = new StompClient(applicationEventPublisher, coreConfigurationService,
+                restTemplate, pubSubConfiguration, meterRegistry);
+    }
+
+    @Test
+    public void shouldAttemptFirstSessionImmediately() {
+        assertThat(stompClient.getSessionAttemptDelayMs(0)).isZero();
+    }
+
+    @Test
+    public void shouldDoubleSessionAttemptDelayWithJitter() {
+        for (int attempt = 1; attempt <= 5; attempt++) {
+            long expectedDelayMs = INITIAL_DELAY_MS << (attempt - 1);
+            for (int i = 0; i < 100; i++) {
+                assertThat(stompClient.getSessionAttemptDelayMs(attempt))
+                        .isBetween(expectedDelayMs / 2, expectedDelayMs);
+            }
+        }
+    }
+
+    @Test
+    public void shouldCapSessionAttemptDelay() {
+        for (int attempt : new int[] {6, 20, 100, Integer.MAX_VALUE}) {
+            assertThat(stompClient.getSessionAttemptDelayMs(attempt))
+                    .isBetween(MAX_DELAY_MS / 2, MAX_DELAY_MS);
+        }
+    }
+
+    @Test
+    public void shouldReportDisconnectedBeforeFirstSession() {
+        assertThat(stompClient.isConnected()).isFalse();
+        assertThat(meterRegistry.get("iexec.stomp.connected").gauge().value()).isZero();
+        assertThat(meterRegistry.get("iexec.stomp.reconnects").counter().count()).isZero();
+    }
+
+    // codec
+
+    @Test
+    public void shouldDecodeCborAndJsonFrames() throws Exception {
+        try (StompBrokerStandIn broker = new StompBrokerStandIn()) {
+            when(pubSubConfiguration.isCompactEncodingEnabled()).thenReturn(true);
+            BlockingQueue<Object> received = subscribe(broker);
+
+            TaskNotification jsonNotification = TaskNotification.builder()
+                    .chainTaskId("0xjson")
+                    .taskNotificationType(TaskNotificationType.PLEASE_REVEAL)
+                    .build();
+
+            assertThat(sendUntilReceived(broker, received, NOTIFICATION,
+                    Jackson2ObjectMapperBuilder.cbor().build(), StompClient.APPLICATION_CBOR))
+                    .isTrue();
+            assertThat(sendUntilReceived(broker, received, jsonNotification,
+                    Jackson2ObjectMapperBuilder.json().build(), MimeTypeUtils.APPLICATION_JSON))
+                    .isTrue();
+            assertThat(broker.getSubscriptions().get(0)
+                    .getFirstNativeHeader(StompClient.ACCEPT_CONTENT_TYPE_HEADER))
+                    .isEqualTo("application/cbor,application/json");
+        }
+    }
+
+    @Test
+    public void shouldOnlyAcceptJsonSinceCompactEncodingDisabled() throws Exception {
+        try (StompBrokerStandIn broker = new StompBrokerStandIn()) {
+            when(pubSubConfiguration.isCompactEncodingEnabled()).thenReturn(false);
+            subscribe(broker);
+
+            assertThat(broker.getSubscriptions().get(0)
+                    .getFirstNativeHeader(StompClient.ACCEPT_CONTENT_TYPE_HEADER))
+                    .isEqualTo("application/json");
+        }
+    }
+
+    private BlockingQueue<Object> subscribe(StompBrokerStandIn broker) {
+        when(coreConfigurationService.getUrl()).thenReturn(broker.getUrl());
+        when(pubSubConfiguration.getHeartbeatMs()).thenReturn(0L);
+        StompClient client = new StompClient(applicationEventPublisher, coreConfigurationService,
+                new RestTemplate(), pubSubConfiguration, meterRegistry);
+        client.init();
+        verify(applicationEventPublisher, timeout(10000)).publishEvent(any(SessionCreatedEvent.class));
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        assertThat(client.subscribeToTopic(TOPIC, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return TaskNotification.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add(payload);
+            }
+        })).isPresent();
+        for (int i = 0; i < 100 && broker.getSubscriptions().isEmpty(); i++) {
+            sleep(50);
+        }
+        assertThat(broker.getSubscriptions()).hasSize(1);
+        return received;
+    }
+
+    /**
+     * The broker registers the subscription asynchronously, so the
+     * notification is sent until it is received.
+     */
+    private boolean sendUntilReceived(StompBrokerStandIn broker, BlockingQueue<Object> received,
+                                      TaskNotification notification, ObjectMapper mapper,
+                                      MimeType contentType) throws Exception {
+        byte[] payload = mapper.writeValueAsBytes(notification);
+        for (int i = 0; i < 50; i++) {
+            broker.send(TOPIC, payload, contentType);
+            Object decoded = received.poll(100, TimeUnit.MILLISECONDS);
+            // skip late copies of previously sent notifications
+            while (decoded != null && !decoded.equals(notification)) {
+                decoded = received.poll(100, TimeUnit.MILLISECONDS);
+            }
+            if (decoded != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
-}
\ No newline at end of file
+}
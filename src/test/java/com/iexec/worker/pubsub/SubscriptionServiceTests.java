@@ -19,21 +19,28 @@ package com.iexec.worker.pubsub;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.iexec.common.notification.TaskNotification;
+import com.iexec.common.notification.TaskNotificationType;
 import com.iexec.worker.config.WorkerConfigurationService;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
 import org.springframework.messaging.simp.stomp.StompSession.Subscription;
 
 import java.util.Optional;
@@ -43,6 +50,8 @@ public class SubscriptionServiceTests {
     @Mock
     private WorkerConfigurationService workerConfigurationService;
     @Mock
+    private PubSubConfiguration pubSubConfiguration;
+    @Mock
     private ApplicationEventPublisher applicationEventPublisher;
     @Mock
     private StompClient stompClient;
@@ -52,6 +61,8 @@ public class SubscriptionServiceTests {
 
     private static final String WORKER_WALLET_ADDRESS = "0x1234";
     private static final String CHAIN_TASK_ID = "chaintaskid";
+    private static final String CHAIN_TASK_ID_2 = "chaintaskid2";
+    private static final String WORKER_TOPIC = "/topic/worker/" + WORKER_WALLET_ADDRESS;
     private static final Optional<Subscription> SUBSCRIPTION =
             Optional.of(mock(Subscription.class));
 
@@ -99,4 +110,135 @@ public class SubscriptionServiceTests {
         subscriptionService.unsubscribeFromTopic(CHAIN_TASK_ID);
         verify(SUBSCRIPTION.get(), never()).unsubscribe();
     }
+
+    // worker topic
+
+    @Test
+    public void shouldKeepTaskTopicUntilWorkerTopicConfirmed() {
+        SubscriptionService service = getWorkerTopicSubscriptionService();
+        ArgumentCaptor<StompFrameHandler> handlerCaptor =
+                ArgumentCaptor.forClass(StompFrameHandler.class);
+        Subscription taskSubscription = mock(Subscription.class);
+        when(stompClient.subscribeToTopic(eq(WORKER_TOPIC), handlerCaptor.capture()))
+                .thenReturn(SUBSCRIPTION);
+        when(stompClient.subscribeToTopic(eq("/topic/task/" + CHAIN_TASK_ID), any()))
+                .thenReturn(Optional.of(taskSubscription));
+
+        service.subscribeToTopic(CHAIN_TASK_ID);
+
+        verify(stompClient).subscribeToTopic(eq(WORKER_TOPIC), any());
+        verify(stompClient).subscribeToTopic(eq("/topic/task/" + CHAIN_TASK_ID), any());
+        verify(taskSubscription, never()).unsubscribe();
+
+        handlerCaptor.getValue().handleFrame(new StompHeaders(), TaskNotification.builder()
+                .chainTaskId(CHAIN_TASK_ID)
+                .taskNotificationType(TaskNotificationType.PLEASE_CONTRIBUTE)
+                .build());
+
+        verify(taskSubscription).unsubscribe();
+        assertThat(service.isSubscribedToTopic(CHAIN_TASK_ID)).isTrue();
+    }
+
+    @Test
+    public void shouldNotSubscribeToTaskTopicsOnceWorkerTopicConfirmed() {
+        SubscriptionService service = getConfirmedWorkerTopicSubscriptionService();
+
+        service.subscribeToTopic(CHAIN_TASK_ID);
+        service.subscribeToTopic(CHAIN_TASK_ID_2);
+
+        assertThat(service.isSubscribedToTopic(CHAIN_TASK_ID)).isTrue();
+        assertThat(service.isSubscribedToTopic(CHAIN_TASK_ID_2)).isTrue();
+        verify(stompClient, never()).subscribeToTopic(anyString(), any());
+    }
+
+    @Test
+    public void shouldFallbackToTaskTopicSinceWorkerTopicUnavailable() {
+        SubscriptionService service = getWorkerTopicSubscriptionService();
+        when(stompClient.subscribeToTopic(eq(WORKER_TOPIC), any())).thenReturn(Optional.empty());
+        when(stompClient.subscribeToTopic(eq("/topic/task/" + CHAIN_TASK_ID), any()))
+                .thenReturn(SUBSCRIPTION);
+
+        service.subscribeToTopic(CHAIN_TASK_ID);
+
+        assertThat(service.isSubscribedToTopic(CHAIN_TASK_ID)).isTrue();
+        verify(stompClient).subscribeToTopic(eq("/topic/task/" + CHAIN_TASK_ID), any());
+    }
+
+    @Test
+    public void shouldOnlyResubscribeToWorkerTopicOnNewSessionOnceConfirmed() {
+        SubscriptionService service = getConfirmedWorkerTopicSubscriptionService();
+        service.subscribeToTopic(CHAIN_TASK_ID);
+        service.subscribeToTopic(CHAIN_TASK_ID_2);
+
+        service.reSubscribeToTopics();
+
+        assertThat(service.isSubscribedToTopic(CHAIN_TASK_ID)).isTrue();
+        assertThat(service.isSubscribedToTopic(CHAIN_TASK_ID_2)).isTrue();
+        verify(stompClient, times(1)).subscribeToTopic(anyString(), any());
+        verify(stompClient).subscribeToTopic(eq(WORKER_TOPIC), any());
+    }
+
+    @Test
+    public void shouldResubscribeToEachTaskTopicOnNewSessionSinceWorkerTopicDisabled() {
+        when(stompClient.subscribeToTopic(anyString(), any())).thenReturn(SUBSCRIPTION);
+        subscriptionService.subscribeToTopic(CHAIN_TASK_ID);
+        subscriptionService.subscribeToTopic(CHAIN_TASK_ID_2);
+
+        subscriptionService.reSubscribeToTopics();
+
+        assertThat(subscriptionService.isSubscribedToTopic(CHAIN_TASK_ID)).isTrue();
+        assertThat(subscriptionService.isSubscribedToTopic(CHAIN_TASK_ID_2)).isTrue();
+        verify(stompClient, times(4)).subscribeToTopic(anyString(), any());
+        verify(stompClient, never()).subscribeToTopic(eq(WORKER_TOPIC), any());
+    }
+
+    @Test
+    public void shouldOnlyPublishWorkerTopicNotificationsOfSubscribedTasks() {
+        SubscriptionService service = getWorkerTopicSubscriptionService();
+        ArgumentCaptor<StompFrameHandler> handlerCaptor =
+                ArgumentCaptor.forClass(StompFrameHandler.class);
+        when(stompClient.subscribeToTopic(anyString(), any())).thenReturn(SUBSCRIPTION);
+        when(stompClient.subscribeToTopic(eq(WORKER_TOPIC), handlerCaptor.capture()))
+                .thenReturn(SUBSCRIPTION);
+        service.subscribeToTopic(CHAIN_TASK_ID);
+        TaskNotification subscribedTaskNotification = TaskNotification.builder()
+                .chainTaskId(CHAIN_TASK_ID)
+                .taskNotificationType(TaskNotificationType.PLEASE_CONTRIBUTE)
+                .build();
+        TaskNotification otherTaskNotification = TaskNotification.builder()
+                .chainTaskId(CHAIN_TASK_ID_2)
+                .taskNotificationType(TaskNotificationType.PLEASE_CONTRIBUTE)
+                .build();
+
+        handlerCaptor.getValue().handleFrame(new StompHeaders(), subscribedTaskNotification);
+        handlerCaptor.getValue().handleFrame(new StompHeaders(), otherTaskNotification);
+
+        verify(applicationEventPublisher).publishEvent(subscribedTaskNotification);
+        verify(applicationEventPublisher, never()).publishEvent(otherTaskNotification);
+    }
+
+    /**
+     * Service subscribed to the worker topic, on which the core
+     * already sent a notification.
+     */
+    private SubscriptionService getConfirmedWorkerTopicSubscriptionService() {
+        SubscriptionService service = getWorkerTopicSubscriptionService();
+        ArgumentCaptor<StompFrameHandler> handlerCaptor =
+                ArgumentCaptor.forClass(StompFrameHandler.class);
+        when(stompClient.subscribeToTopic(eq(WORKER_TOPIC), handlerCaptor.capture()))
+                .thenReturn(SUBSCRIPTION);
+        service.reSubscribeToTopics();
+        handlerCaptor.getValue().handleFrame(new StompHeaders(), TaskNotification.builder()
+                .chainTaskId(CHAIN_TASK_ID)
+                .taskNotificationType(TaskNotificationType.PLEASE_CONTRIBUTE)
+                .build());
+        clearInvocations(stompClient, applicationEventPublisher);
+        return service;
+    }
+
+    private SubscriptionService getWorkerTopicSubscriptionService() {
+        when(pubSubConfiguration.isWorkerTopicEnabled()).thenReturn(true);
+        return new SubscriptionService(workerConfigurationService, pubSubConfiguration,
+                applicationEventPublisher, stompClient);
+    }
 }
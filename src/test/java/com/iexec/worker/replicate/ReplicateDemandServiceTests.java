@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.replicate;
+
+import com.iexec.common.chain.WorkerpoolAuthorization;
+import com.iexec.common.notification.TaskNotification;
+import com.iexec.worker.chain.ContributionService;
+import com.iexec.worker.chain.IexecHubService;
+import com.iexec.worker.disk.TaskFolderCollector;
+import com.iexec.worker.feign.CustomCoreFeignClient;
+import com.iexec.worker.pubsub.SubscriptionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReplicateDemandServiceTests {
+
+    private static final String CHAIN_TASK_ID = "0xfoobar";
+    private static final long BLOCK_NUMBER = 5;
+
+    @InjectMocks
+    private ReplicateDemandService replicateDemandService;
+    @Mock
+    private IexecHubService iexecHubService;
+    @Mock
+    private CustomCoreFeignClient coreFeignClient;
+    @Mock
+    private ContributionService contributionService;
+    @Mock
+    private SubscriptionService subscriptionService;
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+    @Mock
+    private TaskFolderCollector taskFolderCollector;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(BLOCK_NUMBER);
+        when(iexecHubService.hasEnoughGas()).thenReturn(true);
+    }
+
+    @Test
+    public void shouldAskForReplicateAndStartTask() {
+        when(coreFeignClient.getAvailableReplicate(BLOCK_NUMBER)).thenReturn(Optional.of(
+                WorkerpoolAuthorization.builder().chainTaskId(CHAIN_TASK_ID).build()));
+        when(contributionService.isChainTaskInitialized(CHAIN_TASK_ID)).thenReturn(true);
+
+        replicateDemandService.askForReplicate();
+
+        verify(subscriptionService).subscribeToTopic(CHAIN_TASK_ID);
+        verify(applicationEventPublisher).publishEvent(any(TaskNotification.class));
+    }
+
+    @Test
+    public void shouldNotAskForReplicateSinceDiskQuotaExceeded() {
+        when(taskFolderCollector.isQuotaExceeded()).thenReturn(true);
+
+        replicateDemandService.askForReplicate();
+
+        verify(coreFeignClient, never()).getAvailableReplicate(anyLong());
+    }
+}
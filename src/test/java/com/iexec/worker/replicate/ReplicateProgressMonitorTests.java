@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.replicate;
+
+import com.iexec.worker.chain.IexecHubService;
+import com.iexec.worker.pubsub.PubSubConfiguration;
+import com.iexec.worker.pubsub.SessionCreatedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class ReplicateProgressMonitorTests {
+
+    private static final String CHAIN_TASK_ID = "0xfoobar";
+    private static final String OTHER_CHAIN_TASK_ID = "0xother";
+
+    @Mock
+    private IexecHubService iexecHubService;
+    @Mock
+    private ReplicateRecoveryService replicateRecoveryService;
+    @Mock
+    private PubSubConfiguration pubSubConfiguration;
+
+    private ReplicateProgressMonitor replicateProgressMonitor;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        when(pubSubConfiguration.getStalledReplicateBlocks()).thenReturn(20L);
+        when(pubSubConfiguration.getStallCheckPeriodSeconds()).thenReturn(30L);
+        replicateProgressMonitor = new ReplicateProgressMonitor(iexecHubService,
+                replicateRecoveryService, pubSubConfiguration, new SimpleMeterRegistry());
+    }
+
+    @After
+    public void stop() {
+        replicateProgressMonitor.shutdown();
+    }
+
+    @Test
+    public void shouldReplayNotificationsOfStalledReplicatesOnly() {
+        replicateProgressMonitor.onWaitingForCore(CHAIN_TASK_ID);
+        replicateProgressMonitor.onWaitingForCore(OTHER_CHAIN_TASK_ID);
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(100L);
+        replicateProgressMonitor.replayStalledReplicates();
+        // other replicate ran a stage and waits again
+        replicateProgressMonitor.forget(OTHER_CHAIN_TASK_ID);
+        replicateProgressMonitor.onWaitingForCore(OTHER_CHAIN_TASK_ID);
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(110L);
+        replicateProgressMonitor.replayStalledReplicates();
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(120L);
+
+        replicateProgressMonitor.replayStalledReplicates();
+
+        verify(replicateRecoveryService).replayMissedTaskNotifications(120L, Set.of(CHAIN_TASK_ID));
+        verify(replicateRecoveryService, times(1)).replayMissedTaskNotifications(anyLong(), any());
+    }
+
+    @Test
+    public void shouldNotReplayNotificationsBeforeStallThreshold() {
+        replicateProgressMonitor.onWaitingForCore(CHAIN_TASK_ID);
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(100L);
+        replicateProgressMonitor.replayStalledReplicates();
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(119L);
+
+        replicateProgressMonitor.replayStalledReplicates();
+
+        verifyNoInteractions(replicateRecoveryService);
+    }
+
+    @Test
+    public void shouldReplayAgainOnlyAfterAnotherStallThreshold() {
+        replicateProgressMonitor.onWaitingForCore(CHAIN_TASK_ID);
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(100L);
+        replicateProgressMonitor.replayStalledReplicates();
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(120L);
+        replicateProgressMonitor.replayStalledReplicates();
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(130L);
+        replicateProgressMonitor.replayStalledReplicates();
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(140L);
+
+        replicateProgressMonitor.replayStalledReplicates();
+
+        verify(replicateRecoveryService).replayMissedTaskNotifications(120L, Set.of(CHAIN_TASK_ID));
+        verify(replicateRecoveryService).replayMissedTaskNotifications(140L, Set.of(CHAIN_TASK_ID));
+    }
+
+    @Test
+    public void shouldForgetReplicate() {
+        replicateProgressMonitor.onWaitingForCore(CHAIN_TASK_ID);
+
+        replicateProgressMonitor.forget(CHAIN_TASK_ID);
+
+        assertThat(replicateProgressMonitor.isMonitored(CHAIN_TASK_ID)).isFalse();
+        replicateProgressMonitor.replayStalledReplicates();
+        verifyNoInteractions(iexecHubService, replicateRecoveryService);
+    }
+
+    @Test
+    public void shouldReplayNotificationsOfWaitingReplicatesOnReconnection() {
+        replicateProgressMonitor.onWaitingForCore(CHAIN_TASK_ID);
+        when(iexecHubService.getLatestBlockNumber()).thenReturn(100L);
+
+        replicateProgressMonitor.replayWaitingReplicates(new SessionCreatedEvent(true));
+
+        verify(replicateRecoveryService).replayMissedTaskNotifications(100L, Set.of(CHAIN_TASK_ID));
+    }
+
+    @Test
+    public void shouldNotReplayNotificationsOnReconnectionSinceNoReplicateWaiting() {
+        replicateProgressMonitor.onWaitingForCore(CHAIN_TASK_ID);
+        // replicate running a stage
+        replicateProgressMonitor.forget(CHAIN_TASK_ID);
+
+        replicateProgressMonitor.replayWaitingReplicates(new SessionCreatedEvent(true));
+
+        verifyNoInteractions(replicateRecoveryService);
+    }
+
+    @Test
+    public void shouldNotReplayNotificationsOnFirstSession() {
+        replicateProgressMonitor.onWaitingForCore(CHAIN_TASK_ID);
+
+        replicateProgressMonitor.replayWaitingReplicates(new SessionCreatedEvent(false));
+
+        verifyNoInteractions(replicateRecoveryService);
+    }
+}
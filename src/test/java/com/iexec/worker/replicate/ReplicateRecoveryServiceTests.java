@@ -18,18 +18,23 @@ package com.iexec.worker.replicate;
 
 import com.iexec.common.chain.WorkerpoolAuthorization;
 import com.iexec.common.notification.TaskNotification;
+import com.iexec.common.task.TaskDescription;
 import com.iexec.worker.chain.ContributionService;
 import com.iexec.worker.chain.IexecHubService;
 import com.iexec.worker.feign.CustomCoreFeignClient;
 import com.iexec.worker.pubsub.SubscriptionService;
+import com.iexec.worker.result.ResultService;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.*;
 import org.springframework.context.ApplicationEventPublisher;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
+import static com.iexec.common.notification.TaskNotificationType.PLEASE_CONTRIBUTE;
 import static com.iexec.common.notification.TaskNotificationType.PLEASE_START;
 import static org.mockito.Mockito.*;
 
@@ -43,6 +48,8 @@ public class ReplicateRecoveryServiceTests {
     ArgumentCaptor<TaskNotification> taskNotificationCaptor;
     @InjectMocks
     private ReplicateDemandService replicateDemandService;
+    @InjectMocks
+    private ReplicateRecoveryService replicateRecoveryService;
     @Mock
     private IexecHubService iexecHubService;
     @Mock
@@ -53,6 +60,8 @@ public class ReplicateRecoveryServiceTests {
     private SubscriptionService subscriptionService;
     @Mock
     private ApplicationEventPublisher applicationEventPublisher;
+    @Mock
+    private ResultService resultService;
 
     @Before
     public void init() {
@@ -132,6 +141,51 @@ public class ReplicateRecoveryServiceTests {
         verify(applicationEventPublisher, never()).publishEvent(any());
     }
 
+    // replay missed task notifications
+
+    @Test
+    public void shouldReplayMissedNotificationsOfGivenTasksOnly() {
+        String otherChainTaskId = "0xother";
+        TaskNotification stalledTaskNotification = TaskNotification.builder()
+                .chainTaskId(CHAIN_TASK_ID)
+                .taskNotificationType(PLEASE_CONTRIBUTE)
+                .build();
+        TaskNotification otherTaskNotification = TaskNotification.builder()
+                .chainTaskId(otherChainTaskId)
+                .taskNotificationType(PLEASE_CONTRIBUTE)
+                .build();
+        when(coreFeignClient.getMissedTaskNotifications(BLOCK_NUMBER))
+                .thenReturn(List.of(stalledTaskNotification, otherTaskNotification));
+        when(resultService.isResultAvailable(anyString())).thenReturn(true);
+        when(iexecHubService.getTaskDescriptionFromChain(anyString()))
+                .thenReturn(Optional.of(TaskDescription.builder().build()));
+
+        int replayed = replicateRecoveryService.replayMissedTaskNotifications(BLOCK_NUMBER,
+                Set.of(CHAIN_TASK_ID));
+
+        Assertions.assertThat(replayed).isOne();
+        verify(resultService).saveResultInfo(eq(CHAIN_TASK_ID), any(), any());
+        verify(applicationEventPublisher).publishEvent(stalledTaskNotification);
+        verify(applicationEventPublisher, never()).publishEvent(otherTaskNotification);
+    }
+
+    @Test
+    public void shouldNotReplayMissedNotificationSinceResultNotAvailable() {
+        when(coreFeignClient.getMissedTaskNotifications(BLOCK_NUMBER))
+                .thenReturn(List.of(TaskNotification.builder()
+                        .chainTaskId(CHAIN_TASK_ID)
+                        .taskNotificationType(PLEASE_CONTRIBUTE)
+                        .build()));
+        when(resultService.isResultAvailable(CHAIN_TASK_ID)).thenReturn(false);
+
+        int replayed = replicateRecoveryService.replayMissedTaskNotifications(BLOCK_NUMBER,
+                Set.of(CHAIN_TASK_ID));
+
+        Assertions.assertThat(replayed).isZero();
+        verify(resultService, never()).saveResultInfo(any(), any(), any());
+        verify(applicationEventPublisher, never()).publishEvent(any());
+    }
+
     private WorkerpoolAuthorization getStubAuth() {
         return WorkerpoolAuthorization.builder()
                 .chainTaskId(CHAIN_TASK_ID)
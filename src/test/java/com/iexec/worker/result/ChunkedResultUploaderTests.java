@@ -0,0 +1,319 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.result;
+
+import com.iexec.common.result.ResultModel;
+import com.iexec.worker.config.PublicConfigurationService;
+import com.iexec.worker.feign.ResultProxyLoginService;
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ChunkedResultUploaderTests {
+
+    private static final String CHAIN_TASK_ID = "0x1";
+    private static final String TOKEN = "Bearer token";
+    private static final String LOCATION = "/results/0x1";
+    private static final int CHUNK_SIZE_KB = 256;
+    private static final int ZIP_SIZE = 2 * 1024 * 1024 + 100;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private PublicConfigurationService publicConfigService;
+    @Mock
+    private TransferScheduler transferScheduler;
+    @Mock
+    private ResultProxyLoginService resultProxyLoginService;
+    @Mock
+    private ResultUploadConfiguration resultUploadConfig;
+
+    private SimpleMeterRegistry meterRegistry;
+    private HttpServer resultProxy;
+    private ChunkedResultUploader chunkedResultUploader;
+    private File zipFile;
+    private byte[] zipContent;
+    // result proxy stand-in state
+    private final ByteArrayOutputStream receivedZip = new ByteArrayOutputStream();
+    private final AtomicInteger createdUploads = new AtomicInteger();
+    private final AtomicInteger receivedChunks = new AtomicInteger();
+    private long receivedBytes;
+    private int createStatus;
+    private int failFromChunk;
+    private int failingChunks;
+    private boolean storeFailingChunks;
+    private String receivedAuthorization;
+    private boolean completed;
+
+    @Before
+    public void init() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        // minimal stand-in of a result proxy supporting chunked uploads
+        resultProxy = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        resultProxy.createContext(ChunkedResultUploader.UPLOADS_PATH, this::handle);
+        resultProxy.start();
+        when(publicConfigService.getResultRepositoryURL())
+                .thenReturn("http://127.0.0.1:" + resultProxy.getAddress().getPort());
+        when(resultUploadConfig.isChunkedUploadEnabled()).thenReturn(true);
+        when(resultUploadConfig.getChunkSizeKb()).thenReturn(CHUNK_SIZE_KB);
+        when(resultUploadConfig.getMaxChunkRetries()).thenReturn(3);
+        when(resultUploadConfig.getChunkRetryDelayMs()).thenReturn(1L);
+        createStatus = 200;
+        zipContent = new byte[ZIP_SIZE];
+        new Random(7).nextBytes(zipContent);
+        zipFile = temporaryFolder.newFile("iexec_out.zip");
+        Files.write(zipFile.toPath(), zipContent);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @After
+    public void stop() {
+        resultProxy.stop(0);
+    }
+
+    @Test
+    public void shouldUploadResultZipInChunks() {
+        assertThat(getUploader().upload(TOKEN, getResultModel(), zipFile)).contains(LOCATION);
+
+        assertThat(receivedZip.toByteArray()).isEqualTo(zipContent);
+        assertThat(receivedChunks.get()).isEqualTo(9);
+        assertThat(receivedAuthorization).isEqualTo(TOKEN);
+        assertThat(completed).isTrue();
+        assertThat(meterRegistry.get("iexec.result.upload.chunk.throughput").summary().count())
+                .isEqualTo(9);
+        assertThat(meterRegistry.get("iexec.result.upload.chunk.duration").timer().count())
+                .isEqualTo(9);
+        verify(transferScheduler, atLeastOnce())
+                .consumeBandwidth(eq(TransferType.RESULT_UPLOAD), anyLong());
+    }
+
+    @Test
+    public void shouldResumeFromAcknowledgedOffsetSinceChunkAnswerLost() {
+        // chunks are stored but their acknowledgement is lost
+        failFromChunk = 3;
+        failingChunks = 2;
+        storeFailingChunks = true;
+
+        assertThat(getUploader().upload(TOKEN, getResultModel(), zipFile)).contains(LOCATION);
+
+        assertThat(receivedZip.toByteArray()).isEqualTo(zipContent);
+        // stored chunks are not sent again
+        assertThat(receivedBytes).isEqualTo(ZIP_SIZE);
+        assertThat(meterRegistry.get("iexec.result.upload.chunk.retries").counter().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRetryRejectedChunk() {
+        failFromChunk = 2;
+        failingChunks = 3;
+
+        assertThat(getUploader().upload(TOKEN, getResultModel(), zipFile)).contains(LOCATION);
+
+        assertThat(receivedZip.toByteArray()).isEqualTo(zipContent);
+        assertThat(receivedBytes).isEqualTo(ZIP_SIZE + 3L * CHUNK_SIZE_KB * 1024);
+    }
+
+    @Test
+    public void shouldStageResultZipWithoutCompletingUpload() {
+        ChunkedResultUploader uploader = getUploader();
+
+        assertThat(uploader.stage(TOKEN, getResultModel(), zipFile)).isTrue();
+        assertThat(receivedZip.toByteArray()).isEqualTo(zipContent);
+        assertThat(completed).isFalse();
+
+        assertThat(uploader.upload(TOKEN, getResultModel(), zipFile)).contains(LOCATION);
+        assertThat(completed).isTrue();
+        // staged chunks are not sent again
+        assertThat(createdUploads.get()).isEqualTo(1);
+        assertThat(receivedBytes).isEqualTo(ZIP_SIZE);
+    }
+
+    @Test
+    public void shouldResumePreviousUploadOfTask() {
+        when(resultUploadConfig.getMaxChunkRetries()).thenReturn(0);
+        failFromChunk = 4;
+        failingChunks = 1;
+        ChunkedResultUploader uploader = getUploader();
+
+        assertThat(uploader.upload(TOKEN, getResultModel(), zipFile)).isEmpty();
+        assertThat(completed).isFalse();
+
+        assertThat(uploader.upload(TOKEN, getResultModel(), zipFile)).contains(LOCATION);
+        assertThat(receivedZip.toByteArray()).isEqualTo(zipContent);
+        assertThat(createdUploads.get()).isEqualTo(1);
+        assertThat(receivedBytes).isEqualTo(ZIP_SIZE + CHUNK_SIZE_KB * 1024L);
+    }
+
+    @Test
+    public void shouldStartOverSinceUploadDiscarded() {
+        when(resultUploadConfig.getMaxChunkRetries()).thenReturn(0);
+        failFromChunk = 4;
+        failingChunks = 1;
+        ChunkedResultUploader uploader = getUploader();
+        assertThat(uploader.upload(TOKEN, getResultModel(), zipFile)).isEmpty();
+
+        uploader.discardUpload(CHAIN_TASK_ID);
+
+        assertThat(uploader.upload(TOKEN, getResultModel(), zipFile)).contains(LOCATION);
+        assertThat(createdUploads.get()).isEqualTo(2);
+        assertThat(receivedZip.toByteArray()).isEqualTo(zipContent);
+    }
+
+    @Test
+    public void shouldDisableChunkedUploadSinceUnsupportedByResultProxy() {
+        createStatus = 404;
+        ChunkedResultUploader uploader = getUploader();
+
+        assertThat(uploader.upload(TOKEN, getResultModel(), zipFile)).isEmpty();
+        assertThat(uploader.isChunkedUploadSupported()).isFalse();
+        assertThat(receivedChunks.get()).isZero();
+    }
+
+    @Test
+    public void shouldRetryWithNewTokenSinceUnauthorized() {
+        String newToken = "Bearer newToken";
+        createStatus = 401;
+        when(resultProxyLoginService.getToken()).thenAnswer(invocation -> {
+            createStatus = 200;
+            return newToken;
+        });
+
+        assertThat(getUploader().upload(TOKEN, getResultModel(), zipFile)).contains(LOCATION);
+        verify(resultProxyLoginService).invalidateToken(TOKEN);
+        assertThat(receivedAuthorization).isEqualTo(newToken);
+    }
+
+    @Test
+    public void shouldNotUploadSinceZipNotFound() {
+        assertThat(getUploader().upload(TOKEN, getResultModel(),
+                new File(zipFile.getParentFile(), "missing.zip"))).isEmpty();
+        assertThat(createdUploads.get()).isZero();
+    }
+
+    private ChunkedResultUploader getUploader() {
+        chunkedResultUploader = new ChunkedResultUploader(publicConfigService, new OkHttpClient(),
+                transferScheduler, resultProxyLoginService, resultUploadConfig, meterRegistry);
+        return chunkedResultUploader;
+    }
+
+    private ResultModel getResultModel() {
+        return ResultModel.builder()
+                .chainTaskId(CHAIN_TASK_ID)
+                .image("image")
+                .cmd("cmd")
+                .deterministHash("0xhash")
+                .build();
+    }
+
+    private synchronized void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        receivedAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (path.equals(ChunkedResultUploader.UPLOADS_PATH) && "POST".equals(method)) {
+            exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+            if (createStatus != 200) {
+                respond(exchange, createStatus, "");
+                return;
+            }
+            receivedZip.reset();
+            respond(exchange, 200, "upload-" + createdUploads.incrementAndGet());
+            return;
+        }
+        String uploadPath = ChunkedResultUploader.UPLOADS_PATH + "/upload-" + createdUploads.get();
+        if (path.equals(uploadPath) && "HEAD".equals(method)) {
+            exchange.getResponseHeaders().add(ChunkedResultUploader.UPLOAD_OFFSET,
+                    String.valueOf(receivedZip.size()));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        if (path.equals(uploadPath) && "PATCH".equals(method)) {
+            long offset = Long.parseLong(exchange.getRequestHeaders()
+                    .getFirst(ChunkedResultUploader.UPLOAD_OFFSET));
+            byte[] chunk = exchange.getRequestBody().readAllBytes();
+            receivedBytes += chunk.length;
+            int chunkNumber = receivedChunks.incrementAndGet();
+            boolean failing = failFromChunk > 0 && chunkNumber >= failFromChunk && failingChunks > 0;
+            if (offset != receivedZip.size()) {
+                respond(exchange, 409, "");
+                return;
+            }
+            if (failing) {
+                failingChunks--;
+                if (storeFailingChunks) {
+                    receivedZip.write(chunk);
+                }
+                respond(exchange, 500, "");
+                return;
+            }
+            receivedZip.write(chunk);
+            exchange.getResponseHeaders().add(ChunkedResultUploader.UPLOAD_OFFSET,
+                    String.valueOf(receivedZip.size()));
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            return;
+        }
+        if (path.equals(uploadPath + "/complete") && "POST".equals(method)
+                && receivedZip.size() == ZIP_SIZE) {
+            completed = true;
+            respond(exchange, 200, LOCATION);
+            return;
+        }
+        respond(exchange, 404, "");
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] response = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, response.length > 0 ? response.length : -1);
+        if (response.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        }
+        exchange.close();
+    }
+}
@@ -29,7 +29,11 @@ import com.iexec.common.utils.FileHelper;
 import com.iexec.common.utils.IexecFileHelper;
 import com.iexec.worker.chain.IexecHubService;
 import com.iexec.worker.config.WorkerConfigurationService;
+import com.iexec.worker.disk.TaskFolderCollector;
 import com.iexec.worker.feign.CustomResultFeignClient;
+import com.iexec.worker.feign.ResultProxyLoginService;
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
 
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
@@ -41,11 +45,24 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static com.iexec.common.chain.DealParams.DROPBOX_RESULT_STORAGE_PROVIDER;
 import static com.iexec.common.chain.DealParams.IPFS_RESULT_STORAGE_PROVIDER;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ResultServiceTests {
@@ -66,6 +83,20 @@ public class ResultServiceTests {
     private CustomResultFeignClient customResultFeignClient;
     @Mock
     private WorkerConfigurationService workerConfigurationService;
+    @Mock
+    private TransferScheduler transferScheduler;
+    @Mock
+    private StreamingResultUploader streamingResultUploader;
+    @Mock
+    private ResultProxyLoginService resultProxyLoginService;
+    @Mock
+    private TaskFolderCollector taskFolderCollector;
+    @Mock
+    private ChunkedResultUploader chunkedResultUploader;
+    @Mock
+    private TransferScheduler.Slot slot;
+    @Mock
+    private ResultUploadConfiguration resultUploadConfig;
 
     @InjectMocks
     private ResultService resultService;
@@ -128,6 +159,134 @@ public class ResultServiceTests {
         assertThat(resultLink.equals(resultService.buildResultLink(storage, "/ipfs/" + ipfsHash))).isTrue();
     }
 
+    // stage result upload
+
+    @Test
+    public void shouldStageResultUploadWithoutCompletingIt() throws Exception {
+        mockResultToUpload();
+        when(chunkedResultUploader.isChunkedUploadSupported()).thenReturn(true);
+
+        resultService.stageResultUpload(CHAIN_TASK_ID);
+
+        verify(chunkedResultUploader, timeout(1000)).stage(eq("token"), any(), any());
+        verify(transferScheduler).acquire(TransferType.RESULT_UPLOAD, CHAIN_TASK_ID);
+        verify(chunkedResultUploader, never()).upload(any(), any(), any());
+        verify(streamingResultUploader, never()).upload(any(), any(), any());
+        verify(customResultFeignClient, never()).uploadResult(any(), any());
+    }
+
+    @Test
+    public void shouldNotStageResultUploadSinceChunkedUploadNotSupported() throws Exception {
+        mockResultToUpload();
+        when(chunkedResultUploader.isChunkedUploadSupported()).thenReturn(false);
+
+        resultService.stageResultUpload(CHAIN_TASK_ID);
+
+        verify(iexecHubService, after(200).never()).getTaskDescription(CHAIN_TASK_ID);
+        verify(chunkedResultUploader, never()).stage(any(), any(), any());
+    }
+
+    @Test
+    public void shouldNotStageResultUploadSinceTeeTask() {
+        when(chunkedResultUploader.isChunkedUploadSupported()).thenReturn(true);
+        when(iexecHubService.getTaskDescription(CHAIN_TASK_ID)).thenReturn(
+                TaskDescription.builder()
+                        .callback(BytesUtils.EMPTY_ADDRESS)
+                        .isTeeTask(true)
+                        .resultStorageProvider(IPFS_RESULT_STORAGE_PROVIDER)
+                        .build());
+
+        resultService.stageResultUpload(CHAIN_TASK_ID);
+
+        verify(iexecHubService, timeout(1000)).getTaskDescription(CHAIN_TASK_ID);
+        verify(chunkedResultUploader, after(200).never()).stage(any(), any(), any());
+    }
+
+    @Test
+    public void shouldCompleteStagedResultUpload() throws Exception {
+        mockResultToUpload();
+        when(chunkedResultUploader.isChunkedUploadSupported()).thenReturn(true);
+        when(chunkedResultUploader.stage(any(), any(), any())).thenReturn(true);
+        when(chunkedResultUploader.upload(any(), any(), any())).thenReturn(Optional.of("location"));
+        resultService.stageResultUpload(CHAIN_TASK_ID);
+        verify(chunkedResultUploader, timeout(1000)).stage(any(), any(), any());
+
+        assertThat(resultService.uploadResultAndGetLink(CHAIN_TASK_ID)).isNotEmpty();
+        // the upload resumes after the staged chunks and completes it
+        verify(chunkedResultUploader).upload(any(), any(), any());
+        verify(streamingResultUploader, never()).upload(any(), any(), any());
+        verify(chunkedResultUploader).discardUpload(CHAIN_TASK_ID);
+    }
+
+    @Test
+    public void shouldCancelStagingTakingTooLongAndUploadAnyway() throws Exception {
+        mockResultToUpload();
+        when(chunkedResultUploader.isChunkedUploadSupported()).thenReturn(true);
+        CountDownLatch stagingStarted = new CountDownLatch(1);
+        CountDownLatch stagingInterrupted = new CountDownLatch(1);
+        when(chunkedResultUploader.stage(any(), any(), any())).thenAnswer(invocation -> {
+            stagingStarted.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                stagingInterrupted.countDown();
+            }
+            return false;
+        });
+        when(chunkedResultUploader.upload(any(), any(), any())).thenReturn(Optional.of("location"));
+        resultService.stageResultUpload(CHAIN_TASK_ID);
+        assertThat(stagingStarted.await(1, TimeUnit.SECONDS)).isTrue();
+
+        // staging wait is 0 second with a mocked configuration
+        assertThat(resultService.uploadResultAndGetLink(CHAIN_TASK_ID)).isNotEmpty();
+        verify(chunkedResultUploader).upload(any(), any(), any());
+        assertThat(stagingInterrupted.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    // upload result
+
+    @Test
+    public void shouldFallBackToStreamingUploadSinceChunkedUploadFailed() throws Exception {
+        mockResultToUpload();
+        when(chunkedResultUploader.isChunkedUploadSupported()).thenReturn(true);
+        when(chunkedResultUploader.upload(any(), any(), any())).thenReturn(Optional.empty());
+        when(streamingResultUploader.isStreamingUploadSupported()).thenReturn(true);
+        when(streamingResultUploader.upload(any(), any(), any())).thenReturn(Optional.of("location"));
+
+        assertThat(resultService.uploadResultAndGetLink(CHAIN_TASK_ID)).isNotEmpty();
+        verify(streamingResultUploader).upload(any(), any(), any());
+        verify(customResultFeignClient, never()).uploadResult(any(), any());
+        verify(chunkedResultUploader).discardUpload(CHAIN_TASK_ID);
+    }
+
+    @Test
+    public void shouldFallBackToJsonUploadSinceStreamingUploadFailed() throws Exception {
+        mockResultToUpload();
+        when(streamingResultUploader.isStreamingUploadSupported()).thenReturn(true);
+        when(streamingResultUploader.upload(any(), any(), any())).thenReturn(Optional.empty());
+        when(customResultFeignClient.uploadResult(any(), any())).thenReturn("location");
+
+        assertThat(resultService.uploadResultAndGetLink(CHAIN_TASK_ID)).isNotEmpty();
+        verify(chunkedResultUploader, never()).upload(any(), any(), any());
+        verify(customResultFeignClient).uploadResult(any(), any());
+    }
+
+    private void mockResultToUpload() throws Exception {
+        TaskDescription taskDescription = TaskDescription.builder()
+                .callback(BytesUtils.EMPTY_ADDRESS)
+                .resultStorageProvider(IPFS_RESULT_STORAGE_PROVIDER)
+                .build();
+        when(iexecHubService.getTaskDescription(CHAIN_TASK_ID)).thenReturn(taskDescription);
+        when(workerConfigurationService.getTaskIexecOutDir(CHAIN_TASK_ID))
+                .thenReturn(tmp + "/iexec_out");
+        Files.createFile(Paths.get(tmp + "/iexec_out.zip"));
+        resultService.saveResultInfo(CHAIN_TASK_ID, taskDescription, null);
+        when(resultProxyLoginService.getToken()).thenReturn("token");
+        when(transferScheduler.acquire(TransferType.RESULT_UPLOAD, CHAIN_TASK_ID))
+                .thenReturn(slot);
+        when(customResultFeignClient.getIpfsHashForTask(CHAIN_TASK_ID)).thenReturn("QmcipfsHash");
+    }
+
     @Test
     public void shouldGetTeeWeb2ResultLinkSinceDropbox() {
         String storage = DROPBOX_RESULT_STORAGE_PROVIDER;
@@ -226,6 +385,94 @@ public class ResultServiceTests {
                 "0xb10e2d527612073b26eecdfd717e6a320cf44b4afac2b0732d9fcbe2b7fa0cf6");
     }
 
+    @Test
+    public void shouldGetCachedComputedFile() throws IOException {
+        String chainTaskId = "deterministic-output-file";
+        String output = copyTaskOutput(chainTaskId);
+        when(iexecHubService.getTaskDescription(chainTaskId)).thenReturn(
+                TaskDescription.builder().callback(BytesUtils.EMPTY_ADDRESS).build());
+        ComputedFile computedFile = resultService.getComputedFile(chainTaskId);
+        Files.delete(Paths.get(output + IexecFileHelper.SLASH_COMPUTED_JSON));
+
+        assertThat(resultService.getComputedFile(chainTaskId)).isSameAs(computedFile);
+        verify(iexecHubService, times(1)).getTaskDescription(chainTaskId);
+    }
+
+    @Test
+    public void shouldNotGetComputedFileFromCacheSinceResultRemoved() throws IOException {
+        String chainTaskId = "deterministic-output-file";
+        String output = copyTaskOutput(chainTaskId);
+        when(taskFolderCollector.trash(chainTaskId))
+                .thenAnswer(invocation -> FileHelper.deleteFolder(Paths.get(output).getParent().toString()));
+        when(iexecHubService.getTaskDescription(chainTaskId)).thenReturn(
+                TaskDescription.builder().callback(BytesUtils.EMPTY_ADDRESS).build());
+        assertThat(resultService.getComputedFile(chainTaskId)).isNotNull();
+
+        resultService.removeResult(chainTaskId);
+
+        verify(taskFolderCollector).trash(chainTaskId);
+        assertThat(resultService.getComputedFile(chainTaskId)).isNull();
+    }
+
+    // save result digest
+
+    @Test
+    public void shouldSaveResultDigestOfFile() throws IOException {
+        String chainTaskId = "deterministic-output-file";
+        String output = copyTaskOutput(chainTaskId);
+        when(iexecHubService.getTaskDescription(chainTaskId)).thenReturn(
+                TaskDescription.builder().callback(BytesUtils.EMPTY_ADDRESS).build());
+
+        boolean isSaved = resultService.saveResultDigest(chainTaskId);
+
+        assertThat(isSaved).isTrue();
+        assertThat(IexecFileHelper.readComputedFile(chainTaskId, output).getResultDigest())
+                .isEqualTo("0x09b727883db89fa3b3504f83e0c67d04a0d4fc35a9670cc4517c49d2a27ad171");
+        assertThat(resultService.getComputedFile(chainTaskId).getResultDigest())
+                .isEqualTo("0x09b727883db89fa3b3504f83e0c67d04a0d4fc35a9670cc4517c49d2a27ad171");
+    }
+
+    @Test
+    public void shouldSaveResultDigestOfFolder() throws IOException {
+        String chainTaskId = "deterministic-output-directory";
+        String output = copyTaskOutput(chainTaskId);
+        when(iexecHubService.getTaskDescription(chainTaskId)).thenReturn(
+                TaskDescription.builder().callback(BytesUtils.EMPTY_ADDRESS).build());
+
+        boolean isSaved = resultService.saveResultDigest(chainTaskId);
+
+        assertThat(isSaved).isTrue();
+        assertThat(IexecFileHelper.readComputedFile(chainTaskId, output).getResultDigest())
+                .isEqualTo("0xc6114778cc5c33db5fbbd4d0f9be116ed0232961045341714aba5a72d3ef7402");
+    }
+
+    @Test
+    public void shouldNotSaveResultDigestSinceNoComputedFile() {
+        when(workerConfigurationService.getTaskOutputDir(CHAIN_TASK_ID)).thenReturn(tmp);
+
+        assertThat(resultService.saveResultDigest(CHAIN_TASK_ID)).isFalse();
+    }
+
+    /**
+     * Copy the output folder of a test task so that computed.json
+     * can be updated without changing test resources.
+     */
+    private String copyTaskOutput(String chainTaskId) throws IOException {
+        Path source = Paths.get(IEXEC_WORKER_TMP_FOLDER, chainTaskId, "output");
+        Path target = Paths.get(tmp, chainTaskId, "output");
+        Files.createDirectories(target.getParent());
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, target.resolve(source.relativize(file).toString()));
+            }
+        }
+        when(workerConfigurationService.getTaskOutputDir(chainTaskId))
+                .thenReturn(target.toString());
+        when(workerConfigurationService.getTaskIexecOutDir(chainTaskId))
+                .thenReturn(target.resolve("iexec_out").toString());
+        return target.toString();
+    }
+
     @Test
     public void shouldWriteComputedFile() throws JsonProcessingException {
         ComputedFile computedFile = ComputedFile.builder()
@@ -249,6 +496,8 @@ public class ResultServiceTests {
         ComputedFile writtenComputeFile = new ObjectMapper()
                 .readValue(writtenComputeFileAsString, ComputedFile.class);
         Assertions.assertThat(writtenComputeFile).isEqualTo(computedFile);
+        // written through the computed file cache
+        Assertions.assertThat(resultService.getComputedFile(CHAIN_TASK_ID)).isEqualTo(computedFile);
     }
 
     @Test
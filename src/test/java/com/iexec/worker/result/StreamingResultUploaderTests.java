@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.result;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iexec.common.result.ResultModel;
+import com.iexec.worker.config.PublicConfigurationService;
+import com.iexec.worker.feign.ResultProxyLoginService;
+import com.iexec.worker.transfer.TransferScheduler;
+import com.iexec.worker.transfer.TransferType;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StreamingResultUploaderTests {
+
+    private static final String CHAIN_TASK_ID = "0x1";
+    private static final String TOKEN = "Bearer token";
+    private static final String LOCATION = "/results/0x1";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private PublicConfigurationService publicConfigService;
+    @Mock
+    private TransferScheduler transferScheduler;
+    @Mock
+    private ResultProxyLoginService resultProxyLoginService;
+    @Mock
+    private ResultUploadConfiguration resultUploadConfig;
+
+    private StreamingResultUploader streamingResultUploader;
+
+    private HttpServer resultProxy;
+    private int responseStatus;
+    private long responseDelayMs;
+    private String receivedContentType;
+    private String receivedAuthorization;
+    private byte[] receivedBody;
+    private File zipFile;
+    private byte[] zipContent;
+
+    @Before
+    public void init() throws IOException {
+        // minimal stand-in of the result proxy upload endpoint
+        resultProxy = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        resultProxy.createContext("/", exchange -> {
+            receivedContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            receivedAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            exchange.getRequestBody().transferTo(body);
+            receivedBody = body.toByteArray();
+            try {
+                Thread.sleep(responseDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] response = LOCATION.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(responseStatus, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        resultProxy.start();
+        MockitoAnnotations.openMocks(this);
+        when(publicConfigService.getResultRepositoryURL())
+                .thenReturn("http://127.0.0.1:" + resultProxy.getAddress().getPort());
+        responseStatus = 200;
+        zipContent = new byte[2 * 1024 * 1024];
+        new Random(7).nextBytes(zipContent);
+        zipFile = temporaryFolder.newFile("iexec_out.zip");
+        Files.write(zipFile.toPath(), zipContent);
+        when(resultUploadConfig.isStreamingUploadEnabled()).thenReturn(true);
+        streamingResultUploader = new StreamingResultUploader(publicConfigService,
+                new OkHttpClient(), transferScheduler, resultProxyLoginService, resultUploadConfig);
+    }
+
+    @After
+    public void stop() {
+        resultProxy.stop(0);
+    }
+
+    @Test
+    public void shouldStreamResultZipInJsonBody() throws IOException {
+        assertThat(streamingResultUploader.upload(TOKEN, getResultModel(), zipFile))
+                .contains(LOCATION);
+
+        assertThat(receivedContentType).startsWith("application/json");
+        assertThat(receivedAuthorization).isEqualTo(TOKEN);
+        JsonNode body = new ObjectMapper().readTree(receivedBody);
+        assertThat(body.get("chainTaskId").asText()).isEqualTo(CHAIN_TASK_ID);
+        assertThat(body.get("deterministHash").asText()).isEqualTo("0xhash");
+        assertThat(Base64.getDecoder().decode(body.get("zip").asText())).isEqualTo(zipContent);
+        verify(transferScheduler, atLeastOnce())
+                .consumeBandwidth(eq(TransferType.RESULT_UPLOAD), anyLong());
+    }
+
+    @Test
+    public void shouldStreamResultZipWhoseSizeIsNotAMultipleOfThree() throws IOException {
+        zipContent = new byte[100 * 1024 + 1];
+        new Random(7).nextBytes(zipContent);
+        Files.write(zipFile.toPath(), zipContent);
+
+        assertThat(streamingResultUploader.upload(TOKEN, getResultModel(), zipFile))
+                .contains(LOCATION);
+        JsonNode body = new ObjectMapper().readTree(receivedBody);
+        assertThat(Base64.getDecoder().decode(body.get("zip").asText())).isEqualTo(zipContent);
+    }
+
+    @Test
+    public void shouldWaitForResultProxyLongerThanSharedClientReadTimeout() {
+        responseDelayMs = 500;
+        when(resultUploadConfig.getReadTimeoutMs()).thenReturn(5000L);
+        OkHttpClient sharedClient = new OkHttpClient.Builder()
+                .readTimeout(Duration.ofMillis(100))
+                .build();
+        streamingResultUploader = new StreamingResultUploader(publicConfigService,
+                sharedClient, transferScheduler, resultProxyLoginService, resultUploadConfig);
+
+        assertThat(streamingResultUploader.upload(TOKEN, getResultModel(), zipFile))
+                .contains(LOCATION);
+    }
+
+    @Test
+    public void shouldNotSupportStreamingSinceDisabled() {
+        when(resultUploadConfig.isStreamingUploadEnabled()).thenReturn(false);
+        streamingResultUploader = new StreamingResultUploader(publicConfigService,
+                new OkHttpClient(), transferScheduler, resultProxyLoginService, resultUploadConfig);
+
+        assertThat(streamingResultUploader.isStreamingUploadSupported()).isFalse();
+    }
+
+    @Test
+    public void shouldRetryWithNewTokenSinceUnauthorized() {
+        String newToken = "Bearer newToken";
+        responseStatus = 401;
+        when(resultProxyLoginService.getToken()).thenAnswer(invocation -> {
+            responseStatus = 200;
+            return newToken;
+        });
+
+        assertThat(streamingResultUploader.upload(TOKEN, getResultModel(), zipFile))
+                .contains(LOCATION);
+        verify(resultProxyLoginService).invalidateToken(TOKEN);
+        assertThat(receivedAuthorization).isEqualTo(newToken);
+    }
+
+    @Test
+    public void shouldNotUploadSinceServerError() {
+        responseStatus = 500;
+
+        assertThat(streamingResultUploader.upload(TOKEN, getResultModel(), zipFile)).isEmpty();
+    }
+
+    @Test
+    public void shouldNotUploadSinceZipNotFound() {
+        assertThat(streamingResultUploader.upload(TOKEN, getResultModel(),
+                new File(zipFile.getParentFile(), "missing.zip"))).isEmpty();
+        assertThat(receivedBody).isNull();
+    }
+
+    private ResultModel getResultModel() {
+        return ResultModel.builder()
+                .chainTaskId(CHAIN_TASK_ID)
+                .image("image")
+                .cmd("cmd")
+                .deterministHash("0xhash")
+                .build();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.iexec.worker.transfer;
+
+import com.iexec.common.chain.ChainTask;
+import com.iexec.worker.chain.IexecHubService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TransferSchedulerTests {
+
+    private static final String EARLY_TASK = "earlyTask";
+    private static final String LATE_TASK = "lateTask";
+
+    @Mock
+    private IexecHubService iexecHubService;
+    @Mock
+    private TransferConfiguration transferConfiguration;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        when(iexecHubService.getChainTask(EARLY_TASK)).thenReturn(Optional.of(
+                ChainTask.builder().contributionDeadline(1000).build()));
+        when(iexecHubService.getChainTask(LATE_TASK)).thenReturn(Optional.of(
+                ChainTask.builder().contributionDeadline(2000).build()));
+    }
+
+    @Test
+    public void shouldGrantSlotsByContributionDeadline() throws Exception {
+        when(transferConfiguration.getMaxActiveTransfers()).thenReturn(1);
+        TransferScheduler scheduler =
+                new TransferScheduler(iexecHubService, transferConfiguration, meterRegistry);
+        List<String> grantedTasks = new CopyOnWriteArrayList<>();
+
+        TransferScheduler.Slot firstSlot = scheduler.acquire(TransferType.APP_PULL, "firstTask");
+        Thread lateTransfer = startTransfer(scheduler, LATE_TASK, grantedTasks);
+        waitForQueuedTransfers(scheduler, 1);
+        Thread earlyTransfer = startTransfer(scheduler, EARLY_TASK, grantedTasks);
+        waitForQueuedTransfers(scheduler, 2);
+        firstSlot.close();
+        lateTransfer.join(5000);
+        earlyTransfer.join(5000);
+
+        assertThat(grantedTasks).containsExactly(EARLY_TASK, LATE_TASK);
+        assertThat(scheduler.getActiveTransfers()).isZero();
+    }
+
+    @Test
+    public void shouldReadContributionDeadlineOncePerTask() throws Exception {
+        when(transferConfiguration.getMaxActiveTransfers()).thenReturn(1);
+        TransferScheduler scheduler =
+                new TransferScheduler(iexecHubService, transferConfiguration, meterRegistry);
+        List<String> grantedTasks = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 2; i++) {
+            TransferScheduler.Slot slot = scheduler.acquire(TransferType.APP_PULL, "firstTask");
+            Thread waitingTransfer = startTransfer(scheduler, EARLY_TASK, grantedTasks);
+            waitForQueuedTransfers(scheduler, 1);
+            slot.close();
+            waitingTransfer.join(5000);
+        }
+
+        assertThat(grantedTasks).containsExactly(EARLY_TASK, EARLY_TASK);
+        verify(iexecHubService, times(1)).getChainTask(EARLY_TASK);
+    }
+
+    @Test
+    public void shouldReadContributionDeadlineAgainIfTaskNotFound() throws Exception {
+        when(transferConfiguration.getMaxActiveTransfers()).thenReturn(1);
+        when(iexecHubService.getChainTask("unknownTask")).thenReturn(Optional.empty());
+        TransferScheduler scheduler =
+                new TransferScheduler(iexecHubService, transferConfiguration, meterRegistry);
+        List<String> grantedTasks = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 2; i++) {
+            TransferScheduler.Slot slot = scheduler.acquire(TransferType.APP_PULL, "firstTask");
+            Thread waitingTransfer = startTransfer(scheduler, "unknownTask", grantedTasks);
+            waitForQueuedTransfers(scheduler, 1);
+            slot.close();
+            waitingTransfer.join(5000);
+        }
+
+        assertThat(grantedTasks).hasSize(2);
+        verify(iexecHubService, times(2)).getChainTask("unknownTask");
+    }
+
+    @Test
+    public void shouldOnlyTryAcquireFreeSlot() throws Exception {
+        when(transferConfiguration.getMaxActiveTransfers()).thenReturn(1);
+        TransferScheduler scheduler =
+                new TransferScheduler(iexecHubService, transferConfiguration, meterRegistry);
+
+        Optional<TransferScheduler.Slot> slot = scheduler.tryAcquire(TransferType.DATA_DOWNLOAD, EARLY_TASK);
+        Optional<TransferScheduler.Slot> noSlot = scheduler.tryAcquire(TransferType.DATA_DOWNLOAD, LATE_TASK);
+
+        assertThat(slot).isPresent();
+        assertThat(noSlot).isEmpty();
+        slot.get().close();
+        assertThat(scheduler.getActiveTransfers()).isZero();
+    }
+
+    @Test
+    public void shouldExposeQueuedAndActiveTransfersMetrics() throws Exception {
+        when(transferConfiguration.getMaxActiveTransfers()).thenReturn(1);
+        TransferScheduler scheduler =
+                new TransferScheduler(iexecHubService, transferConfiguration, meterRegistry);
+
+        TransferScheduler.Slot slot = scheduler.acquire(TransferType.DATA_DOWNLOAD, EARLY_TASK);
+        Thread waitingTransfer = startTransfer(scheduler, LATE_TASK, new CopyOnWriteArrayList<>());
+        waitForQueuedTransfers(scheduler, 1);
+
+        assertThat(meterRegistry.get("iexec.transfers.active").gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get("iexec.transfers.queued").gauge().value()).isEqualTo(1);
+        slot.close();
+        waitingTransfer.join(5000);
+        assertThat(meterRegistry.get("iexec.transfers.active").gauge().value()).isZero();
+        assertThat(meterRegistry.get("iexec.transfers.queued").gauge().value()).isZero();
+    }
+
+    @Test
+    public void shouldThrottleTransfersAboveBandwidthCap() throws InterruptedException {
+        when(transferConfiguration.getMaxActiveTransfers()).thenReturn(1);
+        // 8 Mbps = 1 MB/s
+        when(transferConfiguration.getMaxBandwidthMbps()).thenReturn(8);
+        TransferScheduler scheduler =
+                new TransferScheduler(iexecHubService, transferConfiguration, meterRegistry);
+
+        long start = System.nanoTime();
+        scheduler.consumeBandwidth(TransferType.RESULT_UPLOAD, 1_000_000);
+        scheduler.consumeBandwidth(TransferType.RESULT_UPLOAD, 500_000);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(elapsedMillis).isGreaterThanOrEqualTo(400);
+        assertThat(meterRegistry.get("iexec.transfers.bytes")
+                .tag("type", TransferType.RESULT_UPLOAD.name())
+                .counter().count()).isEqualTo(1_500_000);
+    }
+
+    @Test
+    public void shouldNotThrottleWithoutBandwidthCap() throws InterruptedException {
+        TransferScheduler scheduler =
+                new TransferScheduler(iexecHubService, transferConfiguration, meterRegistry);
+
+        long start = System.nanoTime();
+        scheduler.consumeBandwidth(TransferType.DATA_DOWNLOAD, 100_000_000);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(elapsedMillis).isLessThan(100);
+    }
+
+    private void waitForQueuedTransfers(TransferScheduler scheduler, int expected)
+            throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (scheduler.getQueuedTransfers() != expected
+                && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertThat(scheduler.getQueuedTransfers()).isEqualTo(expected);
+    }
+
+    private Thread startTransfer(TransferScheduler scheduler, String chainTaskId,
+                                 List<String> grantedTasks) {
+        Thread thread = new Thread(() -> {
+            try (TransferScheduler.Slot slot =
+                         scheduler.acquire(TransferType.DATA_DOWNLOAD, chainTaskId)) {
+                grantedTasks.add(chainTaskId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 IEXEC BLOCKCHAIN TECH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.iexec.worker.utils;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PeriodicJobSchedulerTests {
+
+    private static final String NAME = "test-job";
+
+    private SimpleMeterRegistry meterRegistry;
+    private PeriodicJobScheduler scheduler;
+
+    @Before
+    public void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        scheduler = new PeriodicJobScheduler(NAME, meterRegistry);
+    }
+
+    @After
+    public void stop() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void shouldRunJobPeriodicallyAndRecordLag() throws InterruptedException {
+        CountDownLatch runs = new CountDownLatch(3);
+
+        scheduler.scheduleAtFixedRate(runs::countDown, 20);
+
+        assertThat(runs.await(5, TimeUnit.SECONDS)).isTrue();
+        Timer lag = meterRegistry.get("iexec.scheduler.lag").tag("scheduler", NAME).timer();
+        assertThat(lag.count()).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    public void shouldKeepRunningJobAfterFailedRun() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch successfulRuns = new CountDownLatch(2);
+
+        scheduler.scheduleAtFixedRate(() -> {
+            if (attempts.getAndIncrement() == 0) {
+                throw new IllegalStateException("failed run");
+            }
+            successfulRuns.countDown();
+        }, 20);
+
+        assertThat(successfulRuns.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void shouldRecordLagOfRunsDelayedByOverrun() throws InterruptedException {
+        CountDownLatch runs = new CountDownLatch(3);
+
+        scheduler.scheduleAtFixedRate(() -> {
+            runs.countDown();
+            try {
+                // overrun the 20 ms period
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 20);
+
+        assertThat(runs.await(5, TimeUnit.SECONDS)).isTrue();
+        Timer lag = meterRegistry.get("iexec.scheduler.lag").tag("scheduler", NAME).timer();
+        assertThat(lag.max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(80);
+    }
+}